@@ -0,0 +1,31 @@
+package proforma2moodle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import proforma2moodle.logic.Base64Encoder;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.Writer;
+
+/**
+ * Misst die Base64-Kodierung der Aufgaben-ZIP-Datei als String (Base64Encoder.encodeFileToBase64)
+ * und blockweise in einen XMLStreamWriter.
+ */
+public class Base64Benchmark extends FixtureBenchmark {
+    private final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    @Benchmark
+    public String encodeToString() {
+        return Base64Encoder.encodeFileToBase64(taskZip.toFile());
+    }
+
+    @Benchmark
+    public long encodeStreaming() throws Exception {
+        XMLStreamWriter xml = outputFactory.createXMLStreamWriter(Writer.nullWriter());
+        xml.writeStartElement("taskfile");
+        long bytes = Base64Encoder.encodeFileToBase64(taskZip.toFile(), xml);
+        xml.writeEndElement();
+        xml.close();
+        return bytes;
+    }
+}
@@ -0,0 +1,24 @@
+package proforma2moodle.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Startet JMH und schaltet den GC-Profiler ein, damit zu jedem Benchmark die Allokationsrate
+ * (gc.alloc.rate.norm in Bytes je Aufruf) ausgegeben wird. Alle Optionen werden an JMH weitergereicht.
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-prof")) {
+            options.add("-prof");
+            options.add("gc");
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
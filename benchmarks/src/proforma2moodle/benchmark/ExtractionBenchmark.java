@@ -0,0 +1,33 @@
+package proforma2moodle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.TaskXMLData;
+import proforma2moodle.logic.XMLProcessor;
+
+/**
+ * Misst das Lesen einer task.xml und das Fuellen der TaskXMLData (XMLProcessor.extractTaskXMLData)
+ * ueber den StAX- und den DOM-Pfad.
+ */
+public class ExtractionBenchmark extends FixtureBenchmark {
+    private XMLProcessor processor;
+
+    @Override
+    protected void setUp() {
+        processor = new XMLProcessor(new ConversionContext());
+    }
+
+    @Benchmark
+    public TaskXMLData extractStreaming() throws Exception {
+        TaskXMLData data = newTask();
+        processor.extractTask(data);
+        return data;
+    }
+
+    @Benchmark
+    public TaskXMLData extractDOM() throws Exception {
+        TaskXMLData data = newTask();
+        processor.extractTaskWithDOM(data);
+        return data;
+    }
+}
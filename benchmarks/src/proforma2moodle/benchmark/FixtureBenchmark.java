@@ -0,0 +1,70 @@
+package proforma2moodle.benchmark;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import proforma2moodle.Entity.TaskXMLData;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gemeinsame Grundlage aller Benchmarks: erzeugt je Groesse eine Aufgaben-ZIP-Datei in einem
+ * temporaeren Verzeichnis und loescht sie nach dem Lauf wieder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public abstract class FixtureBenchmark {
+
+    /**
+     * Groesse der Aufgabe in Bytes, von 10 KB bis 200 MB.
+     */
+    @Param({"10240", "1048576", "20971520", "209715200"})
+    public long sizeBytes;
+
+    protected Path directory;
+    protected Path taskZip;
+
+    @Setup(Level.Trial)
+    public void createFixture() throws Exception {
+        directory = Files.createTempDirectory("proforma2moodle-bench");
+        taskZip = TaskFixtures.writeTaskZip(directory.resolve("task_" + sizeBytes + ".zip"), sizeBytes, 1);
+        setUp();
+    }
+
+    /**
+     * Weitere Vorbereitung der einzelnen Benchmarks nach dem Erzeugen der Aufgabe.
+     */
+    protected void setUp() throws Exception {
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFixture() throws IOException {
+        TaskFixtures.delete(directory);
+    }
+
+    /**
+     * @return Eine neue, noch nicht gelesene Aufgabe zur ZIP-Datei.
+     */
+    protected TaskXMLData newTask() {
+        TaskXMLData data = new TaskXMLData();
+        data.setZipFile(taskZip.toFile());
+        data.setTaskXMLEntry("task.xml");
+        return data;
+    }
+}
@@ -0,0 +1,37 @@
+package proforma2moodle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.w3c.dom.Document;
+import proforma2moodle.logic.GradingHintsCompiler;
+import proforma2moodle.logic.TaskDocumentIndex;
+import proforma2moodle.logic.XMLFactories;
+
+import java.io.InputStream;
+import java.util.zip.ZipFile;
+
+/**
+ * Misst die Berechnung des defaultgrade (XMLProcessor.extractTaskGrade) auf einer bereits geparsten task.xml.
+ * Die Groesse der grading-hints waechst mit der Groesse der Aufgabe (ein Test je 4 KB).
+ */
+public class GradingBenchmark extends FixtureBenchmark {
+    private Document document;
+    private TaskDocumentIndex index;
+
+    @Override
+    protected void setUp() throws Exception {
+        try (ZipFile zip = new ZipFile(taskZip.toFile()); InputStream in = zip.getInputStream(zip.getEntry("task.xml"))) {
+            document = XMLFactories.documentBuilder().parse(in);
+        }
+        index = TaskDocumentIndex.fromDocument(document);
+    }
+
+    @Benchmark
+    public double grade() {
+        return GradingHintsCompiler.compile(index).maxPoints();
+    }
+
+    @Benchmark
+    public TaskDocumentIndex buildIndex() {
+        return TaskDocumentIndex.fromDocument(document);
+    }
+}
@@ -0,0 +1,114 @@
+package proforma2moodle.benchmark;
+
+import proforma2moodle.server.ConversionServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Die LoadTest-Klasse sendet gleichzeitig viele Konvertierungsanfragen an einen ConversionServer auf localhost
+ * und gibt Durchsatz und Antwortzeiten aus. Ohne URL wird ein Server auf einem freien Port gestartet.
+ * Aufruf: java -cp target/benchmarks.jar proforma2moodle.benchmark.LoadTest &lt;zip&gt; [gleichzeitige Anfragen]
+ * [Anzahl Anfragen] [URL]
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: LoadTest <zip> [concurrency] [requests] [url]");
+            System.exit(2);
+        }
+        Path zip = Path.of(args[0]);
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        ConversionServer server = null;
+        String url;
+        if (args.length > 3) {
+            url = args[3];
+        } else {
+            server = new ConversionServer(0, Runtime.getRuntime().availableProcessors());
+            server.start();
+            url = "http://localhost:" + server.getPort() + "/convert";
+        }
+        try {
+            System.out.println(run(URI.create(url + "?category=LoadTest&name=" + zip.getFileName()), zip, concurrency, requests));
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    /**
+     * Sendet die Anfragen und misst die Antwortzeit jeder Anfrage bis zum letzten Byte der Antwort.
+     *
+     * @return Eine Zusammenfassung mit Durchsatz, Fehlern und Perzentilen der Antwortzeit.
+     */
+    static String run(URI uri, Path zip, int concurrency, int requests) throws Exception {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        long[] latencies = new long[requests];
+        AtomicInteger failures = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                final int index = i;
+                futures.add(pool.submit(() -> {
+                    long requestStart = System.nanoTime();
+                    try {
+                        HttpRequest request = HttpRequest.newBuilder(uri)
+                                .POST(HttpRequest.BodyPublishers.ofFile(zip))
+                                .header("Content-Type", "application/zip")
+                                .build();
+                        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                        long received;
+                        try (InputStream in = response.body()) {
+                            received = in.transferTo(OutputStream.nullOutputStream());
+                        }
+                        bytes.addAndGet(received);
+                        if (response.statusCode() != 200) {
+                            failures.incrementAndGet();
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        failures.incrementAndGet();
+                    }
+                    latencies[index] = System.nanoTime() - requestStart;
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        long wall = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        return String.format(Locale.ROOT,
+                "%d requests, %d failed, concurrency %d: %.1f req/s, %.1f MB/s out, latency p50 %.1f ms, p99 %.1f ms, max %.1f ms",
+                requests, failures.get(), concurrency, requests / (wall / 1e9), bytes.get() / 1e6 / (wall / 1e9),
+                percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6, latencies[latencies.length - 1] / 1e6);
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
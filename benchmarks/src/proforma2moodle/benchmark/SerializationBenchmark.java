@@ -0,0 +1,38 @@
+package proforma2moodle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.TaskXMLData;
+import proforma2moodle.logic.MoodleXMLConverter;
+import proforma2moodle.logic.XMLProcessor;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Misst das Schreiben der Moodle-XML (MoodleXMLConverter.createMoodleXML) fuer eine bereits gelesene Aufgabe,
+ * einmal in eine Datei und einmal in einen verwerfenden Strom.
+ */
+public class SerializationBenchmark extends FixtureBenchmark {
+    private ConversionContext context;
+    private List<TaskXMLData> tasks;
+
+    @Override
+    protected void setUp() throws Exception {
+        context = new ConversionContext("Benchmark", directory.resolve("out").toString());
+        TaskXMLData data = newTask();
+        new XMLProcessor(context).extractTask(data);
+        tasks = List.of(data);
+    }
+
+    @Benchmark
+    public File createMoodleXML() throws Exception {
+        return new MoodleXMLConverter(tasks, context).createMoodleXML();
+    }
+
+    @Benchmark
+    public void writeMoodleXML() throws Exception {
+        new MoodleXMLConverter(tasks, context).writeMoodleXML(OutputStream.nullOutputStream());
+    }
+}
@@ -0,0 +1,191 @@
+package proforma2moodle.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Erzeugt ProFormA-Aufgaben beliebiger Groesse fuer die Benchmarks.
+ * Eine Aufgabe hat einen Test je 4 KB Zielgroesse (hoechstens 20000), grading-hints aus verschachtelten
+ * combine-Knoten mit gemeinsam genutzten Referenzen, ein Freitextfeld und eine eingebettete Textdatei,
+ * die die task.xml auf die Zielgroesse auffuellt. Die ZIP-Datei wird ohne Kompression geschrieben,
+ * damit ihre Groesse der Zielgroesse entspricht.
+ */
+public final class TaskFixtures {
+    private static final int BYTES_PER_TEST = 4096;
+    private static final int MAX_TESTS = 20000;
+    private static final int GROUP_SIZE = 10;
+
+    private TaskFixtures() {
+    }
+
+    /**
+     * @return Die Anzahl der Tests einer Aufgabe mit der angegebenen Groesse.
+     */
+    public static int testCount(long sizeBytes) {
+        return (int) Math.max(1, Math.min(MAX_TESTS, sizeBytes / BYTES_PER_TEST));
+    }
+
+    /**
+     * Schreibt eine task.xml mit ungefaehr der angegebenen Groesse.
+     *
+     * @param out Der Ausgabestrom; er wird nicht geschlossen.
+     * @param sizeBytes Die Zielgroesse in Bytes.
+     * @param seed Startwert fuer den Fuelltext.
+     */
+    public static void writeTaskXML(OutputStream out, long sizeBytes, long seed) throws IOException {
+        CountingWriter xml = new CountingWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024));
+        int tests = testCount(sizeBytes);
+        xml.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.write("<p:task xmlns:p=\"urn:proforma:v2.1\" xmlns:l=\"urn:proforma:lmsinputfields:v0.1\""
+                + " uuid=\"00000000-0000-0000-0000-" + String.format("%012d", seed) + "\" lang=\"de\">\n");
+        xml.write("  <p:title>Benchmark task " + seed + "</p:title>\n");
+        xml.write("  <p:description><![CDATA[<p>Generierte Aufgabe mit " + tests + " Tests &amp; Umlauten: äöü</p>]]></p:description>\n");
+        xml.write("  <p:internal-description>generated</p:internal-description>\n");
+        xml.write("  <p:proglang version=\"17\">java</p:proglang>\n");
+        xml.write("  <p:files>\n");
+        xml.write("    <p:file id=\"template\" used-by-grader=\"false\" visible=\"yes\">"
+                + "<p:embedded-txt-file filename=\"Template.java\">public class Template {}</p:embedded-txt-file></p:file>\n");
+        xml.write("    <p:file id=\"general-feedback\" used-by-grader=\"false\" visible=\"no\">"
+                + "<p:embedded-txt-file filename=\"feedback.html\">&lt;b&gt;Gut gemacht&lt;/b&gt;</p:embedded-txt-file></p:file>\n");
+        for (int i = 0; i < tests; i++) {
+            xml.write("    <p:file id=\"f" + i + "\" used-by-grader=\"true\" visible=\"no\">"
+                    + "<p:embedded-txt-file filename=\"Test" + i + ".java\">class Test" + i + " {}</p:embedded-txt-file></p:file>\n");
+        }
+        xml.write("    <p:file id=\"data\" used-by-grader=\"true\" visible=\"no\"><p:embedded-txt-file filename=\"data.txt\">");
+        long fillerEnd = sizeBytes - 400L * tests - 600;
+        Random random = new Random(seed);
+        char[] line = new char[79];
+        while (xml.count < fillerEnd) {
+            for (int i = 0; i < line.length; i++) {
+                line[i] = (char) ('a' + random.nextInt(26));
+            }
+            xml.write(line, 0, line.length);
+            xml.write("\n");
+        }
+        xml.write("</p:embedded-txt-file></p:file>\n");
+        xml.write("  </p:files>\n");
+        xml.write("  <p:tests>\n");
+        for (int i = 0; i < tests; i++) {
+            xml.write("    <p:test id=\"t" + i + "\"><p:title>Test " + i + "</p:title><p:test-type>unittest</p:test-type>"
+                    + "<p:test-configuration><p:filerefs><p:fileref refid=\"f" + i + "\"/></p:filerefs></p:test-configuration></p:test>\n");
+        }
+        xml.write("  </p:tests>\n");
+        xml.write("  <p:grading-hints>\n");
+        int groups = (tests + GROUP_SIZE - 1) / GROUP_SIZE;
+        xml.write("    <p:root function=\"sum\">\n");
+        for (int g = 0; g < groups; g++) {
+            xml.write("      <p:combine-ref ref=\"g" + g + "\" weight=\"1\"/>\n");
+        }
+        xml.write("    </p:root>\n");
+        String[] functions = {"sum", "max", "min"};
+        for (int g = 0; g < groups; g++) {
+            xml.write("    <p:combine id=\"g" + g + "\" function=\"" + functions[g % functions.length] + "\">\n");
+            for (int i = g * GROUP_SIZE; i < Math.min(tests, (g + 1) * GROUP_SIZE); i++) {
+                xml.write("      <p:test-ref ref=\"t" + i + "\" weight=\"" + (1 + i % 3) + "\"/>\n");
+            }
+            if (g + 1 < groups) {
+                // gemeinsam genutzter Teilbaum: jede Gruppe verweist auch auf die naechste
+                xml.write("      <p:combine-ref ref=\"g" + (g + 1) + "\" weight=\"0.5\"/>\n");
+            }
+            xml.write("    </p:combine>\n");
+        }
+        xml.write("  </p:grading-hints>\n");
+        xml.write("  <p:meta-data><l:lms-input-fields>"
+                + "<l:textfield file-ref=\"template\" fixedfilename=\"true\" proglang=\"java\"/>"
+                + "<l:fileinput fixedfilename=\"false\" proglang=\"java\"/>"
+                + "</l:lms-input-fields></p:meta-data>\n");
+        xml.write("</p:task>\n");
+        xml.flush();
+    }
+
+    /**
+     * Schreibt eine Aufgaben-ZIP-Datei mit ungefaehr der angegebenen Groesse.
+     *
+     * @param file Die Zieldatei.
+     * @param sizeBytes Die Zielgroesse in Bytes.
+     * @param seed Startwert fuer den Fuelltext.
+     * @return Die Zieldatei.
+     */
+    public static Path writeTaskZip(Path file, long sizeBytes, long seed) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file))) {
+            zip.setLevel(Deflater.NO_COMPRESSION);
+            zip.putNextEntry(new ZipEntry("task.xml"));
+            writeTaskXML(zip, sizeBytes, seed);
+            zip.closeEntry();
+        }
+        return file;
+    }
+
+    /**
+     * Schreibt eine ZIP-Datei, die die angegebenen Aufgaben-ZIP-Dateien enthaelt.
+     */
+    public static Path writeNestedZip(Path file, Path... taskZips) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file))) {
+            zip.setLevel(Deflater.NO_COMPRESSION);
+            for (Path taskZip : taskZips) {
+                zip.putNextEntry(new ZipEntry(taskZip.getFileName().toString()));
+                Files.copy(taskZip, zip);
+                zip.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Loescht ein Verzeichnis mit allen Fixtures.
+     */
+    public static void delete(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Zaehlt die geschriebenen Zeichen; der Fuelltext besteht nur aus ASCII, daher entspricht das den Bytes.
+     */
+    private static final class CountingWriter extends Writer {
+        private final Writer out;
+        private long count;
+
+        CountingWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            out.write(cbuf, off, len);
+            count += len;
+        }
+
+        @Override
+        public void write(String str) throws IOException {
+            out.write(str);
+            count += str.length();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package proforma2moodle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.TaskXMLData;
+import proforma2moodle.logic.MoodleXMLConverter;
+import proforma2moodle.logic.XMLProcessor;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Misst den Aufwand fuer das Einrichten der XML-Verarbeitung je Aufruf. serverRequest entspricht einer Anfrage
+ * an den ConversionServer (neuer XMLProcessor, eine Aufgabe lesen und ihre Frage erzeugen), renderQuestion dem
+ * Erzeugen einer Frage im Stapelbetrieb. Aussagekraeftig vor allem mit kleinen Aufgaben: -p sizeBytes=10240.
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class XMLSetupBenchmark extends FixtureBenchmark {
+    private ConversionContext context;
+    private TaskXMLData extracted;
+
+    @Override
+    protected void setUp() throws Exception {
+        context = new ConversionContext("Benchmark", directory.resolve("out").toString());
+        extracted = newTask();
+        new XMLProcessor(context).extractTask(extracted);
+    }
+
+    @Benchmark
+    public MoodleXMLConverter.RenderedQuestion serverRequest() throws Exception {
+        TaskXMLData data = newTask();
+        new XMLProcessor(context).extractTask(data);
+        MoodleXMLConverter.RenderedQuestion question = new MoodleXMLConverter(List.of(), context).render(data);
+        question.discard();
+        return question;
+    }
+
+    @Benchmark
+    public MoodleXMLConverter.RenderedQuestion renderQuestion() throws Exception {
+        MoodleXMLConverter.RenderedQuestion question = new MoodleXMLConverter(List.of(), context).render(extracted);
+        question.discard();
+        return question;
+    }
+}
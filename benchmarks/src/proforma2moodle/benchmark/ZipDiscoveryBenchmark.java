@@ -0,0 +1,43 @@
+package proforma2moodle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.TearDown;
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.TaskXMLData;
+import proforma2moodle.logic.FileChooser;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Misst das Erfassen der Aufgaben einer ZIP-Datei (FileChooser.processZipFile), direkt und als
+ * verschachteltes Archiv, das bis zur Speichergrenze im Speicher und darueber in einer temporaeren Datei gelesen wird.
+ * Jeder Aufruf verwendet einen neuen FileChooser, da dieser die im Speicher gehaltenen Archive ueber alle
+ * Aufrufe gegen die Gesamtgrenze zaehlt.
+ */
+public class ZipDiscoveryBenchmark extends FixtureBenchmark {
+    private ConversionContext context;
+    private Path nestedZip;
+
+    @Override
+    protected void setUp() throws Exception {
+        context = new ConversionContext();
+        nestedZip = TaskFixtures.writeNestedZip(directory.resolve("nested_" + sizeBytes + ".zip"), taskZip);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteTemporaryFiles() {
+        context.deleteTemporaryFiles();
+    }
+
+    @Benchmark
+    public List<TaskXMLData> processZipFile() throws Exception {
+        return new FileChooser(context).collectTasks(taskZip.toFile());
+    }
+
+    @Benchmark
+    public List<TaskXMLData> processNestedZipFile() throws Exception {
+        return new FileChooser(context).collectTasks(nestedZip.toFile());
+    }
+}
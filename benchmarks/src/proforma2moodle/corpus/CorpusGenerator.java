@@ -0,0 +1,373 @@
+package proforma2moodle.corpus;
+
+import proforma2moodle.logic.Base64Encoder;
+import proforma2moodle.logic.XMLFactories;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Die CorpusGenerator-Klasse erzeugt synthetische ProFormA-2.1-Aufgaben in den Formen, die FileChooser und
+ * XMLProcessor verarbeiten: Aufgaben-ZIP-Dateien, beliebig tief verschachtelte ZIP-Dateien mit Aufgaben-ZIP-Dateien
+ * und lose task.xml-Dateien, verteilt auf Unterverzeichnisse. Jede Aufgabe hat Freitextfelder mit Vorlagen,
+ * Tests mit grading-hints und eine eingebettete Binaerdatei (embedded-bin-file) mit Zufallsinhalt.
+ * Alle Archive werden direkt in die Zieldateien geschrieben, auch verschachtelte Archive liegen nie im Speicher.
+ * Aufruf im Modul benchmarks: java -cp target/benchmarks.jar proforma2moodle.corpus.CorpusGenerator
+ * &lt;Zielverzeichnis&gt; [Aufgaben] [Schachtelungstiefe] [Archive je Ebene] [Freitextfelder] [KB je Binaerdatei] [Startwert]
+ */
+public class CorpusGenerator {
+    private static final String PROFORMA_NAMESPACE = "urn:proforma:v2.1";
+    private static final String LMS_NAMESPACE = "urn:proforma:lmsinputfields:v0.1";
+    private static final String[] PROGLANGS = {"java", "SQL", "plaintext", "python"};
+    private static final String[] FUNCTIONS = {"sum", "max", "min"};
+
+    private int taskCount = 1000;
+    private int nestingDepth = 2;
+    private int fanOut = 10;
+    private int textfieldCount = 5;
+    private int testCount = 5;
+    private int binaryFileSize = 256 * 1024;
+    private int looseTaskPercent = 10;
+    private int filesPerDirectory = 50;
+    private long seed = 1;
+
+    private long bytesWritten;
+    private int archiveCount;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: CorpusGenerator <outputDir> [tasks] [depth] [fanOut] [textfields] [binaryKB] [seed]");
+            System.exit(2);
+        }
+        CorpusGenerator generator = new CorpusGenerator();
+        if (args.length > 1) generator.setTaskCount(Integer.parseInt(args[1]));
+        if (args.length > 2) generator.setNestingDepth(Integer.parseInt(args[2]));
+        if (args.length > 3) generator.setFanOut(Integer.parseInt(args[3]));
+        if (args.length > 4) generator.setTextfieldCount(Integer.parseInt(args[4]));
+        if (args.length > 5) generator.setBinaryFileSize(Integer.parseInt(args[5]) * 1024);
+        if (args.length > 6) generator.setSeed(Long.parseLong(args[6]));
+        long start = System.nanoTime();
+        generator.generate(Path.of(args[0]));
+        System.out.println(String.format(Locale.ROOT, "%d tasks in %d archive(s), %.1f MB written in %.1f s",
+                generator.taskCount, generator.archiveCount, generator.bytesWritten / 1e6, (System.nanoTime() - start) / 1e9));
+    }
+
+    public void setTaskCount(int taskCount) { this.taskCount = Math.max(0, taskCount); }
+
+    /**
+     * @param nestingDepth Anzahl der ZIP-Ebenen ueber den Aufgaben-ZIP-Dateien; 0 erzeugt nur Aufgaben-ZIP-Dateien.
+     */
+    public void setNestingDepth(int nestingDepth) { this.nestingDepth = Math.max(0, nestingDepth); }
+
+    /**
+     * @param fanOut Anzahl der Archive, die ein verschachteltes Archiv auf jeder Ebene enthaelt.
+     */
+    public void setFanOut(int fanOut) { this.fanOut = Math.max(1, fanOut); }
+
+    public void setTextfieldCount(int textfieldCount) { this.textfieldCount = Math.max(0, textfieldCount); }
+
+    public void setTestCount(int testCount) { this.testCount = Math.max(1, testCount); }
+
+    /**
+     * @param binaryFileSize Groesse der eingebetteten Binaerdatei jeder Aufgabe in Bytes, vor der Base64-Kodierung.
+     */
+    public void setBinaryFileSize(int binaryFileSize) { this.binaryFileSize = Math.max(0, binaryFileSize); }
+
+    /**
+     * @param looseTaskPercent Anteil der Aufgaben in Prozent, die als lose task.xml statt als ZIP-Datei geschrieben werden.
+     */
+    public void setLooseTaskPercent(int looseTaskPercent) { this.looseTaskPercent = Math.max(0, Math.min(100, looseTaskPercent)); }
+
+    public void setFilesPerDirectory(int filesPerDirectory) { this.filesPerDirectory = Math.max(1, filesPerDirectory); }
+
+    public void setSeed(long seed) { this.seed = seed; }
+
+    /**
+     * @return Die Anzahl der geschriebenen Bytes seit dem letzten Aufruf von generate.
+     */
+    public long getBytesWritten() { return bytesWritten; }
+
+    /**
+     * @return Die Anzahl der Archive auf oberster Ebene seit dem letzten Aufruf von generate.
+     */
+    public int getArchiveCount() { return archiveCount; }
+
+    /**
+     * Schreibt den Korpus in ein Verzeichnis. Bei gleichen Einstellungen und gleichem Startwert entsteht
+     * derselbe Inhalt.
+     *
+     * @param directory Das Zielverzeichnis; es wird angelegt, falls es nicht existiert.
+     * @throws IOException wenn eine Datei nicht geschrieben werden kann.
+     */
+    public void generate(Path directory) throws IOException {
+        bytesWritten = 0;
+        archiveCount = 0;
+        Files.createDirectories(directory);
+        int looseTasks = (int) ((long) taskCount * looseTaskPercent / 100);
+        int tasksPerArchive = (int) Math.min(Integer.MAX_VALUE, Math.round(Math.pow(fanOut, nestingDepth)));
+        int entry = 0;
+        int task = 0;
+        try {
+            while (task < taskCount - looseTasks) {
+                Path file = subdirectory(directory, entry++).resolve(
+                        nestingDepth == 0 ? taskName(task) + ".zip" : String.format(Locale.ROOT, "bundle_%06d.zip", archiveCount));
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024)) {
+                    task = writeArchive(out, nestingDepth, task, Math.min(taskCount - looseTasks, task + tasksPerArchive));
+                }
+                archiveCount++;
+                bytesWritten += Files.size(file);
+            }
+            while (task < taskCount) {
+                Path taskDirectory = subdirectory(directory, entry++).resolve(taskName(task));
+                Files.createDirectories(taskDirectory);
+                Path file = taskDirectory.resolve("task.xml");
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024)) {
+                    writeTaskXML(out, task++);
+                }
+                bytesWritten += Files.size(file);
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private Path subdirectory(Path directory, int entry) throws IOException {
+        Path subdirectory = directory.resolve(String.format(Locale.ROOT, "dir%04d", entry / filesPerDirectory));
+        Files.createDirectories(subdirectory);
+        return subdirectory;
+    }
+
+    private static String taskName(int task) {
+        return String.format(Locale.ROOT, "task_%06d", task);
+    }
+
+    /**
+     * Schreibt ein Archiv der angegebenen Ebene. Auf Ebene 0 enthaelt es eine Aufgabe, darueber bis zu
+     * fanOut Archive der naechsttieferen Ebene.
+     *
+     * @param out Der Ausgabestrom; er wird nicht geschlossen.
+     * @param level Die Ebene des Archivs.
+     * @param next Die Nummer der ersten Aufgabe.
+     * @param end Die Nummer hinter der letzten Aufgabe, die in dieses Archiv gehoeren darf.
+     * @return Die Nummer der naechsten noch nicht geschriebenen Aufgabe.
+     */
+    private int writeArchive(OutputStream out, int level, int next, int end) throws IOException, XMLStreamException {
+        ZipOutputStream zip = new ZipOutputStream(new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                // der umgebende Strom bleibt offen
+            }
+        });
+        // bereits komprimierte Archive nicht erneut komprimieren
+        zip.setLevel(level == 0 ? Deflater.DEFAULT_COMPRESSION : Deflater.NO_COMPRESSION);
+        if (level == 0) {
+            zip.putNextEntry(new ZipEntry("task.xml"));
+            writeTaskXML(zip, next++);
+            zip.closeEntry();
+        } else {
+            for (int i = 0; i < fanOut && next < end; i++) {
+                String name = level == 1 ? taskName(next) + ".zip" : String.format(Locale.ROOT, "level%d_%06d.zip", level - 1, next);
+                zip.putNextEntry(new ZipEntry(name));
+                next = writeArchive(zip, level - 1, next, end);
+                zip.closeEntry();
+            }
+        }
+        zip.finish();
+        return next;
+    }
+
+    /**
+     * Schreibt die task.xml einer Aufgabe. Praefixe, Programmiersprache und Bewertungsfunktionen wechseln
+     * von Aufgabe zu Aufgabe, die eingebettete Binaerdatei wird blockweise nach Base64 kodiert.
+     *
+     * @param out Der Ausgabestrom; er wird nicht geschlossen.
+     * @param task Die Nummer der Aufgabe.
+     */
+    void writeTaskXML(OutputStream out, int task) throws XMLStreamException, IOException {
+        Random random = new Random(seed * 1_000_003L + task);
+        String p = task % 2 == 0 ? "p" : "ns" + (task % 7);
+        String l = "lms";
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        XMLStreamWriter xml = XMLFactories.createWriter(writer);
+        xml.writeStartDocument("UTF-8", "1.0");
+        xml.writeStartElement(p, "task", PROFORMA_NAMESPACE);
+        xml.writeNamespace(p, PROFORMA_NAMESPACE);
+        xml.writeNamespace(l, LMS_NAMESPACE);
+        xml.writeAttribute("uuid", new UUID(seed, task).toString());
+        xml.writeAttribute("lang", "de");
+        element(xml, p, "title", "Synthetische Aufgabe " + task);
+        xml.writeStartElement(p, "description", PROFORMA_NAMESPACE);
+        xml.writeCData("<p>Aufgabe " + task + " mit " + testCount + " Tests &amp; " + textfieldCount + " Freitextfeldern: äöü</p>");
+        xml.writeEndElement();
+        element(xml, p, "internal-description", "generated with seed " + seed);
+        xml.writeStartElement(p, "proglang", PROFORMA_NAMESPACE);
+        xml.writeAttribute("version", "17");
+        xml.writeCharacters(PROGLANGS[task % PROGLANGS.length]);
+        xml.writeEndElement();
+
+        xml.writeStartElement(p, "files", PROFORMA_NAMESPACE);
+        for (int i = 0; i < textfieldCount; i++) {
+            embeddedTxtFile(xml, p, "template" + i, "yes", "Template" + i + ".java", "public class Template" + i + " {\n}\n");
+        }
+        for (int i = 0; i < testCount; i++) {
+            embeddedTxtFile(xml, p, "test" + i, "no", "Test" + i + ".java", "class Test" + i + " { /* " + random.nextLong() + " */ }\n");
+        }
+        embeddedTxtFile(xml, p, "general-feedback", "no", "feedback.html", "<b>Gut gemacht</b>");
+        if (binaryFileSize > 0) {
+            xml.writeStartElement(p, "file", PROFORMA_NAMESPACE);
+            xml.writeAttribute("id", "library");
+            xml.writeAttribute("used-by-grader", "true");
+            xml.writeAttribute("visible", "no");
+            xml.writeStartElement(p, "embedded-bin-file", PROFORMA_NAMESPACE);
+            xml.writeAttribute("filename", "library.jar");
+            Base64Encoder.encodeToBase64(new RandomInputStream(random, binaryFileSize), xml);
+            xml.writeEndElement();
+            xml.writeEndElement();
+        }
+        xml.writeEndElement();
+
+        xml.writeStartElement(p, "tests", PROFORMA_NAMESPACE);
+        for (int i = 0; i < testCount; i++) {
+            xml.writeStartElement(p, "test", PROFORMA_NAMESPACE);
+            xml.writeAttribute("id", "t" + i);
+            element(xml, p, "title", "Test " + i);
+            element(xml, p, "test-type", "unittest");
+            xml.writeStartElement(p, "test-configuration", PROFORMA_NAMESPACE);
+            xml.writeStartElement(p, "filerefs", PROFORMA_NAMESPACE);
+            xml.writeEmptyElement(p, "fileref", PROFORMA_NAMESPACE);
+            xml.writeAttribute("refid", "test" + i);
+            xml.writeEndElement();
+            xml.writeEndElement();
+            xml.writeEndElement();
+        }
+        xml.writeEndElement();
+
+        xml.writeStartElement(p, "grading-hints", PROFORMA_NAMESPACE);
+        xml.writeStartElement(p, "root", PROFORMA_NAMESPACE);
+        xml.writeAttribute("function", "sum");
+        for (int i = 0; i < testCount; i += 2) {
+            xml.writeEmptyElement(p, "test-ref", PROFORMA_NAMESPACE);
+            xml.writeAttribute("ref", "t" + i);
+            xml.writeAttribute("weight", String.valueOf(1 + random.nextInt(5)));
+        }
+        if (testCount > 1) {
+            xml.writeEmptyElement(p, "combine-ref", PROFORMA_NAMESPACE);
+            xml.writeAttribute("ref", "odd");
+            xml.writeAttribute("weight", "2");
+        }
+        xml.writeEndElement();
+        if (testCount > 1) {
+            xml.writeStartElement(p, "combine", PROFORMA_NAMESPACE);
+            xml.writeAttribute("id", "odd");
+            xml.writeAttribute("function", FUNCTIONS[task % FUNCTIONS.length]);
+            for (int i = 1; i < testCount; i += 2) {
+                xml.writeEmptyElement(p, "test-ref", PROFORMA_NAMESPACE);
+                xml.writeAttribute("ref", "t" + i);
+                xml.writeAttribute("weight", String.valueOf(1 + random.nextInt(3)));
+            }
+            xml.writeEndElement();
+        }
+        xml.writeEndElement();
+
+        xml.writeStartElement(p, "meta-data", PROFORMA_NAMESPACE);
+        xml.writeStartElement(l, "lms-input-fields", LMS_NAMESPACE);
+        for (int i = 0; i < textfieldCount; i++) {
+            xml.writeEmptyElement(l, "textfield", LMS_NAMESPACE);
+            xml.writeAttribute("file-ref", "template" + i);
+            xml.writeAttribute("fixedfilename", String.valueOf(i % 2 == 0));
+            xml.writeAttribute("proglang", PROGLANGS[task % PROGLANGS.length]);
+        }
+        if (task % 3 == 0) {
+            xml.writeEmptyElement(l, "fileinput", LMS_NAMESPACE);
+            xml.writeAttribute("fixedfilename", "false");
+            xml.writeAttribute("proglang", PROGLANGS[task % PROGLANGS.length]);
+        }
+        xml.writeEndElement();
+        xml.writeEndElement();
+
+        xml.writeEndElement();
+        xml.writeEndDocument();
+        xml.close();
+        writer.flush();
+    }
+
+    private static void element(XMLStreamWriter xml, String prefix, String name, String text) throws XMLStreamException {
+        xml.writeStartElement(prefix, name, PROFORMA_NAMESPACE);
+        xml.writeCharacters(text);
+        xml.writeEndElement();
+    }
+
+    private static void embeddedTxtFile(XMLStreamWriter xml, String prefix, String id, String visible, String filename, String content)
+            throws XMLStreamException {
+        xml.writeStartElement(prefix, "file", PROFORMA_NAMESPACE);
+        xml.writeAttribute("id", id);
+        xml.writeAttribute("used-by-grader", "no".equals(visible) ? "true" : "false");
+        xml.writeAttribute("visible", visible);
+        xml.writeStartElement(prefix, "embedded-txt-file", PROFORMA_NAMESPACE);
+        xml.writeAttribute("filename", filename);
+        xml.writeCharacters(content);
+        xml.writeEndElement();
+        xml.writeEndElement();
+    }
+
+    /**
+     * Liefert eine feste Anzahl zufaelliger Bytes.
+     */
+    private static final class RandomInputStream extends InputStream {
+        private final Random random;
+        private long remaining;
+
+        RandomInputStream(Random random, long size) {
+            this.random = random;
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return random.nextInt(256);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = (int) Math.min(len, remaining);
+            if (off == 0 && n == b.length) {
+                random.nextBytes(b);
+            } else {
+                byte[] chunk = new byte[n];
+                random.nextBytes(chunk);
+                System.arraycopy(chunk, 0, b, off, n);
+            }
+            remaining -= n;
+            return n;
+        }
+    }
+}
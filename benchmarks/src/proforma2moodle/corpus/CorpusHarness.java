@@ -0,0 +1,236 @@
+package proforma2moodle.corpus;
+
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.TaskXMLData;
+import proforma2moodle.logic.FileChooser;
+import proforma2moodle.logic.MoodleXMLConverter;
+import proforma2moodle.logic.XMLProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Die CorpusHarness-Klasse fuehrt vollstaendige Konvertierungen (Erfassen, Extrahieren, Schreiben der Moodle-XML)
+ * ueber einem Korpus mehrfach hintereinander aus und gibt je Lauf Durchsatz, Speicherbedarf und Laufzeiten aus:
+ * Aufgaben/s, MB/s bezogen auf die Groesse der Eingabe, den hoechsten Arbeitsspeicher des Prozesses (VmHWM)
+ * sowie p50/p99 der Extraktionszeit je Aufgabe. Unter Linux wird der Hoechstwert vor jedem Lauf zurueckgesetzt,
+ * auf anderen Systemen wird stattdessen der hoechste belegte Heap gemeldet.
+ * Aufruf im Modul benchmarks: java -cp target/benchmarks.jar proforma2moodle.corpus.CorpusHarness &lt;Eingabe&gt; [Laeufe] [Parallelitaet] [Ausgabeverzeichnis]
+ */
+public class CorpusHarness {
+    private static final Path PROC_STATUS = Path.of("/proc/self/status");
+    private static final Path PROC_CLEAR_REFS = Path.of("/proc/self/clear_refs");
+
+    /**
+     * Das Ergebnis eines Laufs.
+     */
+    public static class RunResult {
+        private final int tasks;
+        private final long inputBytes;
+        private final long outputBytes;
+        private final long wallNanos;
+        private final long discoveryNanos;
+        private final long extractionNanos;
+        private final long[] taskNanos;
+        private final long peakMemory;
+        private final boolean peakRss;
+
+        RunResult(int tasks, long inputBytes, long outputBytes, long wallNanos, long discoveryNanos, long extractionNanos,
+                  long[] taskNanos, long peakMemory, boolean peakRss) {
+            this.tasks = tasks;
+            this.inputBytes = inputBytes;
+            this.outputBytes = outputBytes;
+            this.wallNanos = wallNanos;
+            this.discoveryNanos = discoveryNanos;
+            this.extractionNanos = extractionNanos;
+            this.taskNanos = taskNanos.clone();
+            Arrays.sort(this.taskNanos);
+            this.peakMemory = peakMemory;
+            this.peakRss = peakRss;
+        }
+
+        public int getTasks() { return tasks; }
+
+        public long getWallNanos() { return wallNanos; }
+
+        public double getTasksPerSecond() { return tasks / (wallNanos / 1e9); }
+
+        public double getMegabytesPerSecond() { return inputBytes / 1e6 / (wallNanos / 1e9); }
+
+        /**
+         * @return Der hoechste Arbeitsspeicher des Laufs in Bytes.
+         */
+        public long getPeakMemory() { return peakMemory; }
+
+        /**
+         * @return true, falls getPeakMemory den Arbeitsspeicher des Prozesses (VmHWM) und nicht den belegten Heap liefert.
+         */
+        public boolean isPeakRss() { return peakRss; }
+
+        /**
+         * @param percent Das Perzentil zwischen 0 und 100.
+         * @return Die Extraktionszeit einer Aufgabe in Nanosekunden am angegebenen Perzentil.
+         */
+        public long getTaskPercentile(int percent) {
+            if (taskNanos.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percent / 100.0 * taskNanos.length) - 1;
+            return taskNanos[Math.max(0, Math.min(taskNanos.length - 1, index))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d tasks, %.1f MB in, %.1f MB out in %.1f ms (discover %.1f ms, extract %.1f ms, write %.1f ms): "
+                            + "%.1f tasks/s, %.1f MB/s, peak %s %.1f MB, task p50 %.2f ms, p99 %.2f ms",
+                    tasks, inputBytes / 1e6, outputBytes / 1e6, wallNanos / 1e6, discoveryNanos / 1e6, extractionNanos / 1e6,
+                    (wallNanos - discoveryNanos - extractionNanos) / 1e6, getTasksPerSecond(), getMegabytesPerSecond(),
+                    peakRss ? "RSS" : "heap", peakMemory / 1e6,
+                    getTaskPercentile(50) / 1e6, getTaskPercentile(99) / 1e6);
+        }
+    }
+
+    private final int parallelism;
+
+    /**
+     * @param parallelism Anzahl der Threads fuer die Extraktion, 0 fuer die Voreinstellung des ConversionContext.
+     */
+    public CorpusHarness(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: CorpusHarness <input> [runs] [parallelism] [outputDir]");
+            System.exit(2);
+        }
+        File input = new File(args[0]);
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        CorpusHarness harness = new CorpusHarness(args.length > 2 ? Integer.parseInt(args[2]) : 0);
+        Path output = args.length > 3 ? Path.of(args[3]) : Files.createTempDirectory("proforma2moodle-harness");
+        try {
+            RunResult best = null;
+            for (int i = 1; i <= runs; i++) {
+                RunResult result = harness.run(input, output.toFile());
+                System.out.println("run " + i + ": " + result);
+                if (best == null || result.getWallNanos() < best.getWallNanos()) {
+                    best = result;
+                }
+            }
+            if (best != null) {
+                System.out.println("best: " + best);
+            }
+        } finally {
+            if (args.length <= 3) {
+                delete(output);
+            }
+        }
+    }
+
+    /**
+     * Fuehrt eine vollstaendige Konvertierung der Eingabe aus.
+     *
+     * @param input Die Eingabedatei oder das Eingabeverzeichnis.
+     * @param outputDirectory Das Verzeichnis fuer die Moodle-XML.
+     * @return Die Messwerte des Laufs.
+     * @throws Exception wenn die Konvertierung fehlschlaegt.
+     */
+    public RunResult run(File input, File outputDirectory) throws Exception {
+        ConversionContext context = new ConversionContext("Corpus", outputDirectory.getPath());
+        context.setInputPath(input.getPath());
+        if (parallelism > 0) {
+            context.setParallelism(parallelism);
+        }
+        long inputBytes = size(input.toPath());
+        System.gc();
+        boolean rssReset = resetPeakMemory();
+
+        try {
+            long start = System.nanoTime();
+            List<TaskXMLData> tasks = new FileChooser(context).collectTasks(input);
+            long discovered = System.nanoTime();
+            XMLProcessor.ExtractionStats stats = new XMLProcessor(context).extractAll(tasks);
+            long extracted = System.nanoTime();
+            File outputFile = new MoodleXMLConverter(tasks, context).createMoodleXML();
+            long end = System.nanoTime();
+            if (outputFile == null) {
+                throw new IOException("could not write " + context.getOutputFile());
+            }
+
+            long peakRss = rssReset ? readPeakRss() : -1;
+            return new RunResult(tasks.size(), inputBytes, outputFile.length(), end - start, discovered - start,
+                    extracted - discovered, stats.getTaskNanos(), peakRss >= 0 ? peakRss : peakHeap(), peakRss >= 0);
+        } finally {
+            context.deleteTemporaryFiles();
+        }
+    }
+
+    /**
+     * Setzt den Hoechstwert des Arbeitsspeichers (VmHWM) und die Hoechstwerte der Heap-Bereiche zurueck.
+     *
+     * @return true, falls VmHWM zurueckgesetzt werden konnte.
+     */
+    private static boolean resetPeakMemory() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        try {
+            Files.writeString(PROC_CLEAR_REFS, "5", StandardCharsets.US_ASCII);
+            return true;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return VmHWM aus /proc/self/status in Bytes, oder -1, falls nicht verfuegbar.
+     */
+    private static long readPeakRss() {
+        try {
+            for (String line : Files.readAllLines(PROC_STATUS, StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.substring(6).trim().split("\\s+")[0]) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // kein procfs
+        }
+        return -1;
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static long size(Path path) throws IOException {
+        try (Stream<Path> paths = Files.walk(path)) {
+            return paths.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    private static void delete(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Could not delete " + directory + ": " + e.getMessage());
+        }
+    }
+}
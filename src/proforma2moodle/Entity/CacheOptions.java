@@ -0,0 +1,46 @@
+package proforma2moodle.Entity;
+
+import java.io.File;
+
+/**
+ * Die CacheOptions-Klasse haelt die Einstellungen des Konvertierungs-Caches: sein Verzeichnis und seine Groesse.
+ * Ohne Verzeichnis ist der Cache abgeschaltet.
+ */
+public class CacheOptions {
+    private File directory;
+    private long maxSize = 2048L * 1024 * 1024;
+
+    public CacheOptions() {
+    }
+
+    /**
+     * @param other Die Einstellungen, die kopiert werden.
+     */
+    public CacheOptions(CacheOptions other) {
+        this.directory = other.directory;
+        this.maxSize = other.maxSize;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param directory Das Verzeichnis des Konvertierungs-Caches oder null, um den Cache abzuschalten.
+     */
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize Groesste Groesse des Konvertierungs-Caches in Bytes. Ist er groesser, werden
+     *                die am laengsten nicht verwendeten Eintraege geloescht.
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+}
@@ -0,0 +1,340 @@
+package proforma2moodle.Entity;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ *
+ * Die ConversionContext-Klasse haelt die Einstellungen eines einzelnen Konvertierungsauftrags:
+ * Kategorie, Ein- und Ausgabepfad sowie den Grad der Parallelitaet.
+ * Jeder Auftrag verwendet ein eigenes Objekt, sodass mehrere Konvertierungen gleichzeitig
+ * in derselben JVM laufen koennen, ohne sich gegenseitig zu beeinflussen.
+ * Die Einstellungen einzelner Funktionen (Pipeline, Duplikate, Cache, Aufteilung der Ausgabe) stehen in eigenen
+ * Objekten; ihre Voreinstellungen kommen aus den Systemeigenschaften, die SystemSettings einmal je JVM liest.
+ *
+ */
+public class ConversionContext {
+    /**
+     * Die Pruefung der task.xml gegen das ProFormA-Schema vor dem Extrahieren.
+     */
+    public enum ValidationMode {
+        /** Die task.xml wird nicht gegen das Schema geprueft. */
+        OFF("off"),
+        /** Jede Aufgabe wird geprueft; ungueltige Aufgaben werden mit allen Fehlern gemeldet und uebersprungen. */
+        REPORT("report"),
+        /** Die Konvertierung bricht bei der ersten ungueltigen Aufgabe ab. */
+        FAIL_FAST("fail");
+
+        private final String key;
+
+        ValidationMode(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @param key off, report oder fail.
+         * @return Die passende Einstellung.
+         * @throws IllegalArgumentException bei einem unbekannten Wert.
+         */
+        public static ValidationMode fromKey(String key) {
+            for (ValidationMode mode : values()) {
+                if (mode.key.equalsIgnoreCase(key.trim())) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown validation mode: " + key);
+        }
+    }
+
+    private String categoryPath="";
+    private String categoryName="";
+    private String outputPath="";
+    private String inputPath="";
+    private int parallelism;
+    private final PipelineOptions pipelineOptions;
+    private final DuplicateOptions duplicateOptions;
+    private ValidationMode validationMode;
+    private long maxInMemoryArchiveSize = 64L * 1024 * 1024;
+    private long maxInMemoryArchiveTotal = 256L * 1024 * 1024;
+    private boolean streamingExtraction = true;
+    private final CacheOptions cacheOptions;
+    private boolean metricsReport;
+    private final ShardOptions shardOptions;
+    private final ConversionMetrics metrics = new ConversionMetrics();
+    private volatile ConversionListener listener = ConversionListener.NONE;
+    private volatile boolean cancelled;
+    private final List<File> temporaryFiles = new ArrayList<>();
+
+    /**
+     * Erzeugt einen Kontext mit den Voreinstellungen aus den Systemeigenschaften.
+     *
+     * @throws IllegalArgumentException falls eine Systemeigenschaft einen ungueltigen Wert hat, siehe SystemSettings.
+     */
+    public ConversionContext(){
+        SystemSettings settings = SystemSettings.get();
+        parallelism = settings.getParallelism();
+        pipelineOptions = new PipelineOptions(settings.getPipelineOptions());
+        duplicateOptions = new DuplicateOptions(settings.getDuplicateOptions());
+        validationMode = settings.getValidationMode();
+        cacheOptions = new CacheOptions(settings.getCacheOptions());
+        metricsReport = settings.isMetricsReport();
+        shardOptions = new ShardOptions(settings.getShardOptions());
+    }
+
+    /**
+     * Erzeugt einen Kontext mit Kategorie und Ausgabepfad.
+     *
+     * @param categoryPath Der Pfad der Kategorie für alle Fragen.
+     * @param outputPath Der Pfad, in dem die Moodle-XML gespeichert werden soll.
+     */
+    public ConversionContext(String categoryPath, String outputPath){
+        this();
+        setCategoryPath(categoryPath);
+        setOutputPath(outputPath);
+    }
+
+    public String getCategoryPath() {
+        return categoryPath;
+    }
+
+    public String getCategoryName() { return categoryName; }
+
+    public void setCategoryPath(String categoryPath) {
+        this.categoryPath = categoryPath;
+        String[] s = categoryPath.split("/");
+        categoryName = s[s.length-1];
+    }
+
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    public void setOutputPath(String outputPath) {
+        this.outputPath = outputPath;
+        File outputfile = new File(outputPath);
+        if(!outputfile.exists()){
+            outputfile.mkdirs();
+        }
+    }
+
+    public String getInputPath() {
+        return inputPath;
+    }
+
+    public void setInputPath(String inputPath) {
+        this.inputPath = inputPath;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism Anzahl der Threads, die Aufgaben gleichzeitig parsen. 1 waehlt den sequentiellen Pfad.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return Die Einstellungen der Konvertierung in Stufen.
+     */
+    public PipelineOptions getPipelineOptions() {
+        return pipelineOptions;
+    }
+
+    /**
+     * @return Die Einstellungen fuer Aufgaben, die mehrfach in der Eingabe vorkommen.
+     */
+    public DuplicateOptions getDuplicateOptions() {
+        return duplicateOptions;
+    }
+
+    public ValidationMode getValidationMode() {
+        return validationMode;
+    }
+
+    /**
+     * @param validationMode Ob und wie die task.xml vor dem Extrahieren gegen das ProFormA-Schema geprueft wird.
+     */
+    public void setValidationMode(ValidationMode validationMode) {
+        this.validationMode = validationMode;
+    }
+
+    public long getMaxInMemoryArchiveSize() {
+        return maxInMemoryArchiveSize;
+    }
+
+    /**
+     * @param maxInMemoryArchiveSize Groesste Groesse in Bytes, bis zu der verschachtelte ZIP-Archive im Speicher
+     *                               gelesen werden. Groessere Archive werden in eine temporaere Datei entpackt.
+     */
+    public void setMaxInMemoryArchiveSize(long maxInMemoryArchiveSize) {
+        this.maxInMemoryArchiveSize = maxInMemoryArchiveSize;
+    }
+
+    public long getMaxInMemoryArchiveTotal() {
+        return maxInMemoryArchiveTotal;
+    }
+
+    /**
+     * @param maxInMemoryArchiveTotal Groesste Summe in Bytes aller verschachtelten ZIP-Archive, die ein Auftrag
+     *                                im Speicher haelt. Ist sie erreicht, werden weitere Archive unabhaengig von
+     *                                ihrer Groesse in eine temporaere Datei entpackt.
+     */
+    public void setMaxInMemoryArchiveTotal(long maxInMemoryArchiveTotal) {
+        this.maxInMemoryArchiveTotal = maxInMemoryArchiveTotal;
+    }
+
+    public boolean isStreamingExtraction() {
+        return streamingExtraction;
+    }
+
+    /**
+     * @param streamingExtraction true, um die task.xml mit dem StAX-Extraktor in einem Durchlauf zu lesen,
+     *                            false, um den DOM-Pfad zu verwenden. Schlaegt der StAX-Extraktor fehl,
+     *                            wird in jedem Fall auf den DOM-Pfad zurueckgegriffen.
+     */
+    public void setStreamingExtraction(boolean streamingExtraction) {
+        this.streamingExtraction = streamingExtraction;
+    }
+
+    /**
+     * @return Die Einstellungen des Konvertierungs-Caches.
+     */
+    public CacheOptions getCacheOptions() {
+        return cacheOptions;
+    }
+
+    /**
+     * @return Die Messwerte der Phasen dieses Auftrags.
+     */
+    public ConversionMetrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean isMetricsReport() {
+        return metricsReport;
+    }
+
+    /**
+     * @param metricsReport true, um nach dem Schreiben der Moodle-XML die Messwerte als
+     *                      MoodleXML_&lt;Kategorie&gt;.metrics.json daneben zu schreiben.
+     */
+    public void setMetricsReport(boolean metricsReport) {
+        this.metricsReport = metricsReport;
+    }
+
+    public ConversionListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @param listener Der Empfaenger der Fortschrittsmeldungen oder null fuer keinen.
+     */
+    public void setListener(ConversionListener listener) {
+        this.listener = listener != null ? listener : ConversionListener.NONE;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @param cancelled true, um die laufende Konvertierung abzubrechen; sie endet an der naechsten Aufgabe
+     *                  oder am naechsten Block einer Aufgabendatei mit einer CancellationException.
+     */
+    public void setCancelled(boolean cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * @throws CancellationException falls die Konvertierung abgebrochen wurde.
+     */
+    public void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Konvertierung abgebrochen");
+        }
+    }
+
+    /**
+     * Merkt eine temporaere Datei des Auftrags vor, z.B. ein entpacktes verschachteltes Archiv. Sie wird mit
+     * deleteTemporaryFiles geloescht, sobald der Auftrag fertig ist, und nicht erst beim Beenden der JVM.
+     *
+     * @param file Die temporaere Datei.
+     */
+    public synchronized void addTemporaryFile(File file) {
+        temporaryFiles.add(file);
+    }
+
+    /**
+     * Uebernimmt die bisher vorgemerkten temporaeren Dateien, z.B. um sie zusammen mit den Aufgaben einer
+     * einzelnen Eingabedatei aufzubewahren. Der Aufrufer ist danach fuer das Loeschen verantwortlich.
+     *
+     * @return Die vorgemerkten Dateien; die Vormerkung ist danach leer.
+     */
+    public synchronized List<File> takeTemporaryFiles() {
+        List<File> files = new ArrayList<>(temporaryFiles);
+        temporaryFiles.clear();
+        return files;
+    }
+
+    /**
+     * Loescht alle vorgemerkten temporaeren Dateien des Auftrags.
+     */
+    public void deleteTemporaryFiles() {
+        deleteFiles(takeTemporaryFiles());
+    }
+
+    /**
+     * Loescht die angegebenen Dateien; Dateien, die nicht geloescht werden koennen, werden beim Beenden der JVM
+     * geloescht.
+     *
+     * @param files Die zu loeschenden Dateien.
+     */
+    public static void deleteFiles(List<File> files) {
+        for (File file : files) {
+            if (!file.delete() && file.exists()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * @return Die Grenzen, nach denen die Moodle-XML auf mehrere Dateien verteilt wird.
+     */
+    public ShardOptions getShardOptions() {
+        return shardOptions;
+    }
+
+    /**
+     * Ermittelt den Namen einer Teildatei: MoodleXML_&lt;Kategorie&gt;_001.xml usw.
+     *
+     * @param index Die Nummer der Teildatei, beginnend bei 1.
+     * @return Die Teildatei im Ausgabeverzeichnis.
+     */
+    public File getShardFile(int index) {
+        String name = getOutputFile().getName();
+        return new File(outputPath + File.separator + name.substring(0, name.length() - 4) + String.format("_%03d.xml", index));
+    }
+
+    /**
+     * Ermittelt den Namen der Ausgabedatei: MoodleXML_&lt;Kategorie&gt;.xml oder MoodleXML.xml ohne Kategorie.
+     *
+     * @return Die Moodle-XML-Datei im Ausgabeverzeichnis.
+     */
+    public File getOutputFile() {
+        String outputname = ".xml";
+        if (!(categoryName.equals(" ")||categoryName.isEmpty())) {
+            outputname = "_"+categoryName+outputname;
+        }
+        outputname = "MoodleXML"+outputname;
+        return new File(outputPath + File.separator + outputname);
+    }
+}
@@ -0,0 +1,58 @@
+package proforma2moodle.Entity;
+
+/**
+ * Die ConversionListener-Schnittstelle meldet den Fortschritt einer Konvertierung, z.B. an einen Fortschrittsbalken.
+ * Alle Methoden melden Zuwaechse und koennen gleichzeitig aus mehreren Threads aufgerufen werden;
+ * sie sollten daher nur Zaehler erhoehen und schnell zurueckkehren.
+ */
+public interface ConversionListener {
+
+    /**
+     * Ein Listener, der nichts tut.
+     */
+    ConversionListener NONE = new ConversionListener() {
+    };
+
+    /**
+     * Eine Aufgabe wurde beim Durchsuchen der Eingabe gefunden.
+     */
+    default void taskDiscovered() {
+    }
+
+    /**
+     * Das Lesen der task.xml beginnt.
+     *
+     * @param tasks Die Anzahl der zu lesenden Aufgaben.
+     */
+    default void extractionStarted(int tasks) {
+    }
+
+    /**
+     * Eine Aufgabe wurde gelesen oder aus dem Cache geladen.
+     */
+    default void taskExtracted() {
+    }
+
+    /**
+     * Das Schreiben der Moodle-XML beginnt.
+     *
+     * @param questions Die Anzahl der Fragen.
+     * @param bytes Die Summe der Groessen aller Aufgabendateien, die Base64-kodiert werden.
+     */
+    default void writingStarted(int questions, long bytes) {
+    }
+
+    /**
+     * Ein weiterer Teil einer Aufgabendatei wurde Base64-kodiert oder aus dem Cache kopiert.
+     *
+     * @param bytes Die Anzahl der Bytes der Aufgabendatei.
+     */
+    default void bytesEncoded(long bytes) {
+    }
+
+    /**
+     * Eine Frage wurde geschrieben.
+     */
+    default void questionWritten() {
+    }
+}
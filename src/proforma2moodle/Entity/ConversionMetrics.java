@@ -0,0 +1,490 @@
+package proforma2moodle.Entity;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Die ConversionMetrics-Klasse sammelt Laufzeiten, Bytes und Anzahlen je Phase einer Konvertierung.
+ * Die Zeiten sind exklusiv: beginnt innerhalb einer Phase eine andere (z.B. das Schreiben in die Datei waehrend
+ * der Base64-Kodierung), wird die Zeit bis zu deren Ende nur der inneren Phase angerechnet. Jeder Thread fuehrt
+ * seine eigene aktuelle Phase, die Summen sind threadsicher.
+ * Zusaetzlich wird fuer jeden Abschnitt mit Quelle ein JFR-Ereignis proforma2moodle.Phase und fuer jede
+ * geschriebene Moodle-XML ein Ereignis proforma2moodle.Conversion erzeugt, sobald eine Flight-Recording-Aufzeichnung laeuft.
+ */
+public class ConversionMetrics {
+
+    /**
+     * Die Phasen einer Konvertierung.
+     */
+    public enum Phase {
+        /** Durchlaufen der Eingabeverzeichnisse. */
+        DISCOVER("discover"),
+        /** Lesen der ZIP-Archive und Entpacken verschachtelter Archive. */
+        UNZIP("unzip"),
+        /** Pruefen der task.xml gegen das ProFormA-Schema. */
+        VALIDATE("validate"),
+        /** Parsen der task.xml und Fuellen der TaskXMLData. */
+        PARSE("parse"),
+        /** Base64-Kodierung der Aufgabendateien. */
+        ENCODE("encode"),
+        /** Erzeugen der question-Elemente. */
+        SERIALIZE("serialize"),
+        /** Schreiben in die Ausgabe. */
+        WRITE("write");
+
+        private final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * Ein begonnener Abschnitt einer Phase; er wird mit stop beendet.
+     */
+    public final class Span {
+        private final Phase phase;
+        private final Phase previous;
+        private final PhaseEvent event;
+
+        private Span(Phase phase, Phase previous, PhaseEvent event) {
+            this.phase = phase;
+            this.previous = previous;
+            this.event = event;
+        }
+
+        /**
+         * Beendet den Abschnitt und setzt die vorher aktive Phase des Threads fort.
+         *
+         * @param bytes Die in diesem Abschnitt verarbeiteten Bytes.
+         */
+        public void stop(long bytes) {
+            PhaseClock clock = clocks.get();
+            long now = System.nanoTime();
+            nanos[phase.ordinal()].add(now - clock.since);
+            counts[phase.ordinal()].increment();
+            if (bytes > 0) {
+                ConversionMetrics.this.bytes[phase.ordinal()].add(bytes);
+            }
+            clock.current = previous;
+            clock.since = now;
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.bytes = bytes;
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    /**
+     * JFR-Ereignis fuer einen Abschnitt einer Phase, z.B. das Parsen einer Aufgabe.
+     */
+    @Name("proforma2moodle.Phase")
+    @Label("Conversion Phase")
+    @Category("ProFormA2Moodle")
+    @Description("Ein Abschnitt einer Konvertierungsphase fuer eine Aufgabe oder ein Archiv")
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Source")
+        String source;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    /**
+     * JFR-Ereignis fuer eine vollstaendige Konvertierung bis zur geschriebenen Moodle-XML.
+     */
+    @Name("proforma2moodle.Conversion")
+    @Label("Conversion")
+    @Category("ProFormA2Moodle")
+    static class ConversionEvent extends Event {
+        @Label("Output")
+        String output;
+
+        @Label("Files")
+        int files;
+
+        @Label("Tasks")
+        int tasks;
+
+        @Label("Output Size")
+        @DataAmount
+        long outputBytes;
+    }
+
+    /**
+     * Eine Aufgabe, die als Duplikat einer frueher gefundenen Aufgabe erkannt wurde.
+     */
+    public static final class Duplicate {
+        private final String source;
+        private final String original;
+        private final String key;
+        private final boolean emitted;
+
+        /**
+         * @param source Die Herkunft des Duplikats.
+         * @param original Die Herkunft der zuerst gefundenen Aufgabe.
+         * @param key Woran das Duplikat erkannt wurde: content oder uuid.
+         * @param emitted Ob das Duplikat trotzdem ausgegeben wurde.
+         */
+        public Duplicate(String source, String original, String key, boolean emitted) {
+            this.source = source;
+            this.original = original;
+            this.key = key;
+            this.emitted = emitted;
+        }
+
+        public String getSource() { return source; }
+
+        public String getOriginal() { return original; }
+
+        public String getKey() { return key; }
+
+        public boolean isEmitted() { return emitted; }
+
+        @Override
+        public String toString() {
+            return source + (emitted ? " duplicates " : " skipped as duplicate of ") + original + " (" + key + ")";
+        }
+    }
+
+    /**
+     * Eine Aufgabe, deren task.xml nicht dem ProFormA-Schema entspricht.
+     */
+    public static final class InvalidTask {
+        private final String source;
+        private final List<String> errors;
+
+        /**
+         * @param source Die Herkunft der Aufgabe.
+         * @param errors Die Fehler mit Zeile und Spalte in der task.xml.
+         */
+        public InvalidTask(String source, List<String> errors) {
+            this.source = source;
+            this.errors = errors;
+        }
+
+        public String getSource() { return source; }
+
+        public List<String> getErrors() { return errors; }
+
+        @Override
+        public String toString() {
+            return source + " is invalid: " + String.join("; ", errors);
+        }
+    }
+
+    /**
+     * Eine task.xml, die der StAX-Extraktor nicht lesen konnte und die daher als DOM gelesen wurde.
+     */
+    public static final class DomFallback {
+        private final String source;
+        private final String reason;
+
+        public DomFallback(String source, String reason) {
+            this.source = source;
+            this.reason = reason == null ? "" : reason;
+        }
+
+        public String getSource() { return source; }
+
+        public String getReason() { return reason; }
+
+        @Override
+        public String toString() {
+            return source + ": " + reason;
+        }
+    }
+
+    private static final class PhaseClock {
+        private Phase current;
+        private long since;
+    }
+
+    private final LongAdder[] nanos = adders();
+    private final LongAdder[] bytes = adders();
+    private final LongAdder[] counts = adders();
+    private final ThreadLocal<PhaseClock> clocks = ThreadLocal.withInitial(PhaseClock::new);
+    private final List<Duplicate> duplicates = new ArrayList<>();
+    private final List<InvalidTask> invalidTasks = new ArrayList<>();
+    private final List<DomFallback> domFallbacks = new ArrayList<>();
+    private volatile long startNanos = System.nanoTime();
+    private volatile ConversionEvent conversionEvent = beginConversion();
+    private volatile List<File> outputFiles = List.of();
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[Phase.values().length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static ConversionEvent beginConversion() {
+        ConversionEvent event = new ConversionEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Setzt alle Summen zurueck und beginnt eine neue Messung, z.B. vor jeder Konvertierung im Fenster.
+     */
+    public void reset() {
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i].reset();
+            bytes[i].reset();
+            counts[i].reset();
+        }
+        synchronized (duplicates) {
+            duplicates.clear();
+        }
+        synchronized (invalidTasks) {
+            invalidTasks.clear();
+        }
+        synchronized (domFallbacks) {
+            domFallbacks.clear();
+        }
+        startNanos = System.nanoTime();
+        conversionEvent = beginConversion();
+        outputFiles = List.of();
+    }
+
+    /**
+     * Beginnt einen Abschnitt einer Phase im aktuellen Thread. Die bis dahin aktive Phase wird unterbrochen.
+     *
+     * @param phase Die Phase.
+     * @param source Die Aufgabe oder Datei, die bearbeitet wird, fuer das JFR-Ereignis; null erzeugt kein Ereignis.
+     * @return Der Abschnitt, der mit stop beendet werden muss.
+     */
+    public Span start(Phase phase, String source) {
+        PhaseClock clock = clocks.get();
+        long now = System.nanoTime();
+        if (clock.current != null) {
+            nanos[clock.current.ordinal()].add(now - clock.since);
+        }
+        PhaseEvent event = null;
+        if (source != null) {
+            event = new PhaseEvent();
+            event.phase = phase.getKey();
+            event.source = source;
+            event.begin();
+        }
+        Span span = new Span(phase, clock.current, event);
+        clock.current = phase;
+        clock.since = now;
+        return span;
+    }
+
+    public long getNanos(Phase phase) { return nanos[phase.ordinal()].sum(); }
+
+    public long getBytes(Phase phase) { return bytes[phase.ordinal()].sum(); }
+
+    public long getCount(Phase phase) { return counts[phase.ordinal()].sum(); }
+
+    /**
+     * Vermerkt ein Duplikat fuer den Bericht.
+     *
+     * @param duplicate Das erkannte Duplikat.
+     */
+    public void addDuplicate(Duplicate duplicate) {
+        synchronized (duplicates) {
+            duplicates.add(duplicate);
+        }
+    }
+
+    /**
+     * @return Die seit dem letzten reset erkannten Duplikate in der Reihenfolge ihres Auftretens.
+     */
+    public List<Duplicate> getDuplicates() {
+        synchronized (duplicates) {
+            return new ArrayList<>(duplicates);
+        }
+    }
+
+    /**
+     * Vermerkt eine ungueltige Aufgabe fuer den Bericht.
+     *
+     * @param invalidTask Die ungueltige Aufgabe.
+     */
+    public void addInvalidTask(InvalidTask invalidTask) {
+        synchronized (invalidTasks) {
+            invalidTasks.add(invalidTask);
+        }
+    }
+
+    /**
+     * @return Die seit dem letzten reset gefundenen ungueltigen Aufgaben in der Reihenfolge ihrer Pruefung.
+     */
+    public List<InvalidTask> getInvalidTasks() {
+        synchronized (invalidTasks) {
+            return new ArrayList<>(invalidTasks);
+        }
+    }
+
+    /**
+     * Vermerkt eine task.xml, die statt mit StAX als DOM gelesen wurde.
+     *
+     * @param fallback Die Aufgabe und die Meldung des StAX-Extraktors.
+     */
+    public void addDomFallback(DomFallback fallback) {
+        synchronized (domFallbacks) {
+            domFallbacks.add(fallback);
+        }
+    }
+
+    /**
+     * @return Die seit dem letzten reset als DOM gelesenen Aufgaben.
+     */
+    public List<DomFallback> getDomFallbacks() {
+        synchronized (domFallbacks) {
+            return new ArrayList<>(domFallbacks);
+        }
+    }
+
+    /**
+     * Meldet eine geschriebene Moodle-XML als JFR-Ereignis proforma2moodle.Conversion.
+     *
+     * @param outputFiles Die geschriebenen Dateien, bei geteilter Ausgabe alle Teildateien.
+     * @param tasks Die Anzahl der Aufgaben.
+     */
+    public void commitConversion(List<File> outputFiles, int tasks) {
+        this.outputFiles = List.copyOf(outputFiles);
+        ConversionEvent event = conversionEvent;
+        event.end();
+        if (event.shouldCommit() && !outputFiles.isEmpty()) {
+            event.output = outputFiles.get(0).getPath();
+            event.files = outputFiles.size();
+            event.tasks = tasks;
+            for (File outputFile : outputFiles) {
+                event.outputBytes += outputFile.length();
+            }
+            event.commit();
+        }
+    }
+
+    /**
+     * @return Die zuletzt geschriebenen Dateien, bei geteilter Ausgabe alle Teildateien in der Reihenfolge der
+     *         Fragen; leer, solange seit dem letzten reset keine Moodle-XML geschrieben wurde.
+     */
+    public List<File> getOutputFiles() {
+        return outputFiles;
+    }
+
+    /**
+     * @return Die Datei des Berichts neben der Moodle-XML: MoodleXML_&lt;Kategorie&gt;.metrics.json.
+     */
+    public static File reportFile(File outputFile) {
+        String name = outputFile.getName();
+        if (name.endsWith(".xml")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        return new File(outputFile.getParentFile(), name + ".metrics.json");
+    }
+
+    /**
+     * Schreibt die Messwerte als JSON neben die Moodle-XML.
+     *
+     * @param outputFile Die Moodle-XML, nach der der Bericht benannt wird.
+     * @param outputFiles Die geschriebenen Dateien, bei geteilter Ausgabe alle Teildateien.
+     * @param tasks Die Anzahl der Aufgaben.
+     * @throws IOException wenn der Bericht nicht geschrieben werden kann.
+     */
+    public void writeReport(File outputFile, List<File> outputFiles, int tasks) throws IOException {
+        Files.writeString(reportFile(outputFile).toPath(), toJson(outputFiles, tasks), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return Die Messwerte als JSON-Objekt.
+     */
+    public String toJson(List<File> outputFiles, int tasks) {
+        StringBuilder json = new StringBuilder();
+        long outputBytes = 0;
+        json.append("{\n");
+        json.append("  \"outputs\": [");
+        for (int i = 0; i < outputFiles.size(); i++) {
+            json.append(i > 0 ? ", " : "").append('"').append(escape(outputFiles.get(i).getPath())).append('"');
+            outputBytes += outputFiles.get(i).length();
+        }
+        json.append("],\n");
+        json.append("  \"outputBytes\": ").append(outputBytes).append(",\n");
+        json.append("  \"tasks\": ").append(tasks).append(",\n");
+        json.append(String.format(Locale.ROOT, "  \"wallMillis\": %.3f,%n", (System.nanoTime() - startNanos) / 1e6));
+        json.append("  \"phases\": {\n");
+        Phase[] phases = Phase.values();
+        for (int i = 0; i < phases.length; i++) {
+            Phase phase = phases[i];
+            json.append(String.format(Locale.ROOT, "    \"%s\": {\"millis\": %.3f, \"bytes\": %d, \"count\": %d}%s%n",
+                    phase.getKey(), getNanos(phase) / 1e6, getBytes(phase), getCount(phase), i + 1 < phases.length ? "," : ""));
+        }
+        json.append("  },\n");
+        json.append("  \"duplicates\": [");
+        List<Duplicate> found = getDuplicates();
+        for (int i = 0; i < found.size(); i++) {
+            Duplicate duplicate = found.get(i);
+            json.append(i > 0 ? "," : "").append("\n    ");
+            json.append(String.format(Locale.ROOT, "{\"source\": \"%s\", \"duplicateOf\": \"%s\", \"key\": \"%s\", \"emitted\": %b}",
+                    escape(duplicate.getSource()), escape(duplicate.getOriginal()), duplicate.getKey(), duplicate.isEmitted()));
+        }
+        json.append(found.isEmpty() ? "],\n" : "\n  ],\n");
+        json.append("  \"invalid\": [");
+        List<InvalidTask> invalid = getInvalidTasks();
+        for (int i = 0; i < invalid.size(); i++) {
+            InvalidTask task = invalid.get(i);
+            json.append(i > 0 ? "," : "").append("\n    ");
+            json.append("{\"source\": \"").append(escape(task.getSource())).append("\", \"errors\": [");
+            for (int k = 0; k < task.getErrors().size(); k++) {
+                json.append(k > 0 ? ", " : "").append('"').append(escape(task.getErrors().get(k))).append('"');
+            }
+            json.append("]}");
+        }
+        json.append(invalid.isEmpty() ? "],\n" : "\n  ],\n");
+        json.append("  \"domFallbacks\": [");
+        List<DomFallback> fallbacks = getDomFallbacks();
+        for (int i = 0; i < fallbacks.size(); i++) {
+            DomFallback fallback = fallbacks.get(i);
+            json.append(i > 0 ? "," : "").append("\n    ");
+            json.append("{\"source\": \"").append(escape(fallback.getSource()))
+                    .append("\", \"reason\": \"").append(escape(fallback.getReason())).append("\"}");
+        }
+        json.append(fallbacks.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,123 @@
+package proforma2moodle.Entity;
+
+/**
+ * Die DuplicateOptions-Klasse haelt die Einstellungen fuer Aufgaben, die mehrfach in der Eingabe vorkommen:
+ * wie mit ihnen umgegangen wird und woran sie erkannt werden.
+ */
+public class DuplicateOptions {
+    /**
+     * Der Umgang mit Aufgaben, die mehrfach in der Eingabe vorkommen.
+     */
+    public enum Policy {
+        /** Jede Aufgabe wird ausgegeben, auch wenn sie doppelt ist. */
+        OFF("off"),
+        /** Nur das erste Vorkommen wird ausgegeben, weitere werden uebersprungen und gemeldet. */
+        EMIT_ONCE("once"),
+        /** Jedes Vorkommen wird ausgegeben, Duplikate werden aber gemeldet. */
+        EMIT_AND_WARN("warn");
+
+        private final String key;
+
+        Policy(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @param key off, once oder warn.
+         * @return Die passende Einstellung.
+         * @throws IllegalArgumentException bei einem unbekannten Wert.
+         */
+        public static Policy fromKey(String key) {
+            for (Policy policy : values()) {
+                if (policy.key.equalsIgnoreCase(key.trim())) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("Unknown duplicate policy: " + key);
+        }
+    }
+
+    /**
+     * Woran doppelte Aufgaben erkannt werden.
+     */
+    public enum Key {
+        /** Gleicher Inhalt der Aufgabendatei und gleicher Eintrag der task.xml; wird beim Durchsuchen geprueft. */
+        CONTENT("content"),
+        /** Gleiche uuid der Aufgabe; wird nach dem Parsen geprueft. */
+        UUID("uuid"),
+        /** Gleicher Inhalt oder gleiche uuid. */
+        CONTENT_OR_UUID("both");
+
+        private final String key;
+
+        Key(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public boolean isContent() {
+            return this != UUID;
+        }
+
+        public boolean isUuid() {
+            return this != CONTENT;
+        }
+
+        /**
+         * @param key content, uuid oder both.
+         * @return Die passende Einstellung.
+         * @throws IllegalArgumentException bei einem unbekannten Wert.
+         */
+        public static Key fromKey(String key) {
+            for (Key duplicateKey : values()) {
+                if (duplicateKey.key.equalsIgnoreCase(key.trim())) {
+                    return duplicateKey;
+                }
+            }
+            throw new IllegalArgumentException("Unknown duplicate key: " + key);
+        }
+    }
+
+    private Policy policy = Policy.OFF;
+    private Key key = Key.CONTENT;
+
+    public DuplicateOptions() {
+    }
+
+    /**
+     * @param other Die Einstellungen, die kopiert werden.
+     */
+    public DuplicateOptions(DuplicateOptions other) {
+        this.policy = other.policy;
+        this.key = other.key;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @param policy Der Umgang mit Aufgaben, die mehrfach in der Eingabe vorkommen.
+     */
+    public void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    public Key getKey() {
+        return key;
+    }
+
+    /**
+     * @param key Woran doppelte Aufgaben erkannt werden.
+     */
+    public void setKey(Key key) {
+        this.key = key;
+    }
+}
@@ -0,0 +1,61 @@
+package proforma2moodle.Entity;
+
+/**
+ * Die PipelineOptions-Klasse haelt die Einstellungen der Konvertierung in Stufen: ob sie verwendet wird, wie viele
+ * Aufgaben zwischen Durchsuchen und Schreiben unterwegs sein duerfen und mit wie vielen Threads Eingabeverzeichnisse
+ * durchsucht werden.
+ */
+public class PipelineOptions {
+    private boolean pipelined = true;
+    private int capacity = 64;
+    private int discoveryParallelism = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    public PipelineOptions() {
+    }
+
+    /**
+     * @param other Die Einstellungen, die kopiert werden.
+     */
+    public PipelineOptions(PipelineOptions other) {
+        this.pipelined = other.pipelined;
+        this.capacity = other.capacity;
+        this.discoveryParallelism = other.discoveryParallelism;
+    }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * @param pipelined true, um Durchsuchen, Parsen, Kodieren und Schreiben als gleichzeitig laufende Stufen
+     *                  auszufuehren, sodass die ersten Fragen geschrieben werden, bevor alle Aufgaben gelesen sind;
+     *                  false, um alle Aufgaben erst zu erfassen, dann zu lesen und dann zu schreiben.
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param capacity Groesste Anzahl von Aufgaben, die gleichzeitig zwischen Durchsuchen und Schreiben
+     *                 unterwegs sind. Ist sie erreicht, wartet das Durchsuchen auf das Schreiben.
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    public int getDiscoveryParallelism() {
+        return discoveryParallelism;
+    }
+
+    /**
+     * @param discoveryParallelism Anzahl der Threads, die Eingabeverzeichnisse gleichzeitig lesen. Da dabei
+     *                             vor allem auf das Dateisystem gewartet wird, darf sie die Anzahl der Kerne uebersteigen.
+     */
+    public void setDiscoveryParallelism(int discoveryParallelism) {
+        this.discoveryParallelism = Math.max(1, discoveryParallelism);
+    }
+}
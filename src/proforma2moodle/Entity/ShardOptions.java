@@ -0,0 +1,50 @@
+package proforma2moodle.Entity;
+
+/**
+ * Die ShardOptions-Klasse haelt die Grenzen, nach denen die Moodle-XML auf mehrere Dateien verteilt wird.
+ * Ohne Grenze wird eine einzige Datei geschrieben.
+ */
+public class ShardOptions {
+    private long maxSize;
+    private int maxQuestions;
+
+    public ShardOptions() {
+    }
+
+    /**
+     * @param other Die Einstellungen, die kopiert werden.
+     */
+    public ShardOptions(ShardOptions other) {
+        this.maxSize = other.maxSize;
+        this.maxQuestions = other.maxQuestions;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize Groesste Groesse einer Ausgabedatei in Bytes oder 0 fuer keine Begrenzung.
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+    }
+
+    public int getMaxQuestions() {
+        return maxQuestions;
+    }
+
+    /**
+     * @param maxQuestions Groesste Anzahl von Aufgaben je Ausgabedatei oder 0 fuer keine Begrenzung.
+     */
+    public void setMaxQuestions(int maxQuestions) {
+        this.maxQuestions = Math.max(0, maxQuestions);
+    }
+
+    /**
+     * @return true, falls die Moodle-XML auf mehrere Dateien verteilt wird.
+     */
+    public boolean isSharded() {
+        return maxSize > 0 || maxQuestions > 0;
+    }
+}
@@ -0,0 +1,226 @@
+package proforma2moodle.Entity;
+
+import java.io.File;
+import java.util.Properties;
+
+/**
+ * Die SystemSettings-Klasse liest die Systemeigenschaften proforma2moodle.* einmal je JVM und liefert daraus die
+ * Voreinstellungen jedes neuen ConversionContext. Ein ungueltiger Wert wird beim ersten Lesen mit dem Namen der
+ * Eigenschaft und den erlaubten Werten gemeldet; main liest die Eigenschaften deshalb vor jedem Auftrag und bricht
+ * mit dieser Meldung ab, statt erst beim Erzeugen eines Auftrags in der Oberflaeche oder im Server zu scheitern.
+ */
+public final class SystemSettings {
+    /**
+     * Systemeigenschaft, mit der der Grad der Parallelitaet beim Extrahieren festgelegt werden kann.
+     */
+    public static final String PARALLELISM_PROPERTY = "proforma2moodle.parallelism";
+
+    /**
+     * Systemeigenschaft, mit der die Anzahl der Threads beim Durchsuchen von Eingabeverzeichnissen festgelegt werden kann.
+     */
+    public static final String DISCOVERY_PARALLELISM_PROPERTY = "proforma2moodle.discoveryParallelism";
+
+    /**
+     * Systemeigenschaft, mit der die Konvertierung in Stufen (Pipeline) abgeschaltet werden kann.
+     */
+    public static final String PIPELINE_PROPERTY = "proforma2moodle.pipeline";
+
+    /**
+     * Systemeigenschaft, mit der die Anzahl der Aufgaben begrenzt werden kann, die gleichzeitig zwischen
+     * Durchsuchen und Schreiben in der Pipeline unterwegs sind.
+     */
+    public static final String PIPELINE_CAPACITY_PROPERTY = "proforma2moodle.pipelineCapacity";
+
+    /**
+     * Systemeigenschaft fuer den Umgang mit doppelten Aufgaben: off (Voreinstellung), once oder warn.
+     */
+    public static final String DUPLICATES_PROPERTY = "proforma2moodle.duplicates";
+
+    /**
+     * Systemeigenschaft, woran doppelte Aufgaben erkannt werden: content (Voreinstellung), uuid oder both.
+     */
+    public static final String DUPLICATE_KEY_PROPERTY = "proforma2moodle.duplicateKey";
+
+    /**
+     * Systemeigenschaft fuer die Pruefung der task.xml gegen das ProFormA-Schema: off (Voreinstellung), report oder fail.
+     */
+    public static final String VALIDATION_PROPERTY = "proforma2moodle.validation";
+
+    /**
+     * Systemeigenschaft, mit der das Verzeichnis des Konvertierungs-Caches festgelegt werden kann.
+     * Ohne diese Eigenschaft ist der Cache abgeschaltet.
+     */
+    public static final String CACHE_DIRECTORY_PROPERTY = "proforma2moodle.cacheDir";
+
+    /**
+     * Systemeigenschaft, mit der die Groesse des Konvertierungs-Caches in MB begrenzt werden kann.
+     */
+    public static final String CACHE_SIZE_PROPERTY = "proforma2moodle.cacheSizeMB";
+
+    /**
+     * Systemeigenschaft, mit der der JSON-Bericht der Messwerte neben der Moodle-XML eingeschaltet werden kann.
+     */
+    public static final String METRICS_REPORT_PROPERTY = "proforma2moodle.metricsReport";
+
+    /**
+     * Systemeigenschaft, mit der die Groesse einer Ausgabedatei in MB begrenzt werden kann.
+     */
+    public static final String SHARD_SIZE_PROPERTY = "proforma2moodle.shardSizeMB";
+
+    /**
+     * Systemeigenschaft, mit der die Anzahl der Fragen je Ausgabedatei begrenzt werden kann.
+     */
+    public static final String SHARD_QUESTIONS_PROPERTY = "proforma2moodle.shardQuestions";
+
+    private static volatile SystemSettings current;
+
+    private final Integer parallelism;
+    private final PipelineOptions pipelineOptions = new PipelineOptions();
+    private final DuplicateOptions duplicateOptions = new DuplicateOptions();
+    private final ConversionContext.ValidationMode validationMode;
+    private final CacheOptions cacheOptions = new CacheOptions();
+    private final boolean metricsReport;
+    private final ShardOptions shardOptions = new ShardOptions();
+
+    private SystemSettings(Properties properties) {
+        parallelism = properties.getProperty(PARALLELISM_PROPERTY) != null
+                ? intProperty(properties, PARALLELISM_PROPERTY, 1) : null;
+        pipelineOptions.setDiscoveryParallelism(intProperty(properties, DISCOVERY_PARALLELISM_PROPERTY,
+                pipelineOptions.getDiscoveryParallelism()));
+        pipelineOptions.setPipelined(booleanProperty(properties, PIPELINE_PROPERTY, true));
+        pipelineOptions.setCapacity(intProperty(properties, PIPELINE_CAPACITY_PROPERTY, pipelineOptions.getCapacity()));
+        String duplicates = properties.getProperty(DUPLICATES_PROPERTY, "off");
+        try {
+            duplicateOptions.setPolicy(DuplicateOptions.Policy.fromKey(duplicates));
+        } catch (IllegalArgumentException e) {
+            throw invalid(DUPLICATES_PROPERTY, duplicates, "off, once or warn");
+        }
+        String duplicateKey = properties.getProperty(DUPLICATE_KEY_PROPERTY, "content");
+        try {
+            duplicateOptions.setKey(DuplicateOptions.Key.fromKey(duplicateKey));
+        } catch (IllegalArgumentException e) {
+            throw invalid(DUPLICATE_KEY_PROPERTY, duplicateKey, "content, uuid or both");
+        }
+        String validation = properties.getProperty(VALIDATION_PROPERTY, "off");
+        try {
+            validationMode = ConversionContext.ValidationMode.fromKey(validation);
+        } catch (IllegalArgumentException e) {
+            throw invalid(VALIDATION_PROPERTY, validation, "off, report or fail");
+        }
+        String cacheDirectory = properties.getProperty(CACHE_DIRECTORY_PROPERTY);
+        cacheOptions.setDirectory(cacheDirectory != null ? new File(cacheDirectory) : null);
+        cacheOptions.setMaxSize(longProperty(properties, CACHE_SIZE_PROPERTY, 2048L) * 1024 * 1024);
+        metricsReport = booleanProperty(properties, METRICS_REPORT_PROPERTY, false);
+        shardOptions.setMaxSize(longProperty(properties, SHARD_SIZE_PROPERTY, 0L) * 1024 * 1024);
+        shardOptions.setMaxQuestions(intProperty(properties, SHARD_QUESTIONS_PROPERTY, 0));
+    }
+
+    /**
+     * Liefert die Einstellungen aus den Systemeigenschaften dieser JVM. Sie werden beim ersten Aufruf gelesen.
+     *
+     * @return Die Einstellungen.
+     * @throws IllegalArgumentException falls eine Systemeigenschaft einen ungueltigen Wert hat; die Meldung nennt
+     *                                  die Eigenschaft, ihren Wert und die erlaubten Werte.
+     */
+    public static SystemSettings get() {
+        SystemSettings settings = current;
+        if (settings == null) {
+            synchronized (SystemSettings.class) {
+                if (current == null) {
+                    current = new SystemSettings(System.getProperties());
+                }
+                settings = current;
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Liest die Einstellungen aus beliebigen Eigenschaften, z.B. zum Pruefen einer Konfiguration.
+     *
+     * @param properties Die Eigenschaften mit den Namen der Systemeigenschaften.
+     * @return Die Einstellungen.
+     * @throws IllegalArgumentException falls eine Eigenschaft einen ungueltigen Wert hat.
+     */
+    public static SystemSettings fromProperties(Properties properties) {
+        return new SystemSettings(properties);
+    }
+
+    /**
+     * @return true, falls die Parallelitaet ausdruecklich mit proforma2moodle.parallelism festgelegt ist.
+     */
+    public boolean hasParallelism() {
+        return parallelism != null;
+    }
+
+    /**
+     * @return Die festgelegte Parallelitaet oder die Anzahl der Prozessorkerne.
+     */
+    public int getParallelism() {
+        return parallelism != null ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    public PipelineOptions getPipelineOptions() {
+        return pipelineOptions;
+    }
+
+    public DuplicateOptions getDuplicateOptions() {
+        return duplicateOptions;
+    }
+
+    public ConversionContext.ValidationMode getValidationMode() {
+        return validationMode;
+    }
+
+    public CacheOptions getCacheOptions() {
+        return cacheOptions;
+    }
+
+    public boolean isMetricsReport() {
+        return metricsReport;
+    }
+
+    public ShardOptions getShardOptions() {
+        return shardOptions;
+    }
+
+    private static int intProperty(Properties properties, String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw invalid(name, value, "an integer");
+        }
+    }
+
+    private static long longProperty(Properties properties, String name, long defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw invalid(name, value, "an integer");
+        }
+    }
+
+    private static boolean booleanProperty(Properties properties, String name, boolean defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        } else if (value.trim().equalsIgnoreCase("true")) {
+            return true;
+        } else if (value.trim().equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw invalid(name, value, "true or false");
+    }
+
+    private static IllegalArgumentException invalid(String name, String value, String expected) {
+        return new IllegalArgumentException("Invalid value \"" + value + "\" for -D" + name + ", expected " + expected);
+    }
+}
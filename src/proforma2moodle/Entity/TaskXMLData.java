@@ -1,7 +1,16 @@
 package proforma2moodle.Entity;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 /**
  *
@@ -9,19 +18,18 @@ import java.util.ArrayList;
  *
  */
 public class TaskXMLData {
-    private static String categoryPath="";
-    private static String categoryName="";
-    private static String outputPath="";
-    private static String inputPath="";
-
-
-
     private File taskXMLDatei;
     private String questionName;
     private String questionText;
     private String generalFeedback;
     private String internalDescription;
     private File zipFile;
+    private byte[] zipContent;
+    private String zipName;
+    private String taskXMLEntry;
+    private String cacheKey;
+    private File questionFragment;
+    private List<String> validationErrors = List.of();
     private String graderName;
     private String graderVersion;
     private String Taskuuid;
@@ -147,7 +155,9 @@ public class TaskXMLData {
      * @return Den Namen der Datei.
      */
     public String getFileName() {
-        if (zipFile != null) {
+        if (zipName != null) {
+            return zipName;
+        } else if (zipFile != null) {
             return zipFile.getName();
         } else {
             return taskXMLDatei.getName();
@@ -155,7 +165,7 @@ public class TaskXMLData {
     }
     /**
      * Gibt die Datei (entweder ZIP oder XML) zurueck, die mit diesem TaskXMLData-Objekt verknuepft ist.
-     * @return Die verknuepfte Datei.
+     * @return Die verknuepfte Datei oder null, falls das ZIP-Archiv nur im Speicher vorliegt.
      */
     public File getFile() {
         if (zipFile != null) {
@@ -165,6 +175,79 @@ public class TaskXMLData {
         }
     }
 
+    /**
+     * Oeffnet den Inhalt der Aufgabendatei (ZIP oder XML), die als taskfile in die Moodle-XML uebernommen wird.
+     * @return Ein Eingabestrom auf den Inhalt der Datei.
+     * @throws IOException wenn die Datei nicht geoeffnet werden kann.
+     */
+    public InputStream openFile() throws IOException {
+        if (zipContent != null) {
+            return new ByteArrayInputStream(zipContent);
+        }
+        return new FileInputStream(getFile());
+    }
+
+    /**
+     * Gibt die Groesse der Aufgabendatei in Bytes zurueck.
+     * @return Die Groesse der Datei (ZIP oder XML).
+     */
+    public long getFileSize() {
+        if (zipContent != null) {
+            return zipContent.length;
+        }
+        return getFile().length();
+    }
+
+    /**
+     * Oeffnet die task.xml zum Lesen. Liegt sie in einem ZIP-Archiv, wird sie direkt aus dem Archiv gelesen,
+     * ohne sie vorher in eine temporaere Datei zu entpacken.
+     * @return Ein Eingabestrom auf den Inhalt der task.xml.
+     * @throws IOException wenn die task.xml nicht geoeffnet werden kann.
+     */
+    public InputStream openTaskXML() throws IOException {
+        if (taskXMLEntry == null) {
+            return new FileInputStream(taskXMLDatei);
+        }
+        if (zipContent != null) {
+            ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(zipContent));
+            ZipEntry entry;
+            while ((entry = zin.getNextEntry()) != null) {
+                if (entry.getName().equals(taskXMLEntry)) {
+                    return zin;
+                }
+            }
+            zin.close();
+            throw new IOException(taskXMLEntry + " not found in " + zipName);
+        }
+        ZipFile zip = new ZipFile(zipFile);
+        ZipEntry entry = zip.getEntry(taskXMLEntry);
+        if (entry == null) {
+            zip.close();
+            throw new IOException(taskXMLEntry + " not found in " + zipFile);
+        }
+        return new FilterInputStream(zip.getInputStream(entry)) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    zip.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Gibt eine Beschreibung der Herkunft der task.xml fuer Meldungen zurueck.
+     * @return Pfad der task.xml, ggf. mit Archivname und Eintrag.
+     */
+    public String getSourceName() {
+        if (taskXMLEntry == null) {
+            return taskXMLDatei.getPath();
+        }
+        return (zipContent != null ? zipName : zipFile.getPath()) + "!" + taskXMLEntry;
+    }
+
     public String getGraderVersion() {
         return graderVersion;
     }
@@ -231,36 +314,75 @@ public class TaskXMLData {
         this.zipFile = zipFile;
     }
 
-    public static String getCategoryPath() {
-        return categoryPath;
+    /**
+     * Verknuepft die Aufgabe mit einem ZIP-Archiv, das nur im Speicher vorliegt (z.B. ein verschachteltes Archiv).
+     * @param zipName Der Dateiname des Archivs.
+     * @param zipContent Der Inhalt des Archivs.
+     */
+    public void setZipContent(String zipName, byte[] zipContent) {
+        this.zipName = zipName;
+        this.zipContent = zipContent;
+    }
+
+    /**
+     * @param zipName Der Dateiname, unter dem das Archiv in die Moodle-XML uebernommen wird,
+     *                falls er vom Namen der Datei abweicht (z.B. bei temporaer entpackten Archiven).
+     */
+    public void setZipName(String zipName) {
+        this.zipName = zipName;
+    }
+
+    public String getTaskXMLEntry() {
+        return taskXMLEntry;
+    }
+
+    /**
+     * @param taskXMLEntry Der Name des Eintrags der task.xml im ZIP-Archiv.
+     */
+    public void setTaskXMLEntry(String taskXMLEntry) {
+        this.taskXMLEntry = taskXMLEntry;
+    }
+
+    public String getCacheKey() {
+        return cacheKey;
     }
 
-    public static String getCategoryName() { return categoryName; }
+    /**
+     * @param cacheKey Der Schluessel der Aufgabe im Konvertierungs-Cache oder null, falls kein Cache verwendet wird.
+     */
+    public void setCacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+    }
 
-    public static void setCategoryPath(String categoryPath) {
-        TaskXMLData.categoryPath = categoryPath;
-        String[] s = categoryPath.split("/");
-        categoryName = s[s.length-1];
+    public File getQuestionFragment() {
+        return questionFragment;
     }
 
-    public static String getOutputPath() {
-        return outputPath;
+    /**
+     * @param questionFragment Die Datei mit dem bereits erzeugten question-Element aus dem Konvertierungs-Cache.
+     *                         Ist sie gesetzt, wird sie unveraendert in die Moodle-XML kopiert.
+     */
+    public void setQuestionFragment(File questionFragment) {
+        this.questionFragment = questionFragment;
     }
 
-    public static void setOutputPath(String outputPath) {
-        TaskXMLData.outputPath = outputPath;
-        File outputfile = new File(outputPath);
-        if(!outputfile.exists()){
-				//System.out.println("Create folder: "+outputfile.getAbsolutePath());
-				outputfile.mkdirs();
-		}
+    public List<String> getValidationErrors() {
+        return validationErrors;
     }
 
-    public static String getInputPath() {
-        return inputPath;
+    /**
+     * @param validationErrors Die Fehler der task.xml gegenueber dem ProFormA-Schema; leer, falls sie gueltig ist
+     *                         oder nicht geprueft wurde.
+     */
+    public void setValidationErrors(List<String> validationErrors) {
+        this.validationErrors = validationErrors;
     }
 
-    public static void setInputPath(String inputPath) {
-        TaskXMLData.inputPath = inputPath;
+    /**
+     * @return true, falls die task.xml bei der Pruefung gegen das ProFormA-Schema Fehler enthielt; die Aufgabe
+     *         wird dann nicht extrahiert und nicht ausgegeben.
+     */
+    public boolean isInvalid() {
+        return !validationErrors.isEmpty();
     }
 }
@@ -3,12 +3,25 @@ package proforma2moodle;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
 
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.SystemSettings;
 import proforma2moodle.Entity.TaskXMLData;
 import proforma2moodle.gui.GuiPFA2M;
+import proforma2moodle.logic.BatchRunner;
+import proforma2moodle.logic.DirectoryWatcher;
 import proforma2moodle.logic.FileChooser;
+import proforma2moodle.logic.TaskFileExtractor;
+import proforma2moodle.logic.TaskValidator;
+import proforma2moodle.server.ConversionServer;
 import org.xml.sax.SAXException;
 
+import javax.xml.stream.XMLStreamException;
+
 /**
  * Die Main-Klasse für die ProFormATaskConverter Anwendung.
  * Diese Klasse erstellt und zeigt das Hauptfenster der Anwendung an,
@@ -22,14 +35,54 @@ public class ProFormA2Moodle {
      *
      * @param args Kategoriepfad für alle Fragen
      * @param args Pfad, in dem die Moodle-XML gespeichert werden soll
+     * @param args optional Pfad der Eingabedatei; mit vorangestelltem --watch wird das Eingabeverzeichnis beobachtet
+     * @param args alternativ --batch, Manifest-Datei, optional Anzahl der Threads und Datei fuer die Zusammenfassung
+     * @param args alternativ --server, Port und optional Anzahl der Threads
+     * @param args alternativ --merge, Kategoriepfad, Pfad der bestehenden Moodle-XML und Pfad der neuen Aufgaben
+     * @param args alternativ --extract, Moodle-XML, Zielverzeichnis und optional Anzahl der Threads
+     * @param args alternativ --validate, Pfad der Eingabedatei und optional Anzahl der Threads
      *
      */
     public static void main(String[] args) {
+        try {
+            // Systemeigenschaften einmal pruefen, bevor Oberflaeche, Server oder Auftraege Kontexte erzeugen
+            SystemSettings.get();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
 
-        if(args.length == 2){
+        if (args.length == 4 && args[0].equals("--watch")) {
+            // Verzeichnis beobachten und die Moodle-XML bei jeder Aenderung aktualisieren
+            watch(args[1], args[2], args[3]);
+        } else if ((args.length >= 2 && args.length <= 4) && args[0].equals("--batch")) {
+            // viele Konvertierungen aus einem Manifest in einer JVM
+            boolean successful = runBatch(args[1], args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors(),
+                    args.length > 3 ? args[3] : null);
+            if (!successful) {
+                System.exit(1);
+            }
+        } else if ((args.length == 2 || args.length == 3) && args[0].equals("--server")) {
+            // lokaler HTTP-Dienst
+            serve(Integer.parseInt(args[1]), args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+        } else if (args.length == 4 && args[0].equals("--merge")) {
+            // bestehende Moodle-XML mit neuen oder geaenderten Aufgaben aktualisieren
+            String message = mergeIntoMoodleXML(args[1], args[2], args[3]);
+            System.out.println(message);
+        } else if ((args.length == 3 || args.length == 4) && args[0].equals("--extract")) {
+            // Aufgabendateien aus einer Moodle-XML wiederherstellen
+            String message = extractTaskFiles(args[1], args[2],
+                    args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors());
+            System.out.println(message);
+        } else if ((args.length == 2 || args.length == 3) && args[0].equals("--validate")) {
+            // task.xml aller Aufgaben gegen das ProFormA-Schema pruefen, ohne zu konvertieren
+            boolean valid = validateTasks(args[1],
+                    args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+            if (!valid) {
+                System.exit(1);
+            }
+        } else if(args.length == 2){
             // Gui für XML Datei Auswahl
-            TaskXMLData.setCategoryPath(args[0]);
-            TaskXMLData.setOutputPath(args[1]);
             GuiPFA2M.launchGUI(args[0], args[1]);
         } else if (args.length == 3) {
             // alles über Konsole
@@ -52,12 +105,22 @@ public class ProFormA2Moodle {
      * @param filePath Der Pfad der Eingabedatei.
      */
     public static String convertToMoodleXML(String categoryPath, String outputPath, String filePath) {
-        TaskXMLData.setCategoryPath(categoryPath);
-        TaskXMLData.setOutputPath(outputPath);
-        File chosenFile = new File(filePath);
+        ConversionContext context = new ConversionContext(categoryPath, outputPath);
+        context.setInputPath(filePath);
+        return convertToMoodleXML(context);
+    }
+
+    /**
+     * Fuehrt eine Konvertierung mit den Einstellungen des uebergebenen Kontexts durch.
+     * Jeder Aufruf arbeitet nur auf seinem eigenen Kontext, daher koennen mehrere Konvertierungen gleichzeitig laufen.
+     *
+     * @param context Die Einstellungen des Auftrags; der Eingabepfad muss gesetzt sein.
+     */
+    public static String convertToMoodleXML(ConversionContext context) {
+        File chosenFile = new File(context.getInputPath());
         String message ="";
         try {
-            FileChooser fileChooser = new FileChooser();
+            FileChooser fileChooser = new FileChooser(context);
             message = fileChooser.chooseAndProcessFile(chosenFile);
         } catch (ParserConfigurationException | IOException | SAXException e) {
             e.printStackTrace();
@@ -66,4 +129,133 @@ public class ProFormA2Moodle {
         return message;
     }
 
+    /**
+     * Aktualisiert die bestehende Moodle-XML einer Kategorie: Fragen mit der taskuuid einer neuen Aufgabe werden
+     * ersetzt, neue Aufgaben angefuegt und alle anderen Fragen unveraendert kopiert.
+     *
+     * @param categoryPath Der Pfad der Kategorie für alle Fragen.
+     * @param outputPath Der Pfad, in dem die Moodle-XML liegt.
+     * @param filePath Der Pfad der neuen oder geaenderten Aufgaben.
+     */
+    public static String mergeIntoMoodleXML(String categoryPath, String outputPath, String filePath) {
+        ConversionContext context = new ConversionContext(categoryPath, outputPath);
+        context.setInputPath(filePath);
+        try {
+            return new FileChooser(context).mergeAndProcessFile(new File(filePath));
+        } catch (ParserConfigurationException | IOException | SAXException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Fehler bei der Verarbeitung: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stellt die Aufgabendateien aller moopt-Fragen einer Moodle-XML wieder her.
+     *
+     * @param moodleXMLPath Der Pfad der Moodle-XML.
+     * @param outputPath Das Verzeichnis, in das die Aufgabendateien geschrieben werden.
+     * @param threads Anzahl der Aufgabendateien, die gleichzeitig geschrieben werden.
+     */
+    public static String extractTaskFiles(String moodleXMLPath, String outputPath, int threads) {
+        try {
+            List<File> files = new TaskFileExtractor(new File(outputPath), threads).extract(new File(moodleXMLPath));
+            return "Number of task files extracted " + files.size();
+        } catch (IOException | XMLStreamException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Fehler bei der Verarbeitung: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Prueft die task.xml aller Aufgaben einer Datei (XML, ZIP, Verzeichnis) gegen das ProFormA-Schema und gibt
+     * die Fehler der ungueltigen Aufgaben aus.
+     *
+     * @param filePath Der Pfad der Eingabedatei.
+     * @param threads Anzahl der Aufgaben, die gleichzeitig geprueft werden.
+     * @return true, falls alle Aufgaben gueltig sind.
+     */
+    public static boolean validateTasks(String filePath, int threads) {
+        ConversionContext context = new ConversionContext();
+        context.setInputPath(filePath);
+        context.setParallelism(threads);
+        context.setValidationMode(ConversionContext.ValidationMode.REPORT);
+        try {
+            long start = System.nanoTime();
+            List<TaskXMLData> tasks = new FileChooser(context).collectTasks(new File(filePath));
+            List<TaskXMLData> invalid = new TaskValidator(context).validateAll(tasks);
+            System.out.printf(Locale.ROOT, "%d of %d tasks valid, validated in %.1f ms%n",
+                    tasks.size() - invalid.size(), tasks.size(), (System.nanoTime() - start) / 1e6);
+            return invalid.isEmpty();
+        } catch (ParserConfigurationException | IOException | SAXException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Fehler bei der Verarbeitung: " + e.getMessage(), e);
+        } finally {
+            context.deleteTemporaryFiles();
+        }
+    }
+
+    /**
+     * Beobachtet ein Eingabeverzeichnis und haelt die Moodle-XML aktuell, bis das Programm beendet wird.
+     *
+     * @param categoryPath Der Pfad der Kategorie für alle Fragen.
+     * @param outputPath Der Pfad, in dem die Moodle-XML gespeichert werden soll.
+     * @param directoryPath Das zu beobachtende Eingabeverzeichnis.
+     */
+    public static void watch(String categoryPath, String outputPath, String directoryPath) {
+        ConversionContext context = new ConversionContext(categoryPath, outputPath);
+        context.setInputPath(directoryPath);
+        try (DirectoryWatcher watcher = new DirectoryWatcher(context)) {
+            watcher.run();
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Fehler bei der Verarbeitung: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Fuehrt alle Konvertierungen einer Manifest-Datei in dieser JVM aus und gibt eine Zusammenfassung aus.
+     *
+     * @param manifestPath Die Manifest-Datei mit einer Zeile Kategorie;Ausgabepfad;Eingabepfad je Auftrag.
+     * @param workers Anzahl der Auftraege, die gleichzeitig laufen.
+     * @param summaryPath Datei, in die die Zusammenfassung zusaetzlich geschrieben wird, oder null.
+     * @return true, falls alle Auftraege erfolgreich waren.
+     */
+    public static boolean runBatch(String manifestPath, int workers, String summaryPath) {
+        try {
+            List<BatchRunner.BatchJob> jobs = BatchRunner.readManifest(new File(manifestPath));
+            BatchRunner runner = new BatchRunner(workers);
+            long start = System.nanoTime();
+            runner.run(jobs);
+            String summary = runner.summary(jobs, System.nanoTime() - start);
+            System.out.println(summary);
+            if (summaryPath != null) {
+                Files.writeString(new File(summaryPath).toPath(), summary + System.lineSeparator(), StandardCharsets.UTF_8);
+            }
+            return jobs.stream().allMatch(BatchRunner.BatchJob::isSuccessful);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Fehler bei der Verarbeitung: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Startet die Konvertierung als HTTP-Dienst auf localhost. Der Dienst laeuft, bis das Programm beendet wird.
+     *
+     * @param port Der Port des Dienstes.
+     * @param threads Anzahl der Anfragen, die gleichzeitig bearbeitet werden.
+     */
+    public static void serve(int port, int threads) {
+        try {
+            ConversionServer server = new ConversionServer(port, threads);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+            System.out.println("Listening on http://localhost:" + server.getPort() + "/convert");
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Fehler beim Starten des Servers: " + e.getMessage(), e);
+        }
+    }
+
 }
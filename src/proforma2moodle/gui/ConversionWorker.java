@@ -0,0 +1,218 @@
+package proforma2moodle.gui;
+
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.ConversionListener;
+import proforma2moodle.logic.FileChooser;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Die ConversionWorker-Klasse fuehrt eine Konvertierung ausserhalb des Event-Dispatch-Threads aus und zeigt
+ * solange einen Fortschrittsdialog: beim Durchsuchen die Anzahl gefundener Aufgaben, beim Lesen der task.xml
+ * Aufgaben/s und beim Schreiben MB/s der Aufgabendateien, jeweils mit geschaetzter Restzeit.
+ * Die Schaltflaeche Cancel setzt nur das Abbruch-Flag des ConversionContext; die Konvertierung endet an der
+ * naechsten Aufgabe oder am naechsten Block einer Aufgabendatei und hinterlaesst keine halbe Moodle-XML.
+ */
+public class ConversionWorker extends SwingWorker<String, Void> implements ConversionListener {
+    private static final int REFRESH_MILLIS = 200;
+
+    private enum Stage { DISCOVER, PARSE, WRITE }
+
+    private final JFrame frame;
+    private final FileChooser fileChooser;
+    private final File file;
+    private final ConversionContext context;
+    private final JComponent[] disabled;
+
+    private final JDialog dialog;
+    private final JProgressBar progressBar = new JProgressBar();
+    private final JLabel statusLabel = new JLabel(" ");
+    private final JButton cancelButton = new JButton("Cancel");
+    private final Timer timer;
+
+    private volatile Stage stage = Stage.DISCOVER;
+    private volatile long stageStart = System.nanoTime();
+    private final AtomicInteger discovered = new AtomicInteger();
+    private final AtomicInteger extracted = new AtomicInteger();
+    private volatile int totalTasks;
+    private final AtomicInteger written = new AtomicInteger();
+    private volatile int totalQuestions;
+    private final AtomicLong encoded = new AtomicLong();
+    private volatile long totalBytes;
+
+    /**
+     * Erzeugt den Worker; gestartet wird er mit execute im Event-Dispatch-Thread.
+     *
+     * @param frame Das Hauptfenster, ueber dem Dialog und Meldungen angezeigt werden.
+     * @param fileChooser Der FileChooser des Auftrags.
+     * @param file Die Eingabedatei oder das Eingabeverzeichnis.
+     * @param disabled Bedienelemente, die waehrend der Konvertierung gesperrt werden.
+     */
+    public ConversionWorker(JFrame frame, FileChooser fileChooser, File file, JComponent... disabled) {
+        this.frame = frame;
+        this.fileChooser = fileChooser;
+        this.file = file;
+        this.context = fileChooser.getContext();
+        this.disabled = disabled;
+
+        dialog = new JDialog(frame, "Converting", false);
+        dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        progressBar.setStringPainted(true);
+        progressBar.setIndeterminate(true);
+        cancelButton.addActionListener(e -> {
+            context.setCancelled(true);
+            cancelButton.setEnabled(false);
+            statusLabel.setText("Cancelling...");
+        });
+        JPanel panel = new JPanel(new BorderLayout(10, 10));
+        panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        panel.add(statusLabel, BorderLayout.NORTH);
+        panel.add(progressBar, BorderLayout.CENTER);
+        panel.add(cancelButton, BorderLayout.SOUTH);
+        dialog.setContentPane(panel);
+        dialog.setSize(700, 200);
+        dialog.setLocationRelativeTo(frame);
+
+        timer = new Timer(REFRESH_MILLIS, e -> refresh());
+    }
+
+    /**
+     * Sperrt die Bedienelemente, zeigt den Dialog und startet die Konvertierung im Hintergrund.
+     */
+    public void start() {
+        for (JComponent component : disabled) {
+            component.setEnabled(false);
+        }
+        refresh();
+        dialog.setVisible(true);
+        timer.start();
+        execute();
+    }
+
+    @Override
+    protected String doInBackground() throws Exception {
+        context.setCancelled(false);
+        context.setListener(this);
+        try {
+            return fileChooser.chooseAndProcessFile(file);
+        } finally {
+            context.setListener(null);
+        }
+    }
+
+    @Override
+    protected void done() {
+        timer.stop();
+        dialog.dispose();
+        for (JComponent component : disabled) {
+            component.setEnabled(true);
+        }
+        try {
+            String message = get();
+            JOptionPane.showMessageDialog(frame, message, "Success", JOptionPane.INFORMATION_MESSAGE);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof CancellationException) {
+                JOptionPane.showMessageDialog(frame, "Conversion cancelled.", "Cancelled", JOptionPane.INFORMATION_MESSAGE);
+            } else {
+                JOptionPane.showMessageDialog(frame, "Error: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        } catch (InterruptedException | CancellationException ex) {
+            JOptionPane.showMessageDialog(frame, "Conversion cancelled.", "Cancelled", JOptionPane.INFORMATION_MESSAGE);
+        } finally {
+            context.setCancelled(false);
+        }
+    }
+
+    /**
+     * Aktualisiert Fortschrittsbalken und Statuszeile; wird vom Timer im Event-Dispatch-Thread aufgerufen.
+     */
+    private void refresh() {
+        if (context.isCancelled()) {
+            return;
+        }
+        double seconds = Math.max(1e-3, (System.nanoTime() - stageStart) / 1e9);
+        switch (stage) {
+            case DISCOVER:
+                progressBar.setIndeterminate(true);
+                progressBar.setString(discovered.get() + " tasks");
+                statusLabel.setText("Searching for tasks, " + extracted.get() + " read...");
+                break;
+            case PARSE: {
+                int done = extracted.get();
+                int total = totalTasks;
+                double rate = done / seconds;
+                showProgress(done, total);
+                statusLabel.setText(String.format(Locale.ROOT, "Reading tasks: %d / %d, %.1f tasks/s%s",
+                        done, total, rate, eta(total - done, rate)));
+                break;
+            }
+            case WRITE: {
+                long done = encoded.get();
+                long total = totalBytes;
+                double rate = done / 1e6 / seconds;
+                showProgress(done, total);
+                statusLabel.setText(String.format(Locale.ROOT, "Writing questions: %d / %d, %.1f / %.1f MB, %.1f MB/s%s",
+                        written.get(), totalQuestions, done / 1e6, total / 1e6, rate, eta((total - done) / 1e6, rate)));
+                break;
+            }
+        }
+    }
+
+    private void showProgress(long done, long total) {
+        progressBar.setIndeterminate(false);
+        progressBar.setMaximum(1000);
+        progressBar.setValue(total > 0 ? (int) Math.min(1000, done * 1000 / total) : 0);
+        progressBar.setString(null);
+    }
+
+    private static String eta(double remaining, double rate) {
+        if (rate <= 0 || remaining <= 0) {
+            return "";
+        }
+        long seconds = Math.round(remaining / rate);
+        return String.format(Locale.ROOT, ", about %d:%02d left", seconds / 60, seconds % 60);
+    }
+
+    @Override
+    public void taskDiscovered() {
+        discovered.incrementAndGet();
+    }
+
+    @Override
+    public void extractionStarted(int tasks) {
+        totalTasks = tasks;
+        stageStart = System.nanoTime();
+        stage = Stage.PARSE;
+    }
+
+    @Override
+    public void taskExtracted() {
+        extracted.incrementAndGet();
+    }
+
+    @Override
+    public void writingStarted(int questions, long bytes) {
+        totalQuestions = questions;
+        totalBytes = bytes;
+        stageStart = System.nanoTime();
+        stage = Stage.WRITE;
+    }
+
+    @Override
+    public void bytesEncoded(long bytes) {
+        encoded.addAndGet(bytes);
+    }
+
+    @Override
+    public void questionWritten() {
+        written.incrementAndGet();
+    }
+}
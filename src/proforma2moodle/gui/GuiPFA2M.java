@@ -1,6 +1,6 @@
 package proforma2moodle.gui;
 
-import proforma2moodle.Entity.TaskXMLData;
+import proforma2moodle.Entity.ConversionContext;
 import proforma2moodle.logic.FileChooser;
 
 import javax.swing.*;
@@ -30,9 +30,8 @@ public class GuiPFA2M  {
      * @param outputPath Der Pfad, in dem die Moodle-XML-Datei gespeichert werden soll.
      */
     public static void launchGUI(String categoryPath, String outputPath) {
-        TaskXMLData.setCategoryPath(categoryPath);
-        TaskXMLData.setOutputPath(outputPath);
-        javax.swing.SwingUtilities.invokeLater(proforma2moodle.gui.GuiPFA2M::createAndShowGUI);
+        ConversionContext context = new ConversionContext(categoryPath, outputPath);
+        javax.swing.SwingUtilities.invokeLater(() -> createAndShowGUI(context));
     }
 
     /**
@@ -48,8 +47,10 @@ public class GuiPFA2M  {
      * Erstellt und zeigt das GUI der Anwendung.
      * Diese Methode initialisiert das Hauptfenster,
      * um XML-Dateien, ZIP-Dateien oder ein Verzeichnis zu oeffnen und zu bearbeiten.
+     *
+     * @param context Die Einstellungen mit Kategorie und Ausgabepfad.
      */
-    private static void createAndShowGUI() {
+    private static void createAndShowGUI(ConversionContext context) {
         JFrame frame = new JFrame(APPLICATION_TITLE);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.getContentPane().setBackground(new Color(45, 45, 45));
@@ -59,10 +60,13 @@ public class GuiPFA2M  {
         openButton.setBackground(new Color(100, 100, 100));
         openButton.setFocusPainted(false);
 
-        FileChooser fileChooser = new FileChooser(frame);
+        FileChooser fileChooser = new FileChooser(frame, context);
         openButton.addActionListener(e -> {
             try {
-                fileChooser.chooseAndProcessFile();
+                File chosenFile = fileChooser.chooseFile();
+                if (chosenFile != null) {
+                    new ConversionWorker(frame, fileChooser, chosenFile, openButton).start();
+                }
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(frame, "Error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
@@ -84,7 +88,8 @@ public class GuiPFA2M  {
 
         JFrame frame = new JFrame(APPLICATION_TITLE);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        FileChooser fileChooser = new FileChooser(frame);
+        ConversionContext context = new ConversionContext();
+        FileChooser fileChooser = new FileChooser(frame, context);
         frame.setSize(1000, 300);
         frame.setLocationRelativeTo(null);
         JPanel mainPanel = new JPanel();
@@ -124,7 +129,7 @@ public class GuiPFA2M  {
             try {
                 File dir = fileChooser.chooseDirectory();
                 String path = dir.getAbsolutePath();
-                TaskXMLData.setOutputPath(path);
+                context.setOutputPath(path);
                 textFieldStore.setText(path);
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(frame, "Error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
@@ -148,8 +153,8 @@ public class GuiPFA2M  {
         buttonRead.addActionListener(e -> {
             try {
                 fromFile = fileChooser.chooseFile();
-                TaskXMLData.setInputPath(fromFile.getAbsolutePath());
-                textFieldRead.setText(TaskXMLData.getInputPath());
+                context.setInputPath(fromFile.getAbsolutePath());
+                textFieldRead.setText(context.getInputPath());
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(frame, "Error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
@@ -161,16 +166,15 @@ public class GuiPFA2M  {
         JButton buttonAction = new JButton("Start transform");
         buttonAction.addActionListener(e->{
              try {
-                TaskXMLData.setCategoryPath(textFieldCat.getText());
-                if (TaskXMLData.getInputPath().isEmpty()){
-                    TaskXMLData.setInputPath(textFieldRead.getText());
+                context.setCategoryPath(textFieldCat.getText());
+                if (context.getInputPath().isEmpty()){
+                    context.setInputPath(textFieldRead.getText());
                     fromFile = new File(textFieldRead.getText());
                 }
-                if (TaskXMLData.getOutputPath().isEmpty()){
-                    TaskXMLData.setOutputPath(textFieldStore.getText());
+                if (context.getOutputPath().isEmpty()){
+                    context.setOutputPath(textFieldStore.getText());
                 }
-                String message = fileChooser.chooseAndProcessFile(fromFile);
-                JOptionPane.showMessageDialog(frame,message,"Success",JOptionPane.INFORMATION_MESSAGE);
+                new ConversionWorker(frame, fileChooser, fromFile, buttonAction, buttonRead, buttonStore).start();
 
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(frame, "Error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
@@ -1,14 +1,25 @@
 package proforma2moodle.logic;
 
+import java.util.Arrays;
 import java.util.Base64;
 import java.nio.file.Files;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 /**
  * Diese Klasse bietet eine Methode zur Konvertierung von Dateiinhalten in einen Base64-kodierten String.
+ * Fuer grosse Dateien gibt es zusaetzlich einen Streaming-Modus, der den Inhalt blockweise
+ * direkt in einen XMLStreamWriter kodiert.
  *
  */
 public class Base64Encoder {
+    /**
+     * Groesse eines Lese-Blocks. Muss ein Vielfaches von 3 sein, damit innerhalb des Datenstroms kein Padding entsteht.
+     */
+    private static final int CHUNK_SIZE = 3 * 16 * 1024;
+
     /**
      *
      * Diese Methode liest die Datei, konvertiert ihren Inhalt in einen Byte-Array und
@@ -27,4 +38,48 @@ public class Base64Encoder {
             return null;
         }
     }
+
+    /**
+     * Kodiert den Inhalt einer Datei blockweise nach Base64 und schreibt das Ergebnis
+     * als Textinhalt direkt in den XMLStreamWriter. Es wird nie mehr als ein Block der Datei im Speicher gehalten.
+     *
+     * @param file Die Datei, deren Inhalt kodiert werden soll.
+     * @param writer Der XMLStreamWriter, in dessen aktuelles Element der Base64-Text geschrieben wird.
+     * @return Die Anzahl der gelesenen Bytes.
+     * @throws IOException wenn beim Lesen der Datei ein Fehler auftritt.
+     * @throws XMLStreamException wenn beim Schreiben des XML ein Fehler auftritt.
+     */
+    public static long encodeFileToBase64(File file, XMLStreamWriter writer) throws IOException, XMLStreamException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return encodeToBase64(in, writer);
+        }
+    }
+
+    /**
+     * Kodiert einen Eingabestrom blockweise nach Base64 und schreibt das Ergebnis
+     * als Textinhalt direkt in den XMLStreamWriter. Der Eingabestrom wird nicht geschlossen.
+     *
+     * @param in Der Eingabestrom, dessen Inhalt kodiert werden soll.
+     * @param writer Der XMLStreamWriter, in dessen aktuelles Element der Base64-Text geschrieben wird.
+     * @return Die Anzahl der gelesenen Bytes.
+     * @throws IOException wenn beim Lesen ein Fehler auftritt.
+     * @throws XMLStreamException wenn beim Schreiben des XML ein Fehler auftritt.
+     */
+    public static long encodeToBase64(InputStream in, XMLStreamWriter writer) throws IOException, XMLStreamException {
+        Base64.Encoder encoder = Base64.getEncoder();
+        byte[] buffer = new byte[CHUNK_SIZE];
+        byte[] encoded = new byte[CHUNK_SIZE / 3 * 4];
+        char[] chars = new char[encoded.length];
+        long total = 0;
+        int bytesRead;
+        while ((bytesRead = in.readNBytes(buffer, 0, CHUNK_SIZE)) > 0) {
+            int length = encoder.encode(bytesRead == CHUNK_SIZE ? buffer : Arrays.copyOf(buffer, bytesRead), encoded);
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) encoded[i];
+            }
+            writer.writeCharacters(chars, 0, length);
+            total += bytesRead;
+        }
+        return total;
+    }
 }
@@ -0,0 +1,208 @@
+package proforma2moodle.logic;
+
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.TaskXMLData;
+import proforma2moodle.Entity.SystemSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Die BatchRunner-Klasse fuehrt viele Konvertierungen in einer JVM aus. Die Auftraege stehen in einer
+ * Manifest-Datei, je Zeile Kategorie, Ausgabepfad und Eingabepfad, getrennt durch Semikolon oder Tabulator.
+ * Leere Zeilen und Zeilen, die mit # beginnen, werden ignoriert. Die Auftraege laufen in einem Pool
+ * mit einstellbarer Anzahl von Threads; jeder Auftrag hat seinen eigenen ConversionContext.
+ */
+public class BatchRunner {
+
+    /**
+     * Ein Auftrag aus dem Manifest und sein Ergebnis.
+     */
+    public static class BatchJob {
+        private final int line;
+        private final ConversionContext context;
+        private int tasks;
+        private List<File> outputFiles = List.of();
+        private long nanos;
+        private String error;
+
+        BatchJob(int line, ConversionContext context) {
+            this.line = line;
+            this.context = context;
+        }
+
+        public int getLine() { return line; }
+
+        public ConversionContext getContext() { return context; }
+
+        public int getTasks() { return tasks; }
+
+        /**
+         * @return Die geschriebenen Dateien, bei geteilter Ausgabe alle Teildateien.
+         */
+        public List<File> getOutputFiles() { return outputFiles; }
+
+        public long getNanos() { return nanos; }
+
+        /**
+         * @return Die Fehlermeldung oder null, falls der Auftrag erfolgreich war.
+         */
+        public String getError() { return error; }
+
+        public boolean isSuccessful() { return error == null; }
+    }
+
+    private final int workers;
+
+    /**
+     * @param workers Anzahl der Auftraege, die gleichzeitig laufen.
+     */
+    public BatchRunner(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Liest die Auftraege aus einer Manifest-Datei.
+     *
+     * @param manifest Die Manifest-Datei.
+     * @return Die Auftraege in der Reihenfolge des Manifests.
+     * @throws IOException wenn die Datei nicht gelesen werden kann oder eine Zeile ungueltig ist.
+     */
+    public static List<BatchJob> readManifest(File manifest) throws IOException {
+        List<BatchJob> jobs = new ArrayList<>();
+        List<String> lines = Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("[;\t]", -1);
+            if (fields.length != 3) {
+                throw new IOException(manifest + ":" + (i + 1) + ": expected category;output;input");
+            }
+            ConversionContext context = new ConversionContext(fields[0].trim(), fields[1].trim());
+            context.setInputPath(fields[2].trim());
+            jobs.add(new BatchJob(i + 1, context));
+        }
+        return jobs;
+    }
+
+    /**
+     * Fuehrt alle Auftraege aus. Ein fehlgeschlagener Auftrag bricht die uebrigen nicht ab.
+     * Die Parallelitaet der Extraktion wird auf die Threads des Pools aufgeteilt. Ein Konvertierungs-Cache
+     * wird erst nach dem letzten Auftrag verkleinert.
+     *
+     * @param jobs Die Auftraege.
+     * @throws InterruptedException wenn der aufrufende Thread unterbrochen wird.
+     */
+    public void run(List<BatchJob> jobs) throws InterruptedException {
+        int threads = Math.min(workers, Math.max(1, jobs.size()));
+        int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (BatchJob job : jobs) {
+                if (!SystemSettings.get().hasParallelism()) {
+                    job.context.setParallelism(parallelism);
+                }
+                futures.add(pool.submit(() -> runJob(job)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // runJob haelt Fehler im Auftrag fest
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        if (!jobs.isEmpty()) {
+            ConversionCache cache = ConversionCache.forContext(jobs.get(0).context);
+            if (cache != null) {
+                cache.scheduleEviction();
+            }
+        }
+    }
+
+    /**
+     * Fuehrt einen einzelnen Auftrag aus und haelt Anzahl der Aufgaben, Laufzeit und Fehler fest.
+     */
+    private static void runJob(BatchJob job) {
+        long start = System.nanoTime();
+        try {
+            ConversionContext context = job.context;
+            File input = new File(context.getInputPath());
+            if (!input.exists()) {
+                job.error = "input not found: " + input;
+                return;
+            }
+            File outputFile;
+            if (context.getPipelineOptions().isPipelined()) {
+                ConversionPipeline pipeline = new ConversionPipeline(context);
+                outputFile = pipeline.run(input);
+                job.tasks = pipeline.getTaskCount();
+            } else {
+                List<TaskXMLData> tasks = new FileChooser(context).collectAndExtractTasks(input, new XMLProcessor(context));
+                job.tasks = tasks.size();
+                outputFile = new MoodleXMLConverter(tasks, context).createMoodleXML();
+            }
+            if (outputFile == null) {
+                job.error = "could not write " + context.getOutputFile();
+            } else {
+                job.outputFiles = context.getMetrics().getOutputFiles();
+            }
+        } catch (Exception e) {
+            job.error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        } finally {
+            job.context.deleteTemporaryFiles();
+            job.nanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Erstellt eine Zusammenfassung mit einer Zeile je Auftrag und einer Gesamtzeile.
+     *
+     * @param jobs Die ausgefuehrten Auftraege.
+     * @param wallNanos Die Gesamtlaufzeit.
+     * @return Die Zusammenfassung.
+     */
+    public String summary(List<BatchJob> jobs, long wallNanos) {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format(Locale.ROOT, "%-6s %-30s %7s %10s  %s%n", "line", "category", "tasks", "ms", "result"));
+        int failed = 0;
+        int tasks = 0;
+        for (BatchJob job : jobs) {
+            tasks += job.tasks;
+            if (!job.isSuccessful()) {
+                failed++;
+            }
+            summary.append(String.format(Locale.ROOT, "%-6d %-30s %7d %10.1f  %s%n", job.line,
+                    job.context.getCategoryPath(), job.tasks, job.nanos / 1e6,
+                    job.isSuccessful() ? output(job) : "FAILED " + job.error));
+        }
+        summary.append(String.format(Locale.ROOT, "%d job(s), %d failed, %d task(s) in %.1f ms on %d worker(s)",
+                jobs.size(), failed, tasks, wallNanos / 1e6, Math.min(workers, Math.max(1, jobs.size()))));
+        return summary.toString();
+    }
+
+    /**
+     * @return Die geschriebene Datei oder bei geteilter Ausgabe die erste und letzte Teildatei mit ihrer Anzahl.
+     */
+    private static String output(BatchJob job) {
+        List<File> files = job.outputFiles;
+        if (files.size() < 2) {
+            return files.isEmpty() ? job.context.getOutputFile().getPath() : files.get(0).getPath();
+        }
+        return files.get(0).getPath() + " .. " + files.get(files.size() - 1).getName() + " (" + files.size() + " files)";
+    }
+}
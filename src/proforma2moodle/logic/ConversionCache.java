@@ -0,0 +1,336 @@
+package proforma2moodle.logic;
+
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.TaskXMLData;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Die ConversionCache-Klasse verwaltet einen inhaltsadressierten Cache auf der Festplatte.
+ * Der Schluessel einer Aufgabe ist der SHA-256-Hash ueber den Inhalt der Aufgabendatei, ihren Namen,
+ * den Eintrag der task.xml und die Version des Konverters. Zu jedem Schluessel werden die extrahierten
+ * Felder der TaskXMLData (&lt;key&gt;.properties) und das erzeugte question-Element (&lt;key&gt;.xml) gespeichert.
+ * Bei einem Treffer entfallen sowohl das Parsen der task.xml als auch die Base64-Kodierung des Archivs.
+ * Die Groesse des Caches ist begrenzt; es werden die am laengsten nicht verwendeten Eintraege geloescht.
+ * Geloescht wird nur einmal je JVM beim Beenden, nicht nach jedem Auftrag, und nur von einem Prozess zur Zeit.
+ * Da ein anderer Prozess mit demselben Verzeichnis dennoch jederzeit Eintraege loeschen kann, behandeln die
+ * Leser einen fehlenden Eintrag als Fehltreffer.
+ */
+public class ConversionCache {
+    /**
+     * Die Version des Konverters. Sie geht in jeden Schluessel ein, sodass eine neue Version
+     * keine Eintraege einer aelteren verwendet.
+     */
+    public static final String CONVERTER_VERSION = "0.7";
+
+    private static final String PROPERTIES_SUFFIX = ".properties";
+    private static final String FRAGMENT_SUFFIX = ".xml";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String LOCK_FILE = "evict.lock";
+    private static final Object EVICTION_LOCK = new Object();
+    private static final Set<File> EVICTION_SCHEDULED = ConcurrentHashMap.newKeySet();
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * Erzeugt einen Cache im Verzeichnis des Auftrags.
+     *
+     * @param context Die Einstellungen des Auftrags mit Cache-Verzeichnis und Groesse.
+     */
+    public ConversionCache(ConversionContext context) {
+        this.directory = context.getCacheOptions().getDirectory();
+        this.maxSize = context.getCacheOptions().getMaxSize();
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+    }
+
+    /**
+     * @param context Die Einstellungen des Auftrags.
+     * @return Der Cache des Auftrags oder null, falls kein Cache-Verzeichnis eingestellt ist.
+     */
+    public static ConversionCache forContext(ConversionContext context) {
+        return context.getCacheOptions().getDirectory() != null ? new ConversionCache(context) : null;
+    }
+
+    /**
+     * Berechnet den Schluessel einer Aufgabe aus dem Inhalt ihrer Datei.
+     *
+     * @param data Die Aufgabe.
+     * @return Der Schluessel als Hexadezimalzeichenkette.
+     * @throws IOException wenn die Aufgabendatei nicht gelesen werden kann.
+     */
+    public static String key(TaskXMLData data) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = data.openFile()) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        digest.update((byte) 0);
+        digest.update(data.getFileName().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        if (data.getTaskXMLEntry() != null) {
+            digest.update(data.getTaskXMLEntry().getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+        digest.update(CONVERTER_VERSION.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Berechnet den Schluessel einer Aufgabe und laedt bei einem Treffer die gespeicherten Felder
+     * und das question-Element. Ein Treffer zaehlt als Verwendung des Eintrags.
+     *
+     * @param data Die Aufgabe; ihr Schluessel wird in jedem Fall gesetzt.
+     * @return true bei einem Treffer, false sonst.
+     * @throws IOException wenn die Aufgabendatei nicht gelesen werden kann.
+     */
+    public boolean load(TaskXMLData data) throws IOException {
+        String key = key(data);
+        data.setCacheKey(key);
+        File properties = new File(directory, key + PROPERTIES_SUFFIX);
+        File fragment = new File(directory, key + FRAGMENT_SUFFIX);
+        if (!properties.isFile() || !fragment.isFile()) {
+            return false;
+        }
+        Properties fields = new Properties();
+        try (InputStream in = Files.newInputStream(properties.toPath())) {
+            fields.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Ignoring unreadable cache entry " + properties + ": " + e.getMessage());
+            return false;
+        }
+        readFields(fields, data);
+        data.setQuestionFragment(fragment);
+        long now = System.currentTimeMillis();
+        properties.setLastModified(now);
+        fragment.setLastModified(now);
+        return true;
+    }
+
+    /**
+     * Erzeugt eine temporaere Datei im Cache-Verzeichnis, in die das question-Element geschrieben wird.
+     *
+     * @param data Die Aufgabe.
+     * @return Die temporaere Datei.
+     * @throws IOException wenn die Datei nicht angelegt werden kann.
+     */
+    public File createFragmentFile(TaskXMLData data) throws IOException {
+        return Files.createTempFile(directory.toPath(), data.getCacheKey(), ".tmp").toFile();
+    }
+
+    /**
+     * Speichert die Felder einer Aufgabe und das in die temporaere Datei geschriebene question-Element
+     * unter dem Schluessel der Aufgabe.
+     *
+     * @param data Die Aufgabe mit gesetztem Schluessel.
+     * @param fragmentFile Die temporaere Datei aus createFragmentFile.
+     * @return Die Datei des question-Elements im Cache.
+     * @throws IOException wenn der Eintrag nicht geschrieben werden kann.
+     */
+    public File store(TaskXMLData data, File fragmentFile) throws IOException {
+        File fragment = new File(directory, data.getCacheKey() + FRAGMENT_SUFFIX);
+        move(fragmentFile.toPath(), fragment.toPath());
+        Path propertiesFile = Files.createTempFile(directory.toPath(), data.getCacheKey(), ".tmp");
+        try (OutputStream out = Files.newOutputStream(propertiesFile)) {
+            writeFields(data).store(out, "ProFormA2Moodle " + CONVERTER_VERSION);
+        }
+        move(propertiesFile, new File(directory, data.getCacheKey() + PROPERTIES_SUFFIX).toPath());
+        data.setQuestionFragment(fragment);
+        return fragment;
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Meldet den Cache fuer die Verdraengung beim Beenden der JVM an. Alle Auftraege einer JVM, die dasselbe
+     * Verzeichnis verwenden, teilen sich eine Verdraengung mit der Groesse des ersten angemeldeten Caches;
+     * solange sie laufen, loescht keiner von ihnen Eintraege, die ein anderer gerade kopiert.
+     */
+    public void scheduleEviction() {
+        if (EVICTION_SCHEDULED.add(directory.getAbsoluteFile())) {
+            Runtime.getRuntime().addShutdownHook(new Thread(this::evict, "ProFormA2Moodle cache eviction"));
+        }
+    }
+
+    /**
+     * Loescht die am laengsten nicht verwendeten Eintraege, bis der Cache hoechstens die eingestellte Groesse hat.
+     * Zurueckgebliebene temporaere Dateien werden ebenfalls geloescht. Haelt ein anderer Prozess die Sperre
+     * des Verzeichnisses oder gibt es das Verzeichnis nicht mehr, wird nichts geloescht.
+     *
+     * @return Die Anzahl der geloeschten Eintraege.
+     */
+    public int evict() {
+        if (!directory.isDirectory()) {
+            return 0;
+        }
+        synchronized (EVICTION_LOCK) {
+            try (FileChannel channel = FileChannel.open(new File(directory, LOCK_FILE).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = channel.tryLock()) {
+                return lock != null ? evictLocked() : 0;
+            } catch (IOException | OverlappingFileLockException e) {
+                System.err.println("Cache eviction skipped: " + e.getMessage());
+                return 0;
+            }
+        }
+    }
+
+    private int evictLocked() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        Map<String, List<File>> entries = new HashMap<>();
+        long size = 0;
+        long staleBefore = System.currentTimeMillis() - 24L * 60 * 60 * 1000;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.equals(LOCK_FILE)) {
+                continue;
+            }
+            if (name.endsWith(".tmp")) {
+                if (file.lastModified() < staleBefore) {
+                    file.delete();
+                }
+                continue;
+            }
+            int dot = name.lastIndexOf('.');
+            if (dot <= 0) {
+                continue;
+            }
+            entries.computeIfAbsent(name.substring(0, dot), k -> new ArrayList<>()).add(file);
+            size += file.length();
+        }
+        if (size <= maxSize) {
+            return 0;
+        }
+        List<List<File>> byAge = new ArrayList<>(entries.values());
+        byAge.sort(Comparator.comparingLong(ConversionCache::lastUsed));
+        int evicted = 0;
+        for (List<File> entry : byAge) {
+            if (size <= maxSize) {
+                break;
+            }
+            for (File file : entry) {
+                long length = file.length();
+                if (file.delete()) {
+                    size -= length;
+                }
+            }
+            evicted++;
+        }
+        return evicted;
+    }
+
+    private static long lastUsed(List<File> entry) {
+        long lastUsed = 0;
+        for (File file : entry) {
+            lastUsed = Math.max(lastUsed, file.lastModified());
+        }
+        return lastUsed;
+    }
+
+    private static Properties writeFields(TaskXMLData data) {
+        Properties fields = new Properties();
+        put(fields, "questionName", data.getQuestionName());
+        put(fields, "questionText", data.getQuestionText());
+        put(fields, "generalFeedback", data.getGeneralFeedback());
+        put(fields, "internalDescription", data.getInternalDescription());
+        put(fields, "graderName", data.getGraderName());
+        put(fields, "graderVersion", data.getGraderVersion());
+        put(fields, "taskuuid", data.getTaskuuid());
+        put(fields, "enableFileSubmissions", data.getEnableFileSubmissions());
+        put(fields, "enableFreeTextSubmissions", data.getEnableFreeTextSubmissions());
+        put(fields, "ftsNumInitialFields", data.getFtsNumInitialFields());
+        put(fields, "ftsMaxnumFields", data.getFtsMaxnumFields());
+        put(fields, "ftsAutoGenerateFileNames", data.getFtsAutoGenerateFileNames());
+        put(fields, "penalty", data.getPenalty());
+        put(fields, "defaultgrade", data.getDefaultgrade());
+        put(fields, "ftsStandardLang", data.getFtsStandardLang());
+        put(fields, "answer", data.getAnswer());
+        fields.setProperty("fts.count", String.valueOf(data.ftsList.size()));
+        for (int i = 0; i < data.ftsList.size(); i++) {
+            TaskXMLData.FreeInputField fts = data.ftsList.get(i);
+            put(fields, "fts." + i + ".nameSettings", fts.getNameSettingsForFreeTextInput());
+            put(fields, "fts." + i + ".fieldName", fts.getFreeTextInputFieldName());
+            put(fields, "fts." + i + ".language", fts.getFtsOverWrittenLanguage());
+            put(fields, "fts." + i + ".rows", fts.getFtsInitialDisplayRows());
+            put(fields, "fts." + i + ".template", fts.getFreeTextInputFieldTemplate());
+        }
+        return fields;
+    }
+
+    private static void put(Properties fields, String name, String value) {
+        if (value != null) {
+            fields.setProperty(name, value);
+        }
+    }
+
+    private static void readFields(Properties fields, TaskXMLData data) {
+        data.setQuestionName(fields.getProperty("questionName"));
+        data.setQuestionText(fields.getProperty("questionText"));
+        data.setGeneralFeedback(fields.getProperty("generalFeedback"));
+        data.setInternalDescription(fields.getProperty("internalDescription"));
+        data.setGraderName(fields.getProperty("graderName"));
+        data.setGraderVersion(fields.getProperty("graderVersion"));
+        data.setTaskuuid(fields.getProperty("taskuuid"));
+        data.setEnableFileSubmissions(fields.getProperty("enableFileSubmissions"));
+        data.setEnableFreeTextSubmissions(fields.getProperty("enableFreeTextSubmissions"));
+        data.setFtsNumInitialFields(fields.getProperty("ftsNumInitialFields"));
+        data.setFtsMaxnumFields(fields.getProperty("ftsMaxnumFields"));
+        data.setFtsAutoGenerateFileNames(fields.getProperty("ftsAutoGenerateFileNames"));
+        data.setPenalty(fields.getProperty("penalty"));
+        data.setDefaultgrade(fields.getProperty("defaultgrade"));
+        data.setFtsStandardLang(fields.getProperty("ftsStandardLang"));
+        data.setAnswer(fields.getProperty("answer"));
+        data.ftsList.clear();
+        int count = Integer.parseInt(fields.getProperty("fts.count", "0"));
+        for (int i = 0; i < count; i++) {
+            data.ftsList.add(new TaskXMLData.FreeInputField(
+                    fields.getProperty("fts." + i + ".nameSettings"),
+                    fields.getProperty("fts." + i + ".fieldName"),
+                    fields.getProperty("fts." + i + ".language"),
+                    fields.getProperty("fts." + i + ".rows"),
+                    fields.getProperty("fts." + i + ".template")));
+        }
+    }
+}
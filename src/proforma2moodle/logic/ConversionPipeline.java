@@ -0,0 +1,358 @@
+package proforma2moodle.logic;
+
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.TaskXMLData;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Die ConversionPipeline-Klasse fuehrt eine Konvertierung in Stufen aus, die gleichzeitig arbeiten:
+ * <ol>
+ *     <li>Durchsuchen der Verzeichnisse mit dem DirectoryScanner (eigener Pool),</li>
+ *     <li>Lesen der ZIP-Archive in einem eigenen Thread,</li>
+ *     <li>Parsen der task.xml in einem Pool mit der Parallelitaet des Auftrags,</li>
+ *     <li>Erzeugen der question-Elemente einschliesslich Base64-Kodierung in einem zweiten Pool,</li>
+ *     <li>Schreiben der Moodle-XML im aufrufenden Thread.</li>
+ * </ol>
+ * Zwischen dem Lesen der Archive und dem Schreiben steht eine begrenzte Warteschlange; ist sie voll, wartet das
+ * Durchsuchen, bis Fragen geschrieben sind. So bleiben hoechstens PipelineOptions.getCapacity Aufgaben gleichzeitig im
+ * Speicher, und die ersten Fragen stehen in der Ausgabe, bevor alle Aufgaben gelesen sind. Die Fragen werden in
+ * derselben Reihenfolge geschrieben wie ohne Pipeline.
+ * Die Moodle-XML wird zunaechst in eine Datei mit der Endung .part geschrieben und ersetzt die Ausgabe eines
+ * frueheren Laufs erst, wenn sie vollstaendig ist.
+ * Ist eine Aufteilung auf mehrere Dateien eingestellt, muessen vorab alle Groessen bekannt sein; dann werden
+ * die Aufgaben wie bisher erst vollstaendig gelesen und danach geschrieben.
+ * Duplikate gleichen Inhalts erkennt der TaskDeduplicator schon beim Durchsuchen; Duplikate gleicher uuid
+ * werden nach dem Parsen nicht mehr erzeugt, sobald feststeht, dass eine frueher stehende Aufgabe dieselbe uuid
+ * hat, und beim Schreiben in der Reihenfolge der Ausgabe endgueltig aussortiert.
+ * Ist eine Pruefung gegen das ProFormA-Schema eingestellt, prueft die Stufe zum Parsen jede task.xml vorher;
+ * ungueltige Aufgaben werden nicht erzeugt und beim Schreiben wie Duplikate uebersprungen.
+ */
+public class ConversionPipeline {
+    private static final CompletableFuture<MoodleXMLConverter.RenderedQuestion> END = CompletableFuture.completedFuture(null);
+
+    private final ConversionContext context;
+    private final TaskDeduplicator deduplicator;
+    private final AtomicInteger tasks = new AtomicInteger();
+    private final AtomicInteger extracted = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicLong fileBytes = new AtomicLong();
+    private final Map<Integer, long[]> taskTimes = new ConcurrentSkipListMap<>();
+    private final AtomicLong lastExtracted = new AtomicLong();
+    private final AtomicBoolean writingAnnounced = new AtomicBoolean();
+    private volatile int discovered = -1;
+    private volatile boolean stopped;
+    private long wallNanos;
+    private long firstQuestionNanos = -1;
+    private XMLProcessor.ExtractionStats extractionStats;
+
+    /**
+     * @param context Die Einstellungen des Auftrags.
+     */
+    public ConversionPipeline(ConversionContext context) {
+        this.context = context;
+        this.deduplicator = TaskDeduplicator.forContext(context);
+    }
+
+    /**
+     * Konvertiert alle Aufgaben einer Datei (XML, ZIP, Verzeichnis) in die Moodle-XML des Auftrags.
+     *
+     * @param input Die Eingabedatei oder das Eingabeverzeichnis.
+     * @return Die geschriebene Moodle-XML, bei geteilter Ausgabe die erste Teildatei, oder null, falls sie nicht
+     *         geschrieben werden konnte. Alle geschriebenen Dateien liefert ConversionMetrics.getOutputFiles.
+     * @throws ParserConfigurationException Bei Fehlern im XML-Parsing-Prozess.
+     * @throws IOException Bei Lese-/Schreibfehlern.
+     * @throws SAXException Bei Fehlern in der XML-Verarbeitung.
+     */
+    public File run(File input) throws ParserConfigurationException, IOException, SAXException {
+        long start = System.nanoTime();
+        XMLProcessor processor = new XMLProcessor(context);
+        if (context.getShardOptions().isSharded()) {
+            List<TaskXMLData> all = new FileChooser(context).collectAndExtractTasks(input, processor);
+            tasks.set(all.size());
+            extractionStats = processor.getLastStats();
+            File outputFile = processor.writeMoodleXML(all);
+            wallNanos = System.nanoTime() - start;
+            return outputFile;
+        }
+
+        BlockingQueue<CompletableFuture<MoodleXMLConverter.RenderedQuestion>> questions =
+                new ArrayBlockingQueue<>(context.getPipelineOptions().getCapacity());
+        ForkJoinPool parsePool = newPool("parse", context.getParallelism());
+        ForkJoinPool encodePool = newPool("encode", context.getParallelism());
+        Thread reader = new Thread(() -> read(input, processor, parsePool, encodePool, questions), "proforma2moodle-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        MoodleXMLConverter converter = new MoodleXMLConverter(List.of(), context);
+        File outputFile = context.getOutputFile();
+        File partFile = new File(outputFile.getPath() + ".part");
+        try {
+            converter.writeMoodleXML(partFile, new QuestionIterator(questions, start));
+            move(partFile.toPath(), outputFile.toPath());
+        } catch (CompletionException e) {
+            rethrow(e.getCause());
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            stopped = true;
+            reader.interrupt();
+            parsePool.shutdownNow();
+            encodePool.shutdownNow();
+        }
+        converter.completeConversion(List.of(outputFile), getTaskCount());
+        ConversionCache cache = ConversionCache.forContext(context);
+        if (cache != null) {
+            cache.scheduleEviction();
+        }
+        wallNanos = System.nanoTime() - start;
+        extractionStats = extractionStats(start);
+        return outputFile;
+    }
+
+    /**
+     * Erzeugt den Pool einer Stufe. Seine Threads heissen proforma2moodle-&lt;Stufe&gt;-&lt;Nummer&gt;, damit sie in
+     * Thread-Dumps und Profilen der Stufe zugeordnet werden koennen.
+     */
+    private static ForkJoinPool newPool(String stage, int parallelism) {
+        AtomicInteger workers = new AtomicInteger();
+        return new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("proforma2moodle-" + stage + "-" + workers.incrementAndGet());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Fasst die Laufzeiten der Stufe zum Parsen wie bei extractAll zusammen; die Gesamtzeit reicht vom Beginn
+     * des Laufs bis zur zuletzt gelesenen Aufgabe.
+     */
+    private XMLProcessor.ExtractionStats extractionStats(long start) {
+        long[] taskNanos = new long[taskTimes.size()];
+        long sequentialNanos = 0;
+        int i = 0;
+        for (long[] times : taskTimes.values()) {
+            taskNanos[i++] = times[0];
+            sequentialNanos += times[1];
+        }
+        long wall = taskNanos.length > 0 ? lastExtracted.get() - start : 0;
+        return new XMLProcessor.ExtractionStats(context.getParallelism(), wall, taskNanos, sequentialNanos);
+    }
+
+    /**
+     * Ersetzt die Moodle-XML eines frueheren Laufs erst, wenn die neue vollstaendig geschrieben ist.
+     */
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @return Die Anzahl der Aufgaben des letzten Laufs.
+     */
+    public int getTaskCount() {
+        return tasks.get() - skipped.get();
+    }
+
+    /**
+     * @return Die Laufzeitstatistik der Stufe zum Parsen im letzten Lauf oder null, falls noch keiner stattgefunden hat.
+     */
+    public XMLProcessor.ExtractionStats getExtractionStats() {
+        return extractionStats;
+    }
+
+    @Override
+    public String toString() {
+        String message = String.format(Locale.ROOT, "%d tasks converted in %.1f ms", getTaskCount(), wallNanos / 1e6);
+        if (firstQuestionNanos >= 0) {
+            message += String.format(Locale.ROOT, ", first question written after %.1f ms", firstQuestionNanos / 1e6);
+        }
+        if (extractionStats != null) {
+            message += "\n" + extractionStats;
+        }
+        return message;
+    }
+
+    /**
+     * Durchsucht die Eingabe und gibt jede gefundene Aufgabe an die Pools zum Parsen und Erzeugen weiter.
+     * Laeuft im eigenen Thread; jeder Fehler wird als letzter Eintrag der Warteschlange an den Schreiber gemeldet.
+     */
+    private void read(File input, XMLProcessor processor, ForkJoinPool parsePool, ForkJoinPool encodePool,
+                      BlockingQueue<CompletableFuture<MoodleXMLConverter.RenderedQuestion>> questions) {
+        try {
+            new FileChooser(context).streamTasks(input, deduplicator, data -> {
+                int index = tasks.getAndIncrement();
+                put(questions, CompletableFuture
+                        .supplyAsync(() -> extract(processor, data, index), parsePool)
+                        .thenApplyAsync(extractedData -> render(extractedData, index), encodePool));
+            });
+            discovered = tasks.get();
+            context.getListener().extractionStarted(discovered);
+            announceWriting();
+            put(questions, END);
+        } catch (Throwable e) {
+            if (!stopped) {
+                put(questions, CompletableFuture.failedFuture(e));
+            }
+        }
+    }
+
+    private TaskXMLData extract(XMLProcessor processor, TaskXMLData data, int index) {
+        try {
+            taskTimes.put(index, processor.loadOrExtractTask(data));
+            lastExtracted.accumulateAndGet(System.nanoTime(), Math::max);
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new CompletionException(e);
+        }
+        if (deduplicator != null && !data.isInvalid()) {
+            deduplicator.claimUuid(data, index);
+        }
+        fileBytes.addAndGet(Math.max(0, data.getFileSize()));
+        extracted.incrementAndGet();
+        announceWriting();
+        return data;
+    }
+
+    private MoodleXMLConverter.RenderedQuestion render(TaskXMLData data, int index) {
+        if (data.isInvalid() || deduplicator != null && deduplicator.isSuperseded(data, index)) {
+            return new MoodleXMLConverter.RenderedQuestion(data);
+        }
+        try {
+            return new MoodleXMLConverter(List.of(), context).render(data);
+        } catch (ParserConfigurationException | XMLStreamException | IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Meldet dem ConversionListener den Beginn des Schreibens, sobald alle Aufgaben gefunden und gelesen sind
+     * und damit die Groesse aller Aufgabendateien bekannt ist.
+     */
+    private void announceWriting() {
+        int total = discovered;
+        if (total >= 0 && extracted.get() == total && writingAnnounced.compareAndSet(false, true)) {
+            context.getListener().writingStarted(total, fileBytes.get());
+        }
+    }
+
+    /**
+     * Stellt eine Frage in die Warteschlange und wartet, solange sie voll ist.
+     *
+     * @throws CancellationException falls die Pipeline inzwischen beendet wurde.
+     */
+    private void put(BlockingQueue<CompletableFuture<MoodleXMLConverter.RenderedQuestion>> questions,
+                     CompletableFuture<MoodleXMLConverter.RenderedQuestion> question) {
+        try {
+            while (!questions.offer(question, 100, TimeUnit.MILLISECONDS)) {
+                if (stopped) {
+                    throw new CancellationException("Pipeline beendet");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Pipeline beendet");
+        }
+    }
+
+    private static void rethrow(Throwable cause) throws ParserConfigurationException, IOException, SAXException {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof ParserConfigurationException) {
+            throw (ParserConfigurationException) cause;
+        } else if (cause instanceof SAXException) {
+            throw (SAXException) cause;
+        } else if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof XMLStreamException) {
+            throw new IOException(cause);
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IOException(cause);
+    }
+
+    /**
+     * Liefert dem Schreiber die Fragen in der Reihenfolge der Warteschlange und wartet jeweils, bis die naechste
+     * erzeugt ist. Fehler einer Stufe werden als CompletionException weitergegeben.
+     */
+    private final class QuestionIterator implements Iterator<MoodleXMLConverter.RenderedQuestion> {
+        private final BlockingQueue<CompletableFuture<MoodleXMLConverter.RenderedQuestion>> questions;
+        private final long start;
+        private MoodleXMLConverter.RenderedQuestion next;
+        private boolean done;
+
+        QuestionIterator(BlockingQueue<CompletableFuture<MoodleXMLConverter.RenderedQuestion>> questions, long start) {
+            this.questions = questions;
+            this.start = start;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !done) {
+                CompletableFuture<MoodleXMLConverter.RenderedQuestion> question;
+                try {
+                    question = questions.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CompletionException(new IOException("Konvertierung unterbrochen", e));
+                }
+                if (question == END) {
+                    done = true;
+                } else {
+                    next = question.join();
+                    if (next.getData().isInvalid()
+                            || deduplicator != null && !deduplicator.admitUuid(next.getData())) {
+                        skipped.incrementAndGet();
+                        next.discard();
+                        next = null;
+                    }
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public MoodleXMLConverter.RenderedQuestion next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            MoodleXMLConverter.RenderedQuestion question = next;
+            next = null;
+            if (firstQuestionNanos < 0) {
+                firstQuestionNanos = System.nanoTime() - start;
+            }
+            return question;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package proforma2moodle.logic;
+
+import proforma2moodle.Entity.ConversionContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Die DirectoryScanner-Klasse durchsucht ein Verzeichnis nach task.xml- und ZIP-Dateien und liefert sie in
+ * derselben Reihenfolge wie das rekursive Durchlaufen mit File.listFiles. Die Verzeichnisse werden dabei in einem
+ * ForkJoinPool mit Files.walkFileTree parallel im Voraus gelesen, sodass auf langsamen Dateisystemen (z.B. NFS)
+ * viele Verzeichnisse gleichzeitig gelesen werden, waehrend der Aufrufer die ersten Funde bereits verarbeitet.
+ * Die Vorschau ist auf eine feste Anzahl gelesener, aber noch nicht abgeholter Verzeichnisse begrenzt; ist sie
+ * erschoepft, wird ein Verzeichnis erst gelesen, wenn der Aufrufer es erreicht.
+ */
+public class DirectoryScanner implements Closeable {
+    /** Groesste Anzahl von Verzeichnissen, die im Voraus gelesen werden. */
+    static final int PREFETCH_DIRECTORIES = 1024;
+
+    /**
+     * Ein Eintrag eines Verzeichnisses: eine gefundene Datei oder ein Unterverzeichnis mit seinem Inhalt.
+     */
+    private static final class Entry {
+        private final Path path;
+        private final boolean directory;
+        private CompletableFuture<List<Entry>> listing;
+        private boolean prefetched;
+
+        Entry(Path path, boolean directory) {
+            this.path = path;
+            this.directory = directory;
+        }
+    }
+
+    private final ConversionContext context;
+    private final ForkJoinPool pool;
+    private final Semaphore prefetch;
+    private final Deque<Iterator<Entry>> stack = new ArrayDeque<>();
+    private volatile boolean closed;
+
+    /**
+     * Erzeugt einen Scanner mit der Parallelitaet des Auftrags fuer das Durchsuchen.
+     *
+     * @param context Die Einstellungen des Auftrags.
+     */
+    public DirectoryScanner(ConversionContext context) {
+        this(context, context.getPipelineOptions().getDiscoveryParallelism(), PREFETCH_DIRECTORIES);
+    }
+
+    /**
+     * @param context Die Einstellungen des Auftrags.
+     * @param parallelism Anzahl der Threads, die Verzeichnisse gleichzeitig lesen.
+     * @param prefetchDirectories Groesste Anzahl von Verzeichnissen, die im Voraus gelesen werden.
+     */
+    public DirectoryScanner(ConversionContext context, int parallelism, int prefetchDirectories) {
+        this.context = context;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        this.prefetch = new Semaphore(Math.max(0, prefetchDirectories));
+    }
+
+    /**
+     * Beginnt das Durchsuchen des Verzeichnisses im Hintergrund.
+     *
+     * @param directory Das zu durchsuchende Verzeichnis.
+     */
+    public void start(Path directory) {
+        Entry root = new Entry(directory, true);
+        root.listing = CompletableFuture.supplyAsync(() -> list(directory), pool);
+        stack.push(List.of(root).iterator());
+    }
+
+    /**
+     * Liefert die naechste gefundene Datei und wartet, bis das Verzeichnis, in dem sie liegt, gelesen ist.
+     *
+     * @return Die naechste task.xml- oder ZIP-Datei oder null, wenn das Verzeichnis vollstaendig durchsucht ist.
+     */
+    public Path next() {
+        while (!stack.isEmpty()) {
+            Iterator<Entry> entries = stack.peek();
+            if (!entries.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            Entry entry = entries.next();
+            if (!entry.directory) {
+                return entry.path;
+            }
+            stack.push(take(entry).iterator());
+        }
+        return null;
+    }
+
+    /**
+     * Beendet das Durchsuchen, auch wenn es noch nicht abgeschlossen ist, z.B. nach einem Fehler beim Verarbeiten.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        stack.clear();
+        pool.shutdownNow();
+    }
+
+    /**
+     * Liefert den Inhalt eines Unterverzeichnisses. Wurde es nicht im Voraus gelesen, wird es jetzt gelesen.
+     */
+    private List<Entry> take(Entry entry) {
+        if (entry.listing == null) {
+            return list(entry.path);
+        }
+        try {
+            return entry.listing.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        } finally {
+            entry.listing = null;
+            if (entry.prefetched) {
+                prefetch.release();
+            }
+        }
+    }
+
+    /**
+     * Liest ein Verzeichnis und beginnt, solange die Vorschau reicht, das Lesen seiner Unterverzeichnisse.
+     * Nicht lesbare Verzeichnisse werden wie bei File.listFiles uebersprungen.
+     */
+    private List<Entry> list(Path directory) {
+        List<Entry> entries = new ArrayList<>();
+        try {
+            Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (closed || context.isCancelled()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    if (attributes.isDirectory()) {
+                        entries.add(new Entry(file, true));
+                    } else {
+                        String name = file.getFileName().toString().toLowerCase();
+                        if (name.endsWith("task.xml") || name.endsWith(".zip")) {
+                            entries.add(new Entry(file, false));
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            // Verzeichnis nicht lesbar
+        }
+        for (Entry entry : entries) {
+            if (entry.directory && !closed && prefetch.tryAcquire()) {
+                Path subdirectory = entry.path;
+                try {
+                    entry.listing = CompletableFuture.supplyAsync(() -> list(subdirectory), pool);
+                    entry.prefetched = true;
+                } catch (RejectedExecutionException e) {
+                    // Scanner wurde inzwischen geschlossen
+                    prefetch.release();
+                }
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,382 @@
+package proforma2moodle.logic;
+
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.TaskXMLData;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+
+/**
+ * Die DirectoryWatcher-Klasse beobachtet ein Eingabeverzeichnis mit einem WatchService und haelt die
+ * Moodle-XML aktuell. Nach dem ersten vollstaendigen Durchlauf werden nur die Aufgaben neu gelesen,
+ * deren Datei hinzugefuegt, geaendert oder geloescht wurde. Alle anderen question-Elemente liegen im
+ * Konvertierungs-Cache und werden beim Neuschreiben der Ausgabe nur kopiert. Verschachtelte Archive zaehlen
+ * ueber alle Eingabedateien gegen maxInMemoryArchiveTotal und werden mit den Aufgaben ihrer Datei freigegeben.
+ */
+public class DirectoryWatcher implements Closeable {
+    /**
+     * Name des Cache-Verzeichnisses im Ausgabeverzeichnis, falls im Kontext kein Cache eingestellt ist.
+     */
+    public static final String DEFAULT_CACHE_DIRECTORY = ".proforma2moodle-cache";
+
+    /** Wartezeit ohne weitere Ereignisse, bevor eine Aenderung verarbeitet wird, z.B. waehrend eine ZIP-Datei geschrieben wird. */
+    private static final long QUIET_PERIOD_MILLIS = 300;
+
+    private final ConversionContext context;
+    private final Path root;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final TreeMap<Path, List<TaskXMLData>> tasksByFile = new TreeMap<>();
+    private final Map<Path, NestedArchives> archivesByFile = new ConcurrentHashMap<>();
+    private final Set<Path> incompleteArchives = new HashSet<>();
+    private final FileChooser fileChooser;
+    private final XMLProcessor processor;
+
+    /**
+     * Erzeugt einen Beobachter fuer das Eingabeverzeichnis des Auftrags.
+     *
+     * @param context Die Einstellungen des Auftrags; der Eingabepfad muss ein Verzeichnis sein.
+     * @throws IOException wenn der WatchService nicht angelegt werden kann.
+     */
+    public DirectoryWatcher(ConversionContext context) throws IOException {
+        this.context = context;
+        this.root = new File(context.getInputPath()).toPath().toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            throw new IOException(root + " is not a directory");
+        }
+        if (context.getCacheOptions().getDirectory() == null) {
+            context.getCacheOptions().setDirectory(new File(context.getOutputPath(), DEFAULT_CACHE_DIRECTORY));
+        }
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.fileChooser = new FileChooser(context);
+        this.processor = new XMLProcessor(context);
+    }
+
+    /**
+     * Schreibt die Moodle-XML einmal vollstaendig und aktualisiert sie danach bei jeder Aenderung,
+     * bis der Thread unterbrochen oder der Beobachter geschlossen wird.
+     *
+     * @throws IOException bei Lese-/Schreibfehlern.
+     */
+    public void run() throws IOException {
+        System.out.println(initialBuild());
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Set<Path> changed = new LinkedHashSet<>();
+                boolean overflow = false;
+                do {
+                    overflow |= collectEvents(key, changed);
+                    key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+                String message = overflow ? initialBuild() : update(changed);
+                if (message != null) {
+                    System.out.println(message);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // beendet ueber close()
+        }
+    }
+
+    /**
+     * Erfasst alle Aufgaben des Eingabeverzeichnisses neu und schreibt die Moodle-XML.
+     *
+     * @return Eine Meldung ueber die Aktualisierung.
+     * @throws IOException bei Lese-/Schreibfehlern.
+     */
+    public String initialBuild() throws IOException {
+        long start = System.nanoTime();
+        context.getMetrics().reset();
+        removeAll(file -> true);
+        Set<Path> files = new LinkedHashSet<>();
+        registerAll(root, files);
+        List<TaskXMLData> changedTasks = new ArrayList<>();
+        for (Path file : files) {
+            collect(file, changedTasks);
+        }
+        extractAndWrite(changedTasks);
+        ConversionCache cache = ConversionCache.forContext(context);
+        if (cache != null) {
+            cache.scheduleEviction();
+        }
+        return String.format("Wrote %s: %d task(s) in %.1f ms", context.getOutputFile(), changedTasks.size(),
+                (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Verarbeitet geaenderte Pfade: geloeschte Dateien und Verzeichnisse werden entfernt, neue Verzeichnisse
+     * werden beobachtet, neue und geaenderte Aufgabendateien werden neu gelesen.
+     *
+     * @param changed Die geaenderten Pfade.
+     * @return Eine Meldung ueber die Aktualisierung oder null, falls keine Aufgabe betroffen war.
+     * @throws IOException bei Lese-/Schreibfehlern.
+     */
+    public String update(Set<Path> changed) throws IOException {
+        long start = System.nanoTime();
+        context.getMetrics().reset();
+        boolean affected = false;
+        List<TaskXMLData> changedTasks = new ArrayList<>();
+        for (Path path : changed) {
+            if (Files.isDirectory(path)) {
+                if (isIgnored(path) || directories.containsValue(path)) {
+                    // Aenderungen in bereits beobachteten Verzeichnissen kommen als eigene Ereignisse
+                    continue;
+                }
+                Set<Path> files = new LinkedHashSet<>();
+                registerAll(path, files);
+                for (Path file : files) {
+                    affected |= remove(file);
+                    affected |= collect(file, changedTasks);
+                }
+            } else if (isTaskFile(path)) {
+                affected |= remove(path);
+                if (Files.isRegularFile(path)) {
+                    affected |= collect(path, changedTasks);
+                } else {
+                    incompleteArchives.remove(path);
+                }
+            } else if (!Files.exists(path)) {
+                // geloeschtes Verzeichnis
+                affected |= removeAll(file -> file.startsWith(path));
+                incompleteArchives.removeIf(file -> file.startsWith(path));
+            }
+        }
+        if (!affected) {
+            return null;
+        }
+        extractAndWrite(changedTasks);
+        return String.format("Updated %s: %d changed task(s) in %.1f ms", context.getOutputFile(), changedTasks.size(),
+                (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Liest die geaenderten Aufgaben und schreibt die Moodle-XML ueber eine temporaere Datei neu.
+     * Unveraenderte Aufgaben behalten ihr question-Element aus dem Cache.
+     */
+    private void extractAndWrite(List<TaskXMLData> changedTasks) throws IOException {
+        List<TaskXMLData> allTasks = new ArrayList<>();
+        for (List<TaskXMLData> tasks : tasksByFile.values()) {
+            allTasks.addAll(tasks);
+        }
+        try {
+            processor.extractAll(changedTasks);
+            allTasks.removeIf(TaskXMLData::isInvalid);
+            File outputFile = context.getOutputFile();
+            Path tempFile = Files.createTempFile(outputFile.getParentFile().toPath(), outputFile.getName(), ".tmp");
+            try {
+                MoodleXMLConverter converter = new MoodleXMLConverter(allTasks, context);
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tempFile), 64 * 1024)) {
+                    converter.writeMoodleXML(out);
+                }
+                try {
+                    Files.move(tempFile, outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile, outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                converter.completeConversion(List.of(outputFile), allTasks.size());
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (ParserConfigurationException | SAXException | XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Erfasst die Aufgaben einer Datei. Unvollstaendige ZIP-Dateien werden uebersprungen;
+     * sie werden mit dem naechsten Ereignis erneut gelesen. Gemeldet wird eine solche Datei nur einmal,
+     * bis sie vollstaendig gelesen werden konnte.
+     *
+     * @return true, falls die Datei Aufgaben enthaelt.
+     */
+    private boolean collect(Path file, List<TaskXMLData> changedTasks) throws IOException {
+        if (file.getFileName().toString().toLowerCase().endsWith(".zip")) {
+            if (!isCompleteArchive(file)) {
+                if (incompleteArchives.add(file)) {
+                    System.err.println("Skipping incomplete archive " + file);
+                }
+                return false;
+            }
+            incompleteArchives.remove(file);
+        }
+        List<TaskXMLData> tasks = List.of();
+        long inMemoryBytes = fileChooser.getInMemoryArchiveBytes();
+        try {
+            tasks = fileChooser.collectTasks(file.toFile());
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException(e);
+        } finally {
+            // verschachtelte Archive gehoeren zu den Aufgaben dieser Datei und leben so lange wie sie
+            NestedArchives archives = new NestedArchives(context.takeTemporaryFiles(),
+                    fileChooser.getInMemoryArchiveBytes() - inMemoryBytes);
+            if (tasks.isEmpty()) {
+                archives.release(fileChooser);
+            } else {
+                archivesByFile.put(file, archives);
+            }
+        }
+        if (tasks.isEmpty()) {
+            return false;
+        }
+        tasksByFile.put(file, tasks);
+        changedTasks.addAll(tasks);
+        return true;
+    }
+
+    /**
+     * Entfernt die Aufgaben einer Datei, loescht die dazu entpackten verschachtelten Archive und gibt die
+     * im Speicher gehaltenen fuer die Grenze maxInMemoryArchiveTotal frei.
+     *
+     * @return true, falls die Datei Aufgaben enthielt.
+     */
+    private boolean remove(Path file) {
+        NestedArchives archives = archivesByFile.remove(file);
+        if (archives != null) {
+            archives.release(fileChooser);
+        }
+        return tasksByFile.remove(file) != null;
+    }
+
+    /**
+     * Entfernt die Aufgaben aller passenden Dateien, siehe remove.
+     *
+     * @return true, falls eine der Dateien Aufgaben enthielt.
+     */
+    private boolean removeAll(Predicate<Path> filter) {
+        boolean removed = false;
+        for (Path file : new ArrayList<>(tasksByFile.keySet())) {
+            if (filter.test(file)) {
+                removed |= remove(file);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Prueft, ob eine ZIP-Datei vollstaendig ist, d.h. ob ihr zentrales Verzeichnis gelesen werden kann.
+     */
+    private static boolean isCompleteArchive(Path file) {
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            return zip.size() >= 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Beobachtet ein Verzeichnis und alle Unterverzeichnisse und sammelt die darin enthaltenen Aufgabendateien.
+     */
+    private void registerAll(Path directory, Set<Path> files) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted()::iterator) {
+                if (Files.isDirectory(path)) {
+                    if (!isIgnored(path) && !directories.containsValue(path)) {
+                        directories.put(path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), path);
+                    }
+                } else if (isTaskFile(path) && !isIgnored(path.getParent())) {
+                    files.add(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true, falls die Ereignisse uebergelaufen sind und das Verzeichnis neu gelesen werden muss.
+     */
+    private boolean collectEvents(WatchKey key, Set<Path> changed) {
+        Path directory = directories.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+            } else if (directory != null) {
+                changed.add(directory.resolve((Path) event.context()));
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+        return overflow;
+    }
+
+    /**
+     * Versteckte Verzeichnisse wie das Standard-Cache-Verzeichnis werden nicht beobachtet.
+     */
+    private boolean isIgnored(Path directory) {
+        for (Path current = directory; current != null && current.startsWith(root) && !current.equals(root); current = current.getParent()) {
+            if (current.getFileName().toString().startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTaskFile(Path path) {
+        String name = path.getFileName().toString().toLowerCase();
+        return name.endsWith(".zip") || name.endsWith("task.xml");
+    }
+
+    /**
+     * Die verschachtelten Archive der Aufgaben einer Eingabedatei: die entpackten temporaeren Dateien und
+     * die Groesse der im Speicher gehaltenen Archive.
+     */
+    private static final class NestedArchives {
+        private final List<File> temporaryFiles;
+        private final long inMemoryBytes;
+
+        NestedArchives(List<File> temporaryFiles, long inMemoryBytes) {
+            this.temporaryFiles = temporaryFiles;
+            this.inMemoryBytes = inMemoryBytes;
+        }
+
+        void release(FileChooser fileChooser) {
+            ConversionContext.deleteFiles(temporaryFiles);
+            fileChooser.releaseInMemoryArchiveBytes(inMemoryBytes);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        // close darf aus einem anderen Thread als run kommen, deshalb nur die temporaeren Dateien loeschen
+        for (Path file : new ArrayList<>(archivesByFile.keySet())) {
+            NestedArchives archives = archivesByFile.remove(file);
+            if (archives != null) {
+                ConversionContext.deleteFiles(archives.temporaryFiles);
+            }
+        }
+    }
+}
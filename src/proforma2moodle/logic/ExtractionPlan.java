@@ -0,0 +1,162 @@
+package proforma2moodle.logic;
+
+import org.w3c.dom.Node;
+
+import javax.xml.namespace.QName;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Die ExtractionPlan-Klasse beschreibt fuer eine ProFormA-Version, an welchen Elementen die Werte einer task.xml
+ * stehen. Die Elemente werden als QName aus Namensraum und lokalem Namen vorab aufgeloest, sodass beim Parsen
+ * jedes Element mit zwei Tabellenzugriffen seiner Art zugeordnet wird, unabhaengig davon, mit welchem Praefix
+ * oder an welchem Element der Namensraum deklariert ist und ob er der Default-Namensraum ist.
+ * <p>
+ * Fuer jeden unterstuetzten Namensraum (urn:proforma:v2.0, v2.0.1, v2.1 und neuere Versionen nach demselben
+ * Schema) wird der Plan einmal erzeugt und fuer alle Aufgaben wiederverwendet. Die LMS-Eingabefelder werden
+ * in allen bekannten Versionen des Namensraums urn:proforma:lmsinputfields erkannt.
+ */
+public final class ExtractionPlan {
+    /**
+     * Die Elemente einer task.xml, die fuer die Konvertierung gelesen werden.
+     */
+    public enum Kind {
+        TITLE("title"),
+        DESCRIPTION("description"),
+        INTERNAL_DESCRIPTION("internal-description"),
+        PROGLANG("proglang"),
+        FILE("file"),
+        EMBEDDED_TXT_FILE("embedded-txt-file"),
+        TEST("test"),
+        GRADING_HINTS("grading-hints"),
+        ROOT("root"),
+        COMBINE("combine"),
+        TEST_REF("test-ref"),
+        COMBINE_REF("combine-ref"),
+        TEXTFIELD("textfield"),
+        FILEINPUT("fileinput");
+
+        private final String localName;
+
+        Kind(String localName) {
+            this.localName = localName;
+        }
+
+        boolean isInputField() {
+            return this == TEXTFIELD || this == FILEINPUT;
+        }
+    }
+
+    /** Namensraeume der unterstuetzten ProFormA-Versionen, z.B. urn:proforma:v2.0.1 oder urn:proforma:v2.1. */
+    private static final Pattern TASK_NAMESPACE = Pattern.compile("urn:proforma:v2(\\.\\d+)*");
+    /** Namensraeume der LMS-Eingabefelder, z.B. urn:proforma:lmsinputfields:v0.1. */
+    private static final Pattern INPUT_FIELDS_NAMESPACE = Pattern.compile("urn:proforma:lmsinputfields:v\\d+(\\.\\d+)*");
+    private static final Map<String, ExtractionPlan> PLANS = new ConcurrentHashMap<>();
+
+    private final String namespace;
+    private final Map<Kind, QName> names = new EnumMap<>(Kind.class);
+    private final Map<String, Kind> taskElements = new HashMap<>();
+    private final Map<String, Kind> inputFieldElements = new HashMap<>();
+    private final Map<String, Map<String, Kind>> inputFieldNamespaces = new ConcurrentHashMap<>();
+
+    private ExtractionPlan(String namespace) {
+        this.namespace = namespace;
+        for (Kind kind : Kind.values()) {
+            if (kind.isInputField()) {
+                inputFieldElements.put(kind.localName, kind);
+            } else {
+                names.put(kind, new QName(namespace, kind.localName));
+                taskElements.put(kind.localName, kind);
+            }
+        }
+    }
+
+    /**
+     * Liefert den Plan fuer den Namensraum des task-Elements. Plaene bekannter ProFormA-Versionen werden
+     * zwischengespeichert; fuer andere Namensraeume (auch ohne Namensraum) wird ein Plan erzeugt, der die
+     * Elemente in genau diesem Namensraum sucht.
+     *
+     * @param namespace Der Namensraum des task-Elements; null oder leer fuer keinen Namensraum.
+     * @return Der Plan.
+     */
+    public static ExtractionPlan forNamespace(String namespace) {
+        String uri = namespace == null ? "" : namespace;
+        ExtractionPlan plan = PLANS.get(uri);
+        if (plan != null) {
+            return plan;
+        }
+        if (uri.isEmpty() || TASK_NAMESPACE.matcher(uri).matches()) {
+            return PLANS.computeIfAbsent(uri, ExtractionPlan::new);
+        }
+        return new ExtractionPlan(uri);
+    }
+
+    /**
+     * @return Der Plan fuer den Namensraum des DOM-Elements.
+     */
+    public static ExtractionPlan forElement(Node element) {
+        return forNamespace(element.getNamespaceURI());
+    }
+
+    /**
+     * @return true, falls der Namensraum zu einer unterstuetzten ProFormA-Version gehoert.
+     */
+    public static boolean isProformaNamespace(String namespace) {
+        return namespace != null && TASK_NAMESPACE.matcher(namespace).matches();
+    }
+
+    /**
+     * Ordnet ein Element seiner Art zu.
+     *
+     * @param namespace Der aufgeloeste Namensraum des Elements; null oder leer fuer keinen Namensraum.
+     * @param localName Der lokale Name des Elements.
+     * @return Die Art des Elements oder null, falls es fuer die Konvertierung keine Rolle spielt.
+     */
+    public Kind kind(String namespace, String localName) {
+        String uri = namespace == null ? "" : namespace;
+        if (uri.equals(this.namespace)) {
+            return taskElements.get(localName);
+        }
+        return inputFields(uri).get(localName);
+    }
+
+    /**
+     * @return Die Art des DOM-Elements oder null.
+     */
+    public Kind kind(Node element) {
+        return kind(element.getNamespaceURI(), element.getLocalName());
+    }
+
+    /**
+     * @return Der QName einer Elementart im ProFormA-Namensraum dieses Plans.
+     */
+    public QName name(Kind kind) {
+        return names.get(kind);
+    }
+
+    /**
+     * @return Der ProFormA-Namensraum dieses Plans, leer fuer keinen Namensraum.
+     */
+    public String getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * Liefert die Tabelle der Eingabefelder fuer einen Namensraum; das Ergebnis wird je Namensraum gemerkt,
+     * damit der Namensraum nur einmal geprueft wird.
+     */
+    private Map<String, Kind> inputFields(String uri) {
+        Map<String, Kind> elements = inputFieldNamespaces.get(uri);
+        if (elements == null) {
+            elements = INPUT_FIELDS_NAMESPACE.matcher(uri).matches() ? inputFieldElements : Collections.emptyMap();
+            if (inputFieldNamespaces.size() < 64) {
+                inputFieldNamespaces.put(uri, elements);
+            }
+        }
+        return elements;
+    }
+}
@@ -3,11 +3,18 @@ package proforma2moodle.logic;
 import java.io.*;
 import javax.swing.*;
 import java.util.*;
+import java.nio.file.Path;
+import java.util.function.Consumer;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.DuplicateOptions;
+import proforma2moodle.Entity.ConversionMetrics;
 import proforma2moodle.Entity.TaskXMLData;
 import org.xml.sax.SAXException;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
 
 /**
@@ -16,26 +23,46 @@ import javax.xml.parsers.ParserConfigurationException;
  * Nach dem Auswaehlen der Dateien verarbeitet sie diese und speichert sie im gewuenschten Speicherort ab.
  */
 public class FileChooser {
+    /** Hoechstens so viele Duplikate oder ungueltige Aufgaben nennt die Meldung nach der Konvertierung einzeln. */
+    private static final int MESSAGE_ENTRIES = 10;
+
     private JFrame frame;
     private List<TaskXMLData> inputData;
+    private final ConversionContext context;
+    private XMLProcessor.Extraction extraction;
+    private Consumer<TaskXMLData> taskConsumer;
+    private TaskDeduplicator deduplicator;
+    private long inMemoryArchiveBytes;
 
     /**
      * Konstruktor der FileChooser-Klasse.
      *
      * @param frame Das Hauptfenster, in dem der FileChooser eingebettet ist.
+     * @param context Die Einstellungen des Konvertierungsauftrags.
      */
-    public FileChooser(JFrame frame) {
+    public FileChooser(JFrame frame, ConversionContext context) {
         this.frame = frame;
+        this.context = context;
         inputData = new ArrayList<>();
     }
 
     /**
-     * Default Constructor.
+     * Konstruktor ohne Fenster, z.B. fuer die Konsole oder eingebettete Aufrufe.
+     *
+     * @param context Die Einstellungen des Konvertierungsauftrags.
      */
-    public FileChooser() {
+    public FileChooser(ConversionContext context) {
+        this.context = context;
         inputData = new ArrayList<>();
     }
 
+    /**
+     * @return Die Einstellungen des Konvertierungsauftrags.
+     */
+    public ConversionContext getContext() {
+        return context;
+    }
+
 
     /**
      * Waehlt eine Datei aus
@@ -56,80 +83,408 @@ public class FileChooser {
      * @throws SAXException Bei Fehlern in der XML-Verarbeitung.
      */
     public String chooseAndProcessFile(File chosenFile) throws ParserConfigurationException, IOException, SAXException {
+        try {
+            return processFile(chosenFile);
+        } finally {
+            context.deleteTemporaryFiles();
+            inMemoryArchiveBytes = 0;
+        }
+    }
+
+    /**
+     * Konvertiert eine Datei mit oder ohne Pipeline und liefert die Meldung fuer den Benutzer.
+     */
+    private String processFile(File chosenFile) throws ParserConfigurationException, IOException, SAXException {
         String message = "No input file found.";
-        if (chosenFile != null) {
-            if (chosenFile.isDirectory()) {
-                processDirectory(chosenFile);
-            } else if (chosenFile.getName().toLowerCase().endsWith(".zip")) {
-                processZipFile(chosenFile);
-            } else if (chosenFile.getName().toLowerCase().endsWith("task.xml")) {
-                TaskXMLData data = new TaskXMLData();
-                data.setTaskXMLDatei(chosenFile);
-                inputData.add(data);
+        if (chosenFile != null && context.getPipelineOptions().isPipelined()) {
+            context.getMetrics().reset();
+            ConversionPipeline pipeline = new ConversionPipeline(context);
+            pipeline.run(chosenFile);
+            message = "Number of XML files processed " + pipeline.getTaskCount() + "\n" + pipeline
+                    + outputMessage() + duplicatesMessage() + invalidMessage();
+        } else if (chosenFile != null) {
+            context.getMetrics().reset();
+            XMLProcessor processor = new XMLProcessor(context);
+            List<TaskXMLData> tasks = collectAndExtractTasks(chosenFile, processor);
+            processor.writeMoodleXML(tasks);
+
+            XMLProcessor.ExtractionStats stats = processor.getLastStats();
+            message = "Number of XML files processed " + tasks.size();
+            if (stats != null) {
+                message += "\n" + stats;
             }
+            message += outputMessage() + duplicatesMessage() + invalidMessage();
+        }
+        return message;
+    }
 
-        processAllXMLFiles();
-        message = "Number of XML files processed " + inputData.size();
+    /**
+     * Aktualisiert die bestehende Moodle-XML des Auftrags mit den Aufgaben einer Datei (XML, ZIP, Verzeichnis).
+     * Fragen mit derselben taskuuid werden ersetzt, neue angefuegt, alle anderen unveraendert uebernommen.
+     *
+     * @param chosenFile Die Datei oder das Verzeichnis mit den neuen oder geaenderten Aufgaben.
+     * @throws ParserConfigurationException Bei Fehlern im XML-Parsing-Prozess.
+     * @throws IOException Bei Lese-/Schreibfehlern.
+     * @throws SAXException Bei Fehlern in der XML-Verarbeitung.
+     */
+    public String mergeAndProcessFile(File chosenFile) throws ParserConfigurationException, IOException, SAXException {
+        if (chosenFile == null) {
+            return "No input file found.";
+        }
+        context.getMetrics().reset();
+        List<TaskXMLData> tasks;
+        MoodleXMLMerger merger = new MoodleXMLMerger(context);
+        try {
+            tasks = collectAndExtractTasks(chosenFile, new XMLProcessor(context));
+            merger.merge(tasks);
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            context.deleteTemporaryFiles();
+            inMemoryArchiveBytes = 0;
+        }
+        return "Number of XML files processed " + tasks.size() + "\n" + merger + duplicatesMessage() + invalidMessage();
+    }
+
+    /**
+     * @return Die geschriebenen Teildateien fuer die Meldung nach der Konvertierung oder "", falls die Moodle-XML
+     *         in eine einzige Datei geschrieben wurde.
+     */
+    private String outputMessage() {
+        List<File> outputFiles = context.getMetrics().getOutputFiles();
+        if (outputFiles.size() < 2) {
+            return "";
+        }
+        List<String> lines = new ArrayList<>();
+        for (File outputFile : outputFiles) {
+            lines.add(outputFile.getPath());
+        }
+        return "\nWritten to " + outputFiles.size() + " files:" + listMessage(lines);
+    }
+
+    /**
+     * @return Die Anzahl der erkannten Duplikate mit Herkunft und Original fuer die Meldung nach der Konvertierung
+     *         oder "".
+     */
+    private String duplicatesMessage() {
+        List<ConversionMetrics.Duplicate> duplicates = context.getMetrics().getDuplicates();
+        if (duplicates.isEmpty()) {
+            return "";
+        }
+        boolean emitted = context.getDuplicateOptions().getPolicy() == DuplicateOptions.Policy.EMIT_AND_WARN;
+        List<String> lines = new ArrayList<>();
+        for (ConversionMetrics.Duplicate duplicate : duplicates) {
+            lines.add(duplicate.toString());
         }
+        return "\n" + duplicates.size() + (emitted ? " duplicate tasks found:" : " duplicate tasks skipped:")
+                + listMessage(lines);
+    }
+
+    /**
+     * Listet die ersten MESSAGE_ENTRIES Eintraege je in einer eigenen Zeile auf. Weitere Eintraege werden nur
+     * gezaehlt; der Bericht wird nur genannt, wenn er auch geschrieben wird.
+     */
+    private String listMessage(List<String> lines) {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < Math.min(lines.size(), MESSAGE_ENTRIES); i++) {
+            message.append("\n  ").append(lines.get(i));
+        }
+        if (lines.size() > MESSAGE_ENTRIES) {
+            message.append("\n  ... and ").append(lines.size() - MESSAGE_ENTRIES).append(" more");
+            if (context.isMetricsReport()) {
+                message.append(", see ").append(ConversionMetrics.reportFile(context.getOutputFile()).getName());
+            }
+        }
+        return message.toString();
+    }
+
+    /**
+     * @return Die Anzahl der ungueltigen Aufgaben mit Herkunft und erstem Fehler fuer die Meldung nach der
+     *         Konvertierung oder "".
+     */
+    private String invalidMessage() {
+        List<ConversionMetrics.InvalidTask> invalid = context.getMetrics().getInvalidTasks();
+        if (invalid.isEmpty()) {
+            return "";
+        }
+        List<String> lines = new ArrayList<>();
+        for (ConversionMetrics.InvalidTask task : invalid) {
+            lines.add(task.getErrors().isEmpty() ? task.getSource() : task.getSource() + ": " + task.getErrors().get(0));
+        }
+        return "\n" + invalid.size() + " invalid tasks skipped:" + listMessage(lines);
+    }
+
+    /**
+     * Erfasst alle Aufgaben einer Datei (XML, ZIP, Verzeichnis), ohne sie zu verarbeiten.
+     * Entpackte verschachtelte Archive bleiben im ConversionContext vorgemerkt, bis der Aufrufer sie mit
+     * deleteTemporaryFiles loescht.
+     *
+     * @param file Die Datei oder das Verzeichnis.
+     * @return Die erfassten Aufgaben ohne Duplikate gleichen Inhalts; die task.xml ist noch nicht gelesen.
+     * @throws ParserConfigurationException Bei Fehlern im XML-Parsing-Prozess.
+     * @throws IOException Bei Lese-/Schreibfehlern.
+     * @throws SAXException Bei Fehlern in der XML-Verarbeitung.
+     */
+    public List<TaskXMLData> collectTasks(File file) throws ParserConfigurationException, IOException, SAXException {
         inputData = new ArrayList<>();
-        return message;
+        deduplicator = TaskDeduplicator.forContext(context);
+        try {
+            addTasks(file);
+            return inputData;
+        } finally {
+            deduplicator = null;
+            inputData = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Erfasst alle Aufgaben einer Datei (XML, ZIP, Verzeichnis) und liest jede task.xml, sobald sie gefunden ist.
+     * Das Parsen laeuft so gleichzeitig mit dem Durchsuchen der Eingabe.
+     *
+     * @param file Die Datei oder das Verzeichnis.
+     * @param processor Der XMLProcessor, der die Aufgaben liest; seine Statistik ist danach mit getLastStats abrufbar.
+     * @return Die gelesenen Aufgaben in derselben Reihenfolge wie bei collectTasks, ohne Duplikate.
+     * @throws ParserConfigurationException Bei Fehlern im XML-Parsing-Prozess.
+     * @throws IOException Bei Lese-/Schreibfehlern.
+     * @throws SAXException Bei Fehlern in der XML-Verarbeitung.
+     */
+    public List<TaskXMLData> collectAndExtractTasks(File file, XMLProcessor processor)
+            throws ParserConfigurationException, IOException, SAXException {
+        inputData = new ArrayList<>();
+        TaskDeduplicator duplicates = TaskDeduplicator.forContext(context);
+        try (XMLProcessor.Extraction running = processor.startExtraction()) {
+            extraction = running;
+            deduplicator = duplicates;
+            addTasks(file);
+            List<TaskXMLData> tasks = inputData;
+            running.finish(tasks);
+            if (duplicates != null) {
+                tasks.removeIf(data -> !duplicates.admitUuid(data));
+            }
+            return tasks;
+        } finally {
+            extraction = null;
+            deduplicator = null;
+            inputData = new ArrayList<>();
+        }
     }
 
     /**
-     * Verarbeitet eine ZIP-Datei, indem sie alle darin enthaltenen XML-Dateien extrahiert und verarbeitet.
+     * Erfasst alle Aufgaben einer Datei (XML, ZIP, Verzeichnis) und uebergibt jede sofort und in der Reihenfolge
+     * von collectTasks an den Empfaenger, ohne sie zu sammeln. Der Empfaenger darf warten, um das Durchsuchen
+     * zu bremsen. Duplikate gleichen Inhalts werden nicht uebergeben; Duplikate gleicher uuid muss der Aufrufer
+     * nach dem Parsen selbst mit dem TaskDeduplicator pruefen.
+     *
+     * @param file Die Datei oder das Verzeichnis.
+     * @param deduplicator Erkennt doppelte Aufgaben oder null, falls alle Aufgaben uebergeben werden sollen.
+     * @param consumer Der Empfaenger der gefundenen Aufgaben; die task.xml ist noch nicht gelesen.
+     * @throws ParserConfigurationException Bei Fehlern im XML-Parsing-Prozess.
+     * @throws IOException Bei Lese-/Schreibfehlern.
+     * @throws SAXException Bei Fehlern in der XML-Verarbeitung.
+     */
+    public void streamTasks(File file, TaskDeduplicator deduplicator, Consumer<TaskXMLData> consumer)
+            throws ParserConfigurationException, IOException, SAXException {
+        taskConsumer = consumer;
+        this.deduplicator = deduplicator;
+        try {
+            addTasks(file);
+        } finally {
+            taskConsumer = null;
+            this.deduplicator = null;
+        }
+    }
+
+    /**
+     * Liefert die Groesse der verschachtelten Archive, die dieser FileChooser bisher im Speicher an seinen Aufgaben
+     * haelt. Sie zaehlt ueber alle Aufrufe von collectTasks, collectAndExtractTasks und streamTasks gegen
+     * maxInMemoryArchiveTotal, bis sie mit releaseInMemoryArchiveBytes freigegeben wird; chooseAndProcessFile und
+     * mergeAndProcessFile geben sie am Ende des Auftrags selbst frei.
+     *
+     * @return Die Groesse der im Speicher gehaltenen Archive in Bytes.
+     */
+    public long getInMemoryArchiveBytes() {
+        return inMemoryArchiveBytes;
+    }
+
+    /**
+     * Gibt im Speicher gehaltene Archive frei, deren Aufgaben nicht mehr verwendet werden.
+     *
+     * @param bytes Die Groesse der freigegebenen Archive, z.B. der Zuwachs von getInMemoryArchiveBytes
+     *              beim Erfassen einer Datei.
+     */
+    public void releaseInMemoryArchiveBytes(long bytes) {
+        inMemoryArchiveBytes = Math.max(0, inMemoryArchiveBytes - bytes);
+    }
+
+    /**
+     * Erfasst die Aufgaben einer Datei entsprechend ihrem Typ (XML, ZIP, Verzeichnis) in der Liste inputData.
+     * Die Zeit wird der Phase discover angerechnet, ohne die Zeit fuer das Lesen der ZIP-Archive.
+     */
+    private void addTasks(File file) throws ParserConfigurationException, IOException, SAXException {
+        ConversionMetrics.Span span = context.getMetrics().start(ConversionMetrics.Phase.DISCOVER, file.getName());
+        try {
+            if (file.isDirectory()) {
+                processDirectory(file);
+            } else if (file.getName().toLowerCase().endsWith(".zip")) {
+                processZipFile(file);
+            } else if (file.getName().toLowerCase().endsWith("task.xml")) {
+                TaskXMLData data = new TaskXMLData();
+                data.setTaskXMLDatei(file);
+                addTask(data);
+            }
+        } finally {
+            span.stop(0);
+        }
+    }
+
+    /**
+     * Nimmt eine gefundene Aufgabe in die Liste inputData auf und meldet sie dem ConversionListener.
+     * Laeuft eine Extraktion, wird die Aufgabe ihr sofort zum Lesen uebergeben; ist ein Empfaenger aus streamTasks
+     * gesetzt, erhaelt nur dieser die Aufgabe. Duplikate gleichen Inhalts werden nur vermerkt.
+     */
+    private void addTask(TaskXMLData data) {
+        if (deduplicator != null && !deduplicator.admitContent(data)) {
+            return;
+        }
+        context.getListener().taskDiscovered();
+        if (taskConsumer != null) {
+            taskConsumer.accept(data);
+            return;
+        }
+        inputData.add(data);
+        if (extraction != null) {
+            extraction.submit(data);
+        }
+    }
+
+    /**
+     * Verarbeitet eine ZIP-Datei, indem sie alle darin enthaltenen XML-Dateien und verschachtelten ZIP-Archive erfasst.
+     * Die task.xml wird spaeter direkt aus dem Archiv gelesen; verschachtelte Archive werden bis zur
+     * konfigurierten Groesse im Speicher gehalten und nur darueber in eine temporaere Datei entpackt.
      *
      * @param zipFile Die zu verarbeitende ZIP-Datei.
      */
     private void processZipFile(File zipFile) {
+        ConversionMetrics.Span span = context.getMetrics().start(ConversionMetrics.Phase.UNZIP, zipFile.getName());
+        try {
+            processZipFile(zipFile, zipFile.getName());
+        } finally {
+            span.stop(zipFile.length());
+        }
+    }
+
+    /**
+     * Verarbeitet eine ZIP-Datei, die unter einem abweichenden Namen in die Moodle-XML uebernommen wird.
+     *
+     * @param zipFile Die zu verarbeitende ZIP-Datei.
+     * @param zipName Der Dateiname des Archivs in der Moodle-XML.
+     */
+    private void processZipFile(File zipFile, String zipName) {
         try (ZipFile zip = new ZipFile(zipFile)) {
             Enumeration<? extends ZipEntry> entries = zip.entries();
             while (entries.hasMoreElements()) {
                 ZipEntry entry = entries.nextElement();
-               // System.out.println("Processing ZIP entry: " + entry.getName());
+                context.checkCancelled();
                 if (entry.getName().toLowerCase().endsWith("task.xml")) {
-                    File tempFile = File.createTempFile("task", ".xml");
-                    tempFile.deleteOnExit();
-                    extractEntryToFile(zip, entry, tempFile);
                     TaskXMLData data = new TaskXMLData();
-                    data.setTaskXMLDatei(tempFile);
                     data.setZipFile(zipFile);
-                    inputData.add(data);
+                    data.setZipName(zipName);
+                    data.setTaskXMLEntry(entry.getName());
+                    addTask(data);
                 } else if (!entry.isDirectory() && entry.getName().toLowerCase().endsWith(".zip")) {
-                    File nestedZipFile = File.createTempFile("nested", ".zip");
-                    nestedZipFile.deleteOnExit();
-                    extractEntryToFile(zip, entry, nestedZipFile);
-                    processZipFile(nestedZipFile);
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        processNestedZip(entry, in);
+                    }
                 }
             }
         } catch (IOException e) {
-            JOptionPane.showMessageDialog(frame, "Error processing ZIP file: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            if (frame != null) {
+                JOptionPane.showMessageDialog(frame, "Error processing ZIP file: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            } else {
+                // ohne Fenster (Konsole, Batch, Server) nur melden und die Datei ueberspringen
+                System.err.println("Error processing ZIP file " + zipName + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Verarbeitet ein ZIP-Archiv, das vollstaendig im Speicher vorliegt.
+     *
+     * @param zipName Der Dateiname des Archivs.
+     * @param content Der Inhalt des Archivs.
+     * @throws IOException Bei Lesefehlern.
+     */
+    private void processZipContent(String zipName, byte[] content) throws IOException {
+        try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(content))) {
+            ZipEntry entry;
+            while ((entry = zin.getNextEntry()) != null) {
+                context.checkCancelled();
+                if (entry.getName().toLowerCase().endsWith("task.xml")) {
+                    TaskXMLData data = new TaskXMLData();
+                    data.setZipContent(zipName, content);
+                    data.setTaskXMLEntry(entry.getName());
+                    addTask(data);
+                } else if (!entry.isDirectory() && entry.getName().toLowerCase().endsWith(".zip")) {
+                    processNestedZip(entry, zin);
+                }
+            }
         }
     }
 
     /**
+     * Liest ein verschachteltes ZIP-Archiv aus dem Eintragsstrom seines umgebenden Archivs.
+     * Bis zur konfigurierten Groesse wird es im Speicher verarbeitet, groessere Archive werden
+     * in eine temporaere Datei entpackt. Die im Speicher gehaltenen Archive bleiben bis zum Ende des Auftrags
+     * an ihren Aufgaben; ist ihre Summe erreicht, werden auch kleinere Archive in eine Datei entpackt.
+     * Die Summe gilt fuer alle Aufrufe dieses FileChooser, siehe getInMemoryArchiveBytes.
      *
-     * Diese Methode liest einen spezifischen Eintrag aus einem geoeffneten ZIP-Archiv und
-     * schreibt dessen Inhalt in eine Ausgabedatei.
+     * @param entry Der Eintrag des verschachtelten Archivs.
+     * @param in Der Eingabestrom auf den Inhalt des Eintrags. Er wird nicht geschlossen.
+     * @throws IOException Bei Lese-/Schreibfehlern.
+     */
+    private void processNestedZip(ZipEntry entry, InputStream in) throws IOException {
+        String name = entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
+        long limit = Math.min(context.getMaxInMemoryArchiveSize(),
+                Math.max(0, context.getMaxInMemoryArchiveTotal() - inMemoryArchiveBytes));
+        if (entry.getSize() > limit) {
+            processZipFile(extractToTempFile(new byte[0], in), name);
+            return;
+        }
+        byte[] head = in.readNBytes((int) Math.min(limit, Integer.MAX_VALUE - 8));
+        if (in.read() == -1) {
+            inMemoryArchiveBytes += head.length;
+            processZipContent(name, head);
+        } else {
+            processZipFile(extractToTempFile(head, in), name);
+        }
+    }
+
+    /**
      *
-     * @param zip Das ZIP-Archiv, aus dem der Eintrag extrahiert wird.
-     * @param entry Der spezifische Eintrag im ZIP-Archiv, der extrahiert werden soll.
-     * @param outputFile Die Datei, in die der Inhalt des Eintrags geschrieben wird.
+     * Diese Methode schreibt einen bereits gelesenen Anfang und den Rest eines Eintragsstroms
+     * in eine temporaere Datei. Sie wird nur fuer verschachtelte Archive oberhalb der Speichergrenze verwendet.
+     * Die Datei wird im ConversionContext vorgemerkt und am Ende des Auftrags geloescht.
+     *
+     * @param head Die bereits gelesenen Bytes des Eintrags.
+     * @param in Der Eingabestrom auf den restlichen Inhalt des Eintrags.
+     * @return Die temporaere Datei.
      * @throws IOException Bei Lese-/Schreibfehlern waehrend der Extraktion.
      */
-    private void extractEntryToFile(ZipFile zip, ZipEntry entry, File outputFile) throws IOException {
-        try (InputStream inputStream = zip.getInputStream(entry);
-             OutputStream outputStream = new FileOutputStream(outputFile)) {
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
-            }
+    private File extractToTempFile(byte[] head, InputStream in) throws IOException {
+        File nestedZipFile = File.createTempFile("nested", ".zip");
+        context.addTemporaryFile(nestedZipFile);
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(nestedZipFile), 64 * 1024)) {
+            outputStream.write(head);
+            in.transferTo(outputStream);
         }
+        return nestedZipFile;
     }
 
 
     /**
      * Durchlaeuft ein Verzeichnis rekursiv und verarbeitet alle darin enthaltenen XML- und ZIP-Dateien.
+     * Die Unterverzeichnisse werden mit dem DirectoryScanner parallel im Voraus gelesen; jede gefundene Datei
+     * wird sofort und in der Reihenfolge der Verzeichnisse verarbeitet.
      *
      * @param directory Das zu durchlaufende Verzeichnis.
      * @throws ParserConfigurationException Bei Fehlern im XML-Parsing-Prozess.
@@ -137,20 +492,21 @@ public class FileChooser {
      * @throws SAXException Bei Fehlern in der XML-Verarbeitung.
      */
     public void processDirectory(File directory) throws ParserConfigurationException, IOException, SAXException {
-
-        File[] files = directory.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isDirectory()) {
-                    processDirectory(file);
-                } else if (file.getName().toLowerCase().endsWith("task.xml")) {
+        try (DirectoryScanner scanner = new DirectoryScanner(context)) {
+            scanner.start(directory.toPath());
+            Path found;
+            while ((found = scanner.next()) != null) {
+                context.checkCancelled();
+                File file = found.toFile();
+                if (file.getName().toLowerCase().endsWith("task.xml")) {
                     TaskXMLData data = new TaskXMLData();
                     data.setTaskXMLDatei(file);
-                    inputData.add(data);
-                } else if (file.getName().toLowerCase().endsWith(".zip")) {
+                    addTask(data);
+                } else {
                     processZipFile(file);
                 }
             }
+            context.checkCancelled();
         }
     }
 
@@ -206,15 +562,4 @@ public class FileChooser {
         return null;
     }
 
-    /**
-     * Verarbeitet alle in der Liste inputData gespeicherten XML-Dateien.
-     *
-     * @throws ParserConfigurationException Bei Fehlern im XML-Parsing-Prozess.
-     * @throws IOException Bei Lese-/Schreibfehlern.
-     * @throws SAXException Bei Fehlern in der XML-Verarbeitung.
-     */
-    private void processAllXMLFiles() throws ParserConfigurationException, IOException, SAXException {
-        XMLProcessor processor = new XMLProcessor();
-        String moodleXML =  processor.convertToMoodleXML(inputData);
-    }
 }
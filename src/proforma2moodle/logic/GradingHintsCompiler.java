@@ -0,0 +1,195 @@
+package proforma2moodle.logic;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Die GradingHintsCompiler-Klasse uebersetzt die grading-hints einer task.xml in einen gerichteten
+ * azyklischen Graphen aus sum-, min- und max-Knoten und berechnet daraus die erreichbare Punktzahl.
+ * Ein Test liefert hoechstens 1.0 Punkte, ein root- oder combine-Knoten liefert die Funktion seiner
+ * gewichteten Kinder. Jeder combine-Knoten wird genau einmal ausgewertet, auch wenn er mehrfach
+ * referenziert wird; die Laufzeit ist daher linear in der Groesse der grading-hints.
+ * <p>
+ * Die fruehere Berechnung in extractTaskGrade wertete nur root mit function sum und eine Ebene darunter aus.
+ * Sie weicht ab, wo sie falsch war: min- und max-combines direkt unter root und max-combines zaehlten 0 Punkte,
+ * ein min-combine lieferte die groesste statt der kleinsten Gewichtung, das Gewicht des umgebenden combine fehlte
+ * und ein sum-combine in einem combine fuehrte zu einer NullPointerException. Fuer Aufgaben ohne diese Faelle,
+ * z.B. die Graja-, GraFLAP- und SQL-Beispielaufgaben, ist die Punktzahl unveraendert.
+ */
+public class GradingHintsCompiler {
+
+    static final int SUM = 0;
+    static final int MIN = 1;
+    static final int MAX = 2;
+
+    /** Kennzeichnet im Kinder-Array eine test-ref statt eines combine-Knotens. */
+    private static final int TEST = -1;
+
+    /**
+     * Ein uebersetzter root- oder combine-Knoten. Die Gewichte sind bereits als double gelesen.
+     */
+    private static class GradingNode {
+        private final int function;
+        private final int[] children;
+        private final double[] weights;
+
+        GradingNode(int function, int[] children, double[] weights) {
+            this.function = function;
+            this.children = children;
+            this.weights = weights;
+        }
+    }
+
+    private final List<GradingNode> nodes = new ArrayList<>();
+    private final int root;
+
+    private GradingHintsCompiler(TaskDocumentIndex index) {
+        Element rootElement = index.getGradingRoot();
+        if (rootElement == null) {
+            root = -1;
+            return;
+        }
+        Map<String, Integer> ids = new HashMap<>();
+        List<Element> elements = new ArrayList<>();
+        elements.add(rootElement);
+        for (Element combine : index.getCombines()) {
+            ids.put(TaskDocumentIndex.attribute(combine, "id"), elements.size());
+            elements.add(combine);
+        }
+        ExtractionPlan plan = index.getPlan();
+        for (Element element : elements) {
+            List<Integer> children = new ArrayList<>();
+            List<Double> weights = new ArrayList<>();
+            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() != Node.ELEMENT_NODE) {
+                    continue;
+                }
+                ExtractionPlan.Kind kind = plan.kind(child);
+                if (kind == ExtractionPlan.Kind.TEST_REF) {
+                    children.add(TEST);
+                } else if (kind == ExtractionPlan.Kind.COMBINE_REF) {
+                    Integer target = ids.get(TaskDocumentIndex.attribute((Element) child, "ref"));
+                    if (target == null) {
+                        continue;
+                    }
+                    children.add(target);
+                } else {
+                    continue;
+                }
+                weights.add(weight((Element) child));
+            }
+            int[] childArray = new int[children.size()];
+            double[] weightArray = new double[weights.size()];
+            for (int i = 0; i < childArray.length; i++) {
+                childArray[i] = children.get(i);
+                weightArray[i] = weights.get(i);
+            }
+            nodes.add(new GradingNode(function(element), childArray, weightArray));
+        }
+        root = 0;
+    }
+
+    /**
+     * Uebersetzt die grading-hints einer Aufgabe.
+     *
+     * @param index Der Index der task.xml mit root- und combine-Knoten der grading-hints.
+     * @return Die uebersetzten grading-hints.
+     */
+    public static GradingHintsCompiler compile(TaskDocumentIndex index) {
+        return new GradingHintsCompiler(index);
+    }
+
+    /**
+     * Berechnet die erreichbare Punktzahl in einem einzigen Durchlauf von den Blaettern zur Wurzel.
+     * Die Auswertung ist iterativ, damit auch tief verschachtelte grading-hints keinen Stackueberlauf ausloesen.
+     * Ein Zyklus aus combine-refs ist in gueltigen grading-hints nicht erlaubt; der schliessende Verweis
+     * wird mit 0 Punkten bewertet.
+     *
+     * @return Die erreichbare Punktzahl oder 0.0, falls die Aufgabe keine grading-hints hat.
+     */
+    public double maxPoints() {
+        if (root < 0) {
+            return 0.0d;
+        }
+        double[] values = new double[nodes.size()];
+        byte[] state = new byte[nodes.size()];
+        int[] stack = new int[nodes.size()];
+        int[] position = new int[nodes.size()];
+        int top = 0;
+        stack[0] = root;
+        state[root] = 1;
+        while (top >= 0) {
+            int current = stack[top];
+            GradingNode node = nodes.get(current);
+            int next = -1;
+            while (position[current] < node.children.length) {
+                int child = node.children[position[current]];
+                if (child != TEST && state[child] == 0) {
+                    next = child;
+                    break;
+                }
+                position[current]++;
+            }
+            if (next >= 0) {
+                state[next] = 1;
+                stack[++top] = next;
+                continue;
+            }
+            values[current] = evaluate(node, values, state);
+            state[current] = 2;
+            top--;
+        }
+        return values[root];
+    }
+
+    /**
+     * Wertet einen Knoten aus, dessen combine-Kinder bereits ausgewertet sind.
+     */
+    private static double evaluate(GradingNode node, double[] values, byte[] state) {
+        if (node.children.length == 0) {
+            return 0.0d;
+        }
+        double result = node.function == SUM ? 0.0d : Double.NaN;
+        for (int i = 0; i < node.children.length; i++) {
+            int child = node.children[i];
+            double value = child == TEST ? 1.0d : state[child] == 2 ? values[child] : 0.0d;
+            double weighted = node.weights[i] * value;
+            if (node.function == SUM) {
+                result += weighted;
+            } else if (Double.isNaN(result)) {
+                result = weighted;
+            } else if (node.function == MIN) {
+                result = Math.min(result, weighted);
+            } else {
+                result = Math.max(result, weighted);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Die Funktion eines root- oder combine-Elements, sum falls sie fehlt oder unbekannt ist.
+     */
+    private static int function(Element element) {
+        String function = TaskDocumentIndex.attribute(element, "function");
+        if ("min".equals(function)) {
+            return MIN;
+        } else if ("max".equals(function)) {
+            return MAX;
+        }
+        return SUM;
+    }
+
+    /**
+     * @return Das weight-Attribut einer test-ref oder combine-ref, 1.0 falls es fehlt.
+     */
+    private static double weight(Element ref) {
+        String weight = TaskDocumentIndex.attribute(ref, "weight");
+        return weight != null ? Double.parseDouble(weight.trim()) : 1.0d;
+    }
+}
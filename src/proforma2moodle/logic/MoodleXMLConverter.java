@@ -1,264 +1,858 @@
 package proforma2moodle.logic;
 
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.ConversionMetrics;
 import proforma2moodle.Entity.TaskXMLData;
-import org.w3c.dom.CDATASection;
-import org.w3c.dom.Document;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import org.w3c.dom.Element;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.StringWriter;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Diese Klasse ist dafuer verantwortlich, ein Moodle-kompatibles XML-Dokument aus einer Liste von TaskXMLData-Objekten zu erzeugen.
  * Sie ermoeglicht die Erstellung strukturierter Moodle-Fragen in einem XML-Format, das direkt in Moodle importiert werden kann.
+ * Das Dokument wird mit einem XMLStreamWriter erzeugt: jede Frage wird direkt in die Ausgabe geschrieben,
+ * sobald sie erzeugt ist, sodass nie das ganze Quiz im Speicher liegt.
+ * Ist ein Konvertierungs-Cache eingestellt, wird jedes question-Element zusaetzlich im Cache abgelegt;
+ * bereits gespeicherte question-Elemente werden byteweise in die Ausgabe kopiert.
+ * Die Zeiten fuer das Erzeugen der Fragen, die Base64-Kodierung und das Schreiben in die Ausgabe
+ * werden in den ConversionMetrics des Auftrags festgehalten.
+ * Ist im ConversionContext eine Groesse oder Anzahl von Fragen je Datei eingestellt, wird die Moodle-XML auf
+ * mehrere Teildateien verteilt, die jeweils die Kategorienfrage enthalten und parallel geschrieben werden.
  */
 public class MoodleXMLConverter {
+    static final String INDENT = "    ";
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Obergrenze fuer die Bytes eines question-Elements ohne Texte und Aufgabendatei.
+     */
+    private static final long QUESTION_OVERHEAD = 4 * 1024;
+    /**
+     * Groesste geschaetzte Groesse eines question-Elements, das mit render im Speicher erzeugt wird;
+     * groessere werden in eine temporaere Datei geschrieben.
+     */
+    static final long MAX_IN_MEMORY_QUESTION_SIZE = 1024 * 1024;
+
+    /**
+     * Ein question-Element, das mit render vor dem Schreiben der Moodle-XML erzeugt wurde, z.B. in der ConversionPipeline.
+     * Es liegt im Speicher, in einer Datei oder, falls es schon im Cache lag, noch gar nicht vor; dann wird es
+     * beim Schreiben wie gewohnt aus dem Cache kopiert.
+     */
+    public static final class RenderedQuestion {
+        private final TaskXMLData data;
+        private final byte[] content;
+        private final File file;
+        private final boolean temporary;
+
+        /**
+         * Eine Aufgabe, deren question-Element erst beim Schreiben erzeugt oder aus dem Cache kopiert wird.
+         *
+         * @param data Die Aufgabe.
+         */
+        public RenderedQuestion(TaskXMLData data) {
+            this(data, null, null, false);
+        }
+
+        private RenderedQuestion(TaskXMLData data, byte[] content, File file, boolean temporary) {
+            this.data = data;
+            this.content = content;
+            this.file = file;
+            this.temporary = temporary;
+        }
+
+        public TaskXMLData getData() { return data; }
+
+        /**
+         * @return true, falls das question-Element bereits erzeugt ist und beim Schreiben nur kopiert wird.
+         */
+        public boolean isRendered() { return content != null || file != null; }
+
+        /**
+         * Verwirft eine Frage, die nicht geschrieben wird, und loescht ihre temporaere Datei.
+         */
+        public void discard() {
+            if (temporary) {
+                file.delete();
+            }
+        }
+    }
+
     private List<TaskXMLData> taskXMLDataList;
+    private ConversionContext context;
+    private ConversionCache cache;
+    private ConversionMetrics metrics;
+    private OutputStream out;
+    private Writer writer;
+    private XMLStreamWriter xml;
+    private int depth;
 
     /**
      * Konstruktor fuer die MoodleXMLConverter-Klasse.
      *
      * @param dataList Die Liste von TaskXMLData-Objekten, die in ein Moodle XML-Dokument umgewandelt werden sollen.
+     * @param context Die Einstellungen des Auftrags, u.a. Kategorie und Ausgabepfad.
      * @throws ParserConfigurationException falls ein Fehler bei der Konfiguration des XML-Parsers auftritt.
      */
-    public MoodleXMLConverter(List<TaskXMLData> dataList) throws ParserConfigurationException {
+    public MoodleXMLConverter(List<TaskXMLData> dataList, ConversionContext context) throws ParserConfigurationException {
         this.taskXMLDataList = dataList;
+        this.context = context;
+        this.cache = ConversionCache.forContext(context);
+        this.metrics = context.getMetrics();
     }
     /**
-     * Erstellt ein Moodle-kompatibles XML-Dokument aus der bereitgestellten Liste von TaskXMLData-Objekten.
+     * Erstellt ein Moodle-kompatibles XML-Dokument aus der bereitgestellten Liste von TaskXMLData-Objekten
+     * und schreibt es in die Datei MoodleXML_&lt;Kategorie&gt;.xml im Ausgabeverzeichnis.
      * Jedes TaskXMLData-Objekt wird in ein <question>-Element im XML-Dokument konvertiert.
+     * Ist der Bericht eingeschaltet, werden die Messwerte anschliessend als JSON neben die Datei geschrieben.
+     * Bei geteilter Ausgabe werden die Teildateien geschrieben; alle geschriebenen Dateien liefert danach
+     * ConversionMetrics.getOutputFiles.
      *
-     * @return Ein String, der das Moodle XML-Dokument darstellt. Gibt null zurueck, falls ein Fehler auftritt.
+     * @return Die geschriebene Moodle-XML-Datei, bei geteilter Ausgabe die erste Teildatei. Gibt null zurueck,
+     *         falls ein Fehler auftritt.
      */
-    public String createMoodleXML() {
+    public File createMoodleXML() {
+        if (context.getShardOptions().isSharded()) {
+            List<File> shards = createShardedMoodleXML();
+            return shards == null ? null : shards.get(0);
+        }
+        File outputFile = context.getOutputFile();
+        announceWriting();
+        if (!writeFile(outputFile)) {
+            return null;
+        }
+        completeConversion(List.of(outputFile), taskXMLDataList.size());
+        return outputFile;
+    }
+
+    /**
+     * Verteilt die Fragen auf Teildateien MoodleXML_&lt;Kategorie&gt;_001.xml usw. und schreibt diese parallel.
+     * Jede Teildatei ist fuer sich importierbar. Die ungeteilte Moodle-XML und Teildateien eines frueheren Laufs
+     * mit hoeherer Nummer werden geloescht.
+     *
+     * @return Die geschriebenen Teildateien in der Reihenfolge der Fragen. Gibt null zurueck, falls ein Fehler auftritt.
+     */
+    public List<File> createShardedMoodleXML() {
+        List<List<TaskXMLData>> shards = planShards(taskXMLDataList, context);
+        announceWriting();
+        List<File> files = new ArrayList<>(shards.size());
+        List<Callable<Boolean>> jobs = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            File file = context.getShardFile(i + 1);
+            List<TaskXMLData> shard = shards.get(i);
+            files.add(file);
+            jobs.add(() -> new MoodleXMLConverter(shard, context).writeFile(file));
+        }
+        boolean successful = true;
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(context.getParallelism(), shards.size())));
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.newDocument();
-
-            Element quiz = doc.createElement("quiz");
-            doc.appendChild(quiz);
-            addCategoryQuestionIfNeeded(doc, quiz);
-
-            for (TaskXMLData data : taskXMLDataList) {
-                Element question = doc.createElement("question");
-                question.setAttribute("type", "moopt");
-                quiz.appendChild(question);
-
-                Element name = addElement(doc, question, "name", null);
-                addElement(doc, name, "text", data.getQuestionName());
-
-                Element questionText = addElement(doc, question, "questiontext", null);
-                questionText.setAttribute("format", "html");
-                question.appendChild(questionText);
-                addCDATAElement(doc, questionText, "text", data.getQuestionText());
-
-                Element generalFeedback = doc.createElement("generalfeedback");
-                generalFeedback.setAttribute("format", "html");
-                question.appendChild(generalFeedback);
-                addCDATAElement(doc, generalFeedback, "text", data.getGeneralFeedback());
-
-                Element defaultGrade = addElement(doc, question, "defaultgrade", data.getDefaultgrade());
-
-                Element penalty = addElement(doc, question, "penalty", data.getPenalty());
-
-                Element hidden = addElement(doc, question, "hidden", "0"); // DEFAULT
-
-                Element idNumber = addElement(doc, question, "idnumber", null); //DEFAULT IST EIN LEERES FELD
-
-                Element answer = doc.createElement("answer");
-                answer.setAttribute("fraction","0");
-                question.appendChild(answer);
-                addCDATAElement(doc,answer,"text",data.getAnswer());
-
-                Element taskfile = addElement(doc, question, "taskfile", Base64Encoder.encodeFileToBase64(data.getFile()));
-                taskfile.setAttribute("filearea","taskfile");
-                taskfile.setAttribute("name", data.getFileName());
-                taskfile.setAttribute("path", "/");
-                taskfile.setAttribute("encoding", "base64");
-
-                ArrayList<TaskXMLData.FreeInputField> listFTS = data.ftsList;
-                if (!listFTS.isEmpty()){
-                    Element customfts = doc.createElement("customsettingsforfreetextinputfields");
-                    question.appendChild(customfts);
-                    int nrEl = listFTS.size();
-                    for (int i=0; i<nrEl; i++){
-                        TaskXMLData.FreeInputField fts = listFTS.get(i);
-                        Element field = doc.createElement("field");
-                        customfts.appendChild(field);
-                        String iString = ""+i;
-                        field.setAttribute("index",iString);
-                        Element el = addElement(doc,field,"namesettingsforfreetextinput", fts.getNameSettingsForFreeTextInput());
-                        el = addElement(doc,field,"freetextinputfieldname",fts.getFreeTextInputFieldName());
-                        el = addElement(doc, field, "ftsoverwrittenlang",fts.getFtsOverWrittenLanguage());
-                        el = addElement(doc, field, "ftsinitialdisplayrows",fts.getFtsInitialDisplayRows());
-                        el = addCDATAElement(doc, field, "freetextinputfieldtemplate", fts.getFreeTextInputFieldTemplate());
-                        field.appendChild(el);
-                    }
+            for (Future<Boolean> future : pool.invokeAll(jobs)) {
+                successful &= future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            successful = false;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CancellationException) {
+                throw (CancellationException) e.getCause();
+            }
+            e.getCause().printStackTrace();
+            successful = false;
+        } finally {
+            pool.shutdown();
+        }
+        if (!successful) {
+            return null;
+        }
+        completeConversion(files, taskXMLDataList.size());
+        return files;
+    }
 
-                }
+    /**
+     * Teilt die Aufgaben der Reihe nach auf Teildateien auf. Eine neue Teildatei beginnt, sobald die naechste Frage
+     * die eingestellte Groesse oder Anzahl ueberschreiten wuerde; eine einzelne Frage, die groesser als die
+     * Grenze ist, erhaelt eine eigene Teildatei. Die Groesse einer Frage wird vorab geschaetzt, ohne sie zu erzeugen.
+     *
+     * @param tasks Die Aufgaben in der Reihenfolge der Ausgabe.
+     * @param context Die Einstellungen mit den Grenzen je Teildatei.
+     * @return Die Aufgaben je Teildatei; mindestens eine, ggf. leere Teildatei.
+     */
+    static List<List<TaskXMLData>> planShards(List<TaskXMLData> tasks, ConversionContext context) {
+        long maxSize = context.getShardOptions().getMaxSize() > 0 ? context.getShardOptions().getMaxSize() : Long.MAX_VALUE;
+        int maxQuestions = context.getShardOptions().getMaxQuestions() > 0 ? context.getShardOptions().getMaxQuestions() : Integer.MAX_VALUE;
+        long headerSize = QUESTION_OVERHEAD + 3L * context.getCategoryPath().length();
+        List<List<TaskXMLData>> shards = new ArrayList<>();
+        List<TaskXMLData> shard = new ArrayList<>();
+        long shardSize = headerSize;
+        for (TaskXMLData data : tasks) {
+            long questionSize = estimateQuestionSize(data);
+            if (!shard.isEmpty() && (shard.size() >= maxQuestions || shardSize + questionSize > maxSize)) {
+                shards.add(shard);
+                shard = new ArrayList<>();
+                shardSize = headerSize;
+            }
+            shard.add(data);
+            shardSize += questionSize;
+        }
+        shards.add(shard);
+        return shards;
+    }
 
-                Element internalDescription = addCDATAElement(doc, question, "internaldescription", data.getInternalDescription());
-                question.appendChild(internalDescription);
+    /**
+     * Schaetzt die Groesse eines question-Elements nach oben ab: Liegt es im Cache, ist die Groesse bekannt,
+     * sonst zaehlen die Base64-Laenge der Aufgabendatei und hoechstens drei Bytes je Zeichen der Texte.
+     */
+    private static long estimateQuestionSize(TaskXMLData data) {
+        File fragment = data.getQuestionFragment();
+        if (fragment != null && fragment.isFile()) {
+            return fragment.length() + QUESTION_OVERHEAD / 4;
+        }
+        long characters = length(data.getQuestionName()) + length(data.getQuestionText()) + length(data.getGeneralFeedback())
+                + length(data.getInternalDescription()) + length(data.getFileName());
+        for (TaskXMLData.FreeInputField field : data.ftsList) {
+            characters += length(field.getFreeTextInputFieldName()) + length(field.getFreeTextInputFieldTemplate()) + 512;
+        }
+        return QUESTION_OVERHEAD + 4 * ((Math.max(0, data.getFileSize()) + 2) / 3) + 3 * characters;
+    }
 
-                Element graderName = addElement(doc, question, "gradername", data.getGraderName());
+    private static long length(String text) {
+        return text == null ? 0 : text.length();
+    }
 
-                Element graderVersion = addElement(doc, question, "graderversion", data.getGraderVersion());
+    /**
+     * Meldet dem ConversionListener die Anzahl der Fragen und die Groesse aller Aufgabendateien.
+     */
+    private void announceWriting() {
+        long bytes = 0;
+        for (TaskXMLData data : taskXMLDataList) {
+            bytes += Math.max(0, data.getFileSize());
+        }
+        context.getListener().writingStarted(taskXMLDataList.size(), bytes);
+    }
 
-                Element taskUuid = addElement(doc, question, "taskuuid", data.getTaskuuid());
+    /**
+     * Schreibt die Moodle-XML in eine Datei. Wird die Konvertierung abgebrochen, wird die unvollstaendige
+     * Datei geloescht und die CancellationException weitergegeben.
+     *
+     * @return false, falls ein Fehler auftritt.
+     */
+    private boolean writeFile(File outputFile) {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(outputFile.toPath()), OUTPUT_BUFFER_SIZE)) {
+            writeMoodleXML(out);
+            return true;
+        } catch (CancellationException e) {
+            outputFile.delete();
+            throw e;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
 
-                Element showStudGradingScheme = addElement(doc, question, "showstudgradingscheme", "1"); //DEFAULT
+    /**
+     * Loescht die Ausgabe eines frueheren Laufs, die nicht ueberschrieben wurde, meldet die fertige Konvertierung
+     * an die Messwerte und schreibt ggf. den Bericht.
+     *
+     * @param outputFiles Die geschriebenen Dateien.
+     * @param tasks Die Anzahl der geschriebenen Aufgaben.
+     */
+    void completeConversion(List<File> outputFiles, int tasks) {
+        deleteStaleOutput(outputFiles);
+        metrics.commitConversion(outputFiles, tasks);
+        if (context.isMetricsReport()) {
+            try {
+                metrics.writeReport(context.getOutputFile(), outputFiles, tasks);
+            } catch (IOException e) {
+                System.err.println("Could not write metrics report: " + e.getMessage());
+            }
+        }
+    }
 
-                Element showStudScoreCalcScheme = addElement(doc, question, "showstudscorecalcscheme", "1"); //DEFAULT
+    /**
+     * Loescht nach einem ungeteilten Lauf alle Teildateien und nach einem geteilten Lauf die ungeteilte Moodle-XML
+     * und die Teildateien mit hoeherer Nummer, damit im Ausgabeverzeichnis nur die Dateien dieses Laufs liegen.
+     */
+    private void deleteStaleOutput(List<File> outputFiles) {
+        File outputFile = context.getOutputFile();
+        int next = 1;
+        if (!outputFiles.contains(outputFile)) {
+            outputFile.delete();
+            next = outputFiles.size() + 1;
+        }
+        for (int i = next; context.getShardFile(i).delete(); i++) {
+            // veraltete Teildatei eines frueheren Laufs entfernt
+        }
+    }
 
-                Element enableFileSubmissions = addElement(doc, question, "enablefilesubmissions",  data.getEnableFileSubmissions()); //DEFAULT
+    /**
+     * Verpackt den Ausgabestrom so, dass die Zeit in seinen write-Aufrufen der Phase write angerechnet wird.
+     */
+    private OutputStream meteredOutput(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                ConversionMetrics.Span span = metrics.start(ConversionMetrics.Phase.WRITE, null);
+                try {
+                    out.write(b);
+                } finally {
+                    span.stop(1);
+                }
+            }
 
-                Element enableFreeTextSubmissions = addElement(doc, question, "enablefreetextsubmissions", data.getEnableFreeTextSubmissions()); //DEFAULT
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ConversionMetrics.Span span = metrics.start(ConversionMetrics.Phase.WRITE, null);
+                try {
+                    out.write(b, off, len);
+                } finally {
+                    span.stop(len);
+                }
+            }
+        };
+    }
 
-                Element ftsNumInitialFields = addElement(doc, question, "ftsnuminitialfields", data.getFtsNumInitialFields()); // DEFAULT
+    /**
+     * Schreibt das Moodle XML-Dokument UTF-8-kodiert in den uebergebenen Ausgabestrom.
+     * Der Strom wird nicht geschlossen.
+     *
+     * @param out Der Ausgabestrom, in den das Dokument geschrieben wird.
+     * @throws XMLStreamException falls beim Schreiben des XML ein Fehler auftritt.
+     * @throws IOException bei Schreibfehlern.
+     */
+    public void writeMoodleXML(OutputStream out) throws XMLStreamException, IOException {
+        writeMoodleXML(out, taskXMLDataList.stream().map(RenderedQuestion::new).iterator());
+    }
 
-                Element ftsMaxnumFields = addElement(doc, question, "ftsmaxnumfields", data.getFtsMaxnumFields()); // DEFAULT NACH settings.php
+    /**
+     * Schreibt die Moodle-XML mit den Fragen, die der Iterator nacheinander liefert, in eine Datei.
+     * Der Iterator darf warten, bis die naechste Frage erzeugt ist. Schlaegt das Schreiben fehl oder wird es
+     * abgebrochen, wird die unvollstaendige Datei geloescht und der Fehler weitergegeben.
+     *
+     * @param outputFile Die Moodle-XML-Datei.
+     * @param questions Die Fragen in der Reihenfolge der Ausgabe.
+     * @throws XMLStreamException falls beim Schreiben des XML ein Fehler auftritt.
+     * @throws IOException bei Schreibfehlern.
+     */
+    public void writeMoodleXML(File outputFile, Iterator<RenderedQuestion> questions) throws XMLStreamException, IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(outputFile.toPath()), OUTPUT_BUFFER_SIZE)) {
+            writeMoodleXML(out, questions);
+        } catch (XMLStreamException | IOException | RuntimeException e) {
+            outputFile.delete();
+            throw e;
+        }
+    }
 
-                Element ftsAutoGenerateFileNames = addElement(doc, question, "ftsautogeneratefilenames", data.getFtsAutoGenerateFileNames()); // DEFAULT
+    /**
+     * Schreibt das Moodle XML-Dokument mit den Fragen, die der Iterator nacheinander liefert.
+     * Der Strom wird nicht geschlossen.
+     */
+    private void writeMoodleXML(OutputStream out, Iterator<RenderedQuestion> questions) throws XMLStreamException, IOException {
+        this.out = meteredOutput(out);
+        writer = new OutputStreamWriter(this.out, StandardCharsets.UTF_8);
+        xml = XMLFactories.createWriter(writer);
+        depth = 0;
+        try {
+            xml.writeStartDocument("UTF-8", "1.0");
+            startElement("quiz");
+            addCategoryQuestionIfNeeded();
+            while (questions.hasNext()) {
+                writeQuestion(questions.next());
+            }
+            endElement();
+            xml.writeCharacters("\n");
+            xml.writeEndDocument();
+            xml.flush();
+        } finally {
+            xml.close();
+            xml = null;
+        }
+        writer.flush();
+        writer = null;
+        this.out = null;
+    }
 
-                Element ftsStandardLang = addElement(doc, question, "ftsstandardlang", data.getFtsStandardLang()); //DEFAULT
+    /**
+     * Schreibt ein vorab erzeugtes question-Element in einer eigenen, eingerueckten Zeile; ist es noch nicht
+     * erzeugt, wird es wie jede andere Aufgabe geschrieben.
+     *
+     * @param question Die Frage.
+     * @throws XMLStreamException falls beim Schreiben des XML ein Fehler auftritt.
+     * @throws IOException falls die Aufgabendatei oder das vorab erzeugte Element nicht gelesen werden kann.
+     */
+    private void writeQuestion(RenderedQuestion question) throws XMLStreamException, IOException {
+        if (!question.isRendered()) {
+            writeQuestion(question.getData());
+            return;
+        }
+        context.checkCancelled();
+        indent();
+        xml.flush();
+        writer.flush();
+        if (question.content != null) {
+            out.write(question.content);
+        } else {
+            boolean copied = copyFragment(question.file, out);
+            if (question.temporary) {
+                question.file.delete();
+            }
+            if (!copied) {
+                writeQuestionContent(question.getData());
+            }
+        }
+        context.getListener().questionWritten();
+    }
 
-                Element resultSpecFormat = addElement(doc, question, "resultspecformat", "zip"); //DEFAULT
+    /**
+     * Erzeugt das question-Element einer Aufgabe, bevor die Moodle-XML geschrieben wird, damit die Base64-Kodierung
+     * mehrerer Aufgaben gleichzeitig laufen kann. Kleine Elemente werden im Speicher erzeugt, grosse in einer
+     * temporaeren Datei; ist ein Cache eingestellt, wird das Element wie beim Schreiben im Cache abgelegt.
+     * Liegt es bereits im Cache, wird nichts erzeugt.
+     *
+     * @param data Die extrahierte Aufgabe.
+     * @return Das erzeugte question-Element.
+     * @throws XMLStreamException falls beim Schreiben des XML ein Fehler auftritt.
+     * @throws IOException falls die Aufgabendatei nicht gelesen oder das Element nicht gespeichert werden kann.
+     */
+    public RenderedQuestion render(TaskXMLData data) throws XMLStreamException, IOException {
+        context.checkCancelled();
+        File fragment = data.getQuestionFragment();
+        if (fragment != null && fragment.isFile()) {
+            return new RenderedQuestion(data);
+        }
+        ConversionMetrics.Span span = metrics.start(ConversionMetrics.Phase.SERIALIZE, data.getSourceName());
+        try {
+            if (cache != null && data.getCacheKey() != null) {
+                return new RenderedQuestion(data, null, renderToCache(data), false);
+            }
+            long estimate = estimateQuestionSize(data);
+            if (estimate <= MAX_IN_MEMORY_QUESTION_SIZE) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) estimate);
+                renderTo(data, buffer);
+                return new RenderedQuestion(data, buffer.toByteArray(), null, false);
+            }
+            File questionFile = File.createTempFile("question", ".xml");
+            questionFile.deleteOnExit();
+            try (OutputStream questionOut = new BufferedOutputStream(Files.newOutputStream(questionFile.toPath()), OUTPUT_BUFFER_SIZE)) {
+                renderTo(data, questionOut);
+            } catch (XMLStreamException | IOException | RuntimeException e) {
+                questionFile.delete();
+                throw e;
+            }
+            return new RenderedQuestion(data, null, questionFile, true);
+        } finally {
+            span.stop(0);
+        }
+    }
 
-                Element resultSpecStructure = addElement(doc, question, "resultspecstructure", "separate-test-feedback"); // DEFAULT
+    /**
+     * Schreibt das question-Element einer Aufgabe ohne vorangehende Einrueckung in einen Strom, z.B. um es in eine
+     * bestehende Moodle-XML einzufuegen. Liegt es im Cache, wird es unveraendert kopiert.
+     * Der Strom wird nicht geschlossen.
+     *
+     * @param data Die extrahierte Aufgabe.
+     * @param questionOut Der Ausgabestrom.
+     * @throws XMLStreamException falls beim Schreiben des XML ein Fehler auftritt.
+     * @throws IOException falls die Aufgabendatei nicht gelesen oder das Element nicht geschrieben werden kann.
+     */
+    public void writeQuestion(TaskXMLData data, OutputStream questionOut) throws XMLStreamException, IOException {
+        RenderedQuestion question = render(data);
+        if (question.content != null) {
+            questionOut.write(question.content);
+        } else {
+            boolean copied = copyFragment(question.file != null ? question.file : data.getQuestionFragment(), questionOut);
+            question.discard();
+            if (!copied) {
+                renderTo(data, questionOut);
+            }
+        }
+        context.getListener().questionWritten();
+    }
 
-                Element studentFeedbackLevel = addElement(doc, question, "studentfeedbacklevel", "info"); //DEFAULT
+    /**
+     * Schreibt die Kategorienfrage des Auftrags in einer eigenen, eingerueckten Zeile in einen Strom, z.B. vor
+     * Fragen, die in eine bestehende Moodle-XML eingefuegt werden. Ohne Kategorienpfad wird nichts geschrieben.
+     * Der Strom wird nicht geschlossen.
+     *
+     * @param questionOut Der Ausgabestrom.
+     * @throws XMLStreamException falls beim Schreiben des XML ein Fehler auftritt.
+     * @throws IOException falls das Element nicht geschrieben werden kann.
+     */
+    public void writeCategoryQuestion(OutputStream questionOut) throws XMLStreamException, IOException {
+        XMLStreamWriter documentWriter = xml;
+        int documentDepth = depth;
+        Writer fragmentWriter = new OutputStreamWriter(questionOut, StandardCharsets.UTF_8);
+        try {
+            xml = XMLFactories.createWriter(fragmentWriter);
+            depth = 1;
+            try {
+                addCategoryQuestionIfNeeded();
+                xml.flush();
+            } finally {
+                xml.close();
+            }
+            fragmentWriter.flush();
+        } finally {
+            xml = documentWriter;
+            depth = documentDepth;
+        }
+    }
 
-                Element teacherFeedbackLevel = addElement(doc, question, "teacherfeedbacklevel", "debug"); //DEFAULT
+    /**
+     * @return Der Text des category-Elements der Kategorienfrage oder null, falls kein Kategorienpfad gesetzt ist.
+     */
+    String getCategoryText() {
+        String categoryPath = context.getCategoryPath();
+        return categoryPath != null && !categoryPath.isEmpty() ? "$course$/" + categoryPath : null;
+    }
 
-                Element tags = doc.createElement("tags");
-                question.appendChild(tags);
-                Element tagMoopt = doc.createElement("tag");
-                tags.appendChild(tagMoopt);
-                Element textTagMoopt = addElement(doc,tagMoopt,"text","MooPT");
-                Element tagGrader = doc.createElement("tag");
-                tags.appendChild(tagGrader);
-                Element textTagGrader = addElement(doc,tagGrader,"text",data.getGraderName());
+    /**
+     * Schreibt das question-Element einer Aufgabe in der Einrueckung innerhalb des quiz-Elements in einen eigenen Strom.
+     * Der Strom wird nicht geschlossen.
+     */
+    private void renderTo(TaskXMLData data, OutputStream fragmentOut) throws XMLStreamException, IOException {
+        XMLStreamWriter documentWriter = xml;
+        int documentDepth = depth;
+        Writer fragmentWriter = new OutputStreamWriter(fragmentOut, StandardCharsets.UTF_8);
+        try {
+            xml = XMLFactories.createWriter(fragmentWriter);
+            depth = 1;
+            try {
+                writeQuestionElement(data);
+                xml.flush();
+            } finally {
+                xml.close();
+            }
+            fragmentWriter.flush();
+        } finally {
+            xml = documentWriter;
+            depth = documentDepth;
+        }
+    }
 
+    /**
+     * Schreibt das question-Element einer Aufgabe in einer eigenen, eingerueckten Zeile.
+     *
+     * @param data Die Aufgabe, die als Frage geschrieben wird.
+     * @throws XMLStreamException falls beim Schreiben des XML ein Fehler auftritt.
+     * @throws IOException falls die Aufgabendatei oder der Cache nicht gelesen werden kann.
+     */
+    private void writeQuestion(TaskXMLData data) throws XMLStreamException, IOException {
+        context.checkCancelled();
+        indent();
+        writeQuestionContent(data);
+        context.getListener().questionWritten();
+    }
 
+    /**
+     * Schreibt das question-Element einer Aufgabe an der aktuellen Position. Liegt es bereits im Cache, wird es
+     * unveraendert kopiert; andernfalls wird es erzeugt und, falls ein Cache eingestellt ist, zuerst im Cache
+     * abgelegt und dann kopiert. Ist ein Eintrag inzwischen verdraengt worden, wird das Element neu erzeugt.
+     */
+    private void writeQuestionContent(TaskXMLData data) throws XMLStreamException, IOException {
+        ConversionMetrics.Span span = metrics.start(ConversionMetrics.Phase.SERIALIZE, data.getSourceName());
+        try {
+            File fragment = data.getQuestionFragment();
+            xml.flush();
+            writer.flush();
+            if (fragment != null && copyFragment(fragment, out)) {
+                context.getListener().bytesEncoded(Math.max(0, data.getFileSize()));
+            } else if (cache == null || data.getCacheKey() == null || !copyFragment(renderToCache(data), out)) {
+                writeQuestionElement(data);
             }
+        } finally {
+            span.stop(0);
+        }
+    }
 
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-
-            DOMSource domSource = new DOMSource(doc);
-            StringWriter writer = new StringWriter();
+    /**
+     * Kopiert ein vorab erzeugtes question-Element. Die Datei wird vor dem ersten Byte geoeffnet; fehlt sie, weil
+     * ein anderer Auftrag sie aus einem gemeinsamen Cache verdraengt hat, wird nichts geschrieben.
+     *
+     * @return false, falls die Datei nicht mehr existiert.
+     */
+    private static boolean copyFragment(File fragment, OutputStream target) throws IOException {
+        InputStream in;
+        try {
+            in = Files.newInputStream(fragment.toPath());
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        try (in) {
+            in.transferTo(target);
+        }
+        return true;
+    }
 
-            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-            StreamResult result = new StreamResult(writer);
-            transformer.transform(domSource, result);
-            String xmlString = writer.toString();
+    /**
+     * Erzeugt das question-Element einer Aufgabe in einer temporaeren Datei und legt es im Cache ab.
+     *
+     * @param data Die Aufgabe mit gesetztem Cache-Schluessel.
+     * @return Die Datei des question-Elements im Cache.
+     * @throws XMLStreamException falls beim Schreiben des XML ein Fehler auftritt.
+     * @throws IOException falls die Aufgabendatei nicht gelesen oder der Cache nicht geschrieben werden kann.
+     */
+    private File renderToCache(TaskXMLData data) throws XMLStreamException, IOException {
+        File fragmentFile = cache.createFragmentFile(data);
+        try (OutputStream fragmentOut = new BufferedOutputStream(Files.newOutputStream(fragmentFile.toPath()), OUTPUT_BUFFER_SIZE)) {
+            renderTo(data, fragmentOut);
+        } catch (XMLStreamException | IOException | RuntimeException e) {
+            fragmentFile.delete();
+            throw e;
+        }
+        return cache.store(data, fragmentFile);
+    }
 
-            String[] lines = xmlString.split("\n");
-            StringBuilder cleanedXml = new StringBuilder();
-            for (String line : lines) {
-                if (!line.trim().isEmpty()) {
-                    cleanedXml.append(line).append("\n");
-                }
+    /**
+     * Schreibt ein <question>-Element fuer ein einzelnes TaskXMLData-Objekt ohne vorangehende Einrueckung.
+     *
+     * @param data Die Aufgabe, die als Frage geschrieben wird.
+     * @throws XMLStreamException falls beim Schreiben des XML ein Fehler auftritt.
+     * @throws IOException falls die Aufgabendatei nicht gelesen werden kann.
+     */
+    private void writeQuestionElement(TaskXMLData data) throws XMLStreamException, IOException {
+        xml.writeStartElement("question");
+        depth++;
+        xml.writeAttribute("type", "moopt");
+
+        startElement("name");
+        addElement("text", data.getQuestionName());
+        endElement();
+
+        startElement("questiontext");
+        xml.writeAttribute("format", "html");
+        addCDATAElement("text", data.getQuestionText());
+        endElement();
+
+        startElement("generalfeedback");
+        xml.writeAttribute("format", "html");
+        addCDATAElement("text", data.getGeneralFeedback());
+        endElement();
+
+        addElement("defaultgrade", data.getDefaultgrade());
+        addElement("penalty", data.getPenalty());
+        addElement("hidden", "0"); // DEFAULT
+        addElement("idnumber", null); //DEFAULT IST EIN LEERES FELD
+
+        startElement("answer");
+        xml.writeAttribute("fraction","0");
+        addCDATAElement("text", data.getAnswer());
+        endElement();
+
+        indent();
+        xml.writeStartElement("taskfile");
+        xml.writeAttribute("encoding", "base64");
+        xml.writeAttribute("filearea","taskfile");
+        xml.writeAttribute("name", data.getFileName());
+        xml.writeAttribute("path", "/");
+        ConversionMetrics.Span span = metrics.start(ConversionMetrics.Phase.ENCODE, data.getSourceName());
+        long encoded = 0;
+        try (InputStream in = reportingInput(data.openFile())) {
+            encoded = Base64Encoder.encodeToBase64(in, xml);
+        } finally {
+            span.stop(encoded);
+        }
+        xml.writeEndElement();
+
+        ArrayList<TaskXMLData.FreeInputField> listFTS = data.ftsList;
+        if (!listFTS.isEmpty()){
+            startElement("customsettingsforfreetextinputfields");
+            int nrEl = listFTS.size();
+            for (int i=0; i<nrEl; i++){
+                TaskXMLData.FreeInputField fts = listFTS.get(i);
+                startElement("field");
+                xml.writeAttribute("index", String.valueOf(i));
+                addElement("namesettingsforfreetextinput", fts.getNameSettingsForFreeTextInput());
+                addElement("freetextinputfieldname", fts.getFreeTextInputFieldName());
+                addElement("ftsoverwrittenlang", fts.getFtsOverWrittenLanguage());
+                addElement("ftsinitialdisplayrows", fts.getFtsInitialDisplayRows());
+                addCDATAElement("freetextinputfieldtemplate", fts.getFreeTextInputFieldTemplate());
+                endElement();
             }
+            endElement();
+        }
 
-            String outputname = ".xml";
-            if (!(TaskXMLData.getCategoryName().equals(" ")||TaskXMLData.getCategoryName().isEmpty())) {
-                outputname = "_"+TaskXMLData.getCategoryName()+outputname;
-            }
-            outputname = "MoodleXML"+outputname;
+        addCDATAElement("internaldescription", data.getInternalDescription());
+        addElement("gradername", data.getGraderName());
+        addElement("graderversion", data.getGraderVersion());
+        addElement("taskuuid", data.getTaskuuid());
+        addElement("showstudgradingscheme", "1"); //DEFAULT
+        addElement("showstudscorecalcscheme", "1"); //DEFAULT
+        addElement("enablefilesubmissions", data.getEnableFileSubmissions()); //DEFAULT
+        addElement("enablefreetextsubmissions", data.getEnableFreeTextSubmissions()); //DEFAULT
+        addElement("ftsnuminitialfields", data.getFtsNumInitialFields()); // DEFAULT
+        addElement("ftsmaxnumfields", data.getFtsMaxnumFields()); // DEFAULT NACH settings.php
+        addElement("ftsautogeneratefilenames", data.getFtsAutoGenerateFileNames()); // DEFAULT
+        addElement("ftsstandardlang", data.getFtsStandardLang()); //DEFAULT
+        addElement("resultspecformat", "zip"); //DEFAULT
+        addElement("resultspecstructure", "separate-test-feedback"); // DEFAULT
+        addElement("studentfeedbacklevel", "info"); //DEFAULT
+        addElement("teacherfeedbacklevel", "debug"); //DEFAULT
+
+        startElement("tags");
+        startElement("tag");
+        addElement("text", "MooPT");
+        endElement();
+        startElement("tag");
+        addElement("text", data.getGraderName());
+        endElement();
+        endElement();
+
+        endElement();
+    }
 
-            try (FileWriter fileWriter = new FileWriter(TaskXMLData.getOutputPath() + File.separator
-                    + outputname)) {
-                fileWriter.write(cleanedXml.toString());
+    /**
+     * Verpackt den Eingabestrom einer Aufgabendatei so, dass jeder gelesene Block dem ConversionListener gemeldet
+     * und vor jedem Block ein Abbruch geprueft wird.
+     */
+    private InputStream reportingInput(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                context.checkCancelled();
+                int n = in.read(b, off, len);
+                if (n > 0) {
+                    context.getListener().bytesEncoded(n);
+                }
+                return n;
             }
+        };
+    }
 
-            return cleanedXml.toString();
+    /**
+     * Beginnt ein neues Element, das weitere Kindelemente enthaelt, in einer eigenen, eingerueckten Zeile.
+     *
+     * @param tagName Der Tag-Name des neuen Elements.
+     * @throws XMLStreamException falls beim Schreiben des XML ein Fehler auftritt.
+     */
+    private void startElement(String tagName) throws XMLStreamException {
+        indent();
+        xml.writeStartElement(tagName);
+        depth++;
+    }
 
+    /**
+     * Schliesst das zuletzt mit startElement begonnene Element in einer eigenen, eingerueckten Zeile.
+     *
+     * @throws XMLStreamException falls beim Schreiben des XML ein Fehler auftritt.
+     */
+    private void endElement() throws XMLStreamException {
+        depth--;
+        indent();
+        xml.writeEndElement();
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
+    /**
+     * Schreibt einen Zeilenumbruch und die Einrueckung fuer die aktuelle Tiefe.
+     *
+     * @throws XMLStreamException falls beim Schreiben des XML ein Fehler auftritt.
+     */
+    private void indent() throws XMLStreamException {
+        xml.writeCharacters("\n");
+        for (int i = 0; i < depth; i++) {
+            xml.writeCharacters(INDENT);
         }
     }
 
-
-
     /**
-     * Fuegt ein neues Element zum uebergebenen Elternelement hinzu.
+     * Schreibt den Textinhalt eines Elements. Leere Inhalte werden wie bisher als einzelnes Leerzeichen geschrieben.
      *
-     * @param doc Das Dokument, zu dem das Element hinzugefuegt wird.
-     * @param parent Das Elternelement, zu dem das neue Element hinzugefuegt wird.
-     * @param tagName Der Tag-Name des neuen Elements.
-     * @param textContent Der Textinhalt des neuen Elements. Kann null sein.
-     * @return Das neu erstellte Element.
+     * @param textContent Der Textinhalt. Kann null sein.
+     * @throws XMLStreamException falls beim Schreiben des XML ein Fehler auftritt.
      */
-    private Element addElement(Document doc, Element parent, String tagName, String textContent) {
-        Element element = doc.createElement(tagName);
+    private void writeText(String textContent) throws XMLStreamException {
         if (textContent != null && !textContent.trim().isEmpty()) {
-            element.appendChild(doc.createTextNode(textContent));
+            xml.writeCharacters(textContent);
         } else {
-            element.appendChild(doc.createTextNode(" "));
+            xml.writeCharacters(" ");
         }
-        parent.appendChild(element);
-        return element;
     }
+
+    /**
+     * Fuegt ein neues Element mit Textinhalt in einer eigenen, eingerueckten Zeile hinzu.
+     *
+     * @param tagName Der Tag-Name des neuen Elements.
+     * @param textContent Der Textinhalt des neuen Elements. Kann null sein.
+     * @throws XMLStreamException falls beim Schreiben des XML ein Fehler auftritt.
+     */
+    private void addElement(String tagName, String textContent) throws XMLStreamException {
+        indent();
+        xml.writeStartElement(tagName);
+        writeText(textContent);
+        xml.writeEndElement();
+    }
+
     /**
-     * Fuegt ein neues Element mit einem CDATA-Abschnitt zum übergebenen Elternelement hinzu.
+     * Fuegt ein neues Element mit einem CDATA-Abschnitt in einer eigenen, eingerueckten Zeile hinzu.
+     * Enthaelt der Inhalt die Zeichenfolge "]]&gt;", wird er wie beim DOM-Serializer auf mehrere CDATA-Abschnitte verteilt.
      *
-     * @param doc Das Dokument, zu dem das Element hinzugefuegt wird.
-     * @param parent Das Elternelement, zu dem das neue Element hinzugefuegt wird.
      * @param tagName Der Tag-Name des neuen Elements.
      * @param cdataContent Der CDATA-Inhalt des neuen Elements. Kann null sein.
-     * @return Das neu erstellte Element.
+     * @throws XMLStreamException falls beim Schreiben des XML ein Fehler auftritt.
      */
-    private Element addCDATAElement(Document doc, Element parent, String tagName, String cdataContent) {
-        Element element = doc.createElement(tagName);
-        CDATASection cdataSection;
+    private void addCDATAElement(String tagName, String cdataContent) throws XMLStreamException {
+        indent();
+        xml.writeStartElement(tagName);
         if (cdataContent != null && !cdataContent.trim().isEmpty()) {
-            cdataSection = doc.createCDATASection(cdataContent);
-            element.appendChild(cdataSection);
+            int start = 0;
+            int end;
+            while ((end = cdataContent.indexOf("]]>", start)) != -1) {
+                xml.writeCData(cdataContent.substring(start, end + 2));
+                start = end + 2;
+            }
+            xml.writeCData(cdataContent.substring(start));
         } else {
-            element.appendChild(doc.createTextNode(" "));
+            xml.writeCharacters(" ");
         }
-        parent.appendChild(element);
-        return element;
+        xml.writeEndElement();
     }
+
     /**
      * Fuegt eine Kategorienfrage zum Quiz hinzu, wenn dies aufgrund der Kategorienpfadangabe noetig ist.
      *
      * Diese Methode prueft, ob ein Kategorienpfad fuer die Aufgabe vorhanden ist. Falls ja, wird eine neue
-     * Kategorienfrage im Quiz-Dokument erstellt.
+     * Kategorienfrage in das Quiz geschrieben.
      *
-     * @param doc Das XML-Dokument, das das Moodle-Quiz repraesentiert.
-     * @param quiz Das XML-Element, das das Quiz repraesentiert, zu dem die Kategorienfrage hinzugefuegt werden soll.
-     */
-    private void addCategoryQuestionIfNeeded(Document doc, Element quiz) {
-        String categoryPath = TaskXMLData.getCategoryPath();
-        if (categoryPath != null && !categoryPath.isEmpty()) {
-            Element categoryQuestion = doc.createElement("question");
-            categoryQuestion.setAttribute("type", "category");
-            quiz.appendChild(categoryQuestion);
-
-            Element categoryElement = addElement(doc, categoryQuestion, "category", null);
-            addElement(doc, categoryElement, "text", "$course$/" + categoryPath);
-
-            Element info = addElement(doc, categoryQuestion, "info", null);
-            info.setAttribute("format", "moodle_auto_format");
-            addElement(doc, info, "text", "The Default category:  " + categoryPath + "'.");
-            addElement(doc, categoryQuestion, "idnumber", null);
+     * @throws XMLStreamException falls beim Schreiben des XML ein Fehler auftritt.
+     */
+    private void addCategoryQuestionIfNeeded() throws XMLStreamException {
+        String categoryText = getCategoryText();
+        if (categoryText != null) {
+            String categoryPath = context.getCategoryPath();
+            startElement("question");
+            xml.writeAttribute("type", "category");
+
+            startElement("category");
+            addElement("text", categoryText);
+            endElement();
+
+            startElement("info");
+            xml.writeAttribute("format", "moodle_auto_format");
+            addElement("text", "The Default category:  " + categoryPath + "'.");
+            endElement();
+
+            addElement("idnumber", null);
+            endElement();
         }
     }
 
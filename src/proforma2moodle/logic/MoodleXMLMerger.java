@@ -0,0 +1,585 @@
+package proforma2moodle.logic;
+
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.DuplicateOptions;
+import proforma2moodle.Entity.TaskXMLData;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Die MoodleXMLMerger-Klasse aktualisiert eine bestehende Moodle-XML mit neuen Aufgaben, ohne sie neu zu erzeugen.
+ * Eine Frage, deren taskuuid zu einer neuen Aufgabe gehoert, wird durch diese ersetzt; Aufgaben ohne passende
+ * Frage werden hinter der letzten Frage angefuegt. Alle anderen Fragen werden Byte fuer Byte kopiert, ohne ihr
+ * XML zu parsen oder ihre taskfile-Inhalte zu dekodieren.
+ * <p>
+ * Dazu wird die Datei zunaechst nur nach den Grenzen der question-Elemente unter quiz, ihrer taskuuid und dem
+ * category-Text von Kategorienfragen durchsucht; Kommentare, CDATA-Abschnitte, Attributwerte und die DOCTYPE-Deklaration samt interner DTD werden
+ * dabei uebersprungen, die taskuuid wird als UTF-8 gelesen. Danach werden die unveraenderten Abschnitte mit
+ * FileChannel.transferTo in die neue Datei uebertragen. Die neue Datei wird zunaechst mit der Endung .part
+ * geschrieben und ersetzt die bestehende erst, wenn sie vollstaendig ist.
+ */
+public class MoodleXMLMerger {
+    private static final int SCAN_BUFFER_SIZE = 256 * 1024;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Ein question-Element unter quiz in der bestehenden Moodle-XML.
+     */
+    static final class QuestionRange {
+        private final long start;
+        private final long leading;
+        private long end;
+        private String uuid;
+        private String category;
+
+        /**
+         * @param start Die Position von &lt;question.
+         * @param leading Die Position des Leerraums vor dem Element, der mit ihm entfernt wird.
+         */
+        QuestionRange(long start, long leading) {
+            this.start = start;
+            this.leading = leading;
+        }
+
+        long getStart() { return start; }
+
+        long getEnd() { return end; }
+
+        String getUuid() { return uuid; }
+
+        /**
+         * @return Der Text des category-Elements, falls es eine Kategorienfrage ist, sonst null.
+         */
+        String getCategory() { return category; }
+    }
+
+    /**
+     * Die Struktur einer Moodle-XML: die question-Elemente unter quiz und die Stelle, an der neue Fragen
+     * angefuegt werden.
+     */
+    static final class Layout {
+        private final List<QuestionRange> questions = new ArrayList<>();
+        private long insertAt = -1;
+        private long quizEnd = -1;
+
+        List<QuestionRange> getQuestions() { return questions; }
+
+        long getInsertAt() { return insertAt; }
+    }
+
+    private final ConversionContext context;
+    private int replaced;
+    private int inserted;
+    private int kept;
+    private int removed;
+    private long copiedBytes;
+    private long wallNanos;
+
+    /**
+     * @param context Die Einstellungen des Auftrags.
+     */
+    public MoodleXMLMerger(ConversionContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Aktualisiert die Moodle-XML des Auftrags mit den uebergebenen Aufgaben. Gibt es sie noch nicht,
+     * wird sie wie bei einer normalen Konvertierung vollstaendig geschrieben.
+     * Kommt eine taskuuid in der bestehenden Datei mehrfach vor, wird bei der Duplikat-Einstellung off jedes
+     * Vorkommen ersetzt, sonst nur das erste und die weiteren werden entfernt; unter den neuen Aufgaben gilt je
+     * taskuuid die erste. Gilt am Ende der Datei eine andere Kategorie als die des Auftrags, wird vor den
+     * angefuegten Fragen eine Kategorienfrage geschrieben.
+     *
+     * @param tasks Die extrahierten neuen oder geaenderten Aufgaben.
+     * @return Die geschriebene Moodle-XML oder null, falls sie nicht geschrieben werden konnte.
+     * @throws ParserConfigurationException Bei Fehlern im XML-Parsing-Prozess.
+     * @throws IOException Bei Lese-/Schreibfehlern oder wenn die bestehende Datei kein quiz-Element hat.
+     * @throws XMLStreamException falls beim Schreiben einer Frage ein Fehler auftritt.
+     */
+    public File merge(List<TaskXMLData> tasks) throws ParserConfigurationException, IOException, XMLStreamException {
+        long start = System.nanoTime();
+        File outputFile = context.getOutputFile();
+        if (!outputFile.isFile()) {
+            inserted = tasks.size();
+            File written = new XMLProcessor(context).writeMoodleXML(tasks);
+            wallNanos = System.nanoTime() - start;
+            return written;
+        }
+
+        Map<String, TaskXMLData> byUuid = new HashMap<>();
+        for (TaskXMLData data : tasks) {
+            String uuid = uuid(data.getTaskuuid());
+            if (uuid != null) {
+                byUuid.putIfAbsent(uuid, data);
+            }
+        }
+
+        Layout layout = scan(outputFile);
+        MoodleXMLConverter converter = new MoodleXMLConverter(List.of(), context);
+        File partFile = new File(outputFile.getPath() + ".part");
+        boolean removeDuplicates = context.getDuplicateOptions().getPolicy() != DuplicateOptions.Policy.OFF;
+        Set<String> written = new HashSet<>();
+        context.getListener().writingStarted(tasks.size(), 0);
+        try (FileChannel in = FileChannel.open(outputFile.toPath(), StandardOpenOption.READ);
+             FileChannel outChannel = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(outChannel), OUTPUT_BUFFER_SIZE);
+            long position = 0;
+            for (QuestionRange question : layout.questions) {
+                context.checkCancelled();
+                String uuid = question.uuid;
+                TaskXMLData replacement = uuid == null ? null : byUuid.get(uuid);
+                if (replacement == null) {
+                    kept++;
+                    continue;
+                }
+                out.flush();
+                if (written.add(uuid) || !removeDuplicates) {
+                    copy(in, outChannel, position, question.start);
+                    converter.writeQuestion(replacement, out);
+                    replaced++;
+                } else {
+                    // weiteres Vorkommen derselben taskuuid samt vorangehender Einrueckung entfernen
+                    copy(in, outChannel, position, Math.max(position, question.leading));
+                    removed++;
+                }
+                position = question.end;
+            }
+            out.flush();
+            copy(in, outChannel, position, layout.insertAt);
+            position = layout.insertAt;
+            List<TaskXMLData> insertions = new ArrayList<>();
+            for (TaskXMLData data : tasks) {
+                String uuid = uuid(data.getTaskuuid());
+                // bereits ersetzte und weitere neue Aufgaben mit derselben taskuuid auslassen
+                if (uuid == null || (byUuid.get(uuid) == data && !written.contains(uuid))) {
+                    insertions.add(data);
+                }
+            }
+            String category = converter.getCategoryText();
+            if (!insertions.isEmpty() && category != null && !category.equals(lastCategory(layout))) {
+                converter.writeCategoryQuestion(out);
+            }
+            for (TaskXMLData data : insertions) {
+                context.checkCancelled();
+                out.write(("\n" + MoodleXMLConverter.INDENT).getBytes(StandardCharsets.UTF_8));
+                converter.writeQuestion(data, out);
+                inserted++;
+            }
+            out.flush();
+            copy(in, outChannel, position, in.size());
+        } catch (IOException | XMLStreamException | RuntimeException e) {
+            partFile.delete();
+            throw e;
+        }
+        try {
+            Files.move(partFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        converter.completeConversion(List.of(outputFile), kept + replaced + inserted);
+        ConversionCache cache = ConversionCache.forContext(context);
+        if (cache != null) {
+            cache.scheduleEviction();
+        }
+        wallNanos = System.nanoTime() - start;
+        return outputFile;
+    }
+
+    /**
+     * Uebertraegt einen Abschnitt der bestehenden Datei unveraendert in die neue.
+     */
+    private void copy(FileChannel in, FileChannel out, long from, long to) throws IOException {
+        long position = from;
+        while (position < to) {
+            position += in.transferTo(position, to - position, out);
+        }
+        copiedBytes += Math.max(0, to - from);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d questions replaced, %d inserted, %d kept, %d removed, %.1f MB copied in %.1f ms",
+                replaced, inserted, kept, removed, copiedBytes / 1e6, wallNanos / 1e6);
+    }
+
+    public int getReplacedCount() {
+        return replaced;
+    }
+
+    public int getInsertedCount() {
+        return inserted;
+    }
+
+    public int getKeptCount() {
+        return kept;
+    }
+
+    /**
+     * @return Die Kategorie der letzten Kategorienfrage, unter der angefuegte Fragen landen, oder null.
+     */
+    private static String lastCategory(Layout layout) {
+        for (int i = layout.questions.size() - 1; i >= 0; i--) {
+            if (layout.questions.get(i).category != null) {
+                return layout.questions.get(i).category;
+            }
+        }
+        return null;
+    }
+
+    private static String uuid(String uuid) {
+        return uuid == null || uuid.isBlank() ? null : uuid.trim();
+    }
+
+    /**
+     * Sucht in einer Moodle-XML die question-Elemente unter quiz, ihre Byte-Positionen und ihre taskuuid.
+     * Es wird nur auf Ebene der Markup-Zeichen gelesen; Textinhalte wie taskfile werden nicht ausgewertet.
+     *
+     * @param moodleXML Die Moodle-XML.
+     * @return Die gefundene Struktur.
+     * @throws IOException Bei Lesefehlern oder wenn die Datei kein vollstaendiges quiz-Element enthaelt.
+     */
+    static Layout scan(File moodleXML) throws IOException {
+        Layout layout = new Layout();
+        try (Scanner scanner = new Scanner(new FileInputStream(moodleXML))) {
+            int depth = 0;
+            QuestionRange question = null;
+            // Textinhalt von taskuuid oder von category/text, der gerade gelesen wird
+            StringBuilder content = null;
+            boolean inCategory = false;
+            boolean categoryText = false;
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            long lastTagEnd = 0;
+            boolean whitespace = true;
+            int c;
+            while (true) {
+                if (content == null) {
+                    whitespace &= scanner.skipText();
+                }
+                c = scanner.read();
+                if (c < 0) {
+                    break;
+                }
+                if (c != '<') {
+                    if (content != null) {
+                        text.write(c);
+                    }
+                    continue;
+                }
+                long tagStart = scanner.position() - 1;
+                if (content != null) {
+                    content.append(decode(text.toString(StandardCharsets.UTF_8)));
+                    text.reset();
+                }
+                c = scanner.read();
+                if (c == '!') {
+                    if (!scanner.skipCommentOrCData(content != null ? text : null)) {
+                        scanner.skipDeclaration();
+                    }
+                    if (content != null) {
+                        content.append(text.toString(StandardCharsets.UTF_8));
+                        text.reset();
+                    }
+                } else if (c == '?') {
+                    scanner.skipUntil("?>");
+                } else if (c == '/') {
+                    String name = scanner.readName(-1);
+                    scanner.skipTag();
+                    depth--;
+                    if (depth == 1 && question != null && name.equals("question")) {
+                        question.end = scanner.position();
+                        layout.questions.add(question);
+                        layout.insertAt = question.end;
+                        question = null;
+                    } else if (depth == 2 && content != null && !categoryText && name.equals("taskuuid")) {
+                        question.uuid = uuid(content.toString());
+                        content = null;
+                    } else if (depth == 3 && content != null && categoryText && name.equals("text")) {
+                        question.category = content.toString().trim();
+                        content = null;
+                        categoryText = false;
+                    } else if (depth == 2 && inCategory && name.equals("category")) {
+                        inCategory = false;
+                    } else if (depth == 0 && name.equals("quiz")) {
+                        layout.quizEnd = tagStart;
+                    }
+                } else if (c >= 0) {
+                    String name = scanner.readName(c);
+                    boolean empty = scanner.skipTag();
+                    if (depth == 0 && name.equals("quiz") && layout.insertAt < 0) {
+                        layout.insertAt = scanner.position();
+                    } else if (depth == 1 && name.equals("question") && !empty) {
+                        question = new QuestionRange(tagStart, whitespace ? lastTagEnd : tagStart);
+                    } else if (depth == 2 && question != null && name.equals("taskuuid") && !empty) {
+                        content = new StringBuilder();
+                    } else if (depth == 2 && question != null && name.equals("category") && !empty) {
+                        inCategory = true;
+                    } else if (depth == 3 && inCategory && name.equals("text") && !empty) {
+                        content = new StringBuilder();
+                        categoryText = true;
+                    }
+                    if (!empty) {
+                        depth++;
+                    }
+                }
+                lastTagEnd = scanner.position();
+                whitespace = true;
+            }
+        }
+        if (layout.insertAt < 0 || layout.quizEnd < 0) {
+            throw new IOException(moodleXML + " contains no complete quiz element");
+        }
+        return layout;
+    }
+
+    /**
+     * Ersetzt die vordefinierten Entitaeten, falls eine taskuuid solche enthaelt.
+     */
+    private static String decode(String text) {
+        if (text.indexOf('&') < 0) {
+            return text;
+        }
+        return text.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+                .replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    /**
+     * Liest die Datei Byte fuer Byte ueber einen eigenen Puffer und kennt die Position des naechsten Bytes.
+     */
+    private static final class Scanner implements AutoCloseable {
+        private final InputStream in;
+        private final byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+        private long offset;
+        private int index;
+        private int limit;
+
+        Scanner(InputStream in) {
+            this.in = in;
+        }
+
+        long position() {
+            return offset + index;
+        }
+
+        int read() throws IOException {
+            if (index == limit && !fill(1)) {
+                return -1;
+            }
+            return buffer[index++] & 0xff;
+        }
+
+        /**
+         * @return Das Byte ahead Stellen nach dem naechsten, ohne es zu lesen, oder -1 am Dateiende.
+         */
+        int peek(int ahead) throws IOException {
+            if (index + ahead >= limit && !fill(ahead + 1)) {
+                return -1;
+            }
+            return buffer[index + ahead] & 0xff;
+        }
+
+        /**
+         * Stellt sicher, dass mindestens count Bytes im Puffer stehen, soweit die Datei reicht.
+         */
+        private boolean fill(int count) throws IOException {
+            if (index > 0) {
+                System.arraycopy(buffer, index, buffer, 0, limit - index);
+                offset += index;
+                limit -= index;
+                index = 0;
+            }
+            while (limit < count) {
+                int n = in.read(buffer, limit, buffer.length - limit);
+                if (n < 0) {
+                    return false;
+                }
+                limit += n;
+            }
+            return true;
+        }
+
+        /**
+         * Ueberspringt Text bis zum naechsten &lt;, z.B. den Base64-Inhalt eines taskfile-Elements.
+         *
+         * @return true, falls der uebersprungene Text nur aus Leerraum bestand.
+         */
+        boolean skipText() throws IOException {
+            boolean whitespace = true;
+            while (true) {
+                for (int i = index; i < limit; i++) {
+                    byte b = buffer[i];
+                    if (b == '<') {
+                        index = i;
+                        return whitespace;
+                    }
+                    if (whitespace && b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                        whitespace = false;
+                    }
+                }
+                index = limit;
+                if (!fill(1)) {
+                    return whitespace;
+                }
+            }
+        }
+
+        /**
+         * Liest einen Elementnamen; first ist das bereits gelesene erste Zeichen oder -1.
+         */
+        String readName(int first) throws IOException {
+            StringBuilder name = new StringBuilder();
+            if (first >= 0) {
+                name.append((char) first);
+            }
+            while (true) {
+                int c = peek(0);
+                if (c < 0 || c == '>' || c == '/' || Character.isWhitespace(c)) {
+                    return name.toString();
+                }
+                name.append((char) read());
+            }
+        }
+
+        /**
+         * Ueberspringt den Rest eines Tags bis einschliesslich &gt; unter Beachtung von Attributwerten.
+         *
+         * @return true, falls das Element leer ist (/&gt;).
+         */
+        boolean skipTag() throws IOException {
+            int quote = 0;
+            int previous = 0;
+            int c;
+            while ((c = read()) >= 0) {
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '>') {
+                    return previous == '/';
+                }
+                previous = c;
+            }
+            return false;
+        }
+
+        /**
+         * Ueberspringt nach &lt;! eine Deklaration wie DOCTYPE bis einschliesslich &gt;. Eine interne DTD in [ ]
+         * wird ganz uebersprungen, auch wenn ihre Deklarationen, Kommentare oder Literale &gt; enthalten.
+         */
+        void skipDeclaration() throws IOException {
+            int quote = 0;
+            boolean subset = false;
+            int c;
+            while ((c = read()) >= 0) {
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (subset && c == '<' && peek(0) == '!' && peek(1) == '-' && peek(2) == '-') {
+                    skipUntil("-->");
+                } else if (subset && c == '<' && peek(0) == '?') {
+                    skipUntil("?>");
+                } else if (c == '[') {
+                    subset = true;
+                } else if (c == ']') {
+                    subset = false;
+                } else if (c == '>' && !subset) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Ueberspringt nach &lt;! einen Kommentar oder CDATA-Abschnitt. Die Bytes des Inhalts eines
+         * CDATA-Abschnitts werden nach text geschrieben, falls gesetzt.
+         *
+         * @return false, falls weder Kommentar noch CDATA folgt, z.B. bei DOCTYPE; dann ist nichts gelesen.
+         */
+        boolean skipCommentOrCData(ByteArrayOutputStream text) throws IOException {
+            if (peek(0) == '-' && peek(1) == '-') {
+                skipUntil("-->");
+                return true;
+            }
+            String cdata = "[CDATA[";
+            for (int i = 0; i < cdata.length(); i++) {
+                if (peek(i) != cdata.charAt(i)) {
+                    return false;
+                }
+            }
+            index += cdata.length();
+            // ] werden erst geschrieben, wenn feststeht, dass sie nicht zum abschliessenden ]]> gehoeren
+            int brackets = 0;
+            int c;
+            while ((c = read()) >= 0) {
+                if (c == ']') {
+                    brackets++;
+                    continue;
+                }
+                if (c == '>' && brackets >= 2) {
+                    writeBrackets(text, brackets - 2);
+                    return true;
+                }
+                writeBrackets(text, brackets);
+                brackets = 0;
+                if (text != null) {
+                    text.write(c);
+                }
+            }
+            return true;
+        }
+
+        private static void writeBrackets(ByteArrayOutputStream text, int count) {
+            for (int i = 0; text != null && i < count; i++) {
+                text.write(']');
+            }
+        }
+
+        /**
+         * Ueberspringt alles bis einschliesslich der Zeichenfolge end.
+         */
+        void skipUntil(String end) throws IOException {
+            int length = end.length();
+            char[] window = new char[length];
+            long read = 0;
+            int c;
+            while ((c = read()) >= 0) {
+                System.arraycopy(window, 1, window, 0, length - 1);
+                window[length - 1] = (char) c;
+                if (++read >= length && end.contentEquals(new String(window))) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
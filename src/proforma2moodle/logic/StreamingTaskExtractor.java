@@ -0,0 +1,236 @@
+package proforma2moodle.logic;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Die StreamingTaskExtractor-Klasse liest eine task.xml mit StAX in einem einzigen Vorwaertsdurchlauf
+ * und baut dabei denselben TaskDocumentIndex auf wie TaskDocumentIndex.fromDocument fuer den DOM-Pfad.
+ * Die Elemente werden ueber den ExtractionPlan der ProFormA-Version anhand von Namensraum und lokalem Namen
+ * erkannt, sodass Praefixe und der Ort der Namensraumdeklaration keine Rolle spielen.
+ * Der Inhalt eingebetteter Dateien wird nur fuer das general-feedback gelesen,
+ * und nur der Teilbaum der grading-hints wird als DOM aufgebaut.
+ */
+public class StreamingTaskExtractor {
+
+    /**
+     * Der Textinhalt eines Elements, der waehrend des Durchlaufs gesammelt wird.
+     */
+    private static class Capture {
+        private final int depth;
+        private final StringBuilder text = new StringBuilder();
+
+        Capture(int depth) {
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Liest eine task.xml und baut ihren Index auf.
+     *
+     * @param in Der Eingabestrom auf die task.xml.
+     * @param scratch Ein leeres DOM-Dokument, in dem der grading-hints-Teilbaum aufgebaut wird.
+     * @return Der Index der Aufgabe.
+     * @throws XMLStreamException wenn die task.xml nicht gelesen werden kann.
+     */
+    public TaskDocumentIndex extract(InputStream in, Document scratch) throws XMLStreamException {
+        XMLStreamReader reader = XMLFactories.createReader(in);
+        try {
+            return extract(reader, scratch);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private TaskDocumentIndex extract(XMLStreamReader reader, Document scratch) throws XMLStreamException {
+        TaskDocumentIndex index = null;
+        ExtractionPlan plan = null;
+
+        Capture title = null;
+        Capture description = null;
+        Capture internalDescription = null;
+        Capture proglang = null;
+        Capture generalFeedback = null;
+        String generalFeedbackName = null;
+
+        int fileDepth = -1;
+        String currentFileId = null;
+        boolean currentFileNamed = false;
+        boolean generalFeedbackFile = false;
+
+        Element gradingHints = null;
+        Node gradingNode = null;
+        int gradingDepth = -1;
+
+        List<Capture> active = new ArrayList<>();
+        int depth = 0;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT: {
+                    depth++;
+                    if (depth == 1) {
+                        plan = ExtractionPlan.forNamespace(reader.getNamespaceURI());
+                        index = new TaskDocumentIndex(plan);
+                        index.setUuid(attribute(reader, "uuid"));
+                    }
+                    ExtractionPlan.Kind kind = plan.kind(reader.getNamespaceURI(), reader.getLocalName());
+
+                    if (gradingNode != null) {
+                        gradingNode = gradingNode.appendChild(createElement(scratch, reader));
+                    } else if (gradingHints == null && kind == ExtractionPlan.Kind.GRADING_HINTS) {
+                        gradingHints = createElement(scratch, reader);
+                        scratch.appendChild(gradingHints);
+                        gradingNode = gradingHints;
+                        gradingDepth = depth;
+                    }
+                    if (kind == null) {
+                        break;
+                    }
+
+                    if (title == null && kind == ExtractionPlan.Kind.TITLE) {
+                        title = start(active, depth);
+                    } else if (description == null && kind == ExtractionPlan.Kind.DESCRIPTION) {
+                        description = start(active, depth);
+                    } else if (internalDescription == null && kind == ExtractionPlan.Kind.INTERNAL_DESCRIPTION) {
+                        internalDescription = start(active, depth);
+                    } else if (proglang == null && kind == ExtractionPlan.Kind.PROGLANG) {
+                        proglang = start(active, depth);
+                    } else if (kind == ExtractionPlan.Kind.FILE) {
+                        if (fileDepth < 0) {
+                            fileDepth = depth;
+                            currentFileId = attribute(reader, "id");
+                            currentFileNamed = !index.addFile(currentFileId);
+                            generalFeedbackFile = !index.hasGeneralFeedback() && "general-feedback".equals(currentFileId);
+                        }
+                    } else if (fileDepth >= 0 && kind == ExtractionPlan.Kind.EMBEDDED_TXT_FILE) {
+                        if (!currentFileNamed && depth == fileDepth + 1) {
+                            index.setEmbeddedFile(currentFileId, attribute(reader, "filename"), null);
+                            currentFileNamed = true;
+                        }
+                        if (generalFeedbackFile && generalFeedback == null) {
+                            generalFeedback = start(active, depth);
+                            generalFeedbackName = attribute(reader, "filename");
+                        }
+                    } else if (kind == ExtractionPlan.Kind.TEST) {
+                        index.addTestId(attribute(reader, "id"));
+                    } else if (kind == ExtractionPlan.Kind.TEXTFIELD) {
+                        index.addTextfield(attribute(reader, "fixedfilename"), attribute(reader, "proglang"),
+                                attribute(reader, "file-ref"));
+                    } else if (kind == ExtractionPlan.Kind.FILEINPUT) {
+                        index.addFileinput();
+                    }
+                    break;
+                }
+                case XMLStreamConstants.END_ELEMENT: {
+                    for (int i = active.size() - 1; i >= 0; i--) {
+                        if (active.get(i).depth == depth) {
+                            active.remove(i);
+                        }
+                    }
+                    if (gradingNode != null) {
+                        gradingNode = depth == gradingDepth ? null : gradingNode.getParentNode();
+                    }
+                    if (depth == fileDepth) {
+                        fileDepth = -1;
+                        if (generalFeedbackFile && generalFeedback != null) {
+                            index.setGeneralFeedback(generalFeedbackName, text(generalFeedback));
+                        }
+                        generalFeedbackFile = false;
+                        generalFeedback = null;
+                    }
+                    depth--;
+                    break;
+                }
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE: {
+                    if (!active.isEmpty()) {
+                        for (Capture capture : active) {
+                            capture.text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        }
+                    }
+                    break;
+                }
+                case XMLStreamConstants.ENTITY_REFERENCE: {
+                    for (Capture capture : active) {
+                        capture.text.append(reader.getText());
+                    }
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+        if (index == null) {
+            throw new XMLStreamException("task.xml has no root element");
+        }
+
+        index.setTitle(text(title));
+        index.setDescription(text(description));
+        index.setInternalDescription(text(internalDescription));
+        index.setProglang(text(proglang));
+        if (gradingHints != null) {
+            index.setGradingHints(gradingHints);
+        }
+        return index;
+    }
+
+    private static Capture start(List<Capture> active, int depth) {
+        Capture capture = new Capture(depth);
+        active.add(capture);
+        return capture;
+    }
+
+    private static String text(Capture capture) {
+        return capture != null ? capture.text.toString().trim() : "";
+    }
+
+    /**
+     * Liefert den Wert eines Attributs ohne Praefix am aktuellen Element.
+     *
+     * @param reader Der Reader, der auf einem START_ELEMENT steht.
+     * @param name Der Name des Attributs.
+     * @return Der Wert des Attributs oder null, falls es fehlt.
+     */
+    private static String attribute(XMLStreamReader reader, String name) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String p = reader.getAttributePrefix(i);
+            if ((p == null || p.isEmpty()) && name.equals(reader.getAttributeLocalName(i))) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Erzeugt ein DOM-Element mit Namensraum, Namen und allen Attributen des aktuellen Elements, wie es der
+     * namensraumbewusste DOM-Parser liefert.
+     */
+    private static Element createElement(Document scratch, XMLStreamReader reader) {
+        String prefix = reader.getPrefix();
+        String localName = reader.getLocalName();
+        String uri = reader.getNamespaceURI();
+        Element element = scratch.createElementNS(uri == null || uri.isEmpty() ? null : uri,
+                prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName);
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String p = reader.getAttributePrefix(i);
+            if (p == null || p.isEmpty()) {
+                element.setAttributeNS(null, reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            } else {
+                element.setAttributeNS(reader.getAttributeNamespace(i), p + ":" + reader.getAttributeLocalName(i),
+                        reader.getAttributeValue(i));
+            }
+        }
+        return element;
+    }
+}
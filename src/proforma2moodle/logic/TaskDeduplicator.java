@@ -0,0 +1,207 @@
+package proforma2moodle.logic;
+
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.DuplicateOptions;
+import proforma2moodle.Entity.ConversionMetrics;
+import proforma2moodle.Entity.TaskXMLData;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Die TaskDeduplicator-Klasse erkennt Aufgaben, die mehrfach in der Eingabe vorkommen, z.B. dasselbe ZIP-Archiv
+ * in mehreren Verzeichnissen oder verschachtelten Archiven.
+ * <p>
+ * Beim Durchsuchen wird der Inhalt der Aufgabendatei zusammen mit dem Eintrag der task.xml verglichen. Ein
+ * SHA-256-Hash wird erst berechnet, wenn bereits eine Aufgabe derselben Groesse mit demselben Eintrag gefunden
+ * wurde; ein Duplikat kostet so nur das Lesen seiner Datei, nicht das Parsen und Kodieren. Die uuid einer Aufgabe
+ * ist erst nach dem Parsen bekannt und wird in der Reihenfolge der Ausgabe geprueft, damit stets das erste
+ * Vorkommen behalten wird.
+ * <p>
+ * Erkannte Duplikate werden in den ConversionMetrics vermerkt und erscheinen im Bericht.
+ */
+public class TaskDeduplicator {
+    /**
+     * Eine bereits gefundene Aufgabe, deren Hash noch nicht berechnet ist. Gemerkt wird nur die Datei, damit
+     * ZIP-Archive aus dem Speicher nicht bis zum Ende des Laufs gehalten werden.
+     */
+    private static final class Candidate {
+        private final File file;
+        private final String entry;
+        private final String source;
+
+        Candidate(File file, String entry, String source) {
+            this.file = file;
+            this.entry = entry;
+            this.source = source;
+        }
+    }
+
+    private final ConversionContext context;
+    private final Set<String> buckets = new HashSet<>();
+    private final Map<String, Candidate> unhashed = new HashMap<>();
+    private final Map<String, String> sourcesByHash = new HashMap<>();
+    private final Map<String, Integer> firstIndexByUuid = new ConcurrentHashMap<>();
+    private final Map<String, String> sourcesByUuid = new HashMap<>();
+
+    /**
+     * @param context Die Einstellungen des Auftrags.
+     */
+    public TaskDeduplicator(ConversionContext context) {
+        this.context = context;
+    }
+
+    /**
+     * @param context Die Einstellungen des Auftrags.
+     * @return Ein neuer TaskDeduplicator oder null, falls Duplikate nicht erkannt werden sollen.
+     */
+    public static TaskDeduplicator forContext(ConversionContext context) {
+        if (context.getDuplicateOptions().getPolicy() == DuplicateOptions.Policy.OFF) {
+            return null;
+        }
+        return new TaskDeduplicator(context);
+    }
+
+    /**
+     * Prueft beim Durchsuchen, ob eine Aufgabe mit demselben Inhalt bereits gefunden wurde.
+     * Kann die Datei nicht gelesen werden, gilt die Aufgabe als neu; der Fehler zeigt sich dann beim Parsen.
+     *
+     * @param data Die gefundene Aufgabe; die task.xml ist noch nicht gelesen.
+     * @return false, wenn die Aufgabe als Duplikat uebersprungen werden soll.
+     */
+    public synchronized boolean admitContent(TaskXMLData data) {
+        if (!context.getDuplicateOptions().getKey().isContent()) {
+            return true;
+        }
+        String entry = data.getTaskXMLEntry() == null ? "" : data.getTaskXMLEntry();
+        String bucket = data.getFileSize() + "/" + entry;
+        try {
+            if (buckets.add(bucket)) {
+                if (data.getFile() != null) {
+                    unhashed.put(bucket, new Candidate(data.getFile(), data.getTaskXMLEntry(), data.getSourceName()));
+                } else {
+                    // ZIP-Archiv aus dem Speicher: sofort hashen, spaeter ist der Inhalt nicht mehr verfuegbar
+                    sourcesByHash.put(hash(data.openFile(), entry), data.getSourceName());
+                }
+                return true;
+            }
+            Candidate first = unhashed.remove(bucket);
+            if (first != null) {
+                try (InputStream in = new FileInputStream(first.file)) {
+                    sourcesByHash.putIfAbsent(hash(in, first.entry == null ? "" : first.entry), first.source);
+                }
+            }
+            String hash = hash(data.openFile(), entry);
+            String original = sourcesByHash.putIfAbsent(hash, data.getSourceName());
+            if (original == null) {
+                return true;
+            }
+            return report(data.getSourceName(), original, "content");
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Vermerkt nach dem Parsen die uuid einer Aufgabe, damit spaetere Aufgaben mit derselben uuid nicht erst
+     * erzeugt werden muessen. Darf in beliebiger Reihenfolge und aus mehreren Threads aufgerufen werden.
+     *
+     * @param data Die gelesene Aufgabe.
+     * @param index Die Position der Aufgabe in der Ausgabe.
+     */
+    public void claimUuid(TaskXMLData data, int index) {
+        String uuid = uuid(data);
+        if (uuid != null) {
+            firstIndexByUuid.merge(uuid, index, Math::min);
+        }
+    }
+
+    /**
+     * @param data Die gelesene Aufgabe.
+     * @param index Die Position der Aufgabe in der Ausgabe.
+     * @return true, wenn bereits eine frueher stehende Aufgabe dieselbe uuid hat und die Aufgabe sicher
+     *         uebersprungen wird; die Frage muss dann nicht erzeugt werden.
+     */
+    public boolean isSuperseded(TaskXMLData data, int index) {
+        if (!context.getDuplicateOptions().getKey().isUuid()
+                || context.getDuplicateOptions().getPolicy() != DuplicateOptions.Policy.EMIT_ONCE) {
+            return false;
+        }
+        String uuid = uuid(data);
+        if (uuid == null) {
+            return false;
+        }
+        Integer first = firstIndexByUuid.get(uuid);
+        return first != null && first < index;
+    }
+
+    /**
+     * Prueft nach dem Parsen, ob eine Aufgabe mit derselben uuid bereits ausgegeben wurde. Muss in der
+     * Reihenfolge der Ausgabe aufgerufen werden.
+     *
+     * @param data Die gelesene Aufgabe.
+     * @return false, wenn die Aufgabe als Duplikat uebersprungen werden soll.
+     */
+    public synchronized boolean admitUuid(TaskXMLData data) {
+        if (!context.getDuplicateOptions().getKey().isUuid()) {
+            return true;
+        }
+        String uuid = uuid(data);
+        if (uuid == null) {
+            return true;
+        }
+        String original = sourcesByUuid.putIfAbsent(uuid, data.getSourceName());
+        if (original == null) {
+            return true;
+        }
+        return report(data.getSourceName(), original, "uuid");
+    }
+
+    private boolean report(String source, String original, String key) {
+        boolean emitted = context.getDuplicateOptions().getPolicy() == DuplicateOptions.Policy.EMIT_AND_WARN;
+        ConversionMetrics.Duplicate duplicate = new ConversionMetrics.Duplicate(source, original, key, emitted);
+        context.getMetrics().addDuplicate(duplicate);
+        if (emitted) {
+            System.err.println("Warning: " + duplicate);
+        }
+        return emitted;
+    }
+
+    private static String uuid(TaskXMLData data) {
+        String uuid = data.getTaskuuid();
+        return uuid == null || uuid.isBlank() ? null : uuid.trim();
+    }
+
+    /**
+     * @return Der SHA-256-Hash des Inhalts zusammen mit dem Eintrag der task.xml; der Strom wird geschlossen.
+     */
+    private static String hash(InputStream in, String entry) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream input = in) {
+            byte[] buffer = new byte[65536];
+            int n;
+            while ((n = input.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        digest.update((byte) 0);
+        digest.update(entry.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
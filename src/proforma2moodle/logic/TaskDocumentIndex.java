@@ -0,0 +1,315 @@
+package proforma2moodle.logic;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Die TaskDocumentIndex-Klasse haelt alle Werte einer task.xml, die fuer die Konvertierung benoetigt werden.
+ * Der Index wird pro Aufgabe in einem einzigen Durchlauf aufgebaut, entweder ueber das DOM-Dokument
+ * oder waehrend des StAX-Durchlaufs. Alle Extraktoren im XMLProcessor lesen nur noch aus dem Index,
+ * statt das Dokument wiederholt mit getElementsByTagName zu durchsuchen.
+ */
+public class TaskDocumentIndex {
+
+    /**
+     * Die erste eingebettete Textdatei (embedded-txt-file) eines file-Elements.
+     */
+    public static class EmbeddedFile {
+        private final String filename;
+        private final Element element;
+        private String content;
+
+        EmbeddedFile(String filename, Element element, String content) {
+            this.filename = filename;
+            this.element = element;
+            this.content = content;
+        }
+
+        public String getFilename() { return filename; }
+
+        /**
+         * @return Der Inhalt der Datei ohne fuehrende und abschliessende Leerzeichen. Im StAX-Pfad wird
+         *         der Inhalt nicht gelesen, er ist dort leer.
+         */
+        public String getContent() {
+            if (content == null) {
+                content = element != null ? element.getTextContent().trim() : "";
+            }
+            return content;
+        }
+    }
+
+    private final ExtractionPlan plan;
+    private String uuid = "";
+    private String title;
+    private String description;
+    private String internalDescription;
+    private String proglang;
+    private final Map<String, EmbeddedFile> files = new HashMap<>();
+    private EmbeddedFile generalFeedback;
+    private final Set<String> testIds = new HashSet<>();
+    private Element gradingHints;
+    private Element gradingRoot;
+    private final Map<String, Element> combines = new LinkedHashMap<>();
+    private final List<String[]> textfields = new ArrayList<>();
+    private int fileinputCount;
+
+    /**
+     * @param plan Der Plan der ProFormA-Version der Aufgabe.
+     */
+    public TaskDocumentIndex(ExtractionPlan plan) {
+        this.plan = plan;
+    }
+
+    /**
+     * Baut den Index in einem einzigen Durchlauf ueber alle Elemente eines DOM-Dokuments auf.
+     *
+     * @param document Das namensraumbewusst geparste task.xml-Dokument.
+     * @return Der Index der Aufgabe.
+     */
+    public static TaskDocumentIndex fromDocument(Document document) {
+        Element task = document.getDocumentElement();
+        ExtractionPlan plan = ExtractionPlan.forElement(task);
+        TaskDocumentIndex index = new TaskDocumentIndex(plan);
+        index.uuid = task.getAttribute("uuid");
+
+        Node node = task;
+        while (node != null) {
+            ExtractionPlan.Kind kind = node.getNodeType() == Node.ELEMENT_NODE ? plan.kind(node) : null;
+            if (kind != null) {
+                Element element = (Element) node;
+                switch (kind) {
+                    case TITLE:
+                        if (index.title == null) {
+                            index.title = element.getTextContent().trim();
+                        }
+                        break;
+                    case DESCRIPTION:
+                        if (index.description == null) {
+                            index.description = element.getTextContent().trim();
+                        }
+                        break;
+                    case INTERNAL_DESCRIPTION:
+                        if (index.internalDescription == null) {
+                            index.internalDescription = element.getTextContent().trim();
+                        }
+                        break;
+                    case PROGLANG:
+                        if (index.proglang == null) {
+                            index.proglang = element.getTextContent().trim();
+                        }
+                        break;
+                    case FILE: {
+                        String id = attribute(element, "id");
+                        if (id != null && !index.files.containsKey(id)) {
+                            EmbeddedFile embedded = null;
+                            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                                if (child.getNodeType() == Node.ELEMENT_NODE && plan.kind(child) == ExtractionPlan.Kind.EMBEDDED_TXT_FILE) {
+                                    embedded = new EmbeddedFile(attribute((Element) child, "filename"), (Element) child, null);
+                                    break;
+                                }
+                            }
+                            index.files.put(id, embedded);
+                        }
+                        break;
+                    }
+                    case EMBEDDED_TXT_FILE:
+                        if (index.generalFeedback == null && isGeneralFeedbackFile(element, plan)) {
+                            index.generalFeedback = new EmbeddedFile(attribute(element, "filename"), element, null);
+                        }
+                        break;
+                    case TEST: {
+                        String id = attribute(element, "id");
+                        if (id != null) {
+                            index.testIds.add(id);
+                        }
+                        break;
+                    }
+                    case GRADING_HINTS:
+                        if (index.gradingHints == null) {
+                            index.setGradingHints(element);
+                        }
+                        break;
+                    case TEXTFIELD:
+                        index.addTextfield(attribute(element, "fixedfilename"), attribute(element, "proglang"),
+                                attribute(element, "file-ref"));
+                        break;
+                    case FILEINPUT:
+                        index.fileinputCount++;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            node = next(node, task);
+        }
+        return index;
+    }
+
+    /**
+     * Liefert den naechsten Knoten eines Tiefendurchlaufs in Dokumentreihenfolge.
+     */
+    private static Node next(Node node, Node root) {
+        if (node.getFirstChild() != null) {
+            return node.getFirstChild();
+        }
+        while (node != root) {
+            if (node.getNextSibling() != null) {
+                return node.getNextSibling();
+            }
+            node = node.getParentNode();
+        }
+        return null;
+    }
+
+    /**
+     * Prueft, ob das naechste umschliessende file-Element die Id general-feedback hat.
+     */
+    private static boolean isGeneralFeedbackFile(Element embeddedFile, ExtractionPlan plan) {
+        for (Node parent = embeddedFile.getParentNode(); parent != null; parent = parent.getParentNode()) {
+            if (parent.getNodeType() == Node.ELEMENT_NODE && plan.kind(parent) == ExtractionPlan.Kind.FILE) {
+                return "general-feedback".equals(attribute((Element) parent, "id"));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Liefert den Wert eines Attributs oder null, falls es fehlt.
+     */
+    static String attribute(Element element, String name) {
+        NamedNodeMap attributes = element.getAttributes();
+        Node attribute = attributes != null ? attributes.getNamedItem(name) : null;
+        return attribute != null ? attribute.getNodeValue() : null;
+    }
+
+    /**
+     * Registriert das grading-hints-Element und indiziert dessen root- und combine-Kinder.
+     *
+     * @param gradingHints Das grading-hints-Element.
+     */
+    void setGradingHints(Element gradingHints) {
+        this.gradingHints = gradingHints;
+        for (Node child = gradingHints.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            ExtractionPlan.Kind kind = plan.kind(child);
+            if (kind == ExtractionPlan.Kind.ROOT) {
+                if (gradingRoot == null) {
+                    gradingRoot = (Element) child;
+                }
+            } else if (kind == ExtractionPlan.Kind.COMBINE) {
+                String id = attribute((Element) child, "id");
+                if (id != null) {
+                    combines.putIfAbsent(id, (Element) child);
+                }
+            }
+        }
+    }
+
+    void setUuid(String uuid) { this.uuid = uuid != null ? uuid : ""; }
+
+    void setTitle(String title) { this.title = title; }
+
+    void setDescription(String description) { this.description = description; }
+
+    void setInternalDescription(String internalDescription) { this.internalDescription = internalDescription; }
+
+    void setProglang(String proglang) { this.proglang = proglang; }
+
+    /**
+     * Registriert ein file-Element, sofern fuer dessen Id noch keines registriert ist.
+     *
+     * @return true, falls das file-Element das erste mit dieser Id ist.
+     */
+    boolean addFile(String id) {
+        if (id == null || files.containsKey(id)) {
+            return false;
+        }
+        files.put(id, null);
+        return true;
+    }
+
+    void setEmbeddedFile(String id, String filename, String content) {
+        files.put(id, new EmbeddedFile(filename, null, content));
+    }
+
+    void setGeneralFeedback(String filename, String content) {
+        generalFeedback = new EmbeddedFile(filename, null, content);
+    }
+
+    boolean hasGeneralFeedback() { return generalFeedback != null; }
+
+    void addTestId(String id) {
+        if (id != null) {
+            testIds.add(id);
+        }
+    }
+
+    void addTextfield(String fixedfilename, String proglang, String fileRef) {
+        textfields.add(new String[] {fixedfilename, proglang, fileRef});
+    }
+
+    void addFileinput() { fileinputCount++; }
+
+    /**
+     * @return Der Plan der ProFormA-Version der Aufgabe.
+     */
+    public ExtractionPlan getPlan() { return plan; }
+
+    public String getUuid() { return uuid; }
+
+    public String getTitle() { return title != null ? title : ""; }
+
+    public String getDescription() { return description != null ? description : ""; }
+
+    public String getInternalDescription() { return internalDescription != null ? internalDescription : ""; }
+
+    public String getProglang() { return proglang != null ? proglang : ""; }
+
+    /**
+     * @param id Die Id eines file-Elements.
+     * @return Die erste eingebettete Textdatei des ersten file-Elements mit dieser Id oder null.
+     */
+    public EmbeddedFile getEmbeddedFile(String id) { return id != null ? files.get(id) : null; }
+
+    /**
+     * @return Der Inhalt der ersten eingebetteten Textdatei eines file-Elements mit der Id general-feedback
+     *         oder ein leerer String.
+     */
+    public String getGeneralFeedback() { return generalFeedback != null ? generalFeedback.getContent() : ""; }
+
+    public boolean hasTest(String id) { return testIds.contains(id); }
+
+    public Set<String> getTestIds() { return testIds; }
+
+    public Element getGradingHints() { return gradingHints; }
+
+    public Element getGradingRoot() { return gradingRoot; }
+
+    public Element getCombine(String id) { return combines.get(id); }
+
+    /**
+     * @return Alle combine-Elemente der grading-hints in Dokumentreihenfolge.
+     */
+    public Collection<Element> getCombines() { return combines.values(); }
+
+    /**
+     * @return Die Attribute fixedfilename, proglang und file-ref aller textfield-Elemente.
+     */
+    public List<String[]> getTextfields() { return textfields; }
+
+    public int getFileinputCount() { return fileinputCount; }
+}
@@ -0,0 +1,290 @@
+package proforma2moodle.logic;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Die TaskFileExtractor-Klasse stellt aus einem Moodle-XML-Export die urspruenglichen ProFormA-Aufgabendateien
+ * wieder her. Die Moodle-XML wird mit StAX in einem Durchlauf gelesen; der Base64-Inhalt des taskfile-Elements
+ * jeder question vom Typ moopt wird in Bloecken an einen Pool uebergeben, dort dekodiert und direkt in die
+ * gleichnamige Datei im Zielverzeichnis geschrieben. Weder das Dokument noch eine ganze Aufgabendatei liegen
+ * dabei im Speicher; mehrere Aufgabendateien werden gleichzeitig dekodiert und geschrieben, waehrend der Leser
+ * bereits die naechsten Fragen liest.
+ * Die Dateinamen werden auf den letzten Pfadbestandteil und unbedenkliche Zeichen beschraenkt; kommt ein Name
+ * mehrfach vor, erhalten spaetere Dateien eine laufende Nummer.
+ */
+public class TaskFileExtractor {
+    /** Anzahl der Zeichen, die gesammelt an den Pool uebergeben werden. */
+    private static final int CHUNK_CHARS = 64 * 1024;
+    /** Anzahl der Bloecke je Aufgabendatei, die hoechstens auf das Dekodieren warten. */
+    private static final int QUEUED_CHUNKS = 16;
+    private static final char[] END = new char[0];
+
+    private final File outputDirectory;
+    private final int parallelism;
+
+    /**
+     * @param outputDirectory Das Verzeichnis, in das die Aufgabendateien geschrieben werden.
+     * @param parallelism Anzahl der Aufgabendateien, die gleichzeitig dekodiert und geschrieben werden.
+     */
+    public TaskFileExtractor(File outputDirectory, int parallelism) {
+        this.outputDirectory = outputDirectory;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Schreibt die Aufgabendateien aller moopt-Fragen einer Moodle-XML in das Zielverzeichnis.
+     * Bereits vorhandene Dateien gleichen Namens werden ersetzt, jede erst, wenn sie vollstaendig geschrieben ist.
+     *
+     * @param moodleXML Die Moodle-XML.
+     * @return Die geschriebenen Dateien in der Reihenfolge der Fragen.
+     * @throws IOException Bei Lese-/Schreibfehlern oder fehlerhaftem Base64-Inhalt.
+     * @throws XMLStreamException wenn die Moodle-XML nicht gelesen werden kann.
+     */
+    public List<File> extract(File moodleXML) throws IOException, XMLStreamException {
+        Files.createDirectories(outputDirectory.toPath());
+        List<File> files = new ArrayList<>();
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        ChunkInputStream current = null;
+        boolean completed = false;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(moodleXML))) {
+            XMLStreamReader reader = XMLFactories.createReader(in);
+            try {
+                boolean moopt = false;
+                char[] chunk = null;
+                int length = 0;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String element = reader.getLocalName();
+                        if (element.equals("question")) {
+                            moopt = "moopt".equals(reader.getAttributeValue(null, "type"));
+                        } else if (moopt && element.equals("taskfile") && current == null) {
+                            File file = new File(outputDirectory, uniqueName(reader.getAttributeValue(null, "name"), names));
+                            files.add(file);
+                            current = new ChunkInputStream();
+                            writes.add(write(current, file, pool));
+                            chunk = new char[CHUNK_CHARS];
+                            length = 0;
+                        }
+                    } else if (current != null && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+                        int textLength = reader.getTextLength();
+                        int start = reader.getTextStart();
+                        char[] text = reader.getTextCharacters();
+                        while (textLength > 0) {
+                            int n = Math.min(textLength, CHUNK_CHARS - length);
+                            System.arraycopy(text, start, chunk, length, n);
+                            length += n;
+                            start += n;
+                            textLength -= n;
+                            if (length == CHUNK_CHARS) {
+                                current.put(chunk);
+                                chunk = new char[CHUNK_CHARS];
+                                length = 0;
+                            }
+                        }
+                    } else if (current != null && event == XMLStreamConstants.END_ELEMENT
+                            && reader.getLocalName().equals("taskfile")) {
+                        if (length > 0) {
+                            char[] last = new char[length];
+                            System.arraycopy(chunk, 0, last, 0, length);
+                            current.put(last);
+                        }
+                        current.put(END);
+                        current = null;
+                        chunk = null;
+                    } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("question")) {
+                        moopt = false;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            for (CompletableFuture<Void> write : writes) {
+                write.join();
+            }
+            completed = true;
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        } catch (IOException | XMLStreamException e) {
+            // ein Fehler beim Schreiben bricht auch das Lesen ab und ist dann die eigentliche Ursache
+            for (CompletableFuture<Void> write : writes) {
+                if (write.isCompletedExceptionally()) {
+                    try {
+                        write.join();
+                    } catch (CompletionException failure) {
+                        throw unwrap(failure);
+                    }
+                }
+            }
+            throw e;
+        } finally {
+            if (current != null) {
+                current.abort();
+            }
+            if (!completed) {
+                pool.shutdownNow();
+            }
+            pool.shutdown();
+        }
+        return files;
+    }
+
+    private static IOException unwrap(CompletionException e) {
+        if (e.getCause() instanceof IOException) {
+            return (IOException) e.getCause();
+        }
+        return new IOException(e.getCause());
+    }
+
+    /**
+     * Dekodiert den Base64-Inhalt einer Aufgabendatei im Pool in eine temporaere Datei neben dem Ziel und
+     * ersetzt das Ziel erst, wenn sie vollstaendig ist.
+     */
+    private static CompletableFuture<Void> write(ChunkInputStream base64, File file, ForkJoinPool pool) {
+        return CompletableFuture.runAsync(() -> {
+            Path target = file.toPath();
+            Path part = new File(file.getPath() + ".part").toPath();
+            try (InputStream in = Base64.getMimeDecoder().wrap(base64)) {
+                Files.copy(in, part, StandardCopyOption.REPLACE_EXISTING);
+                try {
+                    Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                base64.abort();
+                try {
+                    Files.deleteIfExists(part);
+                } catch (IOException ignored) {
+                    // bleibt als .part-Datei liegen
+                }
+                throw new CompletionException(new IOException(file.getName() + ": " + e.getMessage(), e));
+            }
+        }, pool);
+    }
+
+    /**
+     * Beschraenkt den Namen aus dem name-Attribut auf den letzten Pfadbestandteil und die Zeichen A-Z, a-z, 0-9,
+     * Punkt, Minus und Unterstrich und haengt bei mehrfach vorkommenden Namen eine laufende Nummer an.
+     *
+     * @param name Der Name aus der Moodle-XML oder null.
+     * @param names Die bereits vergebenen Namen in Kleinschreibung.
+     * @return Ein im Lauf eindeutiger Dateiname.
+     */
+    static String uniqueName(String name, Set<String> names) {
+        String base = name == null ? "" : name.replace('\\', '/');
+        base = base.substring(base.lastIndexOf('/') + 1).replaceAll("[^A-Za-z0-9._-]", "_");
+        while (base.startsWith(".")) {
+            base = base.substring(1);
+        }
+        if (base.isEmpty()) {
+            base = "task.zip";
+        }
+        int dot = base.lastIndexOf('.');
+        String stem = dot > 0 ? base.substring(0, dot) : base;
+        String extension = dot > 0 ? base.substring(dot) : "";
+        String unique = base;
+        for (int i = 2; !names.add(unique.toLowerCase(Locale.ROOT)); i++) {
+            unique = stem + "_" + i + extension;
+        }
+        return unique;
+    }
+
+    /**
+     * Ein Eingabestrom auf die Base64-Zeichen einer Aufgabendatei, die der Leser blockweise uebergibt.
+     * Ist die Warteschlange voll, wartet der Leser, bis der Pool Bloecke dekodiert hat.
+     */
+    private static final class ChunkInputStream extends InputStream {
+        private final BlockingQueue<char[]> chunks = new ArrayBlockingQueue<>(QUEUED_CHUNKS);
+        private volatile boolean aborted;
+        private char[] chunk = new char[0];
+        private int position;
+        private boolean end;
+
+        void put(char[] next) throws IOException {
+            try {
+                while (!chunks.offer(next, 100, TimeUnit.MILLISECONDS)) {
+                    if (aborted) {
+                        throw new IOException("Schreiben der Aufgabendatei abgebrochen");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        void abort() {
+            aborted = true;
+        }
+
+        private boolean fill() throws IOException {
+            while (position == chunk.length) {
+                if (end) {
+                    return false;
+                }
+                try {
+                    char[] next = chunks.poll(100, TimeUnit.MILLISECONDS);
+                    if (next == END) {
+                        end = true;
+                    } else if (next != null) {
+                        chunk = next;
+                        position = 0;
+                    } else if (aborted) {
+                        throw new IOException("Lesen der Moodle-XML abgebrochen");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? chunk[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(length, chunk.length - position);
+            for (int i = 0; i < n; i++) {
+                buffer[offset + i] = (byte) chunk[position++];
+            }
+            return n;
+        }
+    }
+}
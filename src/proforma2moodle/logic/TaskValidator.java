@@ -0,0 +1,337 @@
+package proforma2moodle.logic;
+
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.ConversionMetrics;
+import proforma2moodle.Entity.TaskXMLData;
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Die TaskValidator-Klasse prueft die task.xml einer Aufgabe vor dem Extrahieren gegen das ProFormA-Schema.
+ * <p>
+ * Die mitgelieferten Schemata unter proforma2moodle/xsd (ProFormA 2.0, 2.0.1, 2.1 und die LMS-Eingabefelder 0.1)
+ * werden beim ersten Gebrauch einmal zu einem gemeinsamen Schema uebersetzt; es ist threadsicher und wird von allen
+ * Auftraegen geteilt. Jeder Thread verwendet einen eigenen Validator, der fuer alle weiteren Aufgaben wiederverwendet
+ * wird. Verweise der Schemata aufeinander werden aus dem Klassenpfad geloest; Zugriffe auf externe DTDs und Schemata,
+ * auch ueber xsi:schemaLocation einer task.xml, sind gesperrt, sodass die Pruefung ohne Netzwerk auskommt.
+ * <p>
+ * Im Modus report werden ungueltige Aufgaben mit ihren Fehlern in den ConversionMetrics vermerkt und uebersprungen,
+ * im Modus fail bricht die erste ungueltige Aufgabe die Konvertierung ab.
+ */
+public class TaskValidator {
+    private static final String SCHEMA_DIRECTORY = "/proforma2moodle/xsd/";
+    private static final String[] SCHEMA_FILES = {
+            "proforma-v2.0.xsd", "proforma-v2.0.1.xsd", "proforma-v2.1.xsd", "lmsinputfields-v0.1.xsd"
+    };
+    /** Anzahl der Fehler, nach der die Pruefung einer task.xml im Modus report abgebrochen wird. */
+    private static final int MAX_ERRORS = 20;
+    private static final ThreadLocal<Validator> VALIDATORS = ThreadLocal.withInitial(TaskValidator::newValidator);
+
+    /**
+     * Uebersetzt die Schemata erst beim ersten Zugriff, damit Konvertierungen ohne Pruefung nichts davon bemerken.
+     */
+    private static final class SchemaHolder {
+        private static final Schema SCHEMA = compileSchema();
+    }
+
+    private final ConversionContext context;
+
+    /**
+     * @param context Die Einstellungen des Auftrags.
+     */
+    public TaskValidator(ConversionContext context) {
+        this.context = context;
+    }
+
+    /**
+     * @param context Die Einstellungen des Auftrags.
+     * @return Ein neuer TaskValidator oder null, falls die task.xml nicht geprueft werden soll.
+     */
+    public static TaskValidator forContext(ConversionContext context) {
+        if (context.getValidationMode() == ConversionContext.ValidationMode.OFF) {
+            return null;
+        }
+        return new TaskValidator(context);
+    }
+
+    /**
+     * @return Das aus den mitgelieferten Schemata uebersetzte ProFormA-Schema.
+     */
+    public static Schema getSchema() {
+        return SchemaHolder.SCHEMA;
+    }
+
+    /**
+     * Prueft die task.xml einer Aufgabe. Die Methode ist threadsicher.
+     * Ist die Aufgabe ungueltig, werden ihre Fehler an der Aufgabe und in den ConversionMetrics vermerkt.
+     *
+     * @param data Die Aufgabe, deren task.xml geprueft wird.
+     * @return true, falls die task.xml gueltig ist; false, falls sie im Modus report uebersprungen werden soll.
+     * @throws SAXException im Modus fail, falls die task.xml ungueltig ist.
+     * @throws IOException wenn die task.xml nicht gelesen werden kann.
+     */
+    public boolean admit(TaskXMLData data) throws SAXException, IOException {
+        boolean failFast = context.getValidationMode() == ConversionContext.ValidationMode.FAIL_FAST;
+        List<String> errors;
+        ConversionMetrics.Span span = context.getMetrics().start(ConversionMetrics.Phase.VALIDATE, data.getSourceName());
+        try (InputStream in = data.openTaskXML()) {
+            errors = validate(in, failFast ? 1 : MAX_ERRORS);
+        } finally {
+            span.stop(0);
+        }
+        if (errors.isEmpty()) {
+            return true;
+        }
+        data.setValidationErrors(errors);
+        ConversionMetrics.InvalidTask invalid = new ConversionMetrics.InvalidTask(data.getSourceName(), errors);
+        context.getMetrics().addInvalidTask(invalid);
+        if (failFast) {
+            throw new SAXException(invalid.toString());
+        }
+        System.err.println("Warning: " + invalid);
+        return false;
+    }
+
+    /**
+     * Prueft alle Aufgaben der Liste gleichzeitig mit der Parallelitaet des Auftrags, ohne sie zu extrahieren.
+     * Im Modus fail wird die Pruefung beim ersten Fehler abgebrochen, unabhaengig von seiner Position in der Liste.
+     *
+     * @param tasks Die Aufgaben.
+     * @return Die ungueltigen Aufgaben in der Reihenfolge der Liste.
+     * @throws SAXException im Modus fail, falls eine task.xml ungueltig ist.
+     * @throws IOException wenn eine task.xml nicht gelesen werden kann.
+     */
+    public List<TaskXMLData> validateAll(List<TaskXMLData> tasks) throws SAXException, IOException {
+        ForkJoinPool pool = new ForkJoinPool(Math.min(context.getParallelism(), Math.max(1, tasks.size())));
+        try {
+            ExecutorCompletionService<Boolean> completion = new ExecutorCompletionService<>(pool);
+            for (TaskXMLData data : tasks) {
+                completion.submit(() -> {
+                    context.checkCancelled();
+                    return admit(data);
+                });
+            }
+            for (int i = 0; i < tasks.size(); i++) {
+                completion.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Validierung unterbrochen", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+        List<TaskXMLData> invalid = new ArrayList<>();
+        for (TaskXMLData data : tasks) {
+            if (data.isInvalid()) {
+                invalid.add(data);
+            }
+        }
+        return invalid;
+    }
+
+    /**
+     * Prueft eine task.xml mit dem Validator des aktuellen Threads.
+     *
+     * @param in Der Inhalt der task.xml; der Strom wird nicht geschlossen.
+     * @param maxErrors Anzahl der Fehler, nach der die Pruefung abgebrochen wird.
+     * @return Die Fehler mit Zeile und Spalte; leer, falls die task.xml gueltig ist.
+     * @throws IOException wenn die task.xml nicht gelesen werden kann.
+     */
+    static List<String> validate(InputStream in, int maxErrors) throws IOException {
+        ErrorCollector errors = new ErrorCollector(maxErrors);
+        Validator validator = VALIDATORS.get();
+        validator.setErrorHandler(errors);
+        try {
+            validator.validate(new StreamSource(in));
+        } catch (ErrorLimitReached e) {
+            // genug Fehler fuer den Bericht
+        } catch (SAXParseException e) {
+            errors.messages.add(format(e));
+        } catch (SAXException e) {
+            errors.messages.add(e.getMessage());
+        } finally {
+            validator.setErrorHandler(null);
+        }
+        return errors.messages;
+    }
+
+    private static String format(SAXParseException e) {
+        return String.format(Locale.ROOT, "line %d, column %d: %s", e.getLineNumber(), e.getColumnNumber(), e.getMessage());
+    }
+
+    private static Validator newValidator() {
+        Validator validator = getSchema().newValidator();
+        try {
+            validator.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            validator.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            validator.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        } catch (SAXException e) {
+            throw new IllegalStateException(e);
+        }
+        return validator;
+    }
+
+    private static Schema compileSchema() {
+        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        List<InputStream> streams = new ArrayList<>();
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            factory.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+            factory.setResourceResolver(new ClasspathResolver());
+            Source[] sources = new Source[SCHEMA_FILES.length];
+            for (int i = 0; i < SCHEMA_FILES.length; i++) {
+                URL url = schemaResource(SCHEMA_FILES[i]);
+                InputStream in = url.openStream();
+                streams.add(in);
+                sources[i] = new StreamSource(in, url.toExternalForm());
+            }
+            return factory.newSchema(sources);
+        } catch (SAXException | IOException e) {
+            throw new IllegalStateException("ProFormA-Schema kann nicht geladen werden: " + e.getMessage(), e);
+        } finally {
+            for (InputStream in : streams) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    // nur gelesen
+                }
+            }
+        }
+    }
+
+    private static URL schemaResource(String name) throws IOException {
+        URL url = TaskValidator.class.getResource(SCHEMA_DIRECTORY + name);
+        if (url == null) {
+            throw new IOException(SCHEMA_DIRECTORY + name + " not found on the class path");
+        }
+        return url;
+    }
+
+    /**
+     * Sammelt die Fehler einer task.xml und bricht die Pruefung ab, sobald genug Fehler gefunden sind.
+     * Warnungen werden ignoriert, Fehler in der Wohlgeformtheit beenden die Pruefung ohnehin.
+     */
+    private static final class ErrorCollector implements ErrorHandler {
+        private final List<String> messages = new ArrayList<>();
+        private final int maxErrors;
+
+        ErrorCollector(int maxErrors) {
+            this.maxErrors = maxErrors;
+        }
+
+        @Override
+        public void warning(SAXParseException e) {
+            // Warnungen machen eine Aufgabe nicht ungueltig
+        }
+
+        @Override
+        public void error(SAXParseException e) throws SAXException {
+            String message = format(e);
+            if (!messages.isEmpty() && messages.get(messages.size() - 1).equals(message)) {
+                // manche Fehler meldet der Validator doppelt
+                return;
+            }
+            messages.add(message);
+            if (messages.size() >= maxErrors) {
+                throw new ErrorLimitReached();
+            }
+        }
+
+        @Override
+        public void fatalError(SAXParseException e) throws SAXException {
+            throw e;
+        }
+    }
+
+    private static final class ErrorLimitReached extends SAXException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Loest die Verweise der Schemata (xs:include, xs:import) auf Dateien im selben Verzeichnis des Klassenpfads.
+     * Unbekannte Verweise werden nicht aufgeloest und scheitern an der Sperre externer Zugriffe.
+     */
+    private static final class ClasspathResolver implements LSResourceResolver {
+        @Override
+        public LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId, String baseURI) {
+            if (systemId == null) {
+                return null;
+            }
+            String name = systemId.substring(systemId.lastIndexOf('/') + 1);
+            URL url = TaskValidator.class.getResource(SCHEMA_DIRECTORY + name);
+            if (url == null) {
+                return null;
+            }
+            try {
+                return new ClasspathInput(publicId, url.toExternalForm(), baseURI, url.openStream());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Ein Schema aus dem Klassenpfad als LSInput; der SchemaFactory liest es ueber den Bytestrom.
+     */
+    private static final class ClasspathInput implements LSInput {
+        private String publicId;
+        private String systemId;
+        private String baseURI;
+        private InputStream byteStream;
+
+        ClasspathInput(String publicId, String systemId, String baseURI, InputStream byteStream) {
+            this.publicId = publicId;
+            this.systemId = systemId;
+            this.baseURI = baseURI;
+            this.byteStream = byteStream;
+        }
+
+        @Override public Reader getCharacterStream() { return null; }
+        @Override public void setCharacterStream(Reader characterStream) { }
+        @Override public InputStream getByteStream() { return byteStream; }
+        @Override public void setByteStream(InputStream byteStream) { this.byteStream = byteStream; }
+        @Override public String getStringData() { return null; }
+        @Override public void setStringData(String stringData) { }
+        @Override public String getSystemId() { return systemId; }
+        @Override public void setSystemId(String systemId) { this.systemId = systemId; }
+        @Override public String getPublicId() { return publicId; }
+        @Override public void setPublicId(String publicId) { this.publicId = publicId; }
+        @Override public String getBaseURI() { return baseURI; }
+        @Override public void setBaseURI(String baseURI) { this.baseURI = baseURI; }
+        @Override public String getEncoding() { return null; }
+        @Override public void setEncoding(String encoding) { }
+        @Override public boolean getCertifiedText() { return false; }
+        @Override public void setCertifiedText(boolean certifiedText) { }
+    }
+}
@@ -0,0 +1,115 @@
+package proforma2moodle.logic;
+
+import org.w3c.dom.Document;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Writer;
+
+/**
+ * Die XMLFactories-Klasse stellt die XML-Fabriken bereit, die alle Teile des Konverters gemeinsam verwenden.
+ * Jede Fabrik wird einmal je JVM gesucht und eingerichtet, statt bei jedem Auftrag, jeder Serveranfrage oder
+ * jeder Frage; DocumentBuilder sind nicht threadsicher und werden je Thread einmal erzeugt und wiederverwendet.
+ * <p>
+ * Alle Leser sind gegen XXE gehaertet: externe DTDs, externe Entitaeten, XInclude und der Zugriff auf externe
+ * Schemata sind abgeschaltet, die Grenzen von FEATURE_SECURE_PROCESSING fuer die Expansion interner Entitaeten
+ * gelten. Eine DOCTYPE-Deklaration mit internen Entitaeten bleibt erlaubt. Die Pruefung gegen das ProFormA-Schema
+ * verwaltet ihr Schema und ihre Validatoren im TaskValidator mit denselben Einstellungen.
+ */
+public final class XMLFactories {
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = newDocumentBuilderFactory();
+    private static final XMLInputFactory INPUT_FACTORY = newInputFactory();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDERS = new ThreadLocal<>();
+
+    private XMLFactories() {
+    }
+
+    /**
+     * Liefert den DocumentBuilder des aktuellen Threads; er ist namensraumbewusst und zurueckgesetzt.
+     *
+     * @return Der DocumentBuilder des aktuellen Threads.
+     * @throws ParserConfigurationException wenn ein Konfigurationsfehler beim Initialisieren des XML-Parsers auftritt.
+     */
+    public static DocumentBuilder documentBuilder() throws ParserConfigurationException {
+        DocumentBuilder builder = DOCUMENT_BUILDERS.get();
+        if (builder == null) {
+            synchronized (DOCUMENT_BUILDER_FACTORY) {
+                builder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            }
+            DOCUMENT_BUILDERS.set(builder);
+        } else {
+            builder.reset();
+        }
+        return builder;
+    }
+
+    /**
+     * @return Ein neues, leeres DOM-Dokument aus dem DocumentBuilder des aktuellen Threads.
+     * @throws ParserConfigurationException wenn ein Konfigurationsfehler beim Initialisieren des XML-Parsers auftritt.
+     */
+    public static Document newDocument() throws ParserConfigurationException {
+        return documentBuilder().newDocument();
+    }
+
+    /**
+     * Erzeugt einen namensraumbewussten StAX-Leser. Textinhalte werden nicht zusammengefasst, sodass grosse
+     * Textknoten in Teilen geliefert werden. Die Methode ist threadsicher.
+     *
+     * @param in Der Eingabestrom.
+     * @return Der Leser; er muss vom Aufrufer geschlossen werden, der Strom bleibt offen.
+     * @throws XMLStreamException wenn der Leser nicht erzeugt werden kann.
+     */
+    public static XMLStreamReader createReader(InputStream in) throws XMLStreamException {
+        return INPUT_FACTORY.createXMLStreamReader(in);
+    }
+
+    /**
+     * Erzeugt einen StAX-Schreiber. Die Methode ist threadsicher.
+     *
+     * @param out Das Ziel.
+     * @return Der Schreiber; er muss vom Aufrufer geschlossen werden, das Ziel bleibt offen.
+     * @throws XMLStreamException wenn der Schreiber nicht erzeugt werden kann.
+     */
+    public static XMLStreamWriter createWriter(Writer out) throws XMLStreamException {
+        return OUTPUT_FACTORY.createXMLStreamWriter(out);
+    }
+
+    private static DocumentBuilderFactory newDocumentBuilderFactory() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setXIncludeAware(false);
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        return factory;
+    }
+
+    private static XMLInputFactory newInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        // Externe DTDs werden wie beim DOM-Parser uebergangen statt als Fehler gemeldet
+        factory.setXMLResolver((publicId, systemId, baseURI, namespace) -> new ByteArrayInputStream(new byte[0]));
+        factory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        factory.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        return factory;
+    }
+}
@@ -1,18 +1,26 @@
 package proforma2moodle.logic;
 
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.ConversionMetrics;
 import proforma2moodle.Entity.TaskXMLData;
 import org.w3c.dom.*;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import org.xml.sax.SAXException;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import static java.util.Map.of;
 
@@ -22,20 +30,75 @@ import static java.util.Map.of;
  * extrahiert relevante Informationen aus diesen Dateien und speichert sie in den TaskXMLData-Objekten.
  */
 public class XMLProcessor {
-    private static final String[] PROFORMA_TASK_XML_NAMESPACES = {
-            "urn:proforma:v2.1"
-    };
-
-    private static final String[] META_XML_NAMESPACES = {
-            "urn:proforma:lmsinputfields:v0.1"
-    };
     private static final Map<String, List<String>> GRADER_VERSIONS = of(
             "GraFlap", List.of("1.0"),
             "Graja", List.of("2.2", "2.3", "2.4","2.5"),
             "Asqlg", List.of("2.0","2.1","2.2")
     );
-    private String prefix;
-    private String metaPrefix;
+    private final ConversionContext context;
+    private final StreamingTaskExtractor streamingExtractor = new StreamingTaskExtractor();
+    private final ConversionCache cache;
+    private final TaskValidator validator;
+    private ExtractionStats lastStats;
+
+    /**
+     * Erzeugt einen XMLProcessor mit Standardeinstellungen.
+     */
+    public XMLProcessor() {
+        this(new ConversionContext());
+    }
+
+    /**
+     * Erzeugt einen XMLProcessor fuer einen Konvertierungsauftrag.
+     *
+     * @param context Die Einstellungen des Auftrags, u.a. Kategorie, Ausgabepfad und Parallelitaet.
+     */
+    public XMLProcessor(ConversionContext context) {
+        this.context = context;
+        this.cache = ConversionCache.forContext(context);
+        this.validator = TaskValidator.forContext(context);
+    }
+
+    /**
+     * Laufzeitstatistik der letzten Extraktion. Als Laufzeit des sequentiellen Pfades dient die Summe der
+     * Einzelzeiten aller Aufgaben, der Quotient aus dieser Summe und der Gesamtzeit ist der erreichte Speed-up.
+     * Laufen mehr Threads als Prozessorkerne, enthalten die Einzelzeiten Wartezeiten; dann wird stattdessen
+     * die Summe der CPU-Zeiten verwendet.
+     */
+    public static class ExtractionStats {
+        private final int parallelism;
+        private final long wallNanos;
+        private final long[] taskNanos;
+        private final long sequentialNanos;
+
+        public ExtractionStats(int parallelism, long wallNanos, long[] taskNanos, long sequentialNanos) {
+            this.parallelism = parallelism;
+            this.wallNanos = wallNanos;
+            this.taskNanos = taskNanos;
+            this.sequentialNanos = sequentialNanos;
+        }
+
+        public int getParallelism() { return parallelism; }
+
+        public long getWallNanos() { return wallNanos; }
+
+        /**
+         * @return Die Extraktionszeit je Aufgabe in der Reihenfolge der Eingabeliste.
+         */
+        public long[] getTaskNanos() { return taskNanos; }
+
+        public long getSequentialNanos() { return sequentialNanos; }
+
+        public double getSpeedup() {
+            return wallNanos > 0 ? (double) sequentialNanos / wallNanos : 1.0d;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d tasks extracted in %.1f ms on %d thread(s), speed-up %.2fx over sequential %.1f ms",
+                    taskNanos.length, wallNanos / 1e6, parallelism, getSpeedup(), sequentialNanos / 1e6);
+        }
+    }
 
     /**
      * Verarbeitet eine Liste von TaskXMLData-Objekten, indem sie die zugehoerigen XML-Dateien liest und analysiert.
@@ -49,193 +112,333 @@ public class XMLProcessor {
      */
     public String convertToMoodleXML(List<TaskXMLData> taskXMLDataList) throws ParserConfigurationException, SAXException, IOException {
         StringBuilder allTags = new StringBuilder();
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-
-        for (TaskXMLData data : taskXMLDataList) {
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.parse(data.getTaskXMLDatei());
-            this.prefix = detectProformaNamespacePrefix(document.getDocumentElement().getAttributes(), PROFORMA_TASK_XML_NAMESPACES);
-            this.metaPrefix = detectProformaNamespacePrefix(document.getDocumentElement().getAttributes(), META_XML_NAMESPACES);
-            extractTaskXMLData(document, data);
-        }
 
-        MoodleXMLConverter converter = new MoodleXMLConverter(taskXMLDataList);
-        String MoodleXML = converter.createMoodleXML();
-        // System.out.println(MoodleXML);
+        extractAll(taskXMLDataList);
+        writeMoodleXML(taskXMLDataList);
         return allTags.toString();
     }
 
     /**
-     * Extrahiert spezifische Daten aus einem XML-Dokument und speichert sie in einem TaskXMLData-Objekt.
-     * Diese Methode liest verschiedene XML-Elemente und setzt die entsprechenden Eigenschaften im TaskXMLData-Objekt.
+     * Schreibt die Moodle-XML fuer bereits extrahierte Aufgaben und meldet den Cache zum Aufraeumen beim Beenden der JVM an.
      *
-     * @param document Das XML-Dokument, aus dem Daten extrahiert werden.
-     * @param extractedData Das TaskXMLData-Objekt, in dem die extrahierten Daten gespeichert werden sollen.
+     * @param taskXMLDataList Die extrahierten Aufgaben in der Reihenfolge der Ausgabe.
+     * @return Die geschriebene Moodle-XML oder null, falls sie nicht geschrieben werden konnte.
+     * @throws ParserConfigurationException wenn ein Konfigurationsfehler beim Initialisieren des XML-Parsers auftritt.
      */
-    private void extractTaskXMLData(Document document, TaskXMLData extractedData) {
-        String taskTitle = getElementContent(document, this.prefix + "title");
-        String taskDescription = getElementContent(document, this.prefix + "description");
-        taskDescription = "<h3>"+taskTitle+"</h3>"+System.lineSeparator()+taskDescription;
-        extractedData.setQuestionName(taskTitle);
-        extractedData.setQuestionText(taskDescription);
-        extractedData.setGeneralFeedback(extractGeneralFeedback(document));
-        extractedData.setInternalDescription(getElementContent(document, this.prefix + "internal-description"));
-        extractGradernameAndGraderversion(document, extractedData);
-        extractedData.setTaskuuid(document.getDocumentElement().getAttribute("uuid"));
-        extractTaskGrade(document, extractedData);
-        extractTaskXMLMetaData(document, extractedData);
+    public File writeMoodleXML(List<TaskXMLData> taskXMLDataList) throws ParserConfigurationException {
+        MoodleXMLConverter converter = new MoodleXMLConverter(taskXMLDataList, context);
+        File outputFile = converter.createMoodleXML();
+        if (cache != null) {
+            cache.scheduleEviction();
+        }
+        return outputFile;
     }
 
     /**
-     * Extrahiert den defaultgrade aus der Task
-     * und setzt die entsprechenden Eigenschaften im TaskXMLData-Objekt.
+     * Beginnt eine Extraktion, der die Aufgaben einzeln uebergeben werden, waehrend sie noch gesucht werden.
+     * So ueberlappt das Parsen mit dem Durchsuchen der Eingabe.
      *
-     * @param document Das XML-Dokument, aus dem Daten extrahiert werden.
-     * @param extractedData Das TaskXMLData-Objekt, in dem die extrahierten Daten gespeichert werden sollen.
+     * @return Die Extraktion; sie muss mit finish abgeschlossen und in jedem Fall geschlossen werden.
      */
-    private void extractTaskGrade(Document document, TaskXMLData extractedData) {
-        double points=0.0d;
-        HashMap<String,String> combine=new HashMap<String,String>();
-        HashMap<String,String> combine11=new HashMap<String,String>();
-        HashMap<String,String> combine12=new HashMap<String,String>();
-         HashMap<String,Double> combine13=new HashMap<String,Double>();
-        NodeList nodeList = document.getElementsByTagName(prefix+"grading-hints");
-        if (nodeList != null && nodeList.getLength() > 0) {
-            Node node = nodeList.item(0); // root
-            NodeList nodeList1 = node.getChildNodes();
-            if (nodeList1 != null && nodeList1.getLength() > 0) {
-                for (int i = 0; i < nodeList1.getLength(); i++) {
-                    Node node1 = nodeList1.item(i);
-                    if (node1.getNodeName().equals(prefix + "root")) {
-                        NamedNodeMap att = node1.getAttributes();
-                        if (att.getNamedItem("function").getTextContent().equals("sum")) {
-                            NodeList nol = node1.getChildNodes();
-                            for (int j = 0; j < nol.getLength(); j++) {
-                                Node n = nol.item(j);
-                                if (n.getNodeName().equals(prefix + "test-ref")) {
-                                    NamedNodeMap natt = n.getAttributes();
-                                    String ptString = natt.getNamedItem("weight").getTextContent();
-                                    points += Double.parseDouble(ptString);
-                                }
-                                if (n.getNodeName().equals(prefix + "combine-ref")) {
-                                    NamedNodeMap natt = n.getAttributes();
-                                    String nameCom = natt.getNamedItem("ref").getTextContent();
-                                    String ptString = natt.getNamedItem("weight").getTextContent();
-                                    combine.put(nameCom, ptString);
-                                }
-                            }
-                        }
-                    }
-                }
+    public Extraction startExtraction() {
+        return new Extraction(context.getParallelism());
+    }
+
+    /**
+     * Eine laufende Extraktion, der mit submit Aufgaben uebergeben werden. Bei einer Parallelitaet groesser 1
+     * werden sie sofort in einem ForkJoinPool gelesen, sonst erst in finish nacheinander im aufrufenden Thread.
+     * Fehler beim Lesen einer Aufgabe werden in jedem Fall erst von finish geworfen.
+     */
+    public final class Extraction implements AutoCloseable {
+        private final int threads;
+        private final ThreadMXBean cpuClock;
+        private final ForkJoinPool pool;
+        private final Map<TaskXMLData, Future<long[]>> pending = new IdentityHashMap<>();
+        private final long start = System.nanoTime();
+
+        private Extraction(int threads) {
+            this.threads = threads;
+            this.cpuClock = cpuClock(threads);
+            this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        }
+
+        /**
+         * Uebergibt eine gefundene Aufgabe zum Lesen.
+         *
+         * @param data Die Aufgabe.
+         */
+        public void submit(TaskXMLData data) {
+            if (pool != null) {
+                pending.put(data, pool.submit(() -> timedExtractTask(data, cpuClock)));
             }
-            if (nodeList1 != null && nodeList1.getLength() > 0) {
-                for (int i = 0; i < nodeList1.getLength(); i++) {
-                    Node node1 = nodeList1.item(i); // combined tests
-                    if (node1.getNodeName().equals(prefix+"combine")){
-                        double ptcom = 0.0d;
-                        NamedNodeMap natt= node1.getAttributes();
-                        String nameCom = natt.getNamedItem("id").getTextContent();
-                        if (natt.getNamedItem("function").getTextContent().equals("sum")) {
-                            NodeList nol1 = node1.getChildNodes();
-                            for (int k = 0; k < nol1.getLength(); k++) {
-                                Node nk = nol1.item(k);
-                                if (nk.getNodeName().equals(prefix + "test-ref")) {
-                                    NamedNodeMap nattk = nk.getAttributes();
-                                    String ptkString = nattk.getNamedItem("weight").getTextContent();
-                                    ptcom += Double.parseDouble(ptkString);
-                                }
-                                if (nk.getNodeName().equals(prefix + "combine-ref")) {
-                                    NamedNodeMap nattk = nk.getAttributes();
-                                    String nameCom1 = nattk.getNamedItem("ref").getTextContent();
-                                    String ptString1 = nattk.getNamedItem("weight").getTextContent();
-                                    combine11.put(nameCom1,nameCom);
-                                    combine12.put(nameCom1, ptString1);
-                                }
-                            }
-                        }
-                        if (natt.getNamedItem("function").getTextContent().equals("min")) {
-                            NodeList nol1 = node1.getChildNodes(); // combined in combined
-                            double ptcom1 = 0.0d;
-                            for (int k = 0; k < nol1.getLength(); k++) {
-                                Node nk = nol1.item(k);
-                                if (nk.getNodeName().equals(prefix + "test-ref")) {
-                                    NamedNodeMap nattk = nk.getAttributes();
-                                    String ptkString = nattk.getNamedItem("weight").getTextContent();
-                                    ptcom1 = Math.max(ptcom1, (double) (Double.parseDouble(ptkString)));
-                                }
-                            }
-                            combine13.put(nameCom,ptcom1);
-                        }
-                        if (combine.containsKey(nameCom)){
-                            // combined in root
-                            points += ptcom * Double.parseDouble(combine.get(nameCom));}
-                    }
+        }
+
+        /**
+         * Wartet, bis alle Aufgaben gelesen sind. Aufgaben der Liste, die nicht uebergeben wurden, werden jetzt gelesen.
+         * Aufgaben, deren task.xml bei der Pruefung gegen das Schema ungueltig war, werden aus der Liste entfernt.
+         *
+         * @param taskXMLDataList Alle Aufgaben in der Reihenfolge der Ausgabe.
+         * @return Die Laufzeitstatistik; die Gesamtzeit reicht vom Beginn der Extraktion bis zur letzten Aufgabe.
+         * @throws ParserConfigurationException wenn ein Konfigurationsfehler beim Initialisieren des XML-Parsers auftritt.
+         * @throws SAXException wenn ein Fehler beim Parsen der XML-Dokumente auftritt.
+         * @throws IOException wenn ein Ein-/Ausgabefehler auftritt.
+         */
+        public ExtractionStats finish(List<TaskXMLData> taskXMLDataList) throws ParserConfigurationException, SAXException, IOException {
+            context.getListener().extractionStarted(taskXMLDataList.size());
+            long[] taskNanos = new long[taskXMLDataList.size()];
+            long sequentialNanos = 0;
+            try {
+                for (int i = 0; i < taskXMLDataList.size(); i++) {
+                    TaskXMLData data = taskXMLDataList.get(i);
+                    Future<long[]> future = pending.get(data);
+                    long[] times = future != null ? future.get() : timedExtractTask(data, cpuClock);
+                    taskNanos[i] = times[0];
+                    sequentialNanos += cpuClock != null ? times[1] : times[0];
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Extraktion unterbrochen", e);
+            } catch (ExecutionException e) {
+                rethrow(e);
             }
+            lastStats = new ExtractionStats(threads, System.nanoTime() - start, taskNanos, sequentialNanos);
+            removeInvalid(taskXMLDataList);
+            return lastStats;
+        }
 
+        /**
+         * Beendet den Pool; noch nicht begonnene Aufgaben werden nach einem Fehler verworfen.
+         */
+        @Override
+        public void close() {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
         }
+    }
 
-        for (String k : combine11.keySet()){
-            // combined in combined
-            points += Double.parseDouble(combine12.get(k)) * combine13.get(k);
+    /**
+     * Parst alle Aufgaben der Liste und fuellt die TaskXMLData-Objekte. Bei einer Parallelitaet groesser 1
+     * werden die Aufgaben in einem ForkJoinPool gleichzeitig verarbeitet; dazu werden alle Aufgaben einer
+     * Extraction uebergeben, wie beim Durchsuchen der Eingabe. Die Reihenfolge der Liste bleibt
+     * unveraendert, da jedes Objekt an seiner Position gefuellt wird. Jede gelesene Aufgabe wird dem
+     * ConversionListener gemeldet; nach einem Abbruch ueber den ConversionContext wird keine weitere Aufgabe begonnen.
+     * Ist eine Pruefung gegen das ProFormA-Schema eingestellt, wird jede task.xml vor dem Extrahieren im selben Pool
+     * geprueft; ungueltige Aufgaben werden im Modus report danach aus der Liste entfernt.
+     *
+     * @param taskXMLDataList Die Liste von TaskXMLData-Objekten.
+     * @return Die Laufzeitstatistik der Extraktion.
+     * @throws ParserConfigurationException wenn ein Konfigurationsfehler beim Initialisieren des XML-Parsers auftritt.
+     * @throws SAXException wenn ein Fehler beim Parsen der XML-Dokumente auftritt.
+     * @throws IOException wenn ein Ein-/Ausgabefehler auftritt.
+     */
+    public ExtractionStats extractAll(List<TaskXMLData> taskXMLDataList) throws ParserConfigurationException, SAXException, IOException {
+        int threads = Math.min(context.getParallelism(), Math.max(1, taskXMLDataList.size()));
+        try (Extraction extraction = new Extraction(threads)) {
+            for (TaskXMLData data : taskXMLDataList) {
+                extraction.submit(data);
+            }
+            return extraction.finish(taskXMLDataList);
         }
-        points = Math.round(points);
-        extractedData.setDefaultgrade(String.valueOf(points));
+    }
+
+    /**
+     * Entfernt die Aufgaben, deren task.xml bei der Pruefung gegen das Schema ungueltig war.
+     */
+    private void removeInvalid(List<TaskXMLData> taskXMLDataList) {
+        if (validator != null) {
+            taskXMLDataList.removeIf(TaskXMLData::isInvalid);
+        }
+    }
+
+    /**
+     * Liefert die Quelle der Thread-CPU-Zeit, falls mehr Threads als Prozessorkerne laufen und sie messbar ist.
+     */
+    private static ThreadMXBean cpuClock(int threads) {
+        boolean oversubscribed = threads > Runtime.getRuntime().availableProcessors();
+        ThreadMXBean threadBean = oversubscribed ? ManagementFactory.getThreadMXBean() : null;
+        if (threadBean != null && !(threadBean.isCurrentThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled())) {
+            threadBean = null;
+        }
+        return threadBean;
+    }
+
+    /**
+     * Wirft die Ursache einer fehlgeschlagenen Extraktion mit ihrem eigenen Typ weiter.
+     */
+    private static void rethrow(ExecutionException e) throws ParserConfigurationException, SAXException, IOException {
+        Throwable cause = e.getCause();
+        if (cause instanceof SAXException) {
+            throw (SAXException) cause;
+        } else if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof ParserConfigurationException) {
+            throw (ParserConfigurationException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        throw new IOException(cause);
+    }
+
+    /**
+     * Extrahiert eine Aufgabe und haelt ihre Laufzeit und CPU-Zeit fest.
+     * Ist eine Pruefung eingestellt, wird die task.xml zuvor gegen das Schema geprueft; eine ungueltige Aufgabe
+     * wird nicht extrahiert. Ist ein Cache eingestellt und enthaelt er die Aufgabe bereits, wird die task.xml
+     * danach nicht mehr gelesen.
+     *
+     * @param data Die Aufgabe, deren task.xml gelesen wird.
+     * @param cpuClock Die Quelle der Thread-CPU-Zeit oder null, falls keine CPU-Zeit gemessen wird.
+     * @return Laufzeit und CPU-Zeit der Aufgabe in Nanosekunden.
+     */
+    private long[] timedExtractTask(TaskXMLData data, ThreadMXBean cpuClock)
+            throws ParserConfigurationException, SAXException, IOException {
+        context.checkCancelled();
+        long cpuStart = cpuClock != null ? cpuClock.getCurrentThreadCpuTime() : 0;
+        long taskStart = System.nanoTime();
+        boolean valid = validator == null || validator.admit(data);
+        if (valid && (cache == null || !cache.load(data))) {
+            ConversionMetrics.Span span = context.getMetrics().start(ConversionMetrics.Phase.PARSE, data.getSourceName());
+            try {
+                extractTask(data);
+            } finally {
+                span.stop(0);
+            }
+        }
+        long[] times = {System.nanoTime() - taskStart, 0};
+        if (cpuClock != null) {
+            times[1] = cpuClock.getCurrentThreadCpuTime() - cpuStart;
+        }
+        context.getListener().taskExtracted();
+        return times;
+    }
+
+    /**
+     * Extrahiert eine einzelne Aufgabe wie extractAll: aus dem Cache, falls sie dort liegt, sonst aus der task.xml.
+     * Die Aufgabe wird dem ConversionListener gemeldet, aber nicht in getLastStats gezaehlt; ihre Laufzeit erhaelt
+     * der Aufrufer. Ist sie bei der Pruefung gegen das Schema ungueltig, bleibt sie leer und ist an isInvalid zu erkennen.
+     *
+     * @param data Die Aufgabe, deren task.xml gelesen wird.
+     * @return Die Laufzeit der Aufgabe und ihr Anteil an der sequentiellen Laufzeit in ns, wie in ExtractionStats.
+     * @throws ParserConfigurationException wenn ein Konfigurationsfehler beim Initialisieren des XML-Parsers auftritt.
+     * @throws SAXException wenn ein Fehler beim Parsen der XML-Dokumente auftritt.
+     * @throws IOException wenn ein Ein-/Ausgabefehler auftritt.
+     */
+    public long[] loadOrExtractTask(TaskXMLData data) throws ParserConfigurationException, SAXException, IOException {
+        ThreadMXBean clock = cpuClock(context.getParallelism());
+        long[] times = timedExtractTask(data, clock);
+        if (clock == null) {
+            times[1] = times[0];
+        }
+        return times;
+    }
+
+    /**
+     * @return Die Laufzeitstatistik der letzten Extraktion oder null, falls noch keine stattgefunden hat.
+     */
+    public ExtractionStats getLastStats() {
+        return lastStats;
+    }
+
+    /**
+     * Parst die task.xml einer einzelnen Aufgabe und fuellt das TaskXMLData-Objekt.
+     * Standardmaessig wird der StAX-Extraktor verwendet; kann er die task.xml nicht lesen,
+     * wird sie mit dem DOM-Pfad erneut gelesen und der Wechsel in den Messwerten vermerkt.
+     * Die Methode ist threadsicher; jeder Thread verwendet den DocumentBuilder aus XMLFactories.
+     *
+     * @param data Die Aufgabe, deren task.xml gelesen wird.
+     * @throws ParserConfigurationException wenn ein Konfigurationsfehler beim Initialisieren des XML-Parsers auftritt.
+     * @throws SAXException wenn ein Fehler beim Parsen des XML-Dokuments auftritt.
+     * @throws IOException wenn ein Ein-/Ausgabefehler auftritt.
+     */
+    public void extractTask(TaskXMLData data) throws ParserConfigurationException, SAXException, IOException {
+        if (context.isStreamingExtraction()) {
+            try (InputStream in = data.openTaskXML()) {
+                extractTaskXMLData(streamingExtractor.extract(in, XMLFactories.newDocument()), data);
+                return;
+            } catch (XMLStreamException e) {
+                context.getMetrics().addDomFallback(new ConversionMetrics.DomFallback(data.getSourceName(), e.getMessage()));
+            }
+        }
+        extractTaskWithDOM(data);
+    }
 
+    /**
+     * Parst die task.xml einer einzelnen Aufgabe als DOM und fuellt das TaskXMLData-Objekt.
+     *
+     * @param data Die Aufgabe, deren task.xml gelesen wird.
+     * @throws ParserConfigurationException wenn ein Konfigurationsfehler beim Initialisieren des XML-Parsers auftritt.
+     * @throws SAXException wenn ein Fehler beim Parsen des XML-Dokuments auftritt.
+     * @throws IOException wenn ein Ein-/Ausgabefehler auftritt.
+     */
+    public void extractTaskWithDOM(TaskXMLData data) throws ParserConfigurationException, SAXException, IOException {
+        Document document;
+        try (InputStream in = data.openTaskXML()) {
+            document = XMLFactories.documentBuilder().parse(in, data.getSourceName());
+        }
+        extractTaskXMLData(TaskDocumentIndex.fromDocument(document), data);
+    }
+
+    /**
+     * Uebertraegt die Daten aus dem Index einer task.xml in ein TaskXMLData-Objekt.
+     * Diese Methode liest die indizierten XML-Elemente und setzt die entsprechenden Eigenschaften im TaskXMLData-Objekt.
+     *
+     * @param index Der Index der task.xml, aus dem Daten extrahiert werden.
+     * @param extractedData Das TaskXMLData-Objekt, in dem die extrahierten Daten gespeichert werden sollen.
+     */
+    private void extractTaskXMLData(TaskDocumentIndex index, TaskXMLData extractedData) {
+        String taskTitle = index.getTitle();
+        String taskDescription = "<h3>"+taskTitle+"</h3>"+System.lineSeparator()+index.getDescription();
+        extractedData.setQuestionName(taskTitle);
+        extractedData.setQuestionText(taskDescription);
+        extractedData.setGeneralFeedback(index.getGeneralFeedback());
+        extractedData.setInternalDescription(index.getInternalDescription());
+        extractGradernameAndGraderversion(index, extractedData);
+        extractedData.setTaskuuid(index.getUuid());
+        extractTaskGrade(index, extractedData);
+        extractTaskXMLMetaData(index, extractedData);
     }
 
     /**
-     * Extrahiert spezifische Daten aus einem XML-Dokument und speichert sie in einem TaskXMLData-Objekt.
-     * Diese Methode liest verschiedene XML-Elemente aus den Metadaten
-     * hier: Freitextfelder und Filenamen
+     * Berechnet den defaultgrade aus den grading-hints einer Task
      * und setzt die entsprechenden Eigenschaften im TaskXMLData-Objekt.
      *
-     * @param document Das XML-Dokument, aus dem Daten extrahiert werden.
+     * @param index Der Index der task.xml mit root- und combine-Knoten der grading-hints.
+     * @param extractedData Das TaskXMLData-Objekt, in dem die extrahierten Daten gespeichert werden sollen.
+     */
+    static void extractTaskGrade(TaskDocumentIndex index, TaskXMLData extractedData) {
+        double points = GradingHintsCompiler.compile(index).maxPoints();
+        points = Math.round(points);
+        extractedData.setDefaultgrade(String.valueOf(points));
+    }
+
+    /**
+     * Uebertraegt die Daten aus den Metadaten der task.xml in ein TaskXMLData-Objekt,
+     * hier: Freitextfelder und Filenamen.
+     * Die Dateinamen werden ueber die file-ref der Freitextfelder direkt im Index nachgeschlagen.
+     *
+     * @param index Der Index der task.xml, aus dem Daten extrahiert werden.
      * @param extractedData Das TaskXMLData-Objekt, in dem die extrahierten Daten gespeichert werden sollen.
      */
-    private void extractTaskXMLMetaData(Document document, TaskXMLData extractedData) {
-        NodeList nodeList = document.getElementsByTagName(this.metaPrefix+"textfield");
-        NodeList nodeListFiles = document.getElementsByTagName(this.metaPrefix+"fileinput");
-        int nrFields = nodeList.getLength();
-        int nrFiles = nodeListFiles.getLength();
+    private void extractTaskXMLMetaData(TaskDocumentIndex index, TaskXMLData extractedData) {
+        List<String[]> textfields = index.getTextfields();
+        int nrFields = textfields.size();
         if (nrFields>0){
             extractedData.setEnableFreeTextSubmissions("1");
             extractedData.setFtsNumInitialFields(String.valueOf(nrFields));
             extractedData.setFtsMaxnumFields(String.valueOf(nrFields));
             boolean notfixed = true;
             for (int i=0; i<nrFields; i++){
-                Node el = nodeList.item(i);
-                NamedNodeMap namedNodeMap = el.getAttributes();
-                if (notfixed && namedNodeMap.getNamedItem("fixedfilename").getTextContent().equals("true")){
+                String[] field = textfields.get(i);
+                if (notfixed && "true".equals(field[0])){
                     extractedData.setFtsAutoGenerateFileNames("0");
                     notfixed =false;
                 }
-                String language = namedNodeMap.getNamedItem("proglang").getTextContent();
-                String fileRef = namedNodeMap.getNamedItem("file-ref").getTextContent();
-                String fileName = "file "+i;
-                NodeList nodes = document.getElementsByTagName(this.prefix+"file");
-                int nrNodes = nodes.getLength();
-                for (int j = 0; j<nrNodes; j++){
-                    Node elFile = nodes.item(j);
-                    NamedNodeMap mapAts = elFile.getAttributes();
-                    if (mapAts.getNamedItem("id").getTextContent().equals(fileRef)){
-                        NodeList elChildren = elFile.getChildNodes();
-                        int nrn = elChildren.getLength();
-                        for (int k=0; k<nrn; k++){
-                             Node elChild = elChildren.item(k);
-                             if (elChild.getNodeName().equals(this.prefix+"embedded-txt-file")){
-                                 NamedNodeMap mapAtfile = elChild.getAttributes();
-                                 fileName = mapAtfile.getNamedItem("filename").getTextContent();
-                                 break;
-                             }
-                        }
-                        break;
-                    }
-                }
-                extractedData.ftsList.add(new TaskXMLData.FreeInputField(fileName,language));
+                TaskDocumentIndex.EmbeddedFile file = index.getEmbeddedFile(field[2]);
+                String fileName = file != null && file.getFilename() != null ? file.getFilename() : "file "+i;
+                extractedData.ftsList.add(new TaskXMLData.FreeInputField(fileName,field[1]));
             }
         }
-        if (nrFiles==0) {
+        if (index.getFileinputCount()==0) {
             extractedData.setEnableFileSubmissions("0");
         }
     }
@@ -244,12 +447,20 @@ public class XMLProcessor {
      * Ermittelt den Namen und die Version des Bewertungssystems (Grader) basierend auf der Programmiersprache in der task.xml.
      * Wenn eine Version fuer den Grader definiert ist, wird die aktuellste Version ausgewaehlt und im TaskXMLData-Objekt gespeichert.
      *
-     * @param document Das XML-Dokument, aus dem die Programmiersprache gelesen wird.
+     * @param index Der Index der task.xml, aus dem die Programmiersprache gelesen wird.
      * @param extractedData Das TaskXMLData-Objekt, in dem der Name und die Version des Graders gespeichert werden sollen.
      */
-    public void extractGradernameAndGraderversion(Document document, TaskXMLData extractedData){
-        String proglang = getElementContent(document, this.prefix + "proglang");
+    public void extractGradernameAndGraderversion(TaskDocumentIndex index, TaskXMLData extractedData){
+        setGrader(index.getProglang(), extractedData);
+    }
 
+    /**
+     * Setzt Name und Version des Graders sowie die Standardsprache der Freitextfelder passend zur Programmiersprache.
+     *
+     * @param proglang Der Inhalt des proglang-Elements der task.xml.
+     * @param extractedData Das TaskXMLData-Objekt, in dem der Name und die Version des Graders gespeichert werden sollen.
+     */
+    static void setGrader(String proglang, TaskXMLData extractedData) {
         String graderName;
         String freetextlang ="txt";
         String graderVersion = "1.0";
@@ -283,72 +494,4 @@ public class XMLProcessor {
         extractedData.setFtsStandardLang(freetextlang);
     }
 
-    /**
-     * Extrahiert den Inhalt des 'general-feedback'-Elements aus einem XML-Dokument.
-     * Diese Methode sucht nach dem 'general-feedback'-Element und extrahiert dessen Textinhalt.
-     *
-     * @param document Das XML-Dokument, aus dem der 'general-feedback'-Inhalt extrahiert wird.
-     * @return Ein String, der den Inhalt des 'general-feedback'-Elements darstellt.
-     *         Gibt einen leeren String zurueck, wenn das Element nicht gefunden wird.
-     */
-    private String extractGeneralFeedback(Document document) {
-        NodeList fileList = document.getElementsByTagName( this.prefix + "file");
-        for (int i = 0; i < fileList.getLength(); i++) {
-            Node fileNode = fileList.item(i);
-            if (fileNode.getNodeType() == Node.ELEMENT_NODE) {
-                Element fileElement = (Element) fileNode;
-                if ("general-feedback".equals(fileElement.getAttribute("id"))) {
-                    NodeList embeddedFiles = fileElement.getElementsByTagName(this.prefix + "embedded-txt-file");
-                    if (embeddedFiles.getLength() > 0) {
-                        Element embeddedFile = (Element) embeddedFiles.item(0);
-                        return embeddedFile.getTextContent().trim();
-                    }
-                }
-            }
-        }
-        return "";
-    }
-
-    /**
-     * Ermittelt und gibt den Textinhalt eines spezifischen Elements im XML-Dokument zurueck.
-     * Diese Methode sucht nach dem ersten Vorkommen eines Elements mit dem angegebenen Tag-Namen und gibt dessen Textinhalt zurueck.
-     *
-     * @param document Das XML-Dokument, das durchsucht wird.
-     * @param tagName Der Name des XML-Tags.
-     * @return Ein String, der den Inhalt des gesuchten Elements darstellt.
-     *         Gibt einen leeren String zurueck, wenn das Element nicht gefunden wird.
-     */
-    private static String getElementContent(Document document, String tagName) {
-        NodeList nodeList = document.getElementsByTagName(tagName);
-
-        if (nodeList != null && nodeList.getLength() > 0) {
-            Node node = nodeList.item(0);
-            if (node.getNodeType() == Node.ELEMENT_NODE) {
-                return node.getTextContent().trim();
-            }
-        }
-        return "";
-    }
-
-    /**
-     * Ermittelt das Praefix des Proforma-Namensraums im XML-Dokument.
-     * @param attributes Die Attribute des Root-Elements des XML-Dokuments.
-     * @param nameSpaces für ProformA selbst oder Metadaten
-     * @return Das Namensraum-Praefix inklusive Doppelpunkt (z.B. "p:"), oder ein leerer String, falls nicht gefunden.
-     */
-    private static String detectProformaNamespacePrefix(NamedNodeMap attributes, String[] nameSpaces) {
-        for (int i = 0; i < attributes.getLength(); i++) {
-            Node attribute = attributes.item(i);
-            if (attribute.getNodeName().startsWith("xmlns:")) {
-                String namespaceUri = attribute.getNodeValue();
-                for (String knownNamespace : nameSpaces) {
-                    if (knownNamespace.equals(namespaceUri)) {
-                        return attribute.getNodeName().substring(6) + ":";
-                    }
-                }
-            }
-        }
-        return "";
-    }
-
 }
@@ -0,0 +1,219 @@
+package proforma2moodle.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.DuplicateOptions;
+import proforma2moodle.Entity.TaskXMLData;
+import proforma2moodle.logic.FileChooser;
+import proforma2moodle.logic.MoodleXMLConverter;
+import proforma2moodle.logic.XMLProcessor;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Die ConversionServer-Klasse stellt die Konvertierung als lokalen HTTP-Dienst bereit.
+ * Ein POST auf /convert mit einer Aufgaben-ZIP-Datei (oder einer ZIP-Datei mit mehreren Aufgaben) als Rumpf
+ * liefert die Moodle-XML als Antwort. Der Rumpf wird beim Lesen in eine temporaere Datei geschrieben und die
+ * Antwort wird waehrend der Erzeugung gesendet, sodass weder Anfrage noch Antwort vollstaendig im Speicher liegen.
+ * Parameter: category (Kategoriepfad) und name (Dateiname der Aufgabe in der Moodle-XML).
+ * Doppelte Aufgaben werden nicht entfernt und nicht gegen das Schema geprueft; die Antwort enthaelt zu jeder
+ * task.xml der Anfrage eine Frage.
+ * GET /health antwortet mit OK.
+ */
+public class ConversionServer {
+    /**
+     * Groesste angenommene Groesse einer Anfrage in Bytes.
+     */
+    public static final long DEFAULT_MAX_UPLOAD_SIZE = 512L * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private long maxUploadSize = DEFAULT_MAX_UPLOAD_SIZE;
+
+    /**
+     * Erzeugt einen Server auf localhost.
+     *
+     * @param port Der Port oder 0 fuer einen freien Port.
+     * @param threads Anzahl der Anfragen, die gleichzeitig bearbeitet werden.
+     * @throws IOException wenn der Port nicht gebunden werden kann.
+     */
+    public ConversionServer(int port, int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        server.setExecutor(executor);
+        server.createContext("/convert", this::handleConvert);
+        server.createContext("/health", this::handleHealth);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Beendet den Server; laufende Anfragen erhalten bis zu einer Sekunde Zeit.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * @return Der Port, an den der Server gebunden ist.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void setMaxUploadSize(long maxUploadSize) {
+        this.maxUploadSize = maxUploadSize;
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        sendText(exchange, 200, "OK");
+    }
+
+    /**
+     * Bearbeitet eine Konvertierungsanfrage. Der Rumpf wird unter dem angegebenen Namen in ein temporaeres
+     * Verzeichnis geschrieben, damit der Dateiname der Aufgabe in der Moodle-XML erhalten bleibt.
+     */
+    private void handleConvert(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendText(exchange, 405, "Use POST with a ZIP file as body");
+                return;
+            }
+            Map<String, String> parameters = queryParameters(exchange.getRequestURI().getRawQuery());
+            Path directory = Files.createTempDirectory("proforma2moodle-upload");
+            ConversionContext context = null;
+            try {
+                File upload = directory.resolve(uploadName(parameters.get("name"))).toFile();
+                if (!spool(exchange.getRequestBody(), upload.toPath())) {
+                    sendText(exchange, 413, "Upload exceeds " + maxUploadSize + " bytes");
+                    return;
+                }
+                context = new ConversionContext();
+                context.setCategoryPath(parameters.getOrDefault("category", ""));
+                // jede hochgeladene Aufgabe wird zur Frage, unabhaengig von den Einstellungen der JVM
+                context.getDuplicateOptions().setPolicy(DuplicateOptions.Policy.OFF);
+                context.setValidationMode(ConversionContext.ValidationMode.OFF);
+                // die Anfragen selbst laufen bereits parallel
+                context.setParallelism(1);
+                List<TaskXMLData> tasks = new FileChooser(context).collectTasks(upload);
+                if (tasks.isEmpty()) {
+                    sendText(exchange, 422, "No task.xml found in upload");
+                    return;
+                }
+                new XMLProcessor(context).extractAll(tasks);
+
+                exchange.getResponseHeaders().set("Content-Type", "application/xml; charset=utf-8");
+                exchange.getResponseHeaders().set("Content-Disposition",
+                        "attachment; filename=\"" + context.getOutputFile().getName() + "\"");
+                exchange.getResponseHeaders().set("X-Task-Count", String.valueOf(tasks.size()));
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream out = new BufferedOutputStream(exchange.getResponseBody(), BUFFER_SIZE)) {
+                    new MoodleXMLConverter(tasks, context).writeMoodleXML(out);
+                }
+            } finally {
+                if (context != null) {
+                    context.deleteTemporaryFiles();
+                }
+                deleteRecursively(directory);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (exchange.getResponseCode() == -1) {
+                sendText(exchange, 500, "Conversion failed: " + e.getMessage());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Schreibt den Rumpf der Anfrage in eine Datei.
+     *
+     * @return false, falls der Rumpf groesser als die erlaubte Groesse ist.
+     */
+    private boolean spool(InputStream body, Path target) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        try (OutputStream out = Files.newOutputStream(target)) {
+            int n;
+            while ((n = body.read(buffer)) > 0) {
+                size += n;
+                if (size > maxUploadSize) {
+                    return false;
+                }
+                out.write(buffer, 0, n);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Bildet aus dem Parameter name einen sicheren Dateinamen mit der Endung .zip.
+     */
+    static String uploadName(String name) {
+        String fileName = name == null ? "" : name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+        fileName = fileName.replaceAll("[^A-Za-z0-9._-]", "_");
+        if (fileName.isEmpty() || fileName.startsWith(".")) {
+            fileName = "task" + fileName;
+        }
+        if (!fileName.toLowerCase().endsWith(".zip")) {
+            fileName += ".zip";
+        }
+        return fileName;
+    }
+
+    private static Map<String, String> queryParameters(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            parameters.putIfAbsent(key, value);
+        }
+        return parameters;
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = (text + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void deleteRecursively(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Could not delete " + directory + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package proforma2moodle.Entity;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prueft das Lesen der Systemeigenschaften: Voreinstellungen, gesetzte Werte und die Meldung bei ungueltigen Werten.
+ */
+class SystemSettingsTest {
+
+    @Test
+    void usesDefaultsWithoutProperties() {
+        SystemSettings settings = SystemSettings.fromProperties(new Properties());
+
+        assertFalse(settings.hasParallelism());
+        assertTrue(settings.getPipelineOptions().isPipelined());
+        assertEquals(64, settings.getPipelineOptions().getCapacity());
+        assertEquals(DuplicateOptions.Policy.OFF, settings.getDuplicateOptions().getPolicy());
+        assertEquals(DuplicateOptions.Key.CONTENT, settings.getDuplicateOptions().getKey());
+        assertEquals(ConversionContext.ValidationMode.OFF, settings.getValidationMode());
+        assertNull(settings.getCacheOptions().getDirectory());
+        assertFalse(settings.isMetricsReport());
+        assertFalse(settings.getShardOptions().isSharded());
+    }
+
+    @Test
+    void readsProperties() {
+        Properties properties = new Properties();
+        properties.setProperty(SystemSettings.PARALLELISM_PROPERTY, "3");
+        properties.setProperty(SystemSettings.PIPELINE_PROPERTY, "false");
+        properties.setProperty(SystemSettings.DUPLICATES_PROPERTY, "once");
+        properties.setProperty(SystemSettings.DUPLICATE_KEY_PROPERTY, "both");
+        properties.setProperty(SystemSettings.VALIDATION_PROPERTY, "fail");
+        properties.setProperty(SystemSettings.CACHE_DIRECTORY_PROPERTY, "cache");
+        properties.setProperty(SystemSettings.CACHE_SIZE_PROPERTY, "1");
+        properties.setProperty(SystemSettings.SHARD_QUESTIONS_PROPERTY, "4");
+
+        SystemSettings settings = SystemSettings.fromProperties(properties);
+
+        assertEquals(3, settings.getParallelism());
+        assertFalse(settings.getPipelineOptions().isPipelined());
+        assertEquals(DuplicateOptions.Policy.EMIT_ONCE, settings.getDuplicateOptions().getPolicy());
+        assertEquals(DuplicateOptions.Key.CONTENT_OR_UUID, settings.getDuplicateOptions().getKey());
+        assertEquals(ConversionContext.ValidationMode.FAIL_FAST, settings.getValidationMode());
+        assertEquals(new File("cache"), settings.getCacheOptions().getDirectory());
+        assertEquals(1024L * 1024, settings.getCacheOptions().getMaxSize());
+        assertEquals(4, settings.getShardOptions().getMaxQuestions());
+        assertTrue(settings.getShardOptions().isSharded());
+    }
+
+    @Test
+    void namesPropertyAndAllowedValuesOfInvalidValue() {
+        assertEquals("Invalid value \"strict\" for -Dproforma2moodle.validation, expected off, report or fail",
+                invalid(SystemSettings.VALIDATION_PROPERTY, "strict"));
+        assertEquals("Invalid value \"twice\" for -Dproforma2moodle.duplicates, expected off, once or warn",
+                invalid(SystemSettings.DUPLICATES_PROPERTY, "twice"));
+        assertEquals("Invalid value \"many\" for -Dproforma2moodle.shardQuestions, expected an integer",
+                invalid(SystemSettings.SHARD_QUESTIONS_PROPERTY, "many"));
+        assertEquals("Invalid value \"yes\" for -Dproforma2moodle.pipeline, expected true or false",
+                invalid(SystemSettings.PIPELINE_PROPERTY, "yes"));
+    }
+
+    @Test
+    void givesEveryContextItsOwnOptions() {
+        ConversionContext first = new ConversionContext();
+        ConversionContext second = new ConversionContext();
+
+        first.getDuplicateOptions().setPolicy(DuplicateOptions.Policy.EMIT_AND_WARN);
+        first.getShardOptions().setMaxQuestions(2);
+
+        assertEquals(SystemSettings.get().getDuplicateOptions().getPolicy(), second.getDuplicateOptions().getPolicy());
+        assertEquals(SystemSettings.get().getShardOptions().getMaxQuestions(), second.getShardOptions().getMaxQuestions());
+    }
+
+    private static String invalid(String name, String value) {
+        Properties properties = new Properties();
+        properties.setProperty(name, value);
+        return assertThrows(IllegalArgumentException.class, () -> SystemSettings.fromProperties(properties)).getMessage();
+    }
+}
@@ -0,0 +1,140 @@
+package proforma2moodle.logic;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.TaskXMLData;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prueft das Speichern und Laden aller Felder einer Aufgabe im Konvertierungs-Cache und das Verdraengen der am
+ * laengsten nicht verwendeten Eintraege.
+ */
+class ConversionCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void restoresAllFieldsOfStoredTask() throws Exception {
+        ConversionCache cache = new ConversionCache(context(Long.MAX_VALUE));
+        TaskXMLData stored = task("uuid-a");
+        assertFalse(cache.load(stored));
+        stored.setQuestionName("Übung: a = b");
+        stored.setQuestionText("<h3>Übung</h3>\nZeile 1\n\nZeile 3 mit \\ und #");
+        stored.setGeneralFeedback("Hinweis: äöüß");
+        stored.setInternalDescription("intern");
+        stored.setGraderName("Graja");
+        stored.setGraderVersion("1.9");
+        stored.setTaskuuid("uuid-a");
+        stored.setEnableFileSubmissions("0");
+        stored.setEnableFreeTextSubmissions("1");
+        stored.setFtsNumInitialFields("2");
+        stored.setFtsMaxnumFields("2");
+        stored.setFtsAutoGenerateFileNames("1");
+        stored.setPenalty("0.1");
+        stored.setDefaultgrade("8.0");
+        stored.setFtsStandardLang("java");
+        stored.setAnswer("Antwort");
+        stored.ftsList.add(new TaskXMLData.FreeInputField("1", "Lösung.java", "java", "10", "class A {\n}"));
+        stored.ftsList.add(new TaskXMLData.FreeInputField("notes = 1.txt", "txt"));
+        File fragment = cache.createFragmentFile(stored);
+        Files.writeString(fragment.toPath(), "<question/>", StandardCharsets.UTF_8);
+        cache.store(stored, fragment);
+
+        TaskXMLData loaded = task("uuid-a");
+        assertTrue(cache.load(loaded));
+
+        assertEquals(TestTasks.fields(stored), TestTasks.fields(loaded));
+        assertEquals(stored.getCacheKey(), loaded.getCacheKey());
+        assertEquals("<question/>", Files.readString(loaded.getQuestionFragment().toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntries() throws Exception {
+        ConversionCache writer = new ConversionCache(context(Long.MAX_VALUE));
+        TaskXMLData a = store(writer, "uuid-a", 3);
+        TaskXMLData b = store(writer, "uuid-b", 2);
+        TaskXMLData c = store(writer, "uuid-c", 1);
+        long entrySize = entrySize(a);
+        ConversionCache cache = new ConversionCache(context(2 * entrySize + entrySize / 2));
+
+        assertEquals(1, cache.evict());
+        assertFalse(cache.load(task("uuid-a")));
+        assertTrue(isStored(b) && isStored(c));
+
+        // das Laden zaehlt als Verwendung: danach ist c der am laengsten nicht verwendete Eintrag
+        assertTrue(cache.load(task("uuid-b")));
+        TaskXMLData d = store(writer, "uuid-d", 0);
+        assertEquals(1, cache.evict());
+        assertFalse(isStored(c));
+        assertTrue(isStored(b) && isStored(d));
+        assertEquals(0, cache.evict());
+    }
+
+    private ConversionContext context(long maxSize) {
+        ConversionContext context = new ConversionContext();
+        context.getCacheOptions().setDirectory(dir.resolve("cache").toFile());
+        context.getCacheOptions().setMaxSize(maxSize);
+        return context;
+    }
+
+    private TaskXMLData task(String uuid) throws IOException {
+        Path file = Files.createDirectories(dir.resolve(uuid)).resolve("task.xml");
+        Files.writeString(file, TestTasks.taskXML(uuid), StandardCharsets.UTF_8);
+        TaskXMLData data = new TaskXMLData();
+        data.setTaskXMLDatei(file.toFile());
+        return data;
+    }
+
+    /**
+     * Speichert einen Eintrag, der zuletzt vor der angegebenen Anzahl von Stunden verwendet wurde.
+     */
+    private TaskXMLData store(ConversionCache cache, String uuid, int hoursAgo) throws IOException {
+        TaskXMLData data = task(uuid);
+        assertFalse(cache.load(data));
+        data.setTaskuuid(uuid);
+        File fragment = cache.createFragmentFile(data);
+        Files.writeString(fragment.toPath(), "<question>" + uuid + "</question>", StandardCharsets.UTF_8);
+        cache.store(data, fragment);
+        long lastUsed = System.currentTimeMillis() - hoursAgo * 60L * 60 * 1000;
+        for (File file : entryFiles(data)) {
+            assertTrue(file.setLastModified(lastUsed));
+        }
+        return data;
+    }
+
+    private File[] entryFiles(TaskXMLData data) {
+        File directory = dir.resolve("cache").toFile();
+        return new File[] {new File(directory, data.getCacheKey() + ".properties"),
+                new File(directory, data.getCacheKey() + ".xml")};
+    }
+
+    private long entrySize(TaskXMLData data) {
+        long size = 0;
+        for (File file : entryFiles(data)) {
+            size += file.length();
+        }
+        assertNotEquals(0, size);
+        return size;
+    }
+
+    private boolean isStored(TaskXMLData data) {
+        for (File file : entryFiles(data)) {
+            if (!file.isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,152 @@
+package proforma2moodle.logic;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xml.sax.SAXException;
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.ConversionListener;
+import proforma2moodle.Entity.TaskXMLData;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prueft, dass die Pipeline dieselbe Moodle-XML schreibt wie die Konvertierung ohne Pipeline, und dass nach
+ * einem Abbruch oder einem Fehler beim Parsen der Lese-Thread und die Pools beider Stufen beendet sind und keine
+ * unvollstaendige Ausgabe zurueckbleibt.
+ */
+class ConversionPipelineTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writesSameMoodleXMLAsConversionWithoutPipelineForZip() throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("a/task.xml", bytes(TestTasks.taskXML("uuid-a")));
+        entries.put("b/task.xml", bytes(TestTasks.taskXML("uuid-b")));
+        entries.put("nested/c.zip", Files.readAllBytes(TestTasks.writeTaskZip(dir.resolve("c.zip"), "uuid-c")));
+        entries.put("d/task.xml", bytes(TestTasks.taskXML("uuid-d")));
+        Path input = TestTasks.writeZip(dir.resolve("input.zip"), entries);
+
+        assertSameOutput(input, 4);
+    }
+
+    @Test
+    void writesSameMoodleXMLAsConversionWithoutPipelineForDirectory() throws Exception {
+        Path input = Files.createDirectories(dir.resolve("input"));
+        for (int i = 0; i < 6; i++) {
+            Path task = Files.createDirectories(input.resolve("sub" + i % 3));
+            TestTasks.writeTaskZip(task.resolve("task" + i + ".zip"), "uuid-" + i);
+        }
+        Files.writeString(input.resolve("sub1").resolve("task.xml"), TestTasks.taskXML("uuid-x"), StandardCharsets.UTF_8);
+
+        assertSameOutput(input, 7);
+    }
+
+    @Test
+    void stopsAllStagesWhenCancelled() throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 50; i++) {
+            entries.put(i + "/task.xml", bytes(TestTasks.taskXML("uuid-" + i)));
+        }
+        Path input = TestTasks.writeZip(dir.resolve("input.zip"), entries);
+        ConversionContext context = context("cancelled", 2);
+        AtomicInteger discovered = new AtomicInteger();
+        context.setListener(new ConversionListener() {
+            @Override
+            public void taskDiscovered() {
+                if (discovered.incrementAndGet() == 3) {
+                    context.setCancelled(true);
+                }
+            }
+        });
+
+        assertThrows(CancellationException.class, () -> new ConversionPipeline(context).run(input.toFile()));
+
+        assertStopped(context);
+    }
+
+    @Test
+    void stopsAllStagesOnParseError() throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 20; i++) {
+            entries.put(i + "/task.xml", bytes(i == 5 ? "<task xmlns=\"urn:proforma:v2.1\"><title>" : TestTasks.taskXML("uuid-" + i)));
+        }
+        Path input = TestTasks.writeZip(dir.resolve("input.zip"), entries);
+        ConversionContext context = context("broken", 2);
+
+        assertThrows(SAXException.class, () -> new ConversionPipeline(context).run(input.toFile()));
+
+        assertStopped(context);
+    }
+
+    /**
+     * Konvertiert die Eingabe mit und ohne Pipeline und vergleicht die Moodle-XML byteweise.
+     */
+    private void assertSameOutput(Path input, int tasks) throws Exception {
+        ConversionContext pipelined = context("pipeline", 4);
+        ConversionPipeline pipeline = new ConversionPipeline(pipelined);
+        File pipelineOutput = pipeline.run(input.toFile());
+        assertEquals(tasks, pipeline.getTaskCount());
+
+        ConversionContext sequential = context("sequential", 4);
+        List<TaskXMLData> collected = new FileChooser(sequential).collectAndExtractTasks(input.toFile(), new XMLProcessor(sequential));
+        File output = new MoodleXMLConverter(collected, sequential).createMoodleXML();
+        assertEquals(tasks, collected.size());
+
+        assertArrayEquals(Files.readAllBytes(output.toPath()), Files.readAllBytes(pipelineOutput.toPath()));
+        assertStopped(pipelined);
+    }
+
+    private ConversionContext context(String output, int parallelism) throws IOException {
+        ConversionContext context = new ConversionContext("top/Test", Files.createDirectories(dir.resolve(output)).toString());
+        context.setParallelism(parallelism);
+        return context;
+    }
+
+    /**
+     * Wartet kurz, bis der Lese-Thread und die Threads der Pools zum Parsen und Erzeugen beendet sind, und prueft,
+     * dass keine unvollstaendige Moodle-XML zurueckgeblieben ist.
+     */
+    private static void assertStopped(ConversionContext context) throws InterruptedException {
+        List<String> running = pipelineThreads();
+        for (int i = 0; i < 100 && !running.isEmpty(); i++) {
+            Thread.sleep(20);
+            running = pipelineThreads();
+        }
+        assertTrue(running.isEmpty(), "still running: " + running);
+        assertFalse(new File(context.getOutputFile().getPath() + ".part").exists());
+    }
+
+    private static List<String> pipelineThreads() {
+        List<String> names = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String name = thread.getName();
+            if (thread.isAlive() && (name.equals("proforma2moodle-reader") || name.startsWith("proforma2moodle-parse-")
+                    || name.startsWith("proforma2moodle-encode-"))) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,145 @@
+package proforma2moodle.logic;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import proforma2moodle.Entity.ConversionContext;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Prueft das Aktualisieren der Moodle-XML bei hinzugefuegten, geaenderten und geloeschten Dateien und dass die
+ * Grenze fuer im Speicher gehaltene verschachtelte Archive ueber alle Dateien des Verzeichnisses gilt.
+ * Jede Eingabe ist ein ZIP-Archiv mit einer verschachtelten Aufgaben-ZIP-Datei; die Grenze reicht fuer genau eine.
+ */
+class DirectoryWatcherTest {
+
+    private static final Pattern TASKUUID = Pattern.compile("<taskuuid>([^<]*)</taskuuid>");
+
+    @TempDir
+    Path dir;
+
+    private Path input;
+    private ConversionContext context;
+    private DirectoryWatcher watcher;
+    private Set<Path> tempFilesBefore;
+
+    @BeforeEach
+    void createWatcher() throws IOException {
+        input = Files.createDirectories(dir.resolve("in"));
+        context = new ConversionContext("top/Test", Files.createDirectories(dir.resolve("out")).toString());
+        context.setInputPath(input.toString());
+        long nestedSize = Files.size(TestTasks.writeTaskZip(dir.resolve("size.zip"), "uuid-x"));
+        context.setMaxInMemoryArchiveTotal(nestedSize + nestedSize / 2);
+        tempFilesBefore = nestedTempFiles();
+        watcher = new DirectoryWatcher(context);
+    }
+
+    @AfterEach
+    void closeWatcher() throws IOException {
+        watcher.close();
+        assertEquals(0, spilledArchives());
+    }
+
+    @Test
+    void addedFileSharesInMemoryLimit() throws IOException {
+        writeInput("a.zip", "uuid-a");
+        watcher.initialBuild();
+        assertEquals(0, spilledArchives());
+
+        writeInput("b.zip", "uuid-b");
+        watcher.update(Set.of(input.resolve("b.zip")));
+
+        assertEquals(List.of("uuid-a", "uuid-b"), taskuuids());
+        assertEquals(1, spilledArchives());
+    }
+
+    @Test
+    void changedFileReleasesItsArchives() throws IOException {
+        writeInput("a.zip", "uuid-a");
+        writeInput("b.zip", "uuid-b");
+        watcher.initialBuild();
+        assertEquals(1, spilledArchives());
+
+        writeInput("b.zip", "uuid-c");
+        watcher.update(Set.of(input.resolve("b.zip")));
+        assertEquals(List.of("uuid-a", "uuid-c"), taskuuids());
+        assertEquals(1, spilledArchives());
+
+        writeInput("a.zip", "uuid-d");
+        watcher.update(Set.of(input.resolve("a.zip")));
+        assertEquals(List.of("uuid-d", "uuid-c"), taskuuids());
+        assertEquals(1, spilledArchives());
+    }
+
+    @Test
+    void deletedFileReleasesItsArchives() throws IOException {
+        writeInput("a.zip", "uuid-a");
+        writeInput("b.zip", "uuid-b");
+        watcher.initialBuild();
+
+        Files.delete(input.resolve("b.zip"));
+        watcher.update(Set.of(input.resolve("b.zip")));
+        assertEquals(List.of("uuid-a"), taskuuids());
+        assertEquals(0, spilledArchives());
+
+        assertNull(watcher.update(Set.of(input.resolve("b.zip"))));
+
+        Files.delete(input.resolve("a.zip"));
+        watcher.update(Set.of(input.resolve("a.zip")));
+        assertEquals(List.of(), taskuuids());
+        writeInput("c.zip", "uuid-c");
+        watcher.update(Set.of(input.resolve("c.zip")));
+        assertEquals(List.of("uuid-c"), taskuuids());
+        assertEquals(0, spilledArchives());
+    }
+
+    /**
+     * Schreibt ein ZIP-Archiv in das Eingabeverzeichnis, das eine Aufgaben-ZIP-Datei enthaelt.
+     */
+    private void writeInput(String name, String uuid) throws IOException {
+        byte[] nested = Files.readAllBytes(TestTasks.writeTaskZip(dir.resolve(uuid + ".zip"), uuid));
+        TestTasks.writeZip(input.resolve(name), Map.of(uuid + ".zip", nested));
+    }
+
+    private List<String> taskuuids() throws IOException {
+        Matcher matcher = TASKUUID.matcher(Files.readString(context.getOutputFile().toPath(), StandardCharsets.UTF_8));
+        List<String> uuids = new ArrayList<>();
+        while (matcher.find()) {
+            uuids.add(matcher.group(1));
+        }
+        return uuids;
+    }
+
+    /**
+     * @return Die Anzahl der verschachtelten Archive, die seit Beginn des Tests in temporaere Dateien entpackt
+     *         und noch nicht geloescht sind.
+     */
+    private long spilledArchives() throws IOException {
+        Set<Path> files = nestedTempFiles();
+        files.removeAll(tempFilesBefore);
+        return files.size();
+    }
+
+    private static Set<Path> nestedTempFiles() throws IOException {
+        try (Stream<Path> files = Files.list(Path.of(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(file -> file.getFileName().toString().matches("nested\\d+\\.zip"))
+                    .collect(Collectors.toSet());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package proforma2moodle.logic;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.TaskXMLData;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prueft den Umgang mit verschachtelten Archiven oberhalb der Speichergrenze: die entpackten temporaeren Dateien
+ * gehoeren zum Auftrag und werden an seinem Ende geloescht.
+ */
+class FileChooserTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void registersSpilledArchivesAtContext() throws Exception {
+        ConversionContext context = spillingContext();
+        Path outer = writeOuterZip("outer.zip", "uuid-a", "uuid-b");
+
+        List<TaskXMLData> tasks = new FileChooser(context).collectTasks(outer.toFile());
+
+        assertEquals(2, tasks.size());
+        File nested = tasks.get(0).getFile();
+        assertTrue(nested.isFile());
+        context.deleteTemporaryFiles();
+        assertFalse(nested.exists());
+        assertFalse(tasks.get(1).getFile().exists());
+        assertTrue(context.takeTemporaryFiles().isEmpty());
+    }
+
+    @Test
+    void deletesSpilledArchivesAfterConversion() throws Exception {
+        Path outer = writeOuterZip("outer.zip", "uuid-a", "uuid-b");
+        Set<Path> before = nestedTempFiles();
+
+        for (boolean pipelined : new boolean[] {true, false}) {
+            ConversionContext context = spillingContext();
+            context.getPipelineOptions().setPipelined(pipelined);
+            new FileChooser(context).chooseAndProcessFile(outer.toFile());
+
+            assertTrue(context.getOutputFile().isFile());
+            assertEquals(before, nestedTempFiles());
+        }
+    }
+
+    /**
+     * @return Ein Auftrag, der jedes verschachtelte Archiv in eine temporaere Datei entpackt.
+     */
+    private ConversionContext spillingContext() throws IOException {
+        ConversionContext context = new ConversionContext("top/Test", Files.createDirectories(dir.resolve("out")).toString());
+        context.setMaxInMemoryArchiveSize(0);
+        return context;
+    }
+
+    private Path writeOuterZip(String name, String... uuids) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (String uuid : uuids) {
+            entries.put(uuid + ".zip", Files.readAllBytes(TestTasks.writeTaskZip(dir.resolve(uuid + ".zip"), uuid)));
+        }
+        return TestTasks.writeZip(dir.resolve(name), entries);
+    }
+
+    private static Set<Path> nestedTempFiles() throws IOException {
+        try (Stream<Path> files = Files.list(Path.of(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(file -> file.getFileName().toString().matches("nested\\d+\\.zip"))
+                    .collect(Collectors.toSet());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package proforma2moodle.logic;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Prueft die Punktzahl aus den grading-hints. Die ersten Faelle bewertet auch die fruehere Berechnung in
+ * XMLProcessor.extractTaskGrade so; die uebrigen hat sie falsch bewertet, der erwartete Wert der frueheren
+ * Berechnung steht jeweils im Kommentar.
+ */
+class GradingHintsCompilerTest {
+
+    @Test
+    void sumsWeightedTestsAtRoot() throws Exception {
+        assertEquals(5.0d, maxPoints("<root function='sum'>" + test(1) + test(3) + test(1) + "</root>"));
+    }
+
+    @Test
+    void weightsSumCombineReferencedFromRoot() throws Exception {
+        assertEquals(7.0d, maxPoints("<root function='sum'>" + test(1) + combineRef("a", 2) + "</root>"
+                + "<combine id='a' function='sum'>" + test(1) + test(2) + "</combine>"));
+    }
+
+    @Test
+    void countsMinCombineWithEqualWeightsNestedInSumCombine() throws Exception {
+        // Aufbau der Graja-Aufgaben (codingStyle in furtherGradingAspects)
+        assertEquals(1.5d, maxPoints("<root function='sum'>" + combineRef("a", 1) + "</root>"
+                + "<combine id='a' function='sum'>" + test(1) + combineRef("b", 1) + "</combine>"
+                + "<combine id='b' function='min'>" + test(0.5) + test(0.5) + "</combine>"));
+    }
+
+    @Test
+    void takesSmallestWeightOfMinCombine() throws Exception {
+        // frueher 3.0: die groesste Gewichtung, obwohl min hoechstens die kleinste gewichtete Punktzahl liefert
+        assertEquals(2.0d, maxPoints("<root function='sum'>" + combineRef("a", 1) + "</root>"
+                + "<combine id='a' function='sum'>" + combineRef("b", 1) + "</combine>"
+                + "<combine id='b' function='min'>" + test(2) + test(3) + "</combine>"));
+    }
+
+    @Test
+    void countsMinAndMaxCombinesReferencedFromRoot() throws Exception {
+        // frueher 1.0: min- und max-combines direkt unter root zaehlten 0 Punkte
+        assertEquals(1.0d + 2.0d * 2.0d + 3.0d, maxPoints("<root function='sum'>" + test(1)
+                + combineRef("a", 2) + combineRef("b", 1) + "</root>"
+                + "<combine id='a' function='min'>" + test(2) + test(4) + "</combine>"
+                + "<combine id='b' function='max'>" + test(1) + test(3) + "</combine>"));
+    }
+
+    @Test
+    void evaluatesRootFunction() throws Exception {
+        // frueher 0.0: nur root mit function sum wurde ausgewertet
+        assertEquals(4.0d, maxPoints("<root function='max'>" + test(1) + test(4) + "</root>"));
+        assertEquals(1.0d, maxPoints("<root function='min'>" + test(1) + test(4) + "</root>"));
+    }
+
+    @Test
+    void multipliesWeightsOfNestedSumCombines() throws Exception {
+        // frueher NullPointerException: combine-refs in einem sum-combine wurden nur fuer min-combines aufgeloest
+        assertEquals(2.0d * (1.0d + 3.0d * 2.0d), maxPoints("<root function='sum'>" + combineRef("a", 2) + "</root>"
+                + "<combine id='a' function='sum'>" + test(1) + combineRef("b", 3) + "</combine>"
+                + "<combine id='b' function='sum'>" + test(1) + test(1) + "</combine>"));
+    }
+
+    @Test
+    void ignoresCombinesNotReachableFromRoot() throws Exception {
+        // frueher 3.0: ein min-combine in einem nicht referenzierten combine wurde trotzdem gezaehlt
+        assertEquals(1.0d, maxPoints("<root function='sum'>" + test(1) + "</root>"
+                + "<combine id='a' function='sum'>" + combineRef("b", 2) + "</combine>"
+                + "<combine id='b' function='min'>" + test(1) + "</combine>"));
+    }
+
+    @Test
+    void scoresCycleAndMissingHintsWithZero() throws Exception {
+        assertEquals(1.0d, maxPoints("<root function='sum'>" + combineRef("a", 1) + "</root>"
+                + "<combine id='a' function='sum'>" + test(1) + combineRef("a", 5) + "</combine>"));
+        assertEquals(0.0d, GradingHintsCompiler.compile(index("")).maxPoints());
+    }
+
+    private static String test(double weight) {
+        return "<test-ref ref='t' weight='" + weight + "'/>";
+    }
+
+    private static String combineRef(String ref, double weight) {
+        return "<combine-ref ref='" + ref + "' weight='" + weight + "'/>";
+    }
+
+    private static double maxPoints(String gradingHints) throws Exception {
+        return GradingHintsCompiler.compile(index("<grading-hints>" + gradingHints + "</grading-hints>")).maxPoints();
+    }
+
+    private static TaskDocumentIndex index(String gradingHints) throws Exception {
+        String xml = "<task xmlns='urn:proforma:v2.1' uuid='00000000-0000-0000-0000-000000000000'>"
+                + "<title>t</title><tests><test id='t'/></tests>" + gradingHints + "</task>";
+        return TaskDocumentIndex.fromDocument(XMLFactories.documentBuilder()
+                .parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))));
+    }
+}
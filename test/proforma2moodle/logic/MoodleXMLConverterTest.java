@@ -0,0 +1,137 @@
+package proforma2moodle.logic;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.TaskXMLData;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prueft das Aufteilen der Fragen auf Teildateien nach Anzahl und geschaetzter Groesse und dass nach jedem Lauf
+ * nur dessen Ausgabedateien im Ausgabeverzeichnis liegen.
+ */
+class MoodleXMLConverterTest {
+
+    /** Groesse der Aufgabendateien; eine Frage wird damit auf etwa 44 KB geschaetzt. */
+    private static final int TASK_SIZE = 30_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void limitsQuestionsPerShard() throws IOException {
+        ConversionContext context = context();
+        context.getShardOptions().setMaxQuestions(2);
+
+        assertEquals(List.of(2, 2, 1), sizes(MoodleXMLConverter.planShards(tasks(5, TASK_SIZE), context)));
+    }
+
+    @Test
+    void limitsSizePerShard() throws IOException {
+        ConversionContext context = context();
+        context.getShardOptions().setMaxSize(100_000);
+
+        assertEquals(List.of(2, 2, 1), sizes(MoodleXMLConverter.planShards(tasks(5, TASK_SIZE), context)));
+
+        context.getShardOptions().setMaxQuestions(1);
+        assertEquals(List.of(1, 1, 1), sizes(MoodleXMLConverter.planShards(tasks(3, TASK_SIZE), context)));
+    }
+
+    @Test
+    void givesOversizedQuestionItsOwnShard() throws IOException {
+        ConversionContext context = context();
+        context.getShardOptions().setMaxSize(100_000);
+        List<TaskXMLData> tasks = tasks(3, TASK_SIZE);
+        tasks.set(1, task("big", 200_000));
+
+        List<List<TaskXMLData>> shards = MoodleXMLConverter.planShards(tasks, context);
+
+        assertEquals(List.of(1, 1, 1), sizes(shards));
+        assertEquals("big", shards.get(1).get(0).getTaskXMLDatei().getParentFile().getName());
+        assertEquals(List.of(0), sizes(MoodleXMLConverter.planShards(List.of(), context)));
+    }
+
+    @Test
+    void deletesOutputOfEarlierRuns() throws Exception {
+        ConversionContext context = context();
+        List<TaskXMLData> tasks = new ArrayList<>();
+        for (String uuid : List.of("uuid-a", "uuid-b", "uuid-c")) {
+            Path file = Files.createDirectories(dir.resolve(uuid)).resolve("task.xml");
+            Files.writeString(file, TestTasks.taskXML(uuid), StandardCharsets.UTF_8);
+            TaskXMLData data = new TaskXMLData();
+            data.setTaskXMLDatei(file.toFile());
+            tasks.add(data);
+        }
+        new XMLProcessor(context).extractAll(tasks);
+        File outputFile = context.getOutputFile();
+
+        write(tasks, context);
+        assertEquals(List.of(outputFile), context.getMetrics().getOutputFiles());
+
+        context.getShardOptions().setMaxQuestions(1);
+        write(tasks, context);
+        assertFalse(outputFile.exists());
+        assertEquals(List.of(context.getShardFile(1), context.getShardFile(2), context.getShardFile(3)),
+                context.getMetrics().getOutputFiles());
+
+        context.getShardOptions().setMaxQuestions(2);
+        write(tasks, context);
+        assertEquals(List.of(context.getShardFile(1), context.getShardFile(2)), context.getMetrics().getOutputFiles());
+        assertFalse(context.getShardFile(3).exists());
+
+        context.getShardOptions().setMaxQuestions(0);
+        write(tasks, context);
+        assertTrue(outputFile.isFile());
+        assertFalse(context.getShardFile(1).exists() || context.getShardFile(2).exists());
+    }
+
+    private ConversionContext context() throws IOException {
+        return new ConversionContext("top/Test", Files.createDirectories(dir.resolve("out")).toString());
+    }
+
+    private static void write(List<TaskXMLData> tasks, ConversionContext context) throws Exception {
+        File written = new MoodleXMLConverter(tasks, context).createMoodleXML();
+        assertEquals(context.getMetrics().getOutputFiles().get(0), written);
+        for (File file : context.getMetrics().getOutputFiles()) {
+            assertTrue(file.isFile());
+        }
+    }
+
+    private List<TaskXMLData> tasks(int count, int size) throws IOException {
+        List<TaskXMLData> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tasks.add(task("task" + i, size));
+        }
+        return tasks;
+    }
+
+    /**
+     * Eine Aufgabe, deren task.xml die angegebene Groesse hat; gelesen wird sie fuer die Schaetzung nicht.
+     */
+    private TaskXMLData task(String name, int size) throws IOException {
+        Path file = Files.createDirectories(dir.resolve(name)).resolve("task.xml");
+        Files.write(file, new byte[size]);
+        TaskXMLData data = new TaskXMLData();
+        data.setTaskXMLDatei(file.toFile());
+        return data;
+    }
+
+    private static List<Integer> sizes(List<List<TaskXMLData>> shards) {
+        List<Integer> sizes = new ArrayList<>();
+        for (List<TaskXMLData> shard : shards) {
+            sizes.add(shard.size());
+        }
+        return sizes;
+    }
+}
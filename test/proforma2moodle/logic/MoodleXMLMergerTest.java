@@ -0,0 +1,215 @@
+package proforma2moodle.logic;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.DuplicateOptions;
+import proforma2moodle.Entity.TaskXMLData;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prueft das Aktualisieren einer bestehenden Moodle-XML: ersetzte, angefuegte, unveraenderte und doppelte Fragen
+ * mit und ohne Duplikat-Einstellung, die Kategorienfrage vor angefuegten Fragen, taskuuids in CDATA-Abschnitten
+ * und mit Umlauten sowie eine Datei mit interner DTD. Das Ergebnis wird jeweils vollstaendig geparst.
+ */
+class MoodleXMLMergerTest {
+
+    private static final String KEPT = "<question type=\"proforma\"><name><text>K</text></name>"
+            + "<taskuuid>uuid-k</taskuuid><taskfile encoding=\"base64\">PGE+PC9hPg==</taskfile></question>";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replacesInsertsKeepsAndRemovesQuestions() throws Exception {
+        ConversionContext context = context();
+        context.getDuplicateOptions().setPolicy(DuplicateOptions.Policy.EMIT_ONCE);
+        write(context, withDuplicate());
+
+        MoodleXMLMerger merger = merge(context, "uuid-a", "uuid-d");
+
+        assertEquals(1, merger.getReplacedCount());
+        assertEquals(1, merger.getInsertedCount());
+        assertEquals(2, merger.getKeptCount());
+        assertTrue(merger.toString().contains("1 removed"));
+        String merged = read(context);
+        assertTrue(merged.contains(KEPT));
+        assertTrue(!merged.contains("A alt") && !merged.contains("A doppelt"));
+        assertEquals(List.of("uuid-a", "uuid-k", "uuid-d"), taskuuids(context));
+        assertEquals(List.of("$course$/top/Test"), categories(context));
+    }
+
+    @Test
+    void replacesEveryOccurrenceWithoutDuplicatePolicy() throws Exception {
+        ConversionContext context = context();
+        context.getDuplicateOptions().setPolicy(DuplicateOptions.Policy.OFF);
+        write(context, withDuplicate());
+
+        MoodleXMLMerger merger = merge(context, "uuid-a", "uuid-d");
+
+        assertEquals(2, merger.getReplacedCount());
+        assertEquals(1, merger.getInsertedCount());
+        assertEquals(2, merger.getKeptCount());
+        assertTrue(merger.toString().contains("0 removed"));
+        String merged = read(context);
+        assertTrue(!merged.contains("A alt") && !merged.contains("A doppelt"));
+        assertEquals(List.of("uuid-a", "uuid-k", "uuid-a", "uuid-d"), taskuuids(context));
+    }
+
+    @Test
+    void writesCategoryBeforeInsertedQuestionsUnderOtherCategory() throws Exception {
+        ConversionContext context = context();
+        write(context, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<quiz>\n"
+                + "  <question type=\"category\"><category><text>$course$/top/Test</text></category></question>\n"
+                + "  " + question("A alt", "uuid-a") + "\n"
+                + "  <question type=\"category\"><category>\n    <text> $course$/top/Andere </text>\n  </category></question>\n"
+                + "  " + KEPT + "\n"
+                + "</quiz>\n");
+
+        merge(context, "uuid-a", "uuid-d");
+
+        assertEquals(List.of("uuid-a", "uuid-k", "uuid-d"), taskuuids(context));
+        assertEquals(List.of("$course$/top/Test", "$course$/top/Andere", "$course$/top/Test"), categories(context));
+        String merged = read(context);
+        assertTrue(merged.indexOf("uuid-k") < merged.lastIndexOf("$course$/top/Test"));
+
+        merge(context, "uuid-d", "uuid-e");
+
+        assertEquals(List.of("uuid-a", "uuid-k", "uuid-d", "uuid-e"), taskuuids(context));
+        assertEquals(List.of("$course$/top/Test", "$course$/top/Andere", "$course$/top/Test"), categories(context));
+    }
+
+    @Test
+    void readsCDataAndNonAsciiUuids() throws Exception {
+        ConversionContext context = context();
+        write(context, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<quiz>\n"
+                + "  " + question("B alt", "<![CDATA[uuid-]]]]><![CDATA[b]]>") + "\n"
+                + "  " + question("C alt", "äöü-&amp;-c") + "\n"
+                + "  " + KEPT + "\n"
+                + "</quiz>\n");
+
+        MoodleXMLMerger merger = merge(context, "uuid-]]b", "äöü-&-c");
+
+        assertEquals(2, merger.getReplacedCount());
+        assertEquals(0, merger.getInsertedCount());
+        assertEquals(1, merger.getKeptCount());
+        assertEquals(List.of("uuid-]]b", "äöü-&-c", "uuid-k"), taskuuids(context));
+    }
+
+    @Test
+    void skipsDoctypeWithInternalSubset() throws Exception {
+        ConversionContext context = context();
+        String doctype = "<!DOCTYPE quiz [\n"
+                + "  <!-- Aufbau: <quiz><question>...</question></quiz> -->\n"
+                + "  <!ENTITY hinweis \"a > b\">\n"
+                + "  <!ELEMENT quiz (question)*>\n"
+                + "  <!-- don't -->\n"
+                + "]>";
+        write(context, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + doctype + "\n<quiz>\n"
+                + "  " + question("A alt", "uuid-a") + "\n"
+                + "  " + KEPT + "\n"
+                + "</quiz>\n");
+
+        MoodleXMLMerger merger = merge(context, "uuid-a", "uuid-d");
+
+        assertEquals(1, merger.getReplacedCount());
+        assertEquals(1, merger.getInsertedCount());
+        assertEquals(1, merger.getKeptCount());
+        assertTrue(read(context).contains(doctype));
+        assertEquals(List.of("uuid-a", "uuid-k", "uuid-d"), taskuuids(context));
+    }
+
+    private ConversionContext context() {
+        return new ConversionContext("top/Test", dir.resolve("out").toString());
+    }
+
+    /**
+     * Eine Moodle-XML mit Kategorienfrage, in der die taskuuid uuid-a zweimal vorkommt.
+     */
+    private static String withDuplicate() {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<quiz>\n"
+                + "  <question type=\"category\"><category><text>$course$/top/Test</text></category></question>\n"
+                + "  " + question("A alt", "uuid-a") + "\n"
+                + "  " + KEPT + "\n"
+                + "  " + question("A doppelt", "uuid-a") + "\n"
+                + "</quiz>\n";
+    }
+
+    private static String question(String name, String taskuuid) {
+        return "<question type=\"proforma\"><name><text>" + name + "</text></name>"
+                + "<taskuuid>" + taskuuid + "</taskuuid></question>";
+    }
+
+    private static void write(ConversionContext context, String moodleXML) throws Exception {
+        Files.writeString(context.getOutputFile().toPath(), moodleXML, StandardCharsets.UTF_8);
+    }
+
+    private static String read(ConversionContext context) throws Exception {
+        return Files.readString(context.getOutputFile().toPath(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Extrahiert je uuid eine minimale Aufgabe und aktualisiert damit die Moodle-XML des Auftrags.
+     */
+    private MoodleXMLMerger merge(ConversionContext context, String... uuids) throws Exception {
+        List<TaskXMLData> tasks = new ArrayList<>();
+        for (int i = 0; i < uuids.length; i++) {
+            File taskXML = dir.resolve(i + "-task.xml").toFile();
+            Files.writeString(taskXML.toPath(), task(uuids[i]), StandardCharsets.UTF_8);
+            TaskXMLData data = new TaskXMLData();
+            data.setTaskXMLDatei(taskXML);
+            tasks.add(data);
+        }
+        new XMLProcessor(context).extractAll(tasks);
+        MoodleXMLMerger merger = new MoodleXMLMerger(context);
+        merger.merge(tasks);
+        return merger;
+    }
+
+    private static String task(String uuid) {
+        String escaped = uuid.replace("&", "&amp;").replace("\"", "&quot;");
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<task xmlns=\"urn:proforma:v2.1\" uuid=\"" + escaped + "\" lang=\"de\">"
+                + "<title>Aufgabe " + escaped + "</title><description>Beschreibung</description>"
+                + "<proglang version=\"17\">java</proglang><files/><model-solutions/>"
+                + "<tests><test id=\"t\"><title>Test</title><test-type>unittest</test-type>"
+                + "<test-configuration/></test></tests>"
+                + "<grading-hints><root function=\"sum\"><test-ref ref=\"t\" weight=\"1\"/></root></grading-hints>"
+                + "<meta-data/></task>";
+    }
+
+    /**
+     * Parst die Moodle-XML des Auftrags und liefert die taskuuids ihrer Fragen in Reihenfolge.
+     */
+    private static List<String> taskuuids(ConversionContext context) throws Exception {
+        return texts(context, "taskuuid");
+    }
+
+    /**
+     * Parst die Moodle-XML des Auftrags und liefert die Kategorien ihrer Kategorienfragen in Reihenfolge.
+     */
+    private static List<String> categories(ConversionContext context) throws Exception {
+        return texts(context, "category");
+    }
+
+    private static List<String> texts(ConversionContext context, String tagName) throws Exception {
+        Document document = XMLFactories.documentBuilder().parse(context.getOutputFile());
+        NodeList nodes = document.getElementsByTagName(tagName);
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            texts.add(nodes.item(i).getTextContent().trim());
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,102 @@
+package proforma2moodle.logic;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.xml.stream.XMLStreamWriter;
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Prueft die Dateinamen der wiederhergestellten Aufgabendateien und dass der Base64Encoder und der
+ * TaskFileExtractor zusammen jede Aufgabendatei Byte fuer Byte erhalten, auch ueber Blockgrenzen hinweg.
+ */
+class TaskFileExtractorTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void restrictsNamesAndNumbersCollisions() {
+        Set<String> names = new HashSet<>();
+
+        assertEquals("Aufgabe_1.zip", TaskFileExtractor.uniqueName("../../etc/Aufgabe 1.zip", names));
+        assertEquals("x.zip", TaskFileExtractor.uniqueName("C:\\tasks\\x.zip", names));
+        assertEquals("Aufgabe_1_2.zip", TaskFileExtractor.uniqueName("Aufgabe 1.zip", names));
+        assertEquals("AUFGABE_1_3.ZIP", TaskFileExtractor.uniqueName("AUFGABE_1.ZIP", names));
+        assertEquals("_bung_.zip", TaskFileExtractor.uniqueName("Übung?.zip", names));
+        assertEquals("hidden", TaskFileExtractor.uniqueName("..hidden", names));
+        assertEquals("hidden_2", TaskFileExtractor.uniqueName(".hidden", names));
+        assertEquals("task.zip", TaskFileExtractor.uniqueName(null, names));
+        assertEquals("task_2.zip", TaskFileExtractor.uniqueName("dir/", names));
+        assertEquals("task_3.zip", TaskFileExtractor.uniqueName("...", names));
+    }
+
+    @Test
+    void decodesWhatBase64EncoderWrote() throws Exception {
+        Random random = new Random(42);
+        int[] sizes = {0, 1, 2, 3 * 16 * 1024, 300_001};
+        List<byte[]> contents = new ArrayList<>();
+        List<File> taskFiles = new ArrayList<>();
+        for (int size : sizes) {
+            byte[] content = new byte[size];
+            random.nextBytes(content);
+            contents.add(content);
+            taskFiles.add(Files.write(dir.resolve("source-" + size + ".zip"), content).toFile());
+        }
+        File moodleXML = dir.resolve("moodle.xml").toFile();
+        try (Writer out = new OutputStreamWriter(Files.newOutputStream(moodleXML.toPath()), StandardCharsets.UTF_8)) {
+            XMLStreamWriter xml = XMLFactories.createWriter(out);
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeStartElement("quiz");
+            xml.writeStartElement("question");
+            xml.writeAttribute("type", "category");
+            xml.writeStartElement("taskfile");
+            xml.writeCharacters("AAAA");
+            xml.writeEndElement();
+            xml.writeEndElement();
+            for (int i = 0; i < taskFiles.size(); i++) {
+                xml.writeStartElement("question");
+                xml.writeAttribute("type", "moopt");
+                xml.writeStartElement("taskfile");
+                xml.writeAttribute("encoding", "base64");
+                xml.writeAttribute("name", "Aufgabe.zip");
+                if (i == 1) {
+                    xml.writeCharacters(Base64Encoder.encodeFileToBase64(taskFiles.get(i)));
+                } else {
+                    Base64Encoder.encodeFileToBase64(taskFiles.get(i), xml);
+                }
+                xml.writeEndElement();
+                xml.writeEndElement();
+            }
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        }
+
+        List<File> files = new TaskFileExtractor(dir.resolve("tasks").toFile(), 2).extract(moodleXML);
+
+        assertEquals(List.of("Aufgabe.zip", "Aufgabe_2.zip", "Aufgabe_3.zip", "Aufgabe_4.zip", "Aufgabe_5.zip"),
+                files.stream().map(File::getName).toList());
+        for (int i = 0; i < files.size(); i++) {
+            assertArrayEquals(contents.get(i), Files.readAllBytes(files.get(i).toPath()), files.get(i).getName());
+        }
+        try (Stream<Path> listing = Files.list(dir.resolve("tasks"))) {
+            assertFalse(listing.anyMatch(file -> file.toString().endsWith(".part")));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package proforma2moodle.logic;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.xml.sax.SAXException;
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.TaskXMLData;
+
+import java.io.IOException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prueft eine gueltige und eine ungueltige task.xml in den Modi report und fail. Beide verweisen per
+ * xsi:schemaLocation auf ein Schema im Netz; jeder Verbindungsversuch wird ueber den ProxySelector bemerkt.
+ */
+class TaskValidatorTest {
+
+    private static final String UUID = "3f2504e0-4f89-11d3-9a0c-0305e82c3301";
+
+    @TempDir
+    Path dir;
+
+    private ProxySelector defaultProxySelector;
+    private final List<URI> connections = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void recordConnections() {
+        defaultProxySelector = ProxySelector.getDefault();
+        ProxySelector.setDefault(new ProxySelector() {
+            @Override
+            public List<Proxy> select(URI uri) {
+                connections.add(uri);
+                throw new IllegalStateException("no network access expected: " + uri);
+            }
+
+            @Override
+            public void connectFailed(URI uri, SocketAddress address, IOException e) {
+            }
+        });
+    }
+
+    @AfterEach
+    void restoreProxySelector() {
+        ProxySelector.setDefault(defaultProxySelector);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = ConversionContext.ValidationMode.class, names = {"REPORT", "FAIL_FAST"})
+    void admitsValidTask(ConversionContext.ValidationMode mode) throws Exception {
+        ConversionContext context = context(mode);
+        TaskXMLData valid = task("valid.xml", validTaskXML());
+
+        assertTrue(TaskValidator.forContext(context).admit(valid));
+
+        assertFalse(valid.isInvalid());
+        assertTrue(context.getMetrics().getInvalidTasks().isEmpty());
+        assertTrue(connections.isEmpty(), connections.toString());
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = ConversionContext.ValidationMode.class, names = {"REPORT", "FAIL_FAST"})
+    void reportsOrRejectsInvalidTask(ConversionContext.ValidationMode mode) throws Exception {
+        ConversionContext context = context(mode);
+        String taskXML = validTaskXML()
+                .replace("<proglang version=\"17\">java</proglang>", "<unknown/>")
+                .replace("<test-type>unittest</test-type>", "");
+        TaskXMLData invalid = task("invalid.xml", taskXML);
+        TaskValidator validator = TaskValidator.forContext(context);
+
+        if (mode == ConversionContext.ValidationMode.FAIL_FAST) {
+            SAXException e = assertThrows(SAXException.class, () -> validator.admit(invalid));
+            assertTrue(e.getMessage().contains("invalid.xml"), e.getMessage());
+            assertEquals(1, invalid.getValidationErrors().size());
+        } else {
+            assertFalse(validator.admit(invalid));
+            assertTrue(invalid.getValidationErrors().size() > 1, invalid.getValidationErrors().toString());
+        }
+
+        assertTrue(invalid.isInvalid());
+        assertTrue(invalid.getValidationErrors().get(0).startsWith("line 1, column "), invalid.getValidationErrors().get(0));
+        assertEquals(1, context.getMetrics().getInvalidTasks().size());
+        assertTrue(connections.isEmpty(), connections.toString());
+    }
+
+    private static ConversionContext context(ConversionContext.ValidationMode mode) {
+        ConversionContext context = new ConversionContext();
+        context.setValidationMode(mode);
+        return context;
+    }
+
+    /**
+     * Die minimale Aufgabe aus TestTasks mit einer Musterloesung, wie sie das Schema verlangt. Das task-Element
+     * verweist per xsi:schemaLocation auf ein Schema, das nur ueber das Netz erreichbar waere.
+     */
+    private static String validTaskXML() {
+        return TestTasks.taskXML(UUID)
+                .replace("<task xmlns=\"urn:proforma:v2.1\"", "<task xmlns=\"urn:proforma:v2.1\""
+                        + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+                        + " xsi:schemaLocation=\"urn:proforma:v2.1 http://example.org/proforma/v2.1/taskxml.xsd\"")
+                .replace("<model-solutions/>", "<model-solutions><model-solution id=\"m\"><filerefs/></model-solution></model-solutions>");
+    }
+
+    private TaskXMLData task(String name, String taskXML) throws IOException {
+        Path file = dir.resolve(name);
+        Files.writeString(file, taskXML, StandardCharsets.UTF_8);
+        TaskXMLData data = new TaskXMLData();
+        data.setTaskXMLDatei(file.toFile());
+        return data;
+    }
+}
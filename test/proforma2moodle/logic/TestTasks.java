@@ -0,0 +1,93 @@
+package proforma2moodle.logic;
+
+import proforma2moodle.Entity.TaskXMLData;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Erzeugt kleine Aufgaben und ZIP-Archive fuer die Tests und listet die Felder einer Aufgabe zum Vergleichen.
+ */
+final class TestTasks {
+
+    private TestTasks() {
+    }
+
+    /**
+     * @param uuid Die uuid der Aufgabe, unmaskiert.
+     * @return Eine minimale, gueltige task.xml im Namensraum von ProFormA 2.1.
+     */
+    static String taskXML(String uuid) {
+        String escaped = uuid.replace("&", "&amp;").replace("\"", "&quot;");
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<task xmlns=\"urn:proforma:v2.1\" uuid=\"" + escaped + "\" lang=\"de\">"
+                + "<title>Aufgabe " + escaped + "</title><description>Beschreibung</description>"
+                + "<proglang version=\"17\">java</proglang><files/><model-solutions/>"
+                + "<tests><test id=\"t\"><title>Test</title><test-type>unittest</test-type>"
+                + "<test-configuration/></test></tests>"
+                + "<grading-hints><root function=\"sum\"><test-ref ref=\"t\" weight=\"1\"/></root></grading-hints>"
+                + "<meta-data/></task>";
+    }
+
+    /**
+     * Schreibt eine Aufgaben-ZIP-Datei mit einer task.xml.
+     */
+    static Path writeTaskZip(Path file, String uuid) throws IOException {
+        return writeZip(file, Map.of("task.xml", taskXML(uuid).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Schreibt ein ZIP-Archiv mit den angegebenen Eintraegen.
+     *
+     * @param file Die ZIP-Datei.
+     * @param entries Name und Inhalt der Eintraege.
+     * @return Die ZIP-Datei.
+     */
+    static Path writeZip(Path file, Map<String, byte[]> entries) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file); ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * @return Alle Werte, die beim Extrahieren gesetzt und im Cache gespeichert werden, in fester Reihenfolge.
+     */
+    static List<String> fields(TaskXMLData data) {
+        List<String> fields = new ArrayList<>(List.of(
+                "questionName=" + data.getQuestionName(),
+                "questionText=" + data.getQuestionText(),
+                "generalFeedback=" + data.getGeneralFeedback(),
+                "internalDescription=" + data.getInternalDescription(),
+                "graderName=" + data.getGraderName(),
+                "graderVersion=" + data.getGraderVersion(),
+                "taskuuid=" + data.getTaskuuid(),
+                "defaultgrade=" + data.getDefaultgrade(),
+                "penalty=" + data.getPenalty(),
+                "answer=" + data.getAnswer(),
+                "enableFileSubmissions=" + data.getEnableFileSubmissions(),
+                "enableFreeTextSubmissions=" + data.getEnableFreeTextSubmissions(),
+                "ftsNumInitialFields=" + data.getFtsNumInitialFields(),
+                "ftsMaxnumFields=" + data.getFtsMaxnumFields(),
+                "ftsAutoGenerateFileNames=" + data.getFtsAutoGenerateFileNames(),
+                "ftsStandardLang=" + data.getFtsStandardLang()));
+        for (TaskXMLData.FreeInputField field : data.ftsList) {
+            fields.add("fts=" + field.getNameSettingsForFreeTextInput() + "|" + field.getFreeTextInputFieldName()
+                    + "|" + field.getFtsOverWrittenLanguage() + "|" + field.getFtsInitialDisplayRows()
+                    + "|" + field.getFreeTextInputFieldTemplate());
+        }
+        return fields;
+    }
+}
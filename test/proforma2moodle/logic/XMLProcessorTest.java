@@ -0,0 +1,137 @@
+package proforma2moodle.logic;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import proforma2moodle.Entity.ConversionContext;
+import proforma2moodle.Entity.TaskXMLData;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prueft, dass der StAX-Extraktor und der DOM-Pfad aus derselben task.xml dieselben Daten lesen: mit Praefix,
+ * mit Default-Namensraum, mit Namensraeumen, die erst unterhalb des task-Elements deklariert sind, mit
+ * CDATA-Abschnitten mit Leerzeilen und Umlauten, ohne general-feedback und fuer ProFormA 2.0 und 2.1.
+ */
+class XMLProcessorTest {
+
+    private static final String V20 = "urn:proforma:v2.0";
+    private static final String V21 = "urn:proforma:v2.1";
+    private static final String LMS = "urn:proforma:lmsinputfields:v0.1";
+    private static final String FEEDBACK = "<![CDATA[<p>Hinweis zur Lösung</p>\n\n\n<p>Größe prüfen: a < b & c</p>\n]]>";
+
+    @TempDir
+    Path dir;
+
+    static Stream<Arguments> tasks() {
+        return Stream.of(
+                Arguments.of("prefixed", "<p:task xmlns:p=\"" + V21 + "\" xmlns:l=\"" + LMS + "\" uuid=\"uuid-ä\">"
+                        + body("p:", "l:", FEEDBACK) + "</p:task>"),
+                Arguments.of("default namespace", "<task xmlns=\"" + V21 + "\" xmlns:l=\"" + LMS + "\" uuid=\"uuid-ä\">"
+                        + body("", "l:", FEEDBACK) + "</task>"),
+                Arguments.of("namespaces below root", "<p:task xmlns:p=\"" + V21 + "\" uuid=\"uuid-ä\">"
+                        + "<q:title xmlns:q=\"" + V21 + "\">Übung: Größe ändern</q:title>"
+                        + "<description xmlns=\"" + V21 + "\">" + description() + "</description>"
+                        + "<p:proglang version=\"17\">java</p:proglang>"
+                        + "<f:files xmlns:f=\"" + V21 + "\">" + files("f:", FEEDBACK) + "</f:files>"
+                        + tests("p:") + "<p:meta-data>" + inputFields("", " xmlns=\"" + LMS + "\"") + "</p:meta-data>"
+                        + "</p:task>"),
+                Arguments.of("without general feedback", "<p:task xmlns:p=\"" + V21 + "\" xmlns:l=\"" + LMS + "\" uuid=\"uuid-ä\">"
+                        + body("p:", "l:", null) + "</p:task>"),
+                Arguments.of("ProFormA 2.0", "<p:task xmlns:p=\"" + V20 + "\" xmlns:l=\"" + LMS + "\" uuid=\"uuid-ä\">"
+                        + body("p:", "l:", FEEDBACK) + "</p:task>"));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("tasks")
+    void streamingAndDomExtractionAgree(String name, String taskXML) throws Exception {
+        File file = dir.resolve("task.xml").toFile();
+        Files.writeString(file.toPath(), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + taskXML, StandardCharsets.UTF_8);
+        ConversionContext context = new ConversionContext();
+        context.setStreamingExtraction(true);
+        XMLProcessor processor = new XMLProcessor(context);
+
+        TaskXMLData streamed = task(file);
+        processor.extractTask(streamed);
+        TaskXMLData parsed = task(file);
+        processor.extractTaskWithDOM(parsed);
+
+        assertTrue(context.getMetrics().getDomFallbacks().isEmpty(), name + " fell back to DOM");
+        assertEquals(TestTasks.fields(parsed), TestTasks.fields(streamed));
+        assertEquals("Übung: Größe ändern", streamed.getQuestionName());
+        assertEquals("uuid-ä", streamed.getTaskuuid());
+        assertEquals("Graja", streamed.getGraderName());
+        assertEquals("8.0", streamed.getDefaultgrade());
+        assertEquals(2, streamed.ftsList.size());
+        assertTrue(streamed.getQuestionText().contains("Zweite Zeile mit äöüß"));
+        assertEquals(taskXML.contains("general-feedback"), streamed.getGeneralFeedback().contains("Größe prüfen: a < b & c"));
+    }
+
+    private static TaskXMLData task(File file) {
+        TaskXMLData data = new TaskXMLData();
+        data.setTaskXMLDatei(file);
+        return data;
+    }
+
+    /**
+     * Der Inhalt des task-Elements mit dem Praefix p fuer ProFormA und l fuer die LMS-Eingabefelder.
+     */
+    private static String body(String p, String l, String generalFeedback) {
+        return "<" + p + "title>Übung: Größe ändern</" + p + "title>"
+                + "<" + p + "description>" + description() + "</" + p + "description>"
+                + "<" + p + "internal-description>Intern: Lösung mit Schleife</" + p + "internal-description>"
+                + "<" + p + "proglang version=\"17\">java</" + p + "proglang>"
+                + "<" + p + "files>" + files(p, generalFeedback) + "</" + p + "files>"
+                + tests(p)
+                + "<" + p + "meta-data>" + inputFields(l, "") + "</" + p + "meta-data>";
+    }
+
+    private static String description() {
+        return "<![CDATA[<p>Erste Zeile</p>\n\n\n<p>Zweite Zeile mit äöüß</p>\n]]>";
+    }
+
+    private static String files(String p, String generalFeedback) {
+        String files = "<" + p + "file id=\"template\" used-by-grader=\"false\" visible=\"yes\" usage-by-lms=\"edit\">"
+                + "<" + p + "embedded-txt-file filename=\"Lösung.java\">class Loesung {}</" + p + "embedded-txt-file>"
+                + "</" + p + "file>"
+                + "<" + p + "file id=\"notes\" used-by-grader=\"false\" visible=\"yes\">"
+                + "<" + p + "embedded-txt-file filename=\"notes.txt\"/></" + p + "file>";
+        if (generalFeedback != null) {
+            files += "<" + p + "file id=\"general-feedback\" used-by-grader=\"false\" visible=\"delayed\">"
+                    + "<" + p + "embedded-txt-file filename=\"general-feedback\">" + generalFeedback
+                    + "</" + p + "embedded-txt-file></" + p + "file>";
+        }
+        return files;
+    }
+
+    /**
+     * Zwei Tests und grading-hints mit einem combine; die Punktzahl ist 2 + 2 * 3 = 8.
+     */
+    private static String tests(String p) {
+        return "<" + p + "model-solutions/><" + p + "tests>"
+                + "<" + p + "test id=\"t1\"><" + p + "title>Test 1</" + p + "title><" + p + "test-type>unittest</" + p + "test-type>"
+                + "<" + p + "test-configuration/></" + p + "test>"
+                + "<" + p + "test id=\"t2\"><" + p + "title>Test 2</" + p + "title><" + p + "test-type>unittest</" + p + "test-type>"
+                + "<" + p + "test-configuration/></" + p + "test>"
+                + "</" + p + "tests><" + p + "grading-hints>"
+                + "<" + p + "root function=\"sum\"><" + p + "test-ref ref=\"t1\" weight=\"2\"/>"
+                + "<" + p + "combine-ref ref=\"c\" weight=\"2\"/></" + p + "root>"
+                + "<" + p + "combine id=\"c\" function=\"max\"><" + p + "test-ref ref=\"t2\" weight=\"3\"/></" + p + "combine>"
+                + "</" + p + "grading-hints>";
+    }
+
+    private static String inputFields(String l, String declaration) {
+        return "<" + l + "lms-input-fields" + declaration + ">"
+                + "<" + l + "textfield file-ref=\"template\" fixedfilename=\"true\" proglang=\"java\"/>"
+                + "<" + l + "textfield file-ref=\"notes\" fixedfilename=\"false\" proglang=\"txt\"/>"
+                + "</" + l + "lms-input-fields>";
+    }
+}